@@ -0,0 +1,296 @@
+package lokad.forecasting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build-time generator of {@link XmlCodecs}, the encoders and decoders of the
+ * documents exchanged with the Forecasting API.
+ * <p>
+ * The DTO classes are inspected once, here, and a plain Java class is
+ * emitted, with a <code>Write</code> and a <code>Read</code> method per DTO
+ * and an <code>Encode</code> and a <code>Decode</code> method per document
+ * root; at run time, no reflection is involved. The mapping reproduces the
+ * XStream configuration of {@link ForecastingApi}: an element per non-null
+ * field, in declaration order, named after the field; array items named after
+ * their class, <code>string</code> for strings, <code>null</code> for null
+ * items.
+ * </p>
+ * <p>
+ * Run it from the <code>java</code> directory, with the main classes on the
+ * class path, whenever a DTO changes:
+ * <code>java lokad.forecasting.CodecGenerator src/main/java/lokad/forecasting/XmlCodecs.java</code>
+ * </p>
+ */
+public class CodecGenerator {
+
+	/**
+	 * Document roots, as aliased in {@link ForecastingApi}.
+	 */
+	private final static Map<String, Class<?>> Roots = new LinkedHashMap<String, Class<?>>();
+
+	static {
+		Roots.put("ErrorCode", String.class);
+		Roots.put("Dataset", Dataset.class);
+		Roots.put("DatasetCollection", DatasetCollection.class);
+		Roots.put("TimeSeries", TimeSerie[].class);
+		Roots.put("TimeSerieCollection", TimeSerieCollection.class);
+		Roots.put("ForecastStatus", ForecastStatus.class);
+		Roots.put("ForecastCollection", ForecastCollection.class);
+	}
+
+	private final List<Class<?>> _types = new ArrayList<Class<?>>();
+	private final List<Class<?>> _arrayTypes = new ArrayList<Class<?>>();
+	private PrintWriter _out;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			throw new IllegalArgumentException("Usage: CodecGenerator <XmlCodecs.java>");
+		}
+		new CodecGenerator().generate(new File(args[0]));
+	}
+
+	private void generate(File file) throws IOException {
+		for (Class<?> root : Roots.values()) {
+			collect(root);
+		}
+
+		_out = new PrintWriter(file, StandardCharsets.US_ASCII.name());
+		try {
+			emitHeader();
+			for (Map.Entry<String, Class<?>> root : Roots.entrySet()) {
+				emitRoot(root.getKey(), root.getValue());
+			}
+			for (Class<?> type : _types) {
+				emitWrite(type);
+				emitRead(type);
+			}
+			for (Class<?> type : _arrayTypes) {
+				emitWriteArray(type);
+				emitReadArray(type);
+			}
+			_out.println("}");
+		} finally {
+			_out.close();
+		}
+	}
+
+	/**
+	 * Registers the DTO types reachable from a type.
+	 */
+	private void collect(Class<?> type) {
+		if (type.isArray()) {
+			Class<?> component = type.getComponentType();
+			if (!isDto(component)) {
+				return;
+			}
+			if (!_arrayTypes.contains(component)) {
+				_arrayTypes.add(component);
+			}
+			collect(component);
+			return;
+		}
+		if (!isDto(type) || _types.contains(type)) {
+			return;
+		}
+		_types.add(type);
+		for (Field field : fields(type)) {
+			Class<?> fieldType = field.getType();
+			if (!isDto(fieldType) && !(fieldType.isArray() && isDto(fieldType.getComponentType()))
+					&& !isScalar(fieldType) && fieldType != String[].class) {
+				throw new IllegalStateException(String.format("Unsupported field %s.%s of type %s.", type
+						.getSimpleName(), field.getName(), fieldType.getName()));
+			}
+			collect(fieldType);
+		}
+	}
+
+	private static boolean isDto(Class<?> type) {
+		return !type.isArray() && !type.isPrimitive() && type.getPackage() == CodecGenerator.class.getPackage()
+				&& !isScalar(type);
+	}
+
+	private static boolean isScalar(Class<?> type) {
+		return type == String.class || type == int.class || type == double.class || type == boolean.class
+				|| type == Calendar.class;
+	}
+
+	/**
+	 * Serialized fields, in declaration order, as XStream.
+	 */
+	private static List<Field> fields(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Field field : type.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	private static String suffix(Class<?> type) {
+		return type.getSimpleName();
+	}
+
+	private void emitHeader() {
+		_out.println("package lokad.forecasting;");
+		_out.println();
+		_out.println("import java.io.IOException;");
+		_out.println("import java.io.InputStream;");
+		_out.println("import java.io.OutputStream;");
+		_out.println("import java.util.ArrayList;");
+		_out.println("import java.util.List;");
+		_out.println();
+		_out.println("/**");
+		_out.println(" * Encoders and decoders of the documents exchanged with the Forecasting API,");
+		_out.println(" * producing the same XML as XStream without reflection.");
+		_out.println(" * <p>");
+		_out.println(" * Generated by {@link CodecGenerator}, do not edit.");
+		_out.println(" * </p>");
+		_out.println(" */");
+		_out.println("final class XmlCodecs {");
+		_out.println();
+		_out.println("\tprivate XmlCodecs() {");
+		_out.println("\t}");
+	}
+
+	private void emitRoot(String name, Class<?> type) {
+		String typeName = type.getSimpleName();
+		_out.println();
+		_out.println(String.format("\tstatic void Encode%s(%s value, OutputStream outputStream) throws IOException {",
+				name, typeName));
+		_out.println("\t\tXmlCodecWriter writer = new XmlCodecWriter(outputStream);");
+		_out.println("\t\t" + writeStatement(type, "\"" + name + "\"", "value"));
+		_out.println("\t}");
+		_out.println();
+		_out.println(String.format("\tstatic %s Decode%s(InputStream inputStream) throws IOException {", typeName,
+				name));
+		_out.println(String.format("\t\tXmlCodecReader reader = XmlCodecReader.Open(inputStream, \"%s\");", name));
+		_out.println("\t\treturn " + readExpression(type) + ";");
+		_out.println("\t}");
+	}
+
+	private static String writeStatement(Class<?> type, String name, String value) {
+		if (type == String.class) {
+			return String.format("writer.WriteString(%s, %s);", name, value);
+		} else if (type == int.class) {
+			return String.format("writer.WriteInt(%s, %s);", name, value);
+		} else if (type == double.class) {
+			return String.format("writer.WriteDouble(%s, %s);", name, value);
+		} else if (type == boolean.class) {
+			return String.format("writer.WriteBoolean(%s, %s);", name, value);
+		} else if (type == Calendar.class) {
+			return String.format("writer.WriteCalendar(%s, %s);", name, value);
+		} else if (type == String[].class) {
+			return String.format("writer.WriteStrings(%s, %s);", name, value);
+		} else if (type.isArray()) {
+			return String.format("Write%sArray(writer, %s, %s);", suffix(type.getComponentType()), name, value);
+		}
+		return String.format("Write%s(writer, %s, %s);", suffix(type), name, value);
+	}
+
+	private static String readExpression(Class<?> type) {
+		if (type == String.class) {
+			return "reader.ReadString()";
+		} else if (type == int.class) {
+			return "reader.ReadInt()";
+		} else if (type == double.class) {
+			return "reader.ReadDouble()";
+		} else if (type == boolean.class) {
+			return "reader.ReadBoolean()";
+		} else if (type == Calendar.class) {
+			return "reader.ReadCalendar()";
+		} else if (type == String[].class) {
+			return "reader.ReadStrings()";
+		} else if (type.isArray()) {
+			return String.format("Read%sArray(reader)", suffix(type.getComponentType()));
+		}
+		return String.format("Read%s(reader)", suffix(type));
+	}
+
+	private void emitWrite(Class<?> type) {
+		_out.println();
+		_out.println(String.format(
+				"\tprivate static void Write%s(XmlCodecWriter writer, String name, %s value) throws IOException {",
+				suffix(type), type.getSimpleName()));
+		_out.println("\t\twriter.StartNode(name);");
+		for (Field field : fields(type)) {
+			String statement = writeStatement(field.getType(), "\"" + field.getName() + "\"", "value."
+					+ field.getName());
+			if (field.getType().isPrimitive()) {
+				_out.println("\t\t" + statement);
+			} else {
+				_out.println(String.format("\t\tif (null != value.%s) {", field.getName()));
+				_out.println("\t\t\t" + statement);
+				_out.println("\t\t}");
+			}
+		}
+		_out.println("\t\twriter.EndNode();");
+		_out.println("\t}");
+	}
+
+	private void emitRead(Class<?> type) {
+		_out.println();
+		_out.println(String.format("\tprivate static %s Read%s(XmlCodecReader reader) throws IOException {", type
+				.getSimpleName(), suffix(type)));
+		_out.println(String.format("\t\t%s value = new %s();", type.getSimpleName(), type.getSimpleName()));
+		_out.println("\t\twhile (reader.NextElement()) {");
+		_out.println("\t\t\tswitch (reader.GetName()) {");
+		for (Field field : fields(type)) {
+			_out.println(String.format("\t\t\tcase \"%s\":", field.getName()));
+			_out.println(String.format("\t\t\t\tvalue.%s = %s;", field.getName(), readExpression(field.getType())));
+			_out.println("\t\t\t\tbreak;");
+		}
+		_out.println("\t\t\tdefault:");
+		_out.println("\t\t\t\treader.Skip();");
+		_out.println("\t\t\t}");
+		_out.println("\t\t}");
+		_out.println("\t\treturn value;");
+		_out.println("\t}");
+	}
+
+	private void emitWriteArray(Class<?> type) {
+		String typeName = type.getSimpleName();
+		_out.println();
+		_out.println(String.format(
+				"\tprivate static void Write%sArray(XmlCodecWriter writer, String name, %s[] values) throws IOException {",
+				suffix(type), typeName));
+		_out.println("\t\twriter.StartNode(name);");
+		_out.println(String.format("\t\tfor (%s item : values) {", typeName));
+		_out.println("\t\t\tif (null != item) {");
+		_out.println(String.format("\t\t\t\tWrite%s(writer, \"%s\", item);", suffix(type), typeName));
+		_out.println("\t\t\t} else {");
+		_out.println("\t\t\t\twriter.WriteNull();");
+		_out.println("\t\t\t}");
+		_out.println("\t\t}");
+		_out.println("\t\twriter.EndNode();");
+		_out.println("\t}");
+	}
+
+	private void emitReadArray(Class<?> type) {
+		String typeName = type.getSimpleName();
+		_out.println();
+		_out.println(String.format("\tprivate static %s[] Read%sArray(XmlCodecReader reader) throws IOException {",
+				typeName, suffix(type)));
+		_out.println(String.format("\t\tList<%s> values = new ArrayList<%s>();", typeName, typeName));
+		_out.println("\t\twhile (reader.NextElement()) {");
+		_out.println("\t\t\tif (reader.IsNull()) {");
+		_out.println("\t\t\t\treader.Skip();");
+		_out.println("\t\t\t\tvalues.add(null);");
+		_out.println("\t\t\t} else {");
+		_out.println(String.format("\t\t\t\tvalues.add(Read%s(reader));", suffix(type)));
+		_out.println("\t\t\t}");
+		_out.println("\t\t}");
+		_out.println(String.format("\t\treturn values.toArray(new %s[values.size()]);", typeName));
+		_out.println("\t}");
+	}
+}
@@ -0,0 +1,117 @@
+package lokad.forecasting;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+/**
+ * Synthetic inputs shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	static TimeSerie[] createSeries(int timeSeriesCount, int timeSerieSize) {
+		Random random = new Random(42);
+		TimeSerie[] timeSeries = new TimeSerie[timeSeriesCount];
+		for (int ti = 0; ti < timeSeries.length; ti++) {
+			TimeSerie t = new TimeSerie();
+			timeSeries[ti] = t;
+			t.Name = "Serie" + ti;
+			t.Tags = new String[] { "Tag0", "Tag1", "Tag2" };
+			t.Events = new EventValue[1];
+			t.Events[0] = new EventValue();
+			t.Events[0].Tags = new String[] { "Promo" };
+			t.Events[0].Time = new GregorianCalendar(2010, 0, 1);
+			t.Events[0].KnownSince = new GregorianCalendar(2009, 11, 1);
+			t.Values = new TimeValue[timeSerieSize];
+			for (int i = 0; i < t.Values.length; i++) {
+				t.Values[i] = new TimeValue();
+				t.Values[i].Time = new GregorianCalendar(2000, 0, 1);
+				t.Values[i].Time.add(Calendar.HOUR, i);
+				t.Values[i].Value = random.nextGaussian();
+			}
+		}
+		return timeSeries;
+	}
+
+	static ForecastCollection createForecasts(int forecastCount, int horizon) {
+		ForecastCollection collection = new ForecastCollection();
+		collection.Series = new ForecastSerie[forecastCount];
+		for (int f = 0; f < forecastCount; f++) {
+			ForecastSerie forecast = new ForecastSerie();
+			forecast.Name = "Serie" + f;
+			forecast.Values = new ForecastValue[horizon];
+			for (int i = 0; i < horizon; i++) {
+				forecast.Values[i] = new ForecastValue();
+				forecast.Values[i].Time = new GregorianCalendar(2011, 0, 1);
+				forecast.Values[i].Time.add(Calendar.DATE, 7 * i);
+				forecast.Values[i].Value = f + i;
+				forecast.Values[i].Accuracy = 0.5;
+			}
+			collection.Series[f] = forecast;
+		}
+		return collection;
+	}
+
+	static String[] createSerieNames(int count) {
+		String[] serieNames = new String[count];
+		for (int i = 0; i < count; i++) {
+			serieNames[i] = "Serie" + i;
+		}
+		return serieNames;
+	}
+
+	/**
+	 * Accepts every call without any network, so that the benchmarks measure
+	 * the client side only.
+	 */
+	static class NullForecastingApi implements IForecastingApi {
+
+		@Override
+		public String InsertDataset(String identity, Dataset dataset) {
+			return null;
+		}
+
+		@Override
+		public DatasetCollection ListDatasets(String identity, String continuationToken) {
+			return new DatasetCollection();
+		}
+
+		@Override
+		public String DeleteDataset(String identity, String datasetName) {
+			return null;
+		}
+
+		@Override
+		public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+				Boolean enableMerge) {
+			return null;
+		}
+
+		@Override
+		public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken) {
+			return new TimeSerieCollection();
+		}
+
+		@Override
+		public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) {
+			return null;
+		}
+
+		@Override
+		public ForecastStatus GetForecastStatus(String identity, String datasetName) {
+			ForecastStatus status = new ForecastStatus();
+			status.ForecastsReady = true;
+			return status;
+		}
+
+		@Override
+		public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames) {
+			ForecastCollection collection = new ForecastCollection();
+			collection.Series = new ForecastSerie[0];
+			return collection;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package lokad.forecasting;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that each benchmark reports
+ * its allocation rate (<code>gc.alloc.rate.norm</code>) next to its
+ * throughput.
+ * <p>
+ * An optional argument restricts the run to the benchmarks matching the
+ * regex, e.g. <code>Validation</code>.
+ * </p>
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : BenchmarkMain.class.getPackage().getName() + ".*Benchmark")
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,99 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk upload and download against {@link LocalForecastingServer} with a
+ * per-request latency, running the slices sequentially, on a fixed platform
+ * pool, or on virtual threads (a cached platform pool before Java 21).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+	@Param({ "sequential", "platform", "virtual" })
+	public String mode;
+
+	@Param({ "16", "256" })
+	public int maxConcurrency;
+
+	@Param({ "20" })
+	public long latencyMillis;
+
+	@Param({ "5000" })
+	public int seriesCount;
+
+	private LocalForecastingServer server;
+	private ExecutorService executor;
+	private ForecastingClient client;
+	private TimeSerie[] timeSeries;
+	private String[] serieNames;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// the server must not be the bottleneck
+		server = new LocalForecastingServer(0, 512);
+		server.start();
+		client = new ForecastingClient("key", server.getEndpoint());
+		client._seriesSliceLength = 10;
+
+		if (mode.equals("platform")) {
+			executor = Executors.newFixedThreadPool(maxConcurrency);
+		} else if (mode.equals("virtual")) {
+			executor = VirtualThreads.NewExecutor();
+		}
+		client.SetExecutor(executor, maxConcurrency);
+
+		Dataset dataset = new Dataset();
+		dataset.Name = "benchmark";
+		dataset.Period = PeriodCodes.Week;
+		dataset.Horizon = 4;
+		client.InsertDataset(dataset);
+
+		timeSeries = BenchmarkData.createSeries(seriesCount, 20);
+		serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			serieNames[i] = timeSeries[i].Name;
+		}
+		server.setNetworkProfile(latencyMillis, 0, 0, 0, 0, 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop();
+		if (null != executor) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public void upsertTimeSeries() throws IOException {
+		client.UpsertTimeSeries("benchmark", timeSeries, false);
+	}
+
+	@Benchmark
+	public ForecastSerie[] getForecasts() throws IOException, InterruptedException {
+		return client.GetForecasts("benchmark", serieNames);
+	}
+}
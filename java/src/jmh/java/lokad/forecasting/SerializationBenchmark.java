@@ -0,0 +1,109 @@
+package lokad.forecasting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
+/**
+ * XStream marshalling of upserted series and unmarshalling of forecasts,
+ * configured as {@link ForecastingApi} used to be, against the generated
+ * {@link XmlCodecs} producing the same documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({ "10", "100" })
+	public int seriesCount;
+
+	@Param({ "100", "1000" })
+	public int serieLength;
+
+	private TimeSerie[] timeSeries;
+	private byte[] forecasts;
+	private String date;
+
+	private XStream timeSeriesXStream;
+	private XStream forecastsXStream;
+	private XStream dateXStream;
+
+	@Setup
+	public void setUp() {
+		timeSeries = BenchmarkData.createSeries(seriesCount, serieLength);
+
+		timeSeriesXStream = new XStream(new DomDriver());
+		timeSeriesXStream.alias("TimeSeries", TimeSerie[].class);
+		timeSeriesXStream.alias("TimeSerie", TimeSerie.class);
+		timeSeriesXStream.alias("TimeValue", TimeValue.class);
+		timeSeriesXStream.alias("EventValue", EventValue.class);
+		timeSeriesXStream.registerConverter(new DateConverter());
+
+		forecastsXStream = new XStream(new DomDriver());
+		forecastsXStream.alias("ForecastCollection", ForecastCollection.class);
+		forecastsXStream.alias("ForecastSerie", ForecastSerie.class);
+		forecastsXStream.alias("ForecastValue", ForecastValue.class);
+		forecastsXStream.registerConverter(new DateConverter());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		forecastsXStream.toXML(BenchmarkData.createForecasts(seriesCount, serieLength / 10), output);
+		forecasts = output.toByteArray();
+
+		dateXStream = new XStream(new DomDriver());
+		dateXStream.alias("Time", GregorianCalendar.class);
+		dateXStream.registerConverter(new DateConverter());
+		date = dateXStream.toXML(new GregorianCalendar(2010, 9, 13, 23, 11));
+	}
+
+	@Benchmark
+	public byte[] marshalTimeSeries() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		timeSeriesXStream.toXML(timeSeries, output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public Object unmarshalForecasts() {
+		return forecastsXStream.fromXML(new ByteArrayInputStream(forecasts));
+	}
+
+	@Benchmark
+	public byte[] encodeTimeSeries() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XmlCodecs.EncodeTimeSeries(timeSeries, output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public Object decodeForecasts() throws IOException {
+		return XmlCodecs.DecodeForecastCollection(new ByteArrayInputStream(forecasts));
+	}
+
+	/**
+	 * Round trip of a single date through {@link DateConverter}.
+	 */
+	@Benchmark
+	public Object dateConverterRoundTrip() {
+		return dateXStream.fromXML(dateXStream.toXML(dateXStream.fromXML(date)));
+	}
+}
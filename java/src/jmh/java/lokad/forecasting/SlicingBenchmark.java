@@ -0,0 +1,55 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Slicing of the upserted series, alone and along with the validation done
+ * by <code>UpsertTimeSeriesInternal</code> (the API being a no-op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SlicingBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int seriesCount;
+
+	@Param({ "10", "2000" })
+	public int serieLength;
+
+	private TimeSerie[] timeSeries;
+	private ForecastingClient client;
+
+	@Setup
+	public void setUp() {
+		timeSeries = BenchmarkData.createSeries(seriesCount, serieLength);
+		client = new ForecastingClient("key", new BenchmarkData.NullForecastingApi());
+	}
+
+	@Benchmark
+	public List<TimeSerie[]> sliceTimeSeries() {
+		return client.SliceTimeSeries("dataset", timeSeries);
+	}
+
+	@Benchmark
+	public void upsertTimeSeriesInternal() throws IOException {
+		client.UpsertTimeSeriesInternal("dataset", timeSeries, false);
+	}
+}
@@ -0,0 +1,70 @@
+package lokad.forecasting;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Client-side validation: series, serie names, and the API-name check with
+ * the lookup table against the original regex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidationBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int nameCount;
+
+	private String[] serieNames;
+	private TimeSerie largeSerie;
+
+	@Setup
+	public void setUp() {
+		serieNames = BenchmarkData.createSerieNames(nameCount);
+		largeSerie = BenchmarkData.createSeries(1, 65536)[0];
+	}
+
+	@Benchmark
+	public void validateSerieNames() {
+		ForecastingClient.ValidateSerieNames("dataset", serieNames);
+	}
+
+	@Benchmark
+	public void validateLargeSerie() {
+		ForecastingApiValidators.Validate(largeSerie);
+	}
+
+	@Benchmark
+	public void isValidApiNameTable(Blackhole blackhole) {
+		for (String serieName : serieNames) {
+			blackhole.consume(ForecastingApiValidators.IsValidApiName(serieName));
+		}
+	}
+
+	@Benchmark
+	public void isValidApiNameRegex(Blackhole blackhole) {
+		for (String serieName : serieNames) {
+			blackhole.consume(ForecastingApiValidators.DefaultNamePattern.matcher(serieName).find());
+		}
+	}
+
+	@Benchmark
+	public boolean areValidApiNames() {
+		return ForecastingApiValidators.AreValidApiNames(serieNames);
+	}
+}
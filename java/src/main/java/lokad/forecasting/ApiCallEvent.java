@@ -0,0 +1,47 @@
+package lokad.forecasting;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted by {@link ForecastingApi} for every HTTP
+ * call. Disabled by default, enable <code>lokad.forecasting.ApiCall</code> in
+ * the recording settings to collect it.
+ */
+@Name("lokad.forecasting.ApiCall")
+@Label("Forecasting API Call")
+@Category({ "Lokad", "Forecasting" })
+@Description("HTTP call made to the Forecasting API")
+@Enabled(false)
+@StackTrace(false)
+final class ApiCallEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Dataset")
+	String dataset;
+
+	@Label("Slice Size")
+	@Description("Number of series or serie names sent in the request")
+	int sliceSize;
+
+	@Label("Request Bytes")
+	@DataAmount
+	long requestBytes;
+
+	@Label("Response Bytes")
+	@DataAmount
+	long responseBytes;
+
+	@Label("HTTP Status")
+	int httpStatus;
+
+	@Label("Error Code")
+	String errorCode;
+}
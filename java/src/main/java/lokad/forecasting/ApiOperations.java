@@ -0,0 +1,32 @@
+package lokad.forecasting;
+
+/**
+ * Names of the operations of the Forecasting API v3, as reported to
+ * {@link IMetricsListener}.
+ */
+public final class ApiOperations {
+	public final static String InsertDataset = "InsertDataset";
+
+	public final static String ListDatasets = "ListDatasets";
+
+	public final static String DeleteDataset = "DeleteDataset";
+
+	public final static String UpsertTimeSeries = "UpsertTimeSeries";
+
+	public final static String ListTimeSeries = "ListTimeSeries";
+
+	public final static String DeleteTimeSeries = "DeleteTimeSeries";
+
+	public final static String GetForecastStatus = "GetForecastStatus";
+
+	public final static String GetForecasts = "GetForecasts";
+
+	/**
+	 * All the operations.
+	 */
+	public final static String[] All = new String[] { InsertDataset, ListDatasets, DeleteDataset,
+			UpsertTimeSeries, ListTimeSeries, DeleteTimeSeries, GetForecastStatus, GetForecasts };
+
+	private ApiOperations() {
+	}
+}
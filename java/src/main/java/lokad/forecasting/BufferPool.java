@@ -0,0 +1,124 @@
+package lokad.forecasting;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of direct byte buffers, into which {@link ForecastingApi}
+ * serializes the request bodies and reads the response bodies, and into
+ * which the serialization pipeline of {@link ForecastingClient} serializes
+ * the slices ahead of their sending.
+ * <p>
+ * At most <code>maxDirectBuffers</code> direct buffers are ever allocated;
+ * they are reused from one call to the next, hence the transport stops
+ * allocating once the pool is warm. When a body needs more buffers than the
+ * pool holds at the time, heap buffers are handed out instead, and dropped
+ * once released.
+ * </p>
+ * 
+ * @see ForecastingApi#SetBufferPool(BufferPool)
+ */
+public final class BufferPool {
+
+	private final int _bufferSize;
+	private final int _maxDirectBuffers;
+	private final ConcurrentLinkedQueue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger _directBuffers = new AtomicInteger();
+	private final AtomicLong _heapBuffers = new AtomicLong();
+
+	/**
+	 * Transfer arrays between the streams and the direct buffers, as many as
+	 * transfers ever ran at once.
+	 */
+	private final ConcurrentLinkedQueue<byte[]> _scratches = new ConcurrentLinkedQueue<byte[]>();
+
+	/**
+	 * @param bufferSize
+	 *            Size of each buffer, in bytes.
+	 * @param maxDirectBuffers
+	 *            Maximal number of direct buffers allocated by the pool.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the size is not positive, or the maximal number
+	 *             of buffers is negative.
+	 */
+	public BufferPool(int bufferSize, int maxDirectBuffers) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive.");
+		}
+		if (maxDirectBuffers < 0) {
+			throw new IllegalArgumentException("Number of buffers cannot be negative.");
+		}
+		_bufferSize = bufferSize;
+		_maxDirectBuffers = maxDirectBuffers;
+	}
+
+	public int GetBufferSize() {
+		return _bufferSize;
+	}
+
+	/**
+	 * Number of direct buffers allocated so far, either in use or available.
+	 */
+	public int GetDirectBufferCount() {
+		return _directBuffers.get();
+	}
+
+	/**
+	 * Number of direct buffers available.
+	 */
+	public int GetAvailableCount() {
+		return _buffers.size();
+	}
+
+	/**
+	 * Number of heap buffers handed out because the pool was exhausted.
+	 */
+	public long GetHeapBufferCount() {
+		return _heapBuffers.get();
+	}
+
+	/**
+	 * Takes a cleared buffer, either from the pool, newly allocated, or on the
+	 * heap if the pool is exhausted.
+	 */
+	ByteBuffer Acquire() {
+		ByteBuffer buffer = _buffers.poll();
+		if (null != buffer) {
+			buffer.clear();
+			return buffer;
+		}
+		while (true) {
+			int count = _directBuffers.get();
+			if (count >= _maxDirectBuffers) {
+				_heapBuffers.incrementAndGet();
+				return ByteBuffer.allocate(_bufferSize);
+			}
+			if (_directBuffers.compareAndSet(count, count + 1)) {
+				return ByteBuffer.allocateDirect(_bufferSize);
+			}
+		}
+	}
+
+	/**
+	 * Gives a buffer back; heap buffers are dropped.
+	 */
+	void Release(ByteBuffer buffer) {
+		if (buffer.isDirect()) {
+			_buffers.add(buffer);
+		}
+	}
+
+	/**
+	 * Takes an array for copying between a stream and a direct buffer.
+	 */
+	byte[] AcquireScratch() {
+		byte[] scratch = _scratches.poll();
+		return null != scratch ? scratch : new byte[Math.min(_bufferSize, 8192)];
+	}
+
+	void ReleaseScratch(byte[] scratch) {
+		_scratches.add(scratch);
+	}
+}
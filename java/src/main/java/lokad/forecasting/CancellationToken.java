@@ -0,0 +1,80 @@
+package lokad.forecasting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a thread cancel the operations of another one, made within a
+ * {@link RequestContext} holding the token.
+ * <p>
+ * Once cancelled, the calls not yet sent fail with an
+ * {@link OperationAbortedException}, and the slices in flight are cancelled.
+ * A token cannot be reset.
+ * </p>
+ */
+public final class CancellationToken {
+
+	// guarded by this
+	private boolean _cancelled;
+	private final List<Runnable> _callbacks = new ArrayList<Runnable>();
+
+	/**
+	 * Cancels the operations holding the token; does nothing if already
+	 * cancelled.
+	 */
+	public void Cancel() {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			if (_cancelled) {
+				return;
+			}
+			_cancelled = true;
+			callbacks = new ArrayList<Runnable>(_callbacks);
+			_callbacks.clear();
+			notifyAll();
+		}
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	public synchronized boolean IsCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * Registers a callback run by {@link #Cancel()}.
+	 *
+	 * @return <code>false</code> if already cancelled, in which case the
+	 *         callback is not registered.
+	 */
+	synchronized boolean Register(Runnable callback) {
+		if (_cancelled) {
+			return false;
+		}
+		_callbacks.add(callback);
+		return true;
+	}
+
+	synchronized void Unregister(Runnable callback) {
+		_callbacks.remove(callback);
+	}
+
+	/**
+	 * Waits for the cancellation, up to the timeout.
+	 *
+	 * @return Whether the token is cancelled.
+	 */
+	synchronized boolean Await(long timeoutNanos) throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (!_cancelled) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return _cancelled;
+	}
+}
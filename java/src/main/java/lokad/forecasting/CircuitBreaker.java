@@ -0,0 +1,161 @@
+package lokad.forecasting;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the calls to a struggling service for a while, instead of adding to
+ * its load.
+ * <p>
+ * The circuit opens when the failures within the failure window reach the
+ * threshold. Once the open period is over, the circuit gets half-open: a few
+ * probe calls go through while the other calls are still rejected. The
+ * circuit closes when all the probes succeed, and opens again as soon as one
+ * fails, for twice the previous period, up to 64 times the initial one.
+ * </p>
+ */
+public class CircuitBreaker {
+
+	private final static int MaxOpenPeriodFactor = 64;
+
+	private final int _failureThreshold;
+	private final long _windowNanos;
+	private final long _openNanos;
+	private final int _probeCount;
+
+	// guarded by this
+	private CircuitState _state = CircuitState.Closed;
+	private final ArrayDeque<Long> _failures = new ArrayDeque<Long>();
+	private long _openPeriod;
+	private long _openUntil;
+	private int _probesInFlight;
+	private int _probesSucceeded;
+	private long _openCount;
+
+	/**
+	 * @param failureThreshold
+	 *            Number of failures opening the circuit.
+	 * @param windowMillis
+	 *            Period within which the failures are counted.
+	 * @param openMillis
+	 *            Initial period during which the circuit stays open.
+	 * @param probeCount
+	 *            Number of successful probes closing the circuit.
+	 * @throws IllegalArgumentException
+	 *             If one of the settings is not positive.
+	 */
+	public CircuitBreaker(int failureThreshold, long windowMillis, long openMillis, int probeCount) {
+		if (failureThreshold < 1 || windowMillis <= 0 || openMillis <= 0 || probeCount < 1) {
+			throw new IllegalArgumentException("Circuit breaker settings must be positive.");
+		}
+		_failureThreshold = failureThreshold;
+		_windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		_openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		_probeCount = probeCount;
+		_openPeriod = _openNanos;
+	}
+
+	public synchronized CircuitState GetState() {
+		update(System.nanoTime());
+		return _state;
+	}
+
+	/**
+	 * Number of times the circuit opened.
+	 */
+	public synchronized long GetOpenCount() {
+		return _openCount;
+	}
+
+	/**
+	 * Admits a call, waiting for the circuit to let it through until the
+	 * deadline at most.
+	 *
+	 * @param deadlineNanos
+	 *            {@link System#nanoTime()} beyond which the call is rejected.
+	 * @return The state the call was admitted in, <code>HalfOpen</code> for a
+	 *         probe, or <code>null</code> if rejected.
+	 */
+	synchronized CircuitState Admit(long deadlineNanos) throws InterruptedException {
+		while (true) {
+			long now = System.nanoTime();
+			update(now);
+			if (CircuitState.Closed == _state) {
+				return CircuitState.Closed;
+			}
+			if (CircuitState.HalfOpen == _state && _probesInFlight + _probesSucceeded < _probeCount) {
+				_probesInFlight++;
+				return CircuitState.HalfOpen;
+			}
+			long remaining = deadlineNanos - now;
+			if (remaining <= 0) {
+				return null;
+			}
+			// woken up when the circuit closes or a probe slot frees
+			long wait = CircuitState.Open == _state ? Math.min(remaining, _openUntil - now) : remaining;
+			TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, wait));
+		}
+	}
+
+	/**
+	 * Records the outcome of an admitted call.
+	 *
+	 * @param admission
+	 *            State returned by {@link #Admit(long)}.
+	 * @param failure
+	 *            Whether the service failed or timed out.
+	 */
+	synchronized void Record(CircuitState admission, boolean failure) {
+		long now = System.nanoTime();
+		if (CircuitState.HalfOpen == admission) {
+			_probesInFlight--;
+			if (CircuitState.HalfOpen != _state) {
+				// another probe already decided
+			} else if (failure) {
+				_openPeriod = Math.min(_openPeriod * 2, _openNanos * MaxOpenPeriodFactor);
+				open(now);
+			} else if (++_probesSucceeded >= _probeCount) {
+				_state = CircuitState.Closed;
+				_failures.clear();
+				_openPeriod = _openNanos;
+				notifyAll();
+			}
+			return;
+		}
+		if (failure && CircuitState.Closed == _state) {
+			_failures.addLast(now);
+			while (now - _failures.peekFirst() > _windowNanos) {
+				_failures.removeFirst();
+			}
+			if (_failures.size() >= _failureThreshold) {
+				open(now);
+			}
+		}
+	}
+
+	/**
+	 * Gives back the admission of a call which did not reach the service.
+	 */
+	synchronized void Release(CircuitState admission) {
+		if (CircuitState.HalfOpen == admission) {
+			_probesInFlight--;
+			notifyAll();
+		}
+	}
+
+	private void open(long now) {
+		_state = CircuitState.Open;
+		_openUntil = now + _openPeriod;
+		_failures.clear();
+		_openCount++;
+		notifyAll();
+	}
+
+	private void update(long now) {
+		if (CircuitState.Open == _state && now - _openUntil >= 0) {
+			// probes of a previous half-open period may still be in flight
+			_state = CircuitState.HalfOpen;
+			_probesSucceeded = 0;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link GuardedForecastingApi} when its {@link CircuitBreaker}
+ * rejects a call: the circuit is open, and did not let the call through
+ * within the open wait. The call did not reach the service.
+ * <p>
+ * Unlike a <code>ServiceFailure</code> answered by the service, the rejection
+ * is not recorded by the circuit breaker, and does not tell about the load of
+ * the service; retrying is pointless until the circuit gets half-open.
+ * </p>
+ *
+ * @see GuardedForecastingApi#SetOpenWait(long)
+ */
+public class CircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	CircuitOpenException() {
+		super("Circuit open, call rejected without reaching the service.");
+	}
+}
@@ -0,0 +1,22 @@
+package lokad.forecasting;
+
+/**
+ * States of a {@link CircuitBreaker}.
+ */
+public enum CircuitState {
+	/**
+	 * Calls go through, failures are counted.
+	 */
+	Closed,
+
+	/**
+	 * Calls are rejected, until the open period ends.
+	 */
+	Open,
+
+	/**
+	 * A few probe calls go through, deciding whether the circuit closes or
+	 * opens again.
+	 */
+	HalfOpen
+}
@@ -0,0 +1,58 @@
+package lokad.forecasting;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for the stages of the client operations
+ * which do not involve the network. Disabled by default, enable
+ * <code>lokad.forecasting.ClientStage</code> in the recording settings to
+ * collect it.
+ */
+@Name("lokad.forecasting.ClientStage")
+@Label("Forecasting Client Stage")
+@Category({ "Lokad", "Forecasting" })
+@Description("Stage of a ForecastingClient operation")
+@Enabled(false)
+@StackTrace(false)
+final class ClientStageEvent extends jdk.jfr.Event {
+
+	final static String Validation = "Validation";
+	final static String Slicing = "Slicing";
+	final static String Serialization = "Serialization";
+	final static String ForecastStatusWait = "ForecastStatusWait";
+	final static String Reassembly = "Reassembly";
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Dataset")
+	String dataset;
+
+	@Label("Series")
+	@Description("Number of series processed by the stage")
+	int seriesCount;
+
+	/**
+	 * Starts timing a stage; when the event is disabled, the JIT removes the
+	 * allocation altogether.
+	 */
+	static ClientStageEvent Begin() {
+		ClientStageEvent event = new ClientStageEvent();
+		event.begin();
+		return event;
+	}
+
+	void End(String stage, String dataset, int seriesCount) {
+		if (shouldCommit()) {
+			this.stage = stage;
+			this.dataset = dataset;
+			this.seriesCount = seriesCount;
+			commit();
+		}
+	}
+}
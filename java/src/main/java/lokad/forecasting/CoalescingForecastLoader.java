@@ -0,0 +1,204 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loader merging the concurrent {@link ForecastingClient#GetForecasts(String, String[])}
+ * calls targeting the same dataset.
+ * <p>
+ * The first caller opens a batch and waits for the batching window to
+ * elapse; callers arriving in the meantime join the batch. Then, the union of
+ * the requested serie names is retrieved at once, hence a single status poll
+ * and a deduplicated set of slices, and each caller gets back the forecasts of
+ * its own series.
+ * </p>
+ * <p>
+ * The callers joining a batch wait for it within their own
+ * {@link RequestContext}: a caller whose deadline passes or whose token is
+ * cancelled fails with an {@link OperationAbortedException}, the batch going
+ * on for the others.
+ * </p>
+ */
+public class CoalescingForecastLoader {
+
+	private final ForecastingClient _client;
+	private final long _windowMillis;
+
+	/**
+	 * Open batches per dataset name, guarded by <code>this</code>.
+	 */
+	private final Map<String, Batch> _batches = new HashMap<String, Batch>();
+
+	/**
+	 * @param client
+	 *            Client used to retrieve the forecasts.
+	 * @param windowMillis
+	 *            Delay during which concurrent requests are merged, in
+	 *            milliseconds.
+	 */
+	public CoalescingForecastLoader(ForecastingClient client, long windowMillis) {
+		if (null == client) {
+			throw new NullPointerException("client");
+		}
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException("Batching window cannot be negative.");
+		}
+		_client = client;
+		_windowMillis = windowMillis;
+	}
+
+	/**
+	 * Gets the forecasts from a specified dataset, sharing the round trips
+	 * with the concurrent callers targeting the same dataset.
+	 *
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param serieNames
+	 *            Targeted series. Series that do not exists in the targeted
+	 *            dataset are ignored.
+	 * @return Forecasts of the targeted series.
+	 * @throws InterruptedException
+	 * @throws OperationAbortedException
+	 *             if the deadline of the context of the caller passed, or if
+	 *             its token was cancelled, before the batch completed.
+	 * @throws IOException
+	 *             if an error occurred working with server, or if the
+	 *             retrieval of the batch was interrupted.
+	 * @see ForecastingClient#GetForecasts(String, String[])
+	 */
+	public ForecastSerie[] GetForecasts(String datasetName, String[] serieNames) throws InterruptedException,
+			IOException {
+		ForecastingClient.ValidateSerieNames(datasetName, serieNames);
+
+		Batch batch;
+		boolean leader;
+		synchronized (this) {
+			batch = _batches.get(datasetName);
+			leader = null == batch;
+			if (leader) {
+				batch = new Batch();
+				_batches.put(datasetName, batch);
+			}
+			for (String serieName : serieNames) {
+				batch.serieNames.add(serieName);
+			}
+		}
+
+		if (leader) {
+			try {
+				try {
+					Thread.sleep(_windowMillis);
+				} finally {
+					// no caller can join the batch past this point
+					synchronized (this) {
+						_batches.remove(datasetName);
+					}
+				}
+				batch.load(_client, datasetName);
+			} catch (Throwable e) {
+				// the other callers of the batch fail along with the leader
+				batch.failure = e;
+				throw e;
+			} finally {
+				batch.complete();
+			}
+		}
+
+		return batch.get(serieNames);
+	}
+
+	/**
+	 * Serie names requested within the same batching window, and the outcome
+	 * of their retrieval.
+	 */
+	private static class Batch {
+		final Set<String> serieNames = new LinkedHashSet<String>();
+		Map<String, ForecastSerie> forecasts;
+		Throwable failure;
+		/**
+		 * Set by the leader on every exit path, after setting either the
+		 * forecasts or the failure; guarded by <code>this</code>.
+		 */
+		private boolean _completed;
+
+		synchronized void complete() {
+			_completed = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits for the leader within the context of the calling thread.
+		 */
+		private void await() throws InterruptedException, OperationAbortedException {
+			final RequestContext context = RequestContext.GetCurrent();
+			CancellationToken token = null != context ? context.GetCancellationToken() : null;
+			Runnable wakeUp = new Runnable() {
+				@Override
+				public void run() {
+					synchronized (Batch.this) {
+						Batch.this.notifyAll();
+					}
+				}
+			};
+			if (null != token && !token.Register(wakeUp)) {
+				token = null;
+			}
+			try {
+				synchronized (this) {
+					while (!_completed) {
+						if (null != context && context.IsAborted()) {
+							throw context.NewAbortedException();
+						}
+						if (null == context) {
+							wait();
+						} else {
+							wait(Math.max(1, context.GetRemainingMillis()));
+						}
+					}
+				}
+			} finally {
+				if (null != token) {
+					token.Unregister(wakeUp);
+				}
+			}
+		}
+
+		void load(ForecastingClient client, String datasetName) throws InterruptedException, IOException {
+			ForecastSerie[] series = client.GetForecasts(datasetName, serieNames.toArray(new String[] {}));
+			forecasts = new HashMap<String, ForecastSerie>(series.length * 2);
+			for (ForecastSerie forecast : series) {
+				forecasts.put(forecast.Name, forecast);
+			}
+		}
+
+		ForecastSerie[] get(String[] names) throws InterruptedException, IOException {
+			await();
+
+			if (failure instanceof InterruptedException) {
+				// the leader was interrupted, not the caller
+				throw new IOException("Batch retrieval interrupted.", failure);
+			} else if (failure instanceof IOException) {
+				throw new IOException(failure.getMessage(), failure);
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+
+			List<ForecastSerie> result = new ArrayList<ForecastSerie>(names.length);
+			for (String name : names) {
+				ForecastSerie forecast = forecasts.get(name);
+				if (null != forecast) {
+					result.add(forecast);
+				}
+			}
+			return result.toArray(new ForecastSerie[] {});
+		}
+	}
+}
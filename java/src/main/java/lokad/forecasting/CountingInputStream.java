@@ -0,0 +1,46 @@
+package lokad.forecasting;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through the stream.
+ */
+class CountingInputStream extends FilterInputStream {
+
+	private long _count;
+
+	CountingInputStream(InputStream inputStream) {
+		super(inputStream);
+	}
+
+	long getCount() {
+		return _count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			_count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			_count += read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		_count += skipped;
+		return skipped;
+	}
+}
@@ -0,0 +1,34 @@
+package lokad.forecasting;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through the stream.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private long _count;
+
+	CountingOutputStream(OutputStream outputStream) {
+		super(outputStream);
+	}
+
+	long getCount() {
+		return _count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		_count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// FilterOutputStream would write byte by byte
+		out.write(b, off, len);
+		_count += len;
+	}
+}
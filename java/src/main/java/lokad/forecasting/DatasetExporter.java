@@ -0,0 +1,213 @@
+package lokad.forecasting;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Exports the time-series of a dataset to a local file, streaming the pages
+ * of <code>ListTimeSeries</code> straight to the file.
+ * <p>
+ * A single page is held in memory at a time, along with a reused encoding
+ * buffer, hence the memory does not depend on the size of the dataset.
+ * After each page, the file is flushed to the disk, and the continuation
+ * token of the next page is recorded in a position file next to the export
+ * (<code>&lt;file&gt;.export</code>). If the export is interrupted, exporting
+ * again to the same file resumes from the last page written; the position
+ * file is deleted once the export has completed.
+ * </p>
+ *
+ * @see ExportFormat
+ */
+public class DatasetExporter {
+
+	private final ForecastingClient _client;
+
+	public DatasetExporter(ForecastingClient client) {
+		if (null == client) {
+			throw new NullPointerException("client");
+		}
+		_client = client;
+	}
+
+	/**
+	 * Position of an export, persisted after each page.
+	 */
+	private static class Position {
+		String datasetName;
+		ExportFormat format;
+		long length;
+		long seriesCount;
+		String continuationToken;
+
+		static Position Load(File file) throws IOException {
+			Properties properties = new Properties();
+			InputStream input = new FileInputStream(file);
+			try {
+				properties.load(input);
+			} finally {
+				input.close();
+			}
+			Position position = new Position();
+			position.datasetName = properties.getProperty("dataset");
+			position.format = ExportFormat.valueOf(properties.getProperty("format"));
+			position.length = Long.parseLong(properties.getProperty("length"));
+			position.seriesCount = Long.parseLong(properties.getProperty("series"));
+			position.continuationToken = properties.getProperty("token");
+			return position;
+		}
+
+		void Save(File file) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("dataset", datasetName);
+			properties.setProperty("format", format.name());
+			properties.setProperty("length", Long.toString(length));
+			properties.setProperty("series", Long.toString(seriesCount));
+			properties.setProperty("token", continuationToken);
+
+			File tmp = new File(file.getPath() + ".tmp");
+			FileOutputStream output = new FileOutputStream(tmp);
+			try {
+				properties.store(output, null);
+				output.getFD().sync();
+			} finally {
+				output.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Gets the file recording the position of an export in progress.
+	 */
+	public static File GetPositionFile(File file) {
+		return new File(file.getPath() + ".export");
+	}
+
+	/**
+	 * Exports the time-series of a dataset, or resumes the interrupted export
+	 * of the same dataset to the same file.
+	 * 
+	 * @param datasetName
+	 *            Exported dataset.
+	 * @param file
+	 *            Target file, overwritten unless an export is to be resumed.
+	 * @param format
+	 *            Layout of the file.
+	 * @return Number of series in the file.
+	 * @throws IOException
+	 *             if an error occurred working with server or writing the
+	 *             file.
+	 * @throws IllegalArgumentException
+	 *             Thrown is the dataset name is not compliant with Forecasting
+	 *             API specification.
+	 * @throws IllegalStateException
+	 *             Thrown if the file is the target of an interrupted export of
+	 *             another dataset or format, or if the access rights are
+	 *             incorrect, or if the dataset does not exists, or if the
+	 *             service is down.
+	 */
+	public long Export(String datasetName, File file, ExportFormat format) throws IOException {
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException(String.format("%s is not a valid dataset name.", datasetName));
+		}
+		if (null == file) {
+			throw new NullPointerException("file");
+		}
+		if (null == format) {
+			throw new NullPointerException("format");
+		}
+
+		File positionFile = GetPositionFile(file);
+		Position position;
+		if (positionFile.exists()) {
+			position = Position.Load(positionFile);
+			if (!position.datasetName.equals(datasetName) || position.format != format) {
+				throw new IllegalStateException(String.format(
+						"%s is the target of an interrupted export of %s as %s.", file, position.datasetName,
+						position.format));
+			}
+		} else {
+			position = new Position();
+			position.datasetName = datasetName;
+			position.format = format;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			if (null == position.continuationToken) {
+				channel.truncate(0);
+				if (format == ExportFormat.Binary) {
+					DatasetFiles.PutBinaryHeader(buffer);
+				} else {
+					buffer.put(DatasetFiles.CsvHeader.getBytes(DatasetFiles.Ascii));
+				}
+				buffer.flip();
+				write(channel, buffer, 0);
+				position.length = channel.size();
+			} else {
+				// dropping whatever was written past the last recorded page
+				channel.truncate(position.length);
+			}
+
+			while (true) {
+				TimeSerieCollection page = _client.ListTimeSeriesPage(datasetName, position.continuationToken);
+
+				buffer.clear();
+				for (TimeSerie serie : page.TimeSeries) {
+					int size = format == ExportFormat.Binary ? DatasetFiles.BinarySize(serie) : DatasetFiles
+							.CsvSizeBound(serie);
+					buffer = ensureRemaining(buffer, size);
+					if (format == ExportFormat.Binary) {
+						DatasetFiles.PutBinary(buffer, serie);
+					} else {
+						DatasetFiles.PutCsv(buffer, serie);
+					}
+				}
+				buffer.flip();
+				write(channel, buffer, position.length);
+				channel.force(false);
+
+				position.length += buffer.limit();
+				position.seriesCount += page.TimeSeries.length;
+				position.continuationToken = page.ContinuationToken;
+				if (ForecastingClient.isStringBlank(page.ContinuationToken)) {
+					break;
+				}
+				position.Save(positionFile);
+			}
+		} finally {
+			channel.close();
+		}
+
+		Files.deleteIfExists(positionFile.toPath());
+		return position.seriesCount;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+		if (buffer.remaining() >= size) {
+			return buffer;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+}
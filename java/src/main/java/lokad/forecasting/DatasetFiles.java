@@ -0,0 +1,403 @@
+package lokad.forecasting;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encoding of the time-series in the files written by
+ * {@link DatasetExporter}.
+ * <p>
+ * Binary files start with a header (magic, version), followed by one block
+ * per serie:
+ * </p>
+ * 
+ * <pre>
+ * int    length of the block, this field excluded
+ * short  name length, name (ASCII)
+ * short  tag count, then for each tag: short length, tag (ASCII)
+ * int    event count
+ * long[] event times, long[] event known-since times (Long.MIN_VALUE if none)
+ *        then for each event: short tag count, tags
+ * int    value count
+ * long[] value times
+ * double[] values
+ * </pre>
+ */
+final class DatasetFiles {
+
+	final static int Magic = 0x4C4B4458; // "LKDX"
+	final static short Version = 1;
+	final static int HeaderLength = 6;
+	final static long NoTime = Long.MIN_VALUE;
+
+	final static Charset Ascii = Charset.forName("US-ASCII");
+	final static String CsvHeader = "Serie,Kind,Time,Value,Tags,KnownSince\n";
+
+	/**
+	 * Length of the times written by {@link #PutTime(ByteBuffer, long)}.
+	 */
+	final static int TimeLength = 24;
+
+	/**
+	 * Upper bound of the length of a double formatted by
+	 * {@link Double#toString(double)}.
+	 */
+	private final static int DoubleLength = 25;
+
+	private DatasetFiles() {
+	}
+
+	static void PutBinaryHeader(ByteBuffer buffer) {
+		buffer.putInt(Magic);
+		buffer.putShort(Version);
+	}
+
+	/**
+	 * Exact size of the binary block of the serie.
+	 */
+	static int BinarySize(TimeSerie serie) {
+		int size = 4 + 2 + serie.Name.length() + tagsSize(serie.Tags) + 4 + 4;
+		if (null != serie.Events) {
+			for (EventValue event : serie.Events) {
+				size += 16 + tagsSize(event.Tags);
+			}
+		}
+		if (null != serie.Values) {
+			size += serie.Values.length * 16;
+		}
+		return size;
+	}
+
+	private static int tagsSize(String[] tags) {
+		int size = 2;
+		if (null != tags) {
+			for (String tag : tags) {
+				size += 2 + tag.length();
+			}
+		}
+		return size;
+	}
+
+	static void PutBinary(ByteBuffer buffer, TimeSerie serie) {
+		int start = buffer.position();
+		buffer.putInt(0); // patched below
+		putShortString(buffer, serie.Name);
+		putTags(buffer, serie.Tags);
+
+		EventValue[] events = null != serie.Events ? serie.Events : new EventValue[0];
+		buffer.putInt(events.length);
+		for (EventValue event : events) {
+			buffer.putLong(event.Time.getTimeInMillis());
+		}
+		for (EventValue event : events) {
+			buffer.putLong(null != event.KnownSince ? event.KnownSince.getTimeInMillis() : NoTime);
+		}
+		for (EventValue event : events) {
+			putTags(buffer, event.Tags);
+		}
+
+		TimeValue[] values = null != serie.Values ? serie.Values : new TimeValue[0];
+		buffer.putInt(values.length);
+		for (TimeValue value : values) {
+			buffer.putLong(value.Time.getTimeInMillis());
+		}
+		for (TimeValue value : values) {
+			buffer.putDouble(value.Value);
+		}
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	private static void putShortString(ByteBuffer buffer, String s) {
+		buffer.putShort((short) s.length());
+		putAscii(buffer, s);
+	}
+
+	private static void putTags(ByteBuffer buffer, String[] tags) {
+		if (null == tags) {
+			buffer.putShort((short) 0);
+			return;
+		}
+		buffer.putShort((short) tags.length);
+		for (String tag : tags) {
+			putShortString(buffer, tag);
+		}
+	}
+
+	/**
+	 * Upper bound of the size of the CSV rows of the serie.
+	 */
+	static int CsvSizeBound(TimeSerie serie) {
+		// name, kind, 5 separators and a line feed
+		int row = serie.Name.length() + 8;
+		int size = row + csvTagsSize(serie.Tags);
+		if (null != serie.Events) {
+			for (EventValue event : serie.Events) {
+				size += row + 2 * TimeLength + csvTagsSize(event.Tags);
+			}
+		}
+		if (null != serie.Values) {
+			size += serie.Values.length * (row + TimeLength + DoubleLength);
+		}
+		return size;
+	}
+
+	private static int csvTagsSize(String[] tags) {
+		int size = 0;
+		if (null != tags) {
+			for (String tag : tags) {
+				size += tag.length() + 1;
+			}
+		}
+		return size;
+	}
+
+	static void PutCsv(ByteBuffer buffer, TimeSerie serie) {
+		if (null != serie.Tags && serie.Tags.length > 0) {
+			putAscii(buffer, serie.Name);
+			buffer.put((byte) ',').put((byte) 'T').put((byte) ',').put((byte) ',').put((byte) ',');
+			putCsvTags(buffer, serie.Tags);
+			buffer.put((byte) ',').put((byte) '\n');
+		}
+		if (null != serie.Events) {
+			for (EventValue event : serie.Events) {
+				putAscii(buffer, serie.Name);
+				buffer.put((byte) ',').put((byte) 'E').put((byte) ',');
+				PutTime(buffer, event.Time.getTimeInMillis());
+				buffer.put((byte) ',').put((byte) ',');
+				putCsvTags(buffer, event.Tags);
+				buffer.put((byte) ',');
+				if (null != event.KnownSince) {
+					PutTime(buffer, event.KnownSince.getTimeInMillis());
+				}
+				buffer.put((byte) '\n');
+			}
+		}
+		if (null != serie.Values) {
+			for (TimeValue value : serie.Values) {
+				putAscii(buffer, serie.Name);
+				buffer.put((byte) ',').put((byte) 'V').put((byte) ',');
+				PutTime(buffer, value.Time.getTimeInMillis());
+				buffer.put((byte) ',');
+				putAscii(buffer, Double.toString(value.Value));
+				buffer.put((byte) ',').put((byte) ',').put((byte) '\n');
+			}
+		}
+	}
+
+	private static void putCsvTags(ByteBuffer buffer, String[] tags) {
+		if (null == tags) {
+			return;
+		}
+		for (int i = 0; i < tags.length; i++) {
+			if (i > 0) {
+				buffer.put((byte) ';');
+			}
+			putAscii(buffer, tags[i]);
+		}
+	}
+
+	private static void putAscii(ByteBuffer buffer, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes epoch milliseconds as <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code>,
+	 * UTC, for the years 0 to 9999.
+	 */
+	static void PutTime(ByteBuffer buffer, long millis) {
+		long days = Math.floorDiv(millis, 86400000L);
+		int millisOfDay = (int) Math.floorMod(millis, 86400000L);
+
+		// civil from days, see http://howardhinnant.github.io/date_algorithms.html
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+		putDigits(buffer, year, 4);
+		buffer.put((byte) '-');
+		putDigits(buffer, month, 2);
+		buffer.put((byte) '-');
+		putDigits(buffer, day, 2);
+		buffer.put((byte) 'T');
+		putDigits(buffer, millisOfDay / 3600000, 2);
+		buffer.put((byte) ':');
+		putDigits(buffer, millisOfDay / 60000 % 60, 2);
+		buffer.put((byte) ':');
+		putDigits(buffer, millisOfDay / 1000 % 60, 2);
+		buffer.put((byte) '.');
+		putDigits(buffer, millisOfDay % 1000, 3);
+		buffer.put((byte) 'Z');
+	}
+
+	/**
+	 * Reads a time written by {@link #PutTime(ByteBuffer, long)}, without
+	 * moving the position of the buffer.
+	 * 
+	 * @return Epoch milliseconds.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the bytes are not a time.
+	 */
+	static long ParseTime(ByteBuffer buffer, int offset) {
+		if (buffer.get(offset + 4) != '-' || buffer.get(offset + 7) != '-' || buffer.get(offset + 10) != 'T'
+				|| buffer.get(offset + 13) != ':' || buffer.get(offset + 16) != ':'
+				|| buffer.get(offset + 19) != '.' || buffer.get(offset + 23) != 'Z') {
+			throw new IllegalArgumentException(String.format("Invalid time at offset %d.", offset));
+		}
+		long year = parseDigits(buffer, offset, 4);
+		int month = parseDigits(buffer, offset + 5, 2);
+		int day = parseDigits(buffer, offset + 8, 2);
+		int millisOfDay = parseDigits(buffer, offset + 11, 2) * 3600000 + parseDigits(buffer, offset + 14, 2)
+				* 60000 + parseDigits(buffer, offset + 17, 2) * 1000 + parseDigits(buffer, offset + 20, 3);
+
+		// days from civil, see PutTime
+		year -= month <= 2 ? 1 : 0;
+		long era = Math.floorDiv(year, 400);
+		long yoe = year - era * 400;
+		long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		long days = era * 146097 + doe - 719468;
+		return days * 86400000L + millisOfDay;
+	}
+
+	private static int parseDigits(ByteBuffer buffer, int offset, int width) {
+		int value = 0;
+		for (int i = offset; i < offset + width; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IllegalArgumentException(String.format("Invalid time at offset %d.", offset));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Powers of ten exactly represented as doubles.
+	 */
+	private final static double[] ExactPowersOfTen = new double[23];
+
+	static {
+		ExactPowersOfTen[0] = 1;
+		for (int i = 1; i < ExactPowersOfTen.length; i++) {
+			ExactPowersOfTen[i] = ExactPowersOfTen[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Reads a double from the bytes <code>[from, to)</code> of the buffer.
+	 * <p>
+	 * Decimals of at most 15 significant digits, with a small exponent, are
+	 * decoded in place: the digits form an exact integer, and a single
+	 * multiplication or division by an exact power of ten rounds correctly.
+	 * Other inputs go through {@link Double#parseDouble(String)}.
+	 * </p>
+	 * 
+	 * @throws IllegalArgumentException
+	 *             Thrown if the bytes are not a number.
+	 */
+	static double ParseDouble(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		for (; i < to; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			anyDigit = true;
+			if (mantissa != 0 || digit != 0) {
+				significantDigits++;
+			}
+			if (significantDigits <= 18) {
+				mantissa = mantissa * 10 + digit;
+			} else {
+				exponent++;
+			}
+		}
+		if (i < to && buffer.get(i) == '.') {
+			for (i++; i < to; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				anyDigit = true;
+				if (mantissa != 0 || digit != 0) {
+					significantDigits++;
+				}
+				if (significantDigits <= 18) {
+					mantissa = mantissa * 10 + digit;
+					exponent--;
+				}
+			}
+		}
+		if (anyDigit && i < to && (buffer.get(i) == 'E' || buffer.get(i) == 'e')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int explicitExponent = 0;
+			int start = i;
+			for (; i < to && i - start < 9; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				explicitExponent = explicitExponent * 10 + digit;
+			}
+			if (i == start) {
+				anyDigit = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (anyDigit && i == to && significantDigits <= 15) {
+			if (mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			if (exponent >= 0 && exponent < ExactPowersOfTen.length) {
+				double value = mantissa * ExactPowersOfTen[exponent];
+				return negative ? -value : value;
+			}
+			if (exponent < 0 && -exponent < ExactPowersOfTen.length) {
+				double value = mantissa / ExactPowersOfTen[-exponent];
+				return negative ? -value : value;
+			}
+		}
+
+		byte[] bytes = new byte[to - from];
+		for (int j = 0; j < bytes.length; j++) {
+			bytes[j] = buffer.get(from + j);
+		}
+		try {
+			return Double.parseDouble(new String(bytes, Ascii));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid number at offset %d.", from), e);
+		}
+	}
+
+	private static void putDigits(ByteBuffer buffer, int value, int width) {
+		for (int i = width - 1; i >= 0; i--) {
+			buffer.put(buffer.position() + i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(buffer.position() + width);
+	}
+}
@@ -0,0 +1,546 @@
+package lokad.forecasting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Imports time-series from a local file, as written by
+ * {@link DatasetExporter}, into a dataset.
+ * <p>
+ * The file is split into regions ending at serie boundaries, and the regions
+ * are memory-mapped and parsed in parallel. Rows are tokenized in place,
+ * straight from the mapped bytes into primitive columns reused from one serie
+ * to the next; each completed serie is sorted by time, validated, and handed
+ * to a bounded queue feeding the upload slices. Hence the heap only holds a
+ * few slices of series, whatever the size of the file, while the mapped
+ * regions are paged in and out by the operating system.
+ * </p>
+ * <p>
+ * The slices are uploaded one at a time, by the thread calling
+ * {@link #Import(File, ExportFormat, String, boolean)}: the parsing is
+ * parallel, the upload is not, and the server round trips bound the
+ * throughput of an import over a slow network.
+ * </p>
+ * <p>
+ * In CSV files, the rows of a serie must be contiguous; the order of the
+ * values does not matter.
+ * </p>
+ *
+ * @see ExportFormat
+ */
+public class DatasetImporter {
+
+	private final ForecastingClient _client;
+	private final int _parallelism;
+
+	/**
+	 * Approximate size of the regions parsed in parallel; a region always
+	 * holds whole series.
+	 */
+	long _regionSize = 64L << 20;
+
+	/**
+	 * @param client
+	 *            Client used to upsert the series.
+	 * @param parallelism
+	 *            Number of regions parsed concurrently.
+	 */
+	public DatasetImporter(ForecastingClient client, int parallelism) {
+		if (null == client) {
+			throw new NullPointerException("client");
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive.");
+		}
+		_client = client;
+		_parallelism = parallelism;
+	}
+
+	/**
+	 * Marks the end of a region in the queue of parsed series.
+	 */
+	private final static Object EndOfRegion = new Object();
+
+	/**
+	 * Imports the series of a file into a dataset.
+	 * 
+	 * @param file
+	 *            Imported file.
+	 * @param format
+	 *            Layout of the file.
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param enableMerge
+	 *            Indicates whether the series are merged with the existing
+	 *            ones.
+	 * @return Number of series upserted.
+	 * @throws InterruptedException
+	 * @throws IOException
+	 *             if an error occurred working with server or reading the
+	 *             file.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the file is malformed, or if a serie is not
+	 *             compliant with the Forecasting API restrictions. Series
+	 *             parsed before may have been upserted already.
+	 * @throws IllegalStateException
+	 *             Thrown if the access rights are not correct, of if dataset
+	 *             does not exist, or if the service is down.
+	 */
+	public long Import(File file, ExportFormat format, String datasetName, boolean enableMerge)
+			throws InterruptedException, IOException {
+		if (null == file) {
+			throw new NullPointerException("file");
+		}
+		if (null == format) {
+			throw new NullPointerException("format");
+		}
+		UpsertBatcher batcher = new UpsertBatcher(_client, datasetName, enableMerge);
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			List<long[]> regions = format == ExportFormat.Binary ? splitBinary(channel) : splitCsv(channel);
+
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(_client._seriesSliceLength * 2);
+			ExecutorService pool = Executors.newFixedThreadPool(_parallelism, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "forecasting-import");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			try {
+				for (long[] region : regions) {
+					pool.execute(format == ExportFormat.Binary ? new BinaryRegionParser(channel, region, queue)
+							: new CsvRegionParser(channel, region, queue));
+				}
+
+				int ended = 0;
+				while (ended < regions.size()) {
+					Object item = queue.take();
+					if (item instanceof TimeSerie) {
+						batcher.Add((TimeSerie) item);
+					} else if (item == EndOfRegion) {
+						ended++;
+					} else {
+						rethrow((Throwable) item);
+					}
+				}
+				batcher.Flush();
+				return batcher.GetUpsertedCount();
+			} finally {
+				// interrupts the parsers blocked on a full queue after a failure
+				pool.shutdownNow();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void rethrow(Throwable failure) throws IOException {
+		if (failure instanceof IOException) {
+			throw new IOException(failure.getMessage(), failure);
+		} else if (failure instanceof IllegalArgumentException) {
+			throw new IllegalArgumentException(failure.getMessage(), failure);
+		} else {
+			throw new IllegalStateException(failure.getMessage(), failure);
+		}
+	}
+
+	private static void addRegion(List<long[]> regions, long start, long end) {
+		if (end - start > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Serie too large at offset %d.", start));
+		}
+		regions.add(new long[] { start, end });
+	}
+
+	/**
+	 * Splits a binary file into regions of whole serie blocks.
+	 */
+	private List<long[]> splitBinary(FileChannel channel) throws IOException {
+		MappedWindow window = new MappedWindow(channel);
+		long size = channel.size();
+		if (size < DatasetFiles.HeaderLength || window.GetInt(0) != DatasetFiles.Magic) {
+			throw new IllegalArgumentException("Not a binary dataset file.");
+		}
+		if (window.GetShort(4) != DatasetFiles.Version) {
+			throw new IllegalArgumentException("Unsupported binary dataset file version.");
+		}
+
+		List<long[]> regions = new ArrayList<long[]>();
+		long start = DatasetFiles.HeaderLength;
+		long offset = start;
+		while (offset < size) {
+			if (offset + 4 > size) {
+				throw new IllegalArgumentException(String.format("Truncated serie block at offset %d.", offset));
+			}
+			long end = offset + 4 + window.GetInt(offset);
+			if (end > size || end < offset + 4) {
+				throw new IllegalArgumentException(String.format("Truncated serie block at offset %d.", offset));
+			}
+			offset = end;
+			if (offset - start >= _regionSize) {
+				addRegion(regions, start, offset);
+				start = offset;
+			}
+		}
+		if (offset > start) {
+			addRegion(regions, start, offset);
+		}
+		return regions;
+	}
+
+	/**
+	 * Splits a CSV file into regions of whole series, the header excluded.
+	 */
+	private List<long[]> splitCsv(FileChannel channel) throws IOException {
+		MappedWindow window = new MappedWindow(channel);
+		long size = channel.size();
+		byte[] header = DatasetFiles.CsvHeader.getBytes(DatasetFiles.Ascii);
+		for (int i = 0; i < header.length; i++) {
+			if (i >= size || window.Get(i) != header[i]) {
+				throw new IllegalArgumentException("Not a CSV dataset file.");
+			}
+		}
+
+		List<long[]> regions = new ArrayList<long[]>();
+		long start = header.length;
+		while (start < size) {
+			long end = start + _regionSize;
+			if (end >= size) {
+				end = size;
+			} else {
+				// moving to the next line start
+				while (end < size && window.Get(end - 1) != '\n') {
+					end++;
+				}
+				// then past the rows of the same serie
+				long previous = end - 1;
+				while (previous > start && window.Get(previous - 1) != '\n') {
+					previous--;
+				}
+				while (end < size && sameName(window, size, previous, end)) {
+					while (end < size && window.Get(end) != '\n') {
+						end++;
+					}
+					end++;
+				}
+				end = Math.min(end, size);
+			}
+			addRegion(regions, start, end);
+			start = end;
+		}
+		return regions;
+	}
+
+	private static boolean sameName(MappedWindow window, long size, long a, long b) throws IOException {
+		while (b < size) {
+			byte x = window.Get(a++);
+			byte y = window.Get(b++);
+			if (x != y) {
+				return false;
+			}
+			if (x == ',' || x == '\n') {
+				return x == ',';
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sliding read-only mapping of a file, used to find the region
+	 * boundaries without reading the whole file.
+	 */
+	private static final class MappedWindow {
+		private final static long WindowSize = 8L << 20;
+
+		private final FileChannel _channel;
+		private MappedByteBuffer _buffer;
+		private long _start;
+		private long _end;
+
+		MappedWindow(FileChannel channel) {
+			_channel = channel;
+		}
+
+		byte Get(long offset) throws IOException {
+			if (offset < _start || offset >= _end) {
+				_start = Math.max(0, offset - 4096);
+				long length = Math.min(WindowSize, _channel.size() - _start);
+				_buffer = _channel.map(FileChannel.MapMode.READ_ONLY, _start, length);
+				_end = _start + length;
+			}
+			return _buffer.get((int) (offset - _start));
+		}
+
+		int GetInt(long offset) throws IOException {
+			return (Get(offset) & 0xFF) << 24 | (Get(offset + 1) & 0xFF) << 16 | (Get(offset + 2) & 0xFF) << 8
+					| (Get(offset + 3) & 0xFF);
+		}
+
+		short GetShort(long offset) throws IOException {
+			return (short) ((Get(offset) & 0xFF) << 8 | (Get(offset + 1) & 0xFF));
+		}
+	}
+
+	/**
+	 * Parses the series of a region, and hands them to the queue, followed by
+	 * {@link DatasetImporter#EndOfRegion}, or by the failure.
+	 */
+	private static abstract class RegionParser implements Runnable {
+		private final FileChannel _channel;
+		private final long _end;
+		private final BlockingQueue<Object> _queue;
+		protected final long offset;
+		protected final SerieBuffer serie = new SerieBuffer();
+		protected ByteBuffer buffer;
+
+		RegionParser(FileChannel channel, long[] region, BlockingQueue<Object> queue) {
+			_channel = channel;
+			offset = region[0];
+			_end = region[1];
+			_queue = queue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				// mapped once running, hence at most one region per thread
+				buffer = _channel.map(FileChannel.MapMode.READ_ONLY, offset, _end - offset);
+				parse();
+				_queue.put(EndOfRegion);
+			} catch (InterruptedException e) {
+				// the import has failed
+			} catch (Throwable t) {
+				try {
+					_queue.put(t);
+				} catch (InterruptedException e) {
+					// the import has failed
+				}
+			}
+		}
+
+		protected abstract void parse() throws InterruptedException;
+
+		protected void emit() throws InterruptedException {
+			_queue.put(serie.ToTimeSerie());
+		}
+
+		protected String ascii(int position, int length) {
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buffer.get(position + i);
+			}
+			return new String(bytes, DatasetFiles.Ascii);
+		}
+
+		protected IllegalArgumentException invalid(String what, int position) {
+			return new IllegalArgumentException(String.format("Invalid %s at offset %d.", what, offset + position));
+		}
+	}
+
+	private static final class BinaryRegionParser extends RegionParser {
+		private int _position;
+		private int _blockStart;
+		private int _blockEnd;
+
+		BinaryRegionParser(FileChannel channel, long[] region, BlockingQueue<Object> queue) {
+			super(channel, region, queue);
+		}
+
+		@Override
+		protected void parse() throws InterruptedException {
+			int limit = buffer.limit();
+			while (_position < limit) {
+				_blockStart = _position;
+				_blockEnd = limit;
+				require(4);
+				int blockLength = buffer.getInt(_position);
+				_position += 4;
+				require(blockLength);
+				_blockEnd = _position + blockLength;
+
+				require(2);
+				int nameLength = buffer.getShort(_position);
+				_position += 2;
+				require(nameLength);
+				serie.Reset(ascii(_position, nameLength));
+				_position += nameLength;
+				serie.tags = readTags();
+
+				require(4);
+				int eventCount = buffer.getInt(_position);
+				_position += 4;
+				require(16L * eventCount);
+				int times = _position;
+				_position += 16 * eventCount;
+				for (int i = 0; i < eventCount; i++) {
+					serie.AddEvent(buffer.getLong(times + 8 * i), buffer.getLong(times + 8 * (eventCount + i)),
+							readTags());
+				}
+
+				require(4);
+				int valueCount = buffer.getInt(_position);
+				_position += 4;
+				require(16L * valueCount);
+				int values = _position + 8 * valueCount;
+				for (int i = 0; i < valueCount; i++) {
+					serie.Add(buffer.getLong(_position + 8 * i), buffer.getDouble(values + 8 * i));
+				}
+				_position = values + 8 * valueCount;
+
+				if (_position != _blockEnd) {
+					throw invalid("serie block", _blockStart);
+				}
+				emit();
+			}
+		}
+
+		private String[] readTags() {
+			require(2);
+			int count = buffer.getShort(_position);
+			_position += 2;
+			if (count == 0) {
+				return null;
+			}
+			// each tag takes 2 bytes at least
+			require(2L * count);
+			String[] tags = new String[count];
+			for (int i = 0; i < count; i++) {
+				require(2);
+				int length = buffer.getShort(_position);
+				_position += 2;
+				require(length);
+				tags[i] = ascii(_position, length);
+				_position += length;
+			}
+			return tags;
+		}
+
+		/**
+		 * Fails unless the current block holds the specified number of bytes
+		 * past the current position, before anything is read.
+		 */
+		private void require(long length) {
+			if (length < 0 || length > _blockEnd - _position) {
+				throw invalid("serie block", _blockStart);
+			}
+		}
+	}
+
+	private static final class CsvRegionParser extends RegionParser {
+		private final int[] _commas = new int[5];
+
+		CsvRegionParser(FileChannel channel, long[] region, BlockingQueue<Object> queue) {
+			super(channel, region, queue);
+		}
+
+		@Override
+		protected void parse() throws InterruptedException {
+			int limit = buffer.limit();
+			int position = 0;
+			int nameStart = -1;
+			int nameLength = 0;
+			while (position < limit) {
+				int lineEnd = position;
+				int commas = 0;
+				for (; lineEnd < limit; lineEnd++) {
+					byte b = buffer.get(lineEnd);
+					if (b == '\n') {
+						break;
+					}
+					if (b == ',' && commas < _commas.length) {
+						_commas[commas++] = lineEnd;
+					}
+				}
+				int end = lineEnd > position && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+				if (end == position) {
+					position = lineEnd + 1;
+					continue; // blank line
+				}
+				if (commas != _commas.length) {
+					throw invalid("row", position);
+				}
+
+				// a new serie starts whenever the name changes
+				int length = _commas[0] - position;
+				if (nameStart < 0 || !sameBytes(nameStart, position, length, nameLength)) {
+					if (nameStart >= 0) {
+						emit();
+					}
+					serie.Reset(ascii(position, length));
+					nameStart = position;
+					nameLength = length;
+				}
+
+				if (_commas[1] - _commas[0] != 2) {
+					throw invalid("row kind", position);
+				}
+				switch (buffer.get(_commas[0] + 1)) {
+				case 'V':
+					serie.Add(parseTime(_commas[1] + 1, _commas[2]), DatasetFiles.ParseDouble(buffer,
+							_commas[2] + 1, _commas[3]));
+					break;
+				case 'T':
+					serie.tags = parseTags(_commas[3] + 1, _commas[4]);
+					break;
+				case 'E':
+					serie.AddEvent(parseTime(_commas[1] + 1, _commas[2]), _commas[4] + 1 == end ? DatasetFiles.NoTime
+							: parseTime(_commas[4] + 1, end), parseTags(_commas[3] + 1, _commas[4]));
+					break;
+				default:
+					throw invalid("row kind", position);
+				}
+				position = lineEnd + 1;
+			}
+			if (nameStart >= 0) {
+				emit();
+			}
+		}
+
+		private boolean sameBytes(int a, int b, int length, int otherLength) {
+			if (length != otherLength) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(a + i) != buffer.get(b + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private long parseTime(int from, int to) {
+			if (to - from != DatasetFiles.TimeLength) {
+				throw invalid("time", from);
+			}
+			return DatasetFiles.ParseTime(buffer, from);
+		}
+
+		private String[] parseTags(int from, int to) {
+			if (from == to) {
+				return null;
+			}
+			List<String> tags = new ArrayList<String>();
+			int start = from;
+			for (int i = from; i <= to; i++) {
+				if (i == to || buffer.get(i) == ';') {
+					tags.add(ascii(start, i - start));
+					start = i + 1;
+				}
+			}
+			return tags.toArray(new String[] {});
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package lokad.forecasting;
+
+/**
+ * Layouts of the files written by {@link DatasetExporter}.
+ */
+public enum ExportFormat {
+	/**
+	 * One row per value, event and serie tags, with the header
+	 * <code>Serie,Kind,Time,Value,Tags,KnownSince</code>. Kind is
+	 * <code>T</code> for the tags of the serie, <code>E</code> for an event
+	 * and <code>V</code> for a value; times are UTC, formatted as
+	 * <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code>, tags are separated by
+	 * <code>;</code>. The rows of a serie are contiguous.
+	 */
+	Csv,
+
+	/**
+	 * Length-prefixed serie blocks, each holding the name, the tags, the
+	 * events, then the times and the values of the serie as two columns.
+	 * Integers are big-endian, times are epoch milliseconds.
+	 */
+	Binary
+}
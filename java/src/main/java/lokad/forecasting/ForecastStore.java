@@ -0,0 +1,443 @@
+package lokad.forecasting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * On-disk store of forecasts, one memory-mapped file per dataset.
+ * <p>
+ * Each file starts with an index mapping serie names to a range of values,
+ * followed by three columns holding respectively the times (epoch millis),
+ * the values and the accuracies of all the forecasted values of the dataset.
+ * </p>
+ * <p>
+ * Files are never updated in place: a write produces a new file which
+ * atomically replaces the previous one. Hence, several JVMs of the same host
+ * can read a store concurrently, each reader keeping a consistent snapshot
+ * until it notices that the file has been replaced. Writers are serialized
+ * through a lock per dataset within the JVM, and through a lock file across
+ * processes.
+ * </p>
+ * <p>
+ * Each write rewrites the whole file of the dataset, reading back all the
+ * forecasts it holds: the cost of a {@link #Put(String, ForecastSerie[])}
+ * grows with the size of the dataset, not with the number of forecasts
+ * written, and the directory needs room for two copies of the file while it
+ * is replaced. Store the forecasts of a dataset in a few large puts rather
+ * than many small ones. Concurrent writes are batched, the writer holding
+ * the lock storing the forecasts of all the writers waiting for it in a
+ * single rewrite.
+ * </p>
+ *
+ * @see ForecastingClient#SetForecastStore(ForecastStore)
+ */
+public class ForecastStore {
+
+	private final static int Magic = 0x4C4B4643; // "LKFC"
+	private final static int Version = 1;
+	private final static Charset Ascii = Charset.forName("US-ASCII");
+
+	/**
+	 * Pending writes of each dataset file of the JVM, by canonical path, so
+	 * that stores sharing a directory share them; an entry only lives while
+	 * a write of its file is in progress.
+	 */
+	private final static ConcurrentMap<String, PendingWrites> Writes = new ConcurrentHashMap<String, PendingWrites>();
+
+	private final File _directory;
+	private final Map<String, Snapshot> _snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+	/**
+	 * Create a store persisting its files in the specified directory.
+	 *
+	 * @param directory
+	 *            Directory of the store, created if it does not exist.
+	 * @throws IOException
+	 *             if the directory cannot be created.
+	 */
+	public ForecastStore(File directory) throws IOException {
+		if (null == directory) {
+			throw new NullPointerException("directory");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Cannot create directory %s.", directory));
+		}
+		_directory = directory;
+	}
+
+	/**
+	 * Gets the stored forecasts of the specified series. No network call is
+	 * made.
+	 *
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param serieNames
+	 *            Targeted series. Series that are not stored are ignored.
+	 * @return Stored forecasts, in the order of <code>serieNames</code>.
+	 * @throws IOException
+	 *             if the file of the dataset cannot be read.
+	 */
+	public ForecastSerie[] Get(String datasetName, String[] serieNames) throws IOException {
+		if (null == serieNames) {
+			throw new NullPointerException("serieNames");
+		}
+
+		Snapshot snapshot = getSnapshot(datasetName);
+		List<ForecastSerie> forecasts = new ArrayList<ForecastSerie>(serieNames.length);
+		if (null == snapshot) {
+			return forecasts.toArray(new ForecastSerie[] {});
+		}
+
+		for (String serieName : serieNames) {
+			ForecastSerie forecast = snapshot.read(serieName);
+			if (null != forecast) {
+				forecasts.add(forecast);
+			}
+		}
+		return forecasts.toArray(new ForecastSerie[] {});
+	}
+
+	/**
+	 * Stores the specified forecasts. Forecasts already stored for other
+	 * series of the dataset are kept, forecasts stored for the same series are
+	 * replaced.
+	 *
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param forecasts
+	 *            Forecasts to be stored.
+	 * @throws IOException
+	 *             if the file of the dataset cannot be written.
+	 */
+	public void Put(String datasetName, ForecastSerie[] forecasts) throws IOException {
+		if (null == forecasts) {
+			throw new NullPointerException("forecasts");
+		}
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException("Invalid dataset name.");
+		}
+
+		String path = getFile(datasetName).getCanonicalPath();
+		PendingWrite write = new PendingWrite(forecasts);
+		PendingWrites writes;
+		while (true) {
+			writes = Writes.get(path);
+			if (null == writes) {
+				writes = new PendingWrites();
+				PendingWrites existing = Writes.putIfAbsent(path, writes);
+				if (null != existing) {
+					writes = existing;
+				}
+			}
+			synchronized (writes) {
+				if (!writes.retired) {
+					writes.writers++;
+					writes.pending.add(write);
+					break;
+				}
+			}
+			// removed by its last writer, creating another one
+		}
+
+		try {
+			put(datasetName, writes, write);
+		} finally {
+			synchronized (writes) {
+				if (0 == --writes.writers) {
+					writes.retired = true;
+					Writes.remove(path, writes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores a pending write, along with the ones queued before it takes the
+	 * lock, unless a writer which held the lock stored it meanwhile.
+	 */
+	private void put(String datasetName, PendingWrites writes, PendingWrite write) throws IOException {
+		synchronized (writes.lock) {
+			List<PendingWrite> batch;
+			synchronized (writes) {
+				if (write.written) {
+					// stored by the writer which held the lock
+					return;
+				}
+				batch = new ArrayList<PendingWrite>(writes.pending);
+				writes.pending.clear();
+			}
+			try {
+				write(datasetName, batch);
+			} catch (IOException e) {
+				requeue(writes, batch, write);
+				throw e;
+			} catch (RuntimeException e) {
+				requeue(writes, batch, write);
+				throw e;
+			}
+			synchronized (writes) {
+				for (PendingWrite done : batch) {
+					done.written = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives the writes of the other writers back after a failure, for them
+	 * to try again.
+	 */
+	private static void requeue(PendingWrites writes, List<PendingWrite> batch, PendingWrite failed) {
+		synchronized (writes) {
+			for (PendingWrite write : batch) {
+				if (write != failed) {
+					writes.pending.add(write);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the file of the dataset by its content merged with a batch of
+	 * writes, holding the lock file.
+	 */
+	private void write(String datasetName, List<PendingWrite> batch) throws IOException {
+		File file = getFile(datasetName);
+		RandomAccessFile lockFile = new RandomAccessFile(new File(_directory, datasetName + ".lock"), "rw");
+		try {
+			FileLock lock = lockFile.getChannel().lock();
+			try {
+				// merging with the current content of the file, which might
+				// have been written by another process
+				Map<String, ForecastSerie> merged = new LinkedHashMap<String, ForecastSerie>();
+				Snapshot current = getSnapshot(datasetName);
+				if (null != current) {
+					for (String serieName : current.index.keySet()) {
+						merged.put(serieName, current.read(serieName));
+					}
+				}
+				for (PendingWrite write : batch) {
+					for (ForecastSerie forecast : write.forecasts) {
+						merged.put(forecast.Name, forecast);
+					}
+				}
+
+				File temp = File.createTempFile(datasetName, ".tmp", _directory);
+				try {
+					write(temp, merged.values());
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					if (temp.exists()) {
+						temp.delete();
+					}
+				}
+				_snapshots.remove(datasetName);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			lockFile.close();
+		}
+	}
+
+	private File getFile(String datasetName) {
+		return new File(_directory, datasetName + ".forecasts");
+	}
+
+	/**
+	 * Returns the mapped content of the dataset file, re-mapping the file if
+	 * it has been replaced since the last read.
+	 */
+	private Snapshot getSnapshot(String datasetName) throws IOException {
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException("Invalid dataset name.");
+		}
+
+		File file = getFile(datasetName);
+		if (!file.exists()) {
+			_snapshots.remove(datasetName);
+			return null;
+		}
+
+		// a replaced file comes with a new file key (inode), the modification
+		// time is only used as a fallback on platforms without file keys
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		Object version = attributes.fileKey() != null ? attributes.fileKey() : attributes.lastModifiedTime();
+
+		Snapshot snapshot = _snapshots.get(datasetName);
+		if (null != snapshot && snapshot.version.equals(version)) {
+			return snapshot;
+		}
+
+		snapshot = Snapshot.open(file, version);
+		_snapshots.put(datasetName, snapshot);
+		return snapshot;
+	}
+
+	private static void write(File file, Iterable<ForecastSerie> forecasts) throws IOException {
+		int serieCount = 0;
+		int valueCount = 0;
+		int indexLength = 0;
+		for (ForecastSerie forecast : forecasts) {
+			serieCount++;
+			valueCount += forecast.Values != null ? forecast.Values.length : 0;
+			indexLength += 2 + forecast.Name.length() + 4 + 4;
+		}
+
+		long length = 16L + indexLength + valueCount * 24L;
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Forecasts of a dataset cannot exceed 2GB once stored.");
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+			buffer.putInt(Magic);
+			buffer.putInt(Version);
+			buffer.putInt(serieCount);
+			buffer.putInt(valueCount);
+
+			int columnStart = 16 + indexLength;
+			int offset = 0;
+			for (ForecastSerie forecast : forecasts) {
+				int count = forecast.Values != null ? forecast.Values.length : 0;
+				byte[] name = forecast.Name.getBytes(Ascii);
+				buffer.putShort((short) name.length);
+				buffer.put(name);
+				buffer.putInt(offset);
+				buffer.putInt(count);
+
+				for (int i = 0; i < count; i++) {
+					ForecastValue value = forecast.Values[i];
+					int position = offset + i;
+					buffer.putLong(columnStart + position * 8, value.Time.getTimeInMillis());
+					buffer.putDouble(columnStart + valueCount * 8 + position * 8, value.Value);
+					buffer.putDouble(columnStart + valueCount * 16 + position * 8, value.Accuracy);
+				}
+				offset += count;
+			}
+
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes of a dataset file waiting for its lock.
+	 */
+	private static class PendingWrites {
+		/**
+		 * Held by the writer of the file.
+		 */
+		final Object lock = new Object();
+
+		// guarded by this
+		final List<PendingWrite> pending = new ArrayList<PendingWrite>();
+		int writers;
+		boolean retired;
+	}
+
+	private static class PendingWrite {
+		final ForecastSerie[] forecasts;
+
+		// guarded by the PendingWrites
+		boolean written;
+
+		PendingWrite(ForecastSerie[] forecasts) {
+			this.forecasts = forecasts;
+		}
+	}
+
+	/**
+	 * Read-only mapping of a dataset file, along with its decoded index.
+	 */
+	private static class Snapshot {
+		final Object version;
+		final Map<String, int[]> index;
+		final ByteBuffer buffer;
+		final int valueCount;
+		final int columnStart;
+
+		private Snapshot(Object version, Map<String, int[]> index, ByteBuffer buffer, int valueCount,
+				int columnStart) {
+			this.version = version;
+			this.index = index;
+			this.buffer = buffer;
+			this.valueCount = valueCount;
+			this.columnStart = columnStart;
+		}
+
+		static Snapshot open(File file, Object version) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// the mapping remains valid once the file is closed
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+				if (buffer.getInt() != Magic || buffer.getInt() != Version) {
+					throw new IOException(String.format("%s is not a forecast store file.", file));
+				}
+				int serieCount = buffer.getInt();
+				int valueCount = buffer.getInt();
+
+				Map<String, int[]> index = new HashMap<String, int[]>(serieCount * 2);
+				byte[] name = new byte[Short.MAX_VALUE];
+				for (int i = 0; i < serieCount; i++) {
+					int nameLength = buffer.getShort();
+					buffer.get(name, 0, nameLength);
+					int offset = buffer.getInt();
+					int count = buffer.getInt();
+					index.put(new String(name, 0, nameLength, Ascii), new int[] { offset, count });
+				}
+
+				return new Snapshot(version, index, buffer, valueCount, buffer.position());
+			} finally {
+				raf.close();
+			}
+		}
+
+		ForecastSerie read(String serieName) {
+			int[] entry = index.get(serieName);
+			if (null == entry) {
+				return null;
+			}
+
+			ForecastSerie forecast = new ForecastSerie();
+			forecast.Name = serieName;
+			forecast.Values = new ForecastValue[entry[1]];
+			for (int i = 0; i < entry[1]; i++) {
+				int position = entry[0] + i;
+				ForecastValue value = new ForecastValue();
+				Calendar time = new GregorianCalendar();
+				time.setTimeInMillis(buffer.getLong(columnStart + position * 8));
+				value.Time = time;
+				value.Value = buffer.getDouble(columnStart + valueCount * 8 + position * 8);
+				value.Accuracy = buffer.getDouble(columnStart + valueCount * 16 + position * 8);
+				forecast.Values[i] = value;
+			}
+			return forecast;
+		}
+	}
+}
@@ -7,28 +7,345 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.Iterator;
 
+public class ForecastingApi implements IForecastingApi {
 
+	// The documents are encoded and decoded by the generated XmlCodecs,
+	// producing the same XML as XStream did, without reflection.
 
+	/**
+	 * Encodes a request body.
+	 */
+	private static abstract class RequestBody {
+		abstract void writeTo(OutputStream outputStream) throws IOException;
+	}
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+	/**
+	 * Decodes a response body, and extracts its error code.
+	 */
+	private static abstract class ResponseParser<T> {
+		abstract T parse(InputStream inputStream) throws IOException;
 
+		abstract String getErrorCode(T response);
+	}
 
-public class ForecastingApi implements IForecastingApi {
+	private final static ResponseParser<String> ErrorCodeParser = new ResponseParser<String>() {
+		@Override
+		String parse(InputStream inputStream) throws IOException {
+			return XmlCodecs.DecodeErrorCode(inputStream);
+		}
 
-	private final String endPoint;
+		@Override
+		String getErrorCode(String response) {
+			return response;
+		}
+	};
+
+	private final static ResponseParser<DatasetCollection> DatasetCollectionParser = new ResponseParser<DatasetCollection>() {
+		@Override
+		DatasetCollection parse(InputStream inputStream) throws IOException {
+			return XmlCodecs.DecodeDatasetCollection(inputStream);
+		}
+
+		@Override
+		String getErrorCode(DatasetCollection response) {
+			return response.ErrorCode;
+		}
+	};
+
+	private final static ResponseParser<TimeSerieCollection> TimeSerieCollectionParser = new ResponseParser<TimeSerieCollection>() {
+		@Override
+		TimeSerieCollection parse(InputStream inputStream) throws IOException {
+			return XmlCodecs.DecodeTimeSerieCollection(inputStream);
+		}
+
+		@Override
+		String getErrorCode(TimeSerieCollection response) {
+			return response.ErrorCode;
+		}
+	};
+
+	private final static ResponseParser<ForecastStatus> ForecastStatusParser = new ResponseParser<ForecastStatus>() {
+		@Override
+		ForecastStatus parse(InputStream inputStream) throws IOException {
+			return XmlCodecs.DecodeForecastStatus(inputStream);
+		}
+
+		@Override
+		String getErrorCode(ForecastStatus response) {
+			return response.ErrorCode;
+		}
+	};
+
+	private final static ResponseParser<ForecastCollection> ForecastCollectionParser = new ResponseParser<ForecastCollection>() {
+		@Override
+		ForecastCollection parse(InputStream inputStream) throws IOException {
+			return XmlCodecs.DecodeForecastCollection(inputStream);
+		}
+
+		@Override
+		String getErrorCode(ForecastCollection response) {
+			return response.ErrorCode;
+		}
+	};
+
+	/**
+	 * Request and response bytes transferred by the calling thread, consumed
+	 * by the progress tracking of {@link ForecastingClient}.
+	 */
+	private final static ThreadLocal<long[]> TransferredBytes = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
 
+	private final String endPoint;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+
+	private volatile IMetricsListener metricsListener;
+	private volatile BufferPool bufferPool = DefaultBufferPool;
+
+	/**
+	 * Pool shared by the instances by default: up to 64 buffers of 64KB.
+	 */
+	private final static BufferPool DefaultBufferPool = new BufferPool(64 * 1024, 64);
+
+	/**
+	 * Pool handing out heap buffers only, when pooling is disabled.
+	 */
+	private final static BufferPool HeapBufferPool = new BufferPool(8192, 0);
+
+	/**
+	 * Creates an API without connect or read timeouts; the calls are only
+	 * bounded by the deadline of their {@link RequestContext}, if any.
+	 *
+	 * @param endPoint
+	 *            URL of the REST endpoint.
+	 */
 	public ForecastingApi(String endPoint) {
+		this(endPoint, 0, 0);
+	}
+
+	/**
+	 * @param endPoint
+	 *            URL of the REST endpoint.
+	 * @param connectTimeoutMillis
+	 *            Timeout when opening a connection, in milliseconds, 0 meaning
+	 *            no timeout.
+	 * @param readTimeoutMillis
+	 *            Timeout when reading a response, in milliseconds, 0 meaning no
+	 *            timeout.
+	 */
+	public ForecastingApi(String endPoint, int connectTimeoutMillis, int readTimeoutMillis) {
 		this.endPoint = endPoint;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Plugs a listener notified of the timings, sizes and outcome of every
+	 * call.
+	 *
+	 * @param metricsListener
+	 *            Listener, or <code>null</code> to disable the notifications.
+	 * @see HistogramMetricsListener
+	 */
+	public void SetMetricsListener(IMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Sets the pool of buffers holding the request and response bodies. By
+	 * default, all the instances share a pool of up to 64 direct buffers of
+	 * 64KB.
+	 *
+	 * @param bufferPool
+	 *            Pool, or <code>null</code> to hold the request bodies in heap
+	 *            buffers, and to stream the responses through the connection.
+	 */
+	public void SetBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Pool holding the request bodies.
+	 */
+	BufferPool GetBufferPool() {
+		BufferPool pool = bufferPool;
+		return null != pool ? pool : HeapBufferPool;
 	}
 
-	private String getErrorCode(InputStream inputStream) {
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-		xstream.alias("ErrorCode", String.class);
-		String errorCode = (String) xstream.fromXML(inputStream);
-		return errorCode;
+	/**
+	 * Gets the bytes transferred by the calls made from the current thread
+	 * since the previous invocation.
+	 */
+	static long TakeTransferredBytes() {
+		long[] transferred = TransferredBytes.get();
+		long bytes = transferred[0];
+		transferred[0] = 0;
+		return bytes;
 	}
-	
+
+	/**
+	 * Accounts the bytes of a call made on behalf of the current thread by
+	 * another one.
+	 */
+	static void AddTransferredBytes(long bytes) {
+		TransferredBytes.get()[0] += bytes;
+	}
+
+	/**
+	 * Opens a connection, its timeouts cut to the time left before the
+	 * deadline of the {@link RequestContext} of the calling thread, if any.
+	 *
+	 * @throws OperationAbortedException
+	 *             If the context is already aborted.
+	 */
+	private HttpURLConnection openConnection(URL url) throws IOException {
+		int connectTimeout = connectTimeoutMillis;
+		int readTimeout = readTimeoutMillis;
+		RequestContext context = RequestContext.GetCurrent();
+		if (null != context) {
+			if (context.IsAborted()) {
+				throw context.NewAbortedException();
+			}
+			long remaining = context.GetRemainingMillis();
+			connectTimeout = timeout(connectTimeout, remaining);
+			readTimeout = timeout(readTimeout, remaining);
+		}
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		return connection;
+	}
+
+	/**
+	 * Timeout no longer than the time left, 0 meaning no timeout.
+	 */
+	private static int timeout(int timeoutMillis, long remainingMillis) {
+		if (Long.MAX_VALUE == remainingMillis) {
+			return timeoutMillis;
+		}
+		int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remainingMillis));
+		return 0 == timeoutMillis || timeoutMillis > remaining ? remaining : timeoutMillis;
+	}
+
+	/**
+	 * Sends a request, optionally with a XML body, and decodes the response,
+	 * reporting the call to the metrics listener.
+	 */
+	private <T> T execute(String operation, String datasetName, int sliceSize, String identity, String method,
+			String u, RequestBody request, ResponseParser<T> parser) throws IOException {
+		return execute(operation, datasetName, sliceSize, identity, method, u, request, null, parser);
+	}
+
+	/**
+	 * Sends a request, with either a XML body or a body already serialized,
+	 * and decodes the response.
+	 */
+	private <T> T execute(String operation, String datasetName, int sliceSize, String identity, String method,
+			String u, RequestBody request, PooledBytes payload, ResponseParser<T> parser)
+			throws IOException {
+		ApiCallEvent event = new ApiCallEvent();
+		event.begin();
+		long start = System.nanoTime();
+		long connected = start;
+		long firstByte = start;
+		int responseCode = -1;
+		String errorCode = null;
+		CountingOutputStream outputStream = null;
+		CountingInputStream inputStream = null;
+		BufferPool pool = bufferPool;
+		PooledBytes body = null;
+
+		URL url = new URL(u);
+		HttpURLConnection connection = openConnection(url);
+		try {
+			connection.setDoInput(true);
+			connection.setRequestMethod(method);
+			connection.setRequestProperty("Authorization", "Basic " + identity);
+			if (null != request || null != payload) {
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/xml");
+			}
+			if (null != request) {
+				// serialized into pooled buffers before connecting, then sent
+				// with a fixed length, instead of being copied into a buffer
+				// growing with the body in the connection; the stage does not
+				// time the upload along with the serialization
+				body = new PooledBytes(null != pool ? pool : HeapBufferPool);
+				ClientStageEvent serialization = ClientStageEvent.Begin();
+				request.writeTo(body);
+				serialization.End(ClientStageEvent.Serialization, datasetName, sliceSize);
+				connection.setFixedLengthStreamingMode(body.GetLength());
+			} else if (null != payload) {
+				// streamed as is, instead of being copied into an internal
+				// buffer of the connection
+				connection.setFixedLengthStreamingMode(payload.GetLength());
+			}
+
+			connection.connect();
+			connected = System.nanoTime();
+
+			if (null != body) {
+				outputStream = new CountingOutputStream(connection.getOutputStream());
+				body.WriteTo(outputStream);
+				body.Release();
+			} else if (null != payload) {
+				outputStream = new CountingOutputStream(connection.getOutputStream());
+				payload.WriteTo(outputStream);
+			}
+
+			//
+			responseCode = connection.getResponseCode();
+			firstByte = System.nanoTime();
+			inputStream = new CountingInputStream(connection.getInputStream());
+			T response;
+			if (null != pool) {
+				// the body is read off the connection at once, then decoded
+				// in place from the pooled buffers
+				if (null == body) {
+					body = new PooledBytes(pool);
+				}
+				body.ReadFrom(inputStream);
+				inputStream.close();
+				response = parser.parse(body.NewInputStream());
+			} else {
+				response = parser.parse(inputStream);
+			}
+			errorCode = parser.getErrorCode(response);
+			return response;
+		} finally {
+			if (null != body) {
+				body.Release();
+			}
+			connection.disconnect();
+
+			long requestBytes = null != outputStream ? outputStream.getCount() : 0;
+			long responseBytes = null != inputStream ? inputStream.getCount() : 0;
+			TransferredBytes.get()[0] += requestBytes + responseBytes;
+
+			IMetricsListener listener = metricsListener;
+			if (null != listener) {
+				listener.OperationCompleted(operation, datasetName, connected - start, firstByte - start,
+						System.nanoTime() - start, requestBytes, responseBytes, responseCode, errorCode, 0);
+			}
+
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.dataset = datasetName;
+				event.sliceSize = sliceSize;
+				event.requestBytes = requestBytes;
+				event.responseBytes = responseBytes;
+				event.httpStatus = responseCode;
+				event.errorCode = errorCode;
+				event.commit();
+			}
+		}
+	}
+
 	static String join(Collection<String> s, String delimiter) {
 		StringBuilder builder = new StringBuilder();
 		Iterator<String> iter = s.iterator();
@@ -55,214 +372,90 @@ public class ForecastingApi implements IForecastingApi {
 	}
 
 	@Override
-	public String InsertDataset(String identity, Dataset dataset) throws IOException {
-		String errorCode = "";
-
-		URL url = new URL(endPoint + "/datasets");
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-		connection.setRequestMethod("PUT");
-		connection.setRequestProperty("Content-Type", "application/xml");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		OutputStream outputStream = connection.getOutputStream();
-		//
-		XStream xstream = new XStream(new DomDriver());
-		xstream.alias("Dataset", Dataset.class);
-		xstream.toXML(dataset, outputStream);
-		//
-		int responseCode = connection.getResponseCode();
-		errorCode = getErrorCode(connection.getInputStream());
-
-		connection.disconnect();
-
-		return errorCode;
+	public String InsertDataset(String identity, final Dataset dataset) throws IOException {
+		return execute(ApiOperations.InsertDataset, dataset.Name, 1, identity, "PUT", endPoint + "/datasets",
+				new RequestBody() {
+					@Override
+					void writeTo(OutputStream outputStream) throws IOException {
+						XmlCodecs.EncodeDataset(dataset, outputStream);
+					}
+				}, ErrorCodeParser);
 	}
 
 	@Override
 	public DatasetCollection ListDatasets(String identity, String continuationToken) throws IOException {
-		DatasetCollection datasets = null;
 		String u = endPoint + "/datasets"
 				+ ((continuationToken != null && continuationToken.length() > 0) ? "/" + continuationToken : "");
-		URL url = new URL(u);
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-														// library
-		xstream.alias("DatasetCollection", DatasetCollection.class);
-		xstream.alias("Dataset", Dataset.class);
-
-		//
-		int responseCode = connection.getResponseCode();
-		InputStream inputStream = connection.getInputStream();
-		datasets = (DatasetCollection) xstream.fromXML(inputStream);
-
-		connection.disconnect();
-
-		return datasets;
+		return execute(ApiOperations.ListDatasets, null, 0, identity, "GET", u, null, DatasetCollectionParser);
 	}
 
 	@Override
 	public String DeleteDataset(String identity, String datasetName) throws IOException {
-		String errorCode = "";
-		URL url = new URL(endPoint + "/datasets/" + datasetName);
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("DELETE");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		int responseCode = connection.getResponseCode();
-		errorCode = getErrorCode(connection.getInputStream());
-
-		connection.disconnect();
-
-		return errorCode;
+		return execute(ApiOperations.DeleteDataset, datasetName, 0, identity, "DELETE", endPoint + "/datasets/"
+				+ datasetName, null, ErrorCodeParser);
 	}
 
 	@Override
-	public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries, Boolean enableMerge) throws IOException {
-		String errorCode = "";
+	public String UpsertTimeSeries(String identity, String datasetName, final TimeSerie[] timeSeries, Boolean enableMerge) throws IOException {
 		String suffix = "/series/" + datasetName + "?merge=" + ((enableMerge) ? "true" : "false");
-		URL url = new URL(endPoint + suffix);
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-		connection.setRequestMethod("PUT");
-		connection.setRequestProperty("Content-Type", "application/xml");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		OutputStream outputStream = connection.getOutputStream();
-		//
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-														// library
-		xstream.alias("TimeSeries", TimeSerie[].class);
-		xstream.alias("TimeSerie", TimeSerie.class);
-		xstream.alias("TimeValue", TimeValue.class);
-		xstream.alias("EventValue", EventValue.class);
-		xstream.registerConverter(new DateConverter());
-		xstream.toXML(timeSeries, outputStream);
-
-		//
-		int responseCode = connection.getResponseCode();
-		errorCode = getErrorCode(connection.getInputStream());
-
-		connection.disconnect();
-
-		return errorCode;
+		return execute(ApiOperations.UpsertTimeSeries, datasetName, timeSeries.length, identity, "PUT", endPoint + suffix,
+				new RequestBody() {
+					@Override
+					void writeTo(OutputStream outputStream) throws IOException {
+						XmlCodecs.EncodeTimeSeries(timeSeries, outputStream);
+					}
+				}, ErrorCodeParser);
+	}
+
+	/**
+	 * Upserts series already serialized by
+	 * {@link #SerializeTimeSeries(TimeSerie[], OutputStream)}.
+	 */
+	String UpsertTimeSeries(String identity, String datasetName, int sliceSize, PooledBytes payload,
+			Boolean enableMerge) throws IOException {
+		String suffix = "/series/" + datasetName + "?merge=" + ((enableMerge) ? "true" : "false");
+		return execute(ApiOperations.UpsertTimeSeries, datasetName, sliceSize, identity, "PUT", endPoint + suffix,
+				null, payload, ErrorCodeParser);
+	}
+
+	/**
+	 * Serializes series as the body of an upsert request.
+	 */
+	static void SerializeTimeSeries(TimeSerie[] timeSeries, OutputStream outputStream) throws IOException {
+		XmlCodecs.EncodeTimeSeries(timeSeries, outputStream);
 	}
 
 	@Override
 	public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken) throws IOException {
-		TimeSerieCollection timeSerieCollection = null;
 		String u = endPoint + "/series/" + datasetName
 				+ ((continuationToken != null && continuationToken.length() > 0) ? "/" + continuationToken : "");
-		URL url = new URL(u);
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-														// library
-		xstream.alias("TimeSerieCollection", TimeSerieCollection.class);
-		xstream.alias("TimeSerie", TimeSerie.class);
-		xstream.alias("TimeValue", TimeValue.class);
-		xstream.alias("EventValue", EventValue.class);
-		xstream.registerConverter(new DateConverter());
-
-		//
-		int responseCode = connection.getResponseCode();
-		InputStream inputStream = connection.getInputStream();
-		timeSerieCollection = (TimeSerieCollection) xstream.fromXML(inputStream);
-
-		connection.disconnect();
-
-		return timeSerieCollection;
+		return execute(ApiOperations.ListTimeSeries, datasetName, 0, identity, "GET", u, null,
+				TimeSerieCollectionParser);
 	}
 
 	@Override
 	public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) throws IOException {
-		String errorCode = "";
-
 		String series = join(serieNames, ";");
 		StringBuilder sb = new StringBuilder(endPoint).append("/series/").append(datasetName).append("?n=")
 				.append(series);
 
-		URL url = new URL(sb.toString());
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("DELETE");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		int responseCode = connection.getResponseCode();
-		errorCode = getErrorCode(connection.getInputStream());
-
-		connection.disconnect();
-
-		return errorCode;
+		return execute(ApiOperations.DeleteTimeSeries, datasetName, serieNames.length, identity, "DELETE", sb.toString(), null,
+				ErrorCodeParser);
 	}
 
 	@Override
 	public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
-		ForecastStatus status = null;
 		String u = endPoint + "/status/" + datasetName;
-		URL url = new URL(u);
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-														// library
-		xstream.alias("ForecastStatus", ForecastStatus.class);
-		//
-		int responseCode = connection.getResponseCode();
-		InputStream inputStream = connection.getInputStream();
-		status = (ForecastStatus) xstream.fromXML(inputStream);
-
-		connection.disconnect();
-
-		return status;
+		return execute(ApiOperations.GetForecastStatus, datasetName, 0, identity, "GET", u, null,
+				ForecastStatusParser);
 	}
 
 	@Override
 	public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames) throws IOException {
-		ForecastCollection forecasts = null;
 		String series = join(serieNames, ";");
 		StringBuilder sb = new StringBuilder(endPoint).append("/forecasts/").append(datasetName).append("?n=")
 				.append(series);
-		URL url = new URL(sb.toString());
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setDoInput(true);
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Authorization", "Basic " + identity);
-
-		//
-		XStream xstream = new XStream(new DomDriver()); // does not require XPP3
-														// library
-		xstream.alias("ForecastCollection", ForecastCollection.class);
-		xstream.alias("ForecastSerie", ForecastSerie.class);
-		xstream.alias("ForecastValue", ForecastValue.class);
-		xstream.alias("TimeSerieCollection", TimeSerieCollection.class);
-		xstream.alias("TimeSerie", TimeSerie.class);
-		xstream.alias("TimeValue", TimeValue.class);
-		xstream.registerConverter(new DateConverter());
-		//
-		int responseCode = connection.getResponseCode();
-		InputStream inputStream = connection.getInputStream();
-		forecasts = (ForecastCollection) xstream.fromXML(inputStream);
-
-		connection.disconnect();
-
-		return forecasts;
+		return execute(ApiOperations.GetForecasts, datasetName, serieNames.length, identity, "GET", sb.toString(), null,
+				ForecastCollectionParser);
 	}
 }
@@ -1,5 +1,10 @@
 package lokad.forecasting;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -13,11 +18,85 @@ public final class ForecastingApiValidators {
 	private final static String[] AllPeriods = new String[] { PeriodCodes.QuarterHour, PeriodCodes.HalfHour,
 			PeriodCodes.Hour, PeriodCodes.Day, PeriodCodes.Week, PeriodCodes.Month };
 
+	/**
+	 * Characters allowed in API names, indexed by their ASCII code.
+	 */
+	private final static boolean[] NameChars = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			NameChars[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			NameChars[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			NameChars[c] = true;
+		}
+	}
+
+	/**
+	 * Indicates whether the name matches {@link #DefaultNamePattern}. The check
+	 * relies on a lookup table and does not allocate.
+	 * 
+	 * @throws NullPointerException
+	 *             Thrown if the name is null.
+	 */
 	public static boolean IsValidApiName(String name) {
-		boolean valid = true;
-		valid &= name != null && !name.isEmpty();
-		valid &= DefaultNamePattern.matcher(name).find();
-		return valid;
+		int length = name.length();
+
+		// Same answers as the pattern, whose '$' also matches before a final
+		// line terminator.
+		if (length > 0) {
+			char last = name.charAt(length - 1);
+			if (last == '\n') {
+				length--;
+				if (length > 0 && name.charAt(length - 1) == '\r') {
+					length--;
+				}
+			} else if (last == '\r' || last == '\u0085' || last == '\u2028' || last == '\u2029') {
+				length--;
+			}
+		}
+
+		if (length == 0 || length > 32) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= NameChars.length || !NameChars[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates whether all the names match {@link #DefaultNamePattern}.
+	 * 
+	 * @throws NullPointerException
+	 *             Thrown if the array or one of the names is null.
+	 */
+	public static boolean AreValidApiNames(String[] names) {
+		return IndexOfInvalidApiName(names, 0) < 0;
+	}
+
+	/**
+	 * Gets the index of the first name not matching
+	 * {@link #DefaultNamePattern}, starting from the specified index.
+	 * 
+	 * @return Index of the invalid name, or -1 if all the names are valid.
+	 * @throws NullPointerException
+	 *             Thrown if the array or one of the names is null.
+	 */
+	public static int IndexOfInvalidApiName(String[] names, int fromIndex) {
+		for (int i = fromIndex; i < names.length; i++) {
+			if (!IsValidApiName(names[i])) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	private static boolean stringArrayContains(String[] array, String str) {
@@ -62,72 +141,216 @@ public final class ForecastingApiValidators {
 	}
 
 	public static void Validate(TimeSerie timeSerie) {
+		check(timeSerie, null);
+	}
+
+	/**
+	 * Gets all the violations of the Forecasting API restrictions found in a
+	 * time-serie, instead of stopping at the first one.
+	 * 
+	 * @return Descriptions of the violations, empty if the serie is valid.
+	 */
+	public static List<String> GetViolations(TimeSerie timeSerie) {
+		List<String> violations = new ArrayList<String>();
+		check(timeSerie, violations);
+		return violations;
+	}
+
+	/**
+	 * Gets all the violations found in a batch of time-series: the violations
+	 * of each serie, prefixed by the serie name, and the serie names which are
+	 * not distinct.
+	 * 
+	 * @return Descriptions of the violations, empty if the batch is valid.
+	 */
+	public static List<String> GetViolations(TimeSerie[] timeSeries) {
+		if (null == timeSeries) {
+			throw new NullPointerException("timeSeries");
+		}
+
+		List<String> violations = new ArrayList<String>();
+		for (TimeSerie timeSerie : timeSeries) {
+			checkPrefixed(timeSerie, violations);
+		}
+		checkDistinct(getNames(timeSeries), "%s is not a distinct serie name.", violations);
+		return violations;
+	}
+
+	/**
+	 * Same as {@link #GetViolations(TimeSerie[])}, but the series are
+	 * validated in parallel through the specified pool.
+	 * 
+	 * @return Descriptions of the violations, empty if the batch is valid.
+	 */
+	public static List<String> GetViolations(TimeSerie[] timeSeries, ForkJoinPool pool) {
+		if (null == timeSeries) {
+			throw new NullPointerException("timeSeries");
+		}
+		String[] serieNames = getNames(timeSeries);
+
+		List<String> violations = new ArrayList<String>(pool.invoke(new ValidationTask(timeSeries, 0,
+				timeSeries.length)));
+		checkDistinct(serieNames, "%s is not a distinct serie name.", violations);
+		return violations;
+	}
+
+	private static String[] getNames(TimeSerie[] timeSeries) {
+		String[] serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			if (null == timeSeries[i]) {
+				throw new NullPointerException("timeSerie");
+			}
+			serieNames[i] = timeSeries[i].Name;
+		}
+		return serieNames;
+	}
+
+	/**
+	 * Collects the violations of a serie, prefixed by the serie name.
+	 */
+	static void checkPrefixed(TimeSerie timeSerie, List<String> violations) {
+		if (null == timeSerie) {
+			throw new NullPointerException("timeSerie");
+		}
+		for (String violation : GetViolations(timeSerie)) {
+			violations.add(String.format("%s: %s", timeSerie.Name, violation));
+		}
+	}
+
+	/**
+	 * Indicates whether the times, expressed as epoch milliseconds, are
+	 * strictly increasing.
+	 * 
+	 * @param times
+	 *            Times of the values.
+	 * @param length
+	 *            Number of times to be checked, from the beginning of the
+	 *            array.
+	 */
+	public static boolean IsStrictlyOrdered(long[] times, int length) {
+		for (int i = 0; i < length - 1; i++) {
+			if (times[i + 1] <= times[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets all the violations found in a set of serie names: names which are
+	 * not valid API names, and names which are not distinct.
+	 * 
+	 * @return Descriptions of the violations, empty if the names are valid.
+	 */
+	public static List<String> GetSerieNameViolations(String[] serieNames) {
+		if (null == serieNames) {
+			throw new NullPointerException("serieNames");
+		}
+
+		List<String> violations = new ArrayList<String>();
+		checkSerieNames(serieNames, violations);
+		return violations;
+	}
+
+	static void checkSerieNames(String[] serieNames, List<String> violations) {
+		for (int i = IndexOfInvalidApiName(serieNames, 0); i >= 0; i = IndexOfInvalidApiName(serieNames, i + 1)) {
+			report(violations, String.format("%s is not a valid serie name.", serieNames[i]));
+		}
+		checkDistinct(serieNames, "%s is not a distinct serie name.", violations);
+	}
+
+	/**
+	 * Throws the violation if no list is provided to collect it.
+	 */
+	private static void report(List<String> violations, String violation) {
+		if (null == violations) {
+			throw new IllegalArgumentException(violation);
+		}
+		violations.add(violation);
+	}
+
+	/**
+	 * Hash-based distinctness check, each duplicate being reported once.
+	 */
+	private static void checkDistinct(String[] names, String format, List<String> violations) {
+		if (names.length < 2) {
+			return;
+		}
+
+		Set<String> distinct = new HashSet<String>(names.length * 2);
+		Set<String> duplicates = null;
+		for (String name : names) {
+			if (!distinct.add(name)) {
+				if (null == duplicates) {
+					duplicates = new HashSet<String>();
+				}
+				if (duplicates.add(name)) {
+					report(violations, String.format(format, name));
+				}
+			}
+		}
+	}
+
+	private static void check(TimeSerie timeSerie, List<String> violations) {
 		if (null == timeSerie) {
 			throw new NullPointerException("timeSerie");
 		}
 
 		// 'Name' validation
 		if (!IsValidApiName(timeSerie.Name)) {
-			throw new IllegalArgumentException("TimeSerie name is not valid.");
+			report(violations, "TimeSerie name is not valid.");
 		}
 
 		// 'Tags' validation
 		if (timeSerie.Tags != null) {
 			if (timeSerie.Tags.length > 100) {
-				throw new IllegalArgumentException("No more than 100 tags per serie.");
+				report(violations, "No more than 100 tags per serie.");
 			}
 
 			for (String tag : timeSerie.Tags) {
 				if (!IsValidApiName(tag))
-					throw new IllegalArgumentException(String.format("%s is not a valid tag.", tag));
+					report(violations, String.format("%s is not a valid tag.", tag));
 			}
 
-			for (int i = 0; i < timeSerie.Tags.length - 1; i++) {
-				for (int j = i + 1; j < timeSerie.Tags.length; j++) {
-					if (timeSerie.Tags[i].equals(timeSerie.Tags[j])) {
-						throw new IllegalArgumentException("All tags should be distinct within a TimeSerie.");
-					}
-				}
-			}
+			checkDistinct(timeSerie.Tags, "All tags should be distinct within a TimeSerie (%s).", violations);
 		}
 
 		// 'Events' validation
 		if (timeSerie.Events != null) {
 			if (timeSerie.Events.length > 100) {
-				throw new IllegalArgumentException("No more than 100 events per serie.");
+				report(violations, "No more than 100 events per serie.");
 			}
 
 			for (EventValue e : timeSerie.Events) {
 				if (e.Tags.length == 0 || e.Tags.length > 100) {
-					throw new IllegalArgumentException("There should be 1 to 100 tags per event.");
+					report(violations, "There should be 1 to 100 tags per event.");
 				}
 
 				for (String tag : e.Tags) {
 					if (!IsValidApiName(tag))
-						throw new IllegalArgumentException(String.format("%s is not a valid tag.", tag));
+						report(violations, String.format("%s is not a valid tag.", tag));
 				}
 
-				for (int i = 0; i < e.Tags.length - 1; i++) {
-					for (int j = i + 1; j < e.Tags.length; j++) {
-						if (timeSerie.Tags[i].equals(timeSerie.Tags[j])) {
-							throw new IllegalArgumentException("All tags should be distinct within a TimeSerie.");
-						}
-					}
-				}
+				checkDistinct(e.Tags, "All tags should be distinct within an event (%s).", violations);
 			}
 		}
 
 		// 'Values' validation
 		if (timeSerie.Values != null) {
 			if (timeSerie.Values.length > 65536) {
-				throw new IllegalArgumentException("Maximal number of time-values is 64k.");
+				report(violations, "Maximal number of time-values is 64k.");
 			}
 
 			// Time-values should be strictly ordered
-			for (int i = 0; i < timeSerie.Values.length - 1; i++) {
-				if (timeSerie.Values[i + 1].Time.compareTo(timeSerie.Values[i].Time) <= 0) {
-					throw new IllegalArgumentException("Time-serie is not properly ordered.");
+			// (comparing epoch millis, each calendar being converted once)
+			long previous = Long.MIN_VALUE;
+			for (int i = 0; i < timeSerie.Values.length; i++) {
+				long time = timeSerie.Values[i].Time.getTimeInMillis();
+				if (i > 0 && time <= previous) {
+					report(violations, "Time-serie is not properly ordered.");
+					break;
 				}
+				previous = time;
 			}
 		}
 	}
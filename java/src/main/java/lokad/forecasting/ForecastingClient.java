@@ -1,8 +1,17 @@
 package lokad.forecasting;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 
 
 
@@ -13,14 +22,24 @@ import java.util.List;
  * Compared to {@link ForecastingApi}, the client abstracts away paging and
  * continuation tokens. It also validates the inputs.
  * </p>
+ * <p>
+ * The operations made within a {@link RequestContext} with a deadline or a
+ * {@link CancellationToken} fail with an {@link OperationAbortedException}
+ * once the deadline passes or the token is cancelled, the waits for the
+ * forecasts included. The exception thrown by the upserts, the deletions,
+ * the listing of the series and the retrieval of the forecasts reports what
+ * they completed.
+ * </p>
  */
 public class ForecastingClient {
 
 	private final static String lokadUserName = "auth-with-key@lokad.com";
 	
 	/**
-	 * Initial value is based on the Forecasting API limitations, yet, this
-	 * value can be lowered if timeouts are encountered.
+	 * Value is based on the Forecasting API limitations. It is never adapted:
+	 * uploads with a {@link SliceController} (see
+	 * {@link #SetSliceController(SliceController)}) use the slice lengths of
+	 * the controller instead, while the other calls always use this one.
 	 */
 	int _seriesSliceLength = 100;
 
@@ -32,6 +51,37 @@ public class ForecastingClient {
 	private final String _identity;
 	private final IForecastingApi _forecastingApi;
 
+	/**
+	 * Optional local store the downloaded forecasts are written through to.
+	 */
+	private ForecastStore _forecastStore;
+
+	/**
+	 * Optional pool validating the uploaded series in parallel.
+	 */
+	private ForkJoinPool _validationPool;
+
+	/**
+	 * Optional listener following the bulk operations.
+	 */
+	private IProgressListener _progressListener;
+	private long _progressIntervalMillis;
+
+	/**
+	 * Runs the slices of the bulk operations, sequentially by default.
+	 */
+	private SliceExecutor _sliceExecutor = SliceExecutor.Sequential;
+
+	/**
+	 * Serializes the upload slices ahead, if not <code>null</code>.
+	 */
+	SerializationPipeline _serializationPipeline;
+
+	/**
+	 * Adapts the slices of the uploads, if not <code>null</code>.
+	 */
+	private SliceController _sliceController;
+
 	// const string ProductionEndpoint =
 	// "http://api.lokad.com/forecasting3.svc";
 	// const string SandboxEndpoint =
@@ -102,6 +152,152 @@ public class ForecastingClient {
 		_forecastingApi = forecastingApi;
 	}
 
+	/**
+	 * Plugs a local store the forecasts get written to as soon as they are
+	 * downloaded by {@link #GetForecasts(String, String[])}.
+	 * <p>
+	 * After a restart, the stored forecasts can be served immediately through
+	 * {@link #GetStoredForecasts(String, String[])} while fresh ones are
+	 * downloaded in the background.
+	 * </p>
+	 * <p>
+	 * The write-through is best-effort: a failure to write the store does not
+	 * fail the download, and is reported through
+	 * {@link ProgressReport#StoreFailure} in the final report.
+	 * </p>
+	 * 
+	 * @param forecastStore
+	 *            Store of the forecasts, or <code>null</code> to disable the
+	 *            write-through.
+	 */
+	public void SetForecastStore(ForecastStore forecastStore) {
+		_forecastStore = forecastStore;
+	}
+
+	/**
+	 * Enables the parallel validation of the series passed to
+	 * {@link #UpsertTimeSeries(String, TimeSerie[], boolean)}.
+	 * <p>
+	 * Each slice is validated in the pool while the slices validated before
+	 * it are being sent. Hence, if a serie happens to be invalid, the slices
+	 * preceding it have already been uploaded; the violations of the remaining
+	 * slices are then reported at once through a {@link ValidationException}.
+	 * </p>
+	 * 
+	 * @param validationPool
+	 *            Pool running the validation, or <code>null</code> to validate
+	 *            all the series on the calling thread before sending anything.
+	 */
+	public void SetValidationPool(ForkJoinPool validationPool) {
+		_validationPool = validationPool;
+	}
+
+	/**
+	 * Plugs a listener following the progress of
+	 * {@link #UpsertTimeSeries(String, TimeSerie[], boolean)},
+	 * {@link #GetForecasts(String, String[])} and
+	 * {@link #ListTimeSeries(String)}.
+	 * 
+	 * @param progressListener
+	 *            Listener, or <code>null</code> to disable the reports.
+	 * @param intervalMillis
+	 *            Minimal delay between two reports of the same operation, in
+	 *            milliseconds.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the interval is negative.
+	 */
+	public void SetProgressListener(IProgressListener progressListener, long intervalMillis) {
+		if (intervalMillis < 0) {
+			throw new IllegalArgumentException("Reporting interval cannot be negative.");
+		}
+		_progressListener = progressListener;
+		_progressIntervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Runs the slices of {@link #UpsertTimeSeries(String, TimeSerie[], boolean)},
+	 * {@link #GetForecasts(String, String[])} and
+	 * {@link #DeleteTimeSeries(String, String[])} concurrently.
+	 * <p>
+	 * The concurrency limit is shared by all the operations of the client, the
+	 * forecast status polls included. With
+	 * {@link VirtualThreads#NewExecutor()}, each slice runs on its own virtual
+	 * thread, hence the limit can be set to thousands of calls in flight.
+	 * When a slice fails, the slices not yet started are skipped, and the
+	 * operation fails once the started ones are done.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            Executor running the slices, or <code>null</code> to run them
+	 *            one after the other on the calling thread.
+	 * @param maxConcurrency
+	 *            Maximal number of API calls in flight.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the limit is not positive.
+	 */
+	public void SetExecutor(Executor executor, int maxConcurrency) {
+		_sliceExecutor = null != executor ? new SliceExecutor(executor, maxConcurrency) : SliceExecutor.Sequential;
+	}
+
+	/**
+	 * Serializes the slices of
+	 * {@link #UpsertTimeSeries(String, TimeSerie[], boolean)} ahead of their
+	 * upload.
+	 * <p>
+	 * Slices are serialized in order on the executor, into the buffers of the
+	 * {@link BufferPool} of the API, while the previous ones are being sent;
+	 * each upload serializes a limited number of slices ahead. With two
+	 * buffers, the next slice is serialized while the current one is on the
+	 * wire. When the slices are sent concurrently (see
+	 * {@link #SetExecutor(Executor, int)}), each upload should be allowed one
+	 * buffer more than the concurrency limit. The buffers are sent with a fixed
+	 * length, instead of being copied by the connection.
+	 * </p>
+	 * <p>
+	 * The pipeline only applies when the client talks to a
+	 * {@link ForecastingApi} directly. Behind a decorator, such as a
+	 * {@link RequestScheduler}, a {@link GuardedForecastingApi} or a
+	 * {@link HedgedForecastingApi}, the pre-serialized slices would bypass
+	 * the decorator; the pipeline is then ignored, and each slice is
+	 * serialized as it is sent.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            Executor running the serialization, or <code>null</code> to
+	 *            serialize each slice as it is sent.
+	 * @param bufferCount
+	 *            Number of slices serialized ahead by each upload.
+	 * @throws IllegalArgumentException
+	 *             Thrown if there are less than two buffers.
+	 */
+	public void SetSerializationPipeline(Executor executor, int bufferCount) {
+		_serializationPipeline = null != executor ? new SerializationPipeline(executor, bufferCount) : null;
+	}
+
+	/**
+	 * Adapts the number of series per request and the number of requests in
+	 * flight of the upserts to the latency and the failures observed (see
+	 * {@link SliceController}).
+	 * <p>
+	 * The slices are cut as they are sent, with the lengths of the controller
+	 * at that time, within the concurrency limit set by
+	 * {@link #SetExecutor(Executor, int)}. Series passed as an array are
+	 * still all validated before the first slice is sent, but neither
+	 * serialized ahead nor validated in the validation pool.
+	 * </p>
+	 * 
+	 * @param controller
+	 *            Controller shared by all the upserts of the client, or
+	 *            <code>null</code> for the fixed slice lengths.
+	 */
+	public void SetSliceController(SliceController controller) {
+		_sliceController = controller;
+	}
+
+	private ProgressTracker TrackProgress(String operation, String datasetName, long seriesTotal) {
+		return new ProgressTracker(_progressListener, _progressIntervalMillis, operation, datasetName, seriesTotal);
+	}
+
 	/**
 	 * Insert a dataset into the Lokad account.
 	 * 
@@ -208,7 +404,7 @@ public class ForecastingClient {
 				break;
 			}
 
-			Thread.sleep(30000);
+			RequestContext.Sleep(30000);
 		}
 	}
 
@@ -239,20 +435,95 @@ public class ForecastingClient {
 	 *      Boolean)
 	 */
 	public void UpsertTimeSeries(String datasetName, TimeSerie[] timeSeries, boolean enableMerge) throws IOException {
-		// TODO catching potential network timeouts
-
 		UpsertTimeSeriesInternal(datasetName, timeSeries, enableMerge);
 	}
 
-	void UpsertTimeSeriesInternal(String datasetName, TimeSerie[] timeSeries, boolean enableMerge) throws IOException {
-		List<String> serieNames = new ArrayList<String>();
-		for (TimeSerie timeSerie : timeSeries) {
-			serieNames.add(timeSerie.Name);
+	/**
+	 * Update or inserts time-series into the specified dataset, recording the
+	 * slices acknowledged by the server into a journal.
+	 * <p>
+	 * The series already acknowledged in the journal with the same content
+	 * are skipped, hence an upsert interrupted by a crash or a failure is
+	 * resumed by calling this method again with the same journal. Once all
+	 * the slices are acknowledged, the run is complete and the journal forgets
+	 * the series of the dataset, hence a later upsert sends them all again.
+	 * </p>
+	 * 
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param timeSeries
+	 *            Series updated or inserted.
+	 * @param enableMerge
+	 *            Indicate whether existing series will be merged with inputs,
+	 *            or if existing series will be overwritten by inputs.
+	 * @param journal
+	 *            Journal of the acknowledged slices.
+	 * @throws IOException
+	 *             if an error occurred working with server, or with the
+	 *             journal.
+	 * @throws NullPointerException
+	 *             Thrown if one of the argument is null.
+	 * @throws IllegalArgumentException
+	 *             Throw if one of the argument is not compliant with the
+	 *             Forecasting API specification.
+	 * @throws IllegalStateException
+	 *             Thrown if the access rights are incorrect, or if the service
+	 *             is not available at the time.
+	 * @see #UpsertTimeSeries(String, TimeSerie[], boolean)
+	 */
+	public void UpsertTimeSeries(String datasetName, TimeSerie[] timeSeries, boolean enableMerge,
+			SliceJournal journal) throws IOException {
+		if (null == journal) {
+			throw new NullPointerException("journal");
+		}
+		List<TimeSerie> pending = new ArrayList<TimeSerie>(timeSeries.length);
+		for (TimeSerie serie : timeSeries) {
+			if (!journal.IsAcknowledged(datasetName, serie)) {
+				pending.add(serie);
+			}
+		}
+		try {
+			UpsertTimeSeriesInternal(datasetName, pending.toArray(new TimeSerie[pending.size()]), enableMerge,
+					journal);
+		} finally {
+			journal.Sync();
+		}
+		journal.Completed(datasetName);
+	}
+
+	void UpsertTimeSeriesInternal(String datasetName, TimeSerie[] timeSeries, boolean enableMerge)
+			throws IOException {
+		UpsertTimeSeriesInternal(datasetName, timeSeries, enableMerge, null);
+	}
+
+	private void UpsertTimeSeriesInternal(final String datasetName, TimeSerie[] timeSeries,
+			final boolean enableMerge, final SliceJournal journal) throws IOException {
+		ClientStageEvent validation = ClientStageEvent.Begin();
+		String[] serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			serieNames[i] = timeSeries[i].Name;
 		}
-		ValidateSerieNames(datasetName, serieNames.toArray(new String[] {}));
+		ValidateSerieNames(datasetName, serieNames);
 
-		for (TimeSerie ts : timeSeries) {
-			ForecastingApiValidators.Validate(ts);
+		ForkJoinPool validationPool = _validationPool;
+		SliceController controller = _sliceController;
+		if (null != controller && null != validationPool) {
+			List<String> violations = validationPool.invoke(new ValidationTask(timeSeries, 0, timeSeries.length));
+			if (!violations.isEmpty()) {
+				throw new ValidationException(violations);
+			}
+		} else if (null == validationPool) {
+			for (TimeSerie ts : timeSeries) {
+				ForecastingApiValidators.Validate(ts);
+			}
+		}
+		validation.End(ClientStageEvent.Validation, datasetName, timeSeries.length);
+
+		if (null != controller) {
+			// slices cut as they are sent
+			UpsertSlices(datasetName, new SlicePacker(Arrays.asList(timeSeries).iterator(), datasetName,
+					controller, true), enableMerge, journal, timeSeries.length, controller);
+			return;
 		}
 
 		// TODO
@@ -260,57 +531,246 @@ public class ForecastingClient {
 		// timeSeries = timeSeries.Select(serie =>
 		// PruneIntermediateZeroes(serie)).ToArray();
 
-		// When uploading series toward Lokad, requests should not weight more
-		// than 4MB
-		// Instead of trying to figure out complex corner situation, we just
-		// deal with
-		// series of varying sizes separately.
-
-		// Splitting series according to their respective sizes
-
-		List<TimeSerie> veryLargeSeries = new ArrayList<TimeSerie>();
-		List<TimeSerie> largeSeries = new ArrayList<TimeSerie>();
-		List<TimeSerie> smallSeries = new ArrayList<TimeSerie>();
-
-		for (TimeSerie timeSerie : timeSeries) {
-			if (timeSerie.Values != null && timeSerie.Values.length > 10000)
-				veryLargeSeries.add(timeSerie);
-			else if (timeSerie.Values != null && timeSerie.Values.length > 1000)
-				largeSeries.add(timeSerie);
-			else
-				smallSeries.add(timeSerie);
+		ClientStageEvent slicing = ClientStageEvent.Begin();
+		List<TimeSerie[]> slices = SliceTimeSeries(datasetName, timeSeries);
+		slicing.End(ClientStageEvent.Slicing, datasetName, timeSeries.length);
+
+		// Validation of the slices runs in the pool while the slices already
+		// validated are being sent.
+		final List<ForkJoinTask<List<String>>> validations;
+		if (null != validationPool) {
+			validations = new ArrayList<ForkJoinTask<List<String>>>(slices.size());
+			for (TimeSerie[] slice : slices) {
+				validations.add(validationPool.submit(new ValidationTask(slice, 0, slice.length)));
+			}
+		} else {
+			validations = null;
 		}
 
-		// very large series are uploaded 1 by 1
-		for (int i = 0; i < veryLargeSeries.size(); i++) {
-			String errorCode = _forecastingApi.UpsertTimeSeries(_identity, datasetName,
-					new TimeSerie[] { veryLargeSeries.get(i) }, enableMerge);
+		final ProgressTracker progress = TrackProgress(ApiOperations.UpsertTimeSeries, datasetName,
+				timeSeries.length);
 
-			WrapAndThrow(errorCode);
+		SerializationPipeline pipeline = _serializationPipeline;
+		final SerializationPipeline.Upload upload;
+		if (null != pipeline && _forecastingApi instanceof ForecastingApi) {
+			upload = pipeline.Start(datasetName, slices, ((ForecastingApi) _forecastingApi).GetBufferPool());
+		} else {
+			upload = null;
 		}
 
-		// large series are uploaded 10 by 10
-		for (int i = 0; i < largeSeries.size(); i += _midSeriesSliceLength) {
-			// No 'Slice()' method available
-			int toIndex = (i + _midSeriesSliceLength < largeSeries.size()) ? i + _midSeriesSliceLength : largeSeries
-					.size();
-			List<TimeSerie> list = largeSeries.subList(i, toIndex);
-			String errorCode = _forecastingApi.UpsertTimeSeries(_identity, datasetName,
-					list.toArray(new TimeSerie[] {}), enableMerge);
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>(slices.size());
+		for (int i = 0; i < slices.size(); i++) {
+			final int index = i;
+			final Callable<Void> upsert = NewUpsertCall(datasetName, slices.get(i), enableMerge, journal, progress,
+					upload, i, null);
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (null != validations) {
+						List<String> violations = validations.get(index).join();
+						if (!violations.isEmpty()) {
+							// aggregating the violations of all the remaining
+							// slices
+							violations = new ArrayList<String>(violations);
+							for (int j = index + 1; j < validations.size(); j++) {
+								violations.addAll(validations.get(j).join());
+							}
+							throw new ValidationException(violations);
+						}
+					}
+					return upsert.call();
+				}
+			});
+		}
+		try {
+			_sliceExecutor.InvokeAll(calls);
+		} catch (IOException e) {
+			throw progress.Failed(e);
+		} finally {
+			if (null != upload) {
+				upload.Close();
+			}
+		}
+		progress.Completed();
+	}
+
+	/**
+	 * Sends the slices as they are packed, within the concurrency of the
+	 * controller, if any.
+	 */
+	private void UpsertSlices(final String datasetName, final SlicePacker packer, final boolean enableMerge,
+			final SliceJournal journal, long seriesTotal, final SliceController controller) throws IOException {
+		final ProgressTracker progress = TrackProgress(ApiOperations.UpsertTimeSeries, datasetName, seriesTotal);
+
+		try {
+			_sliceExecutor.InvokeEach(new Iterator<Callable<Void>>() {
+				@Override
+				public boolean hasNext() {
+					return packer.hasNext();
+				}
+
+				@Override
+				public Callable<Void> next() {
+					return NewUpsertCall(datasetName, packer.next(), enableMerge, journal, progress, null, 0,
+							controller);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			}, controller);
+		} catch (IOException e) {
+			throw progress.Failed(e);
+		}
+		progress.Completed();
+	}
+
+	/**
+	 * Call sending a slice of series, already validated, and possibly
+	 * serialized ahead as the slice <code>index</code> of the upload. The
+	 * outcome of the call is reported to the controller, if any.
+	 */
+	private Callable<Void> NewUpsertCall(final String datasetName, final TimeSerie[] slice,
+			final boolean enableMerge, final SliceJournal journal, final ProgressTracker progress,
+			final SerializationPipeline.Upload upload, final int index, final SliceController controller) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				progress.SliceStarted();
+				ForecastingApi.TakeTransferredBytes();
+				long start = System.nanoTime();
+				try {
+					String errorCode;
+					if (null != upload) {
+						PooledBytes payload = upload.Take(index);
+						try {
+							errorCode = ((ForecastingApi) _forecastingApi).UpsertTimeSeries(_identity, datasetName,
+									slice.length, payload, enableMerge);
+						} finally {
+							upload.Release(payload);
+						}
+					} else {
+						errorCode = _forecastingApi.UpsertTimeSeries(_identity, datasetName, slice, enableMerge);
+					}
+
+					WrapAndThrow(errorCode);
+				} catch (Throwable e) {
+					if (null != controller) {
+						controller.Failed(e);
+					}
+					if (null != journal) {
+						try {
+							journal.Failed(datasetName, slice);
+						} catch (IOException journalFailure) {
+							// the failure of the slice prevails
+							e.addSuppressed(journalFailure);
+						}
+					}
+					throw e;
+				}
+				long bytes = ForecastingApi.TakeTransferredBytes();
+				if (null != controller) {
+					controller.Completed(SlicePacker.CountValues(Arrays.asList(slice)), bytes, System.nanoTime()
+							- start);
+				}
+				if (null != journal) {
+					journal.Acknowledged(datasetName, slice);
+				}
+				if (progress.IsKeepingDone()) {
+					String[] names = new String[slice.length];
+					for (int i = 0; i < slice.length; i++) {
+						names[i] = slice[i].Name;
+					}
+					progress.Done(names);
+				}
+				progress.SliceCompleted(slice.length, bytes);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Update or inserts the time-series pulled from an iterator into the
+	 * specified dataset, without materializing them all.
+	 * <p>
+	 * Series are validated and packed into slices as they are pulled, and the
+	 * next series are only pulled once a call slot is free, hence no more than
+	 * a slice per call in flight is held in memory. As slices are sent while
+	 * the input is being read, a serie which is not compliant with the API
+	 * fails the upsert after the previous slices have been sent. Also,
+	 * duplicate names are only detected within a slice: the serie sent last
+	 * prevails.
+	 * </p>
+	 * 
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param timeSeries
+	 *            Series updated or inserted.
+	 * @param enableMerge
+	 *            Indicate whether existing series will be merged with inputs,
+	 *            or if existing series will be overwritten by inputs.
+	 * @return the number of series upserted.
+	 * @throws IOException
+	 *             if an error occurred working with server.
+	 * @throws NullPointerException
+	 *             Thrown if one of the argument is null.
+	 * @throws IllegalArgumentException
+	 *             Throw if one of the argument is not compliant with the
+	 *             Forecasting API specification.
+	 * @throws IllegalStateException
+	 *             Thrown if the access rights are incorrect, or if the service
+	 *             is not available at the time.
+	 * @see #UpsertTimeSeries(String, TimeSerie[], boolean)
+	 * @see #SetExecutor(Executor, int)
+	 */
+	public long UpsertTimeSeries(String datasetName, Iterator<? extends TimeSerie> timeSeries, boolean enableMerge)
+			throws IOException {
+		SlicePacker packer = NewSlicePacker(timeSeries, datasetName, false);
+		UpsertSlices(datasetName, packer, enableMerge, null, -1, _sliceController);
+		return packer.GetSeriesCount();
+	}
 
-			WrapAndThrow(errorCode);
+	/**
+	 * Update or inserts the time-series of a stream into the specified
+	 * dataset, without materializing them all.
+	 * 
+	 * @return the number of series upserted.
+	 * @see #UpsertTimeSeries(String, Iterator, boolean)
+	 */
+	public long UpsertTimeSeries(String datasetName, Stream<? extends TimeSerie> timeSeries, boolean enableMerge)
+			throws IOException {
+		if (null == timeSeries) {
+			throw new NullPointerException("timeSeries");
 		}
+		return UpsertTimeSeries(datasetName, timeSeries.iterator(), enableMerge);
+	}
 
-		// small series are uploaded 100 by 100
-		for (int i = 0; i < smallSeries.size(); i += _seriesSliceLength) {
-			// No 'Slice()' method available
-			int toIndex = (i + _seriesSliceLength < smallSeries.size()) ? i + _seriesSliceLength : smallSeries.size();
-			List<TimeSerie> list = smallSeries.subList(i, toIndex);
-			String errorCode = _forecastingApi.UpsertTimeSeries(_identity, datasetName,
-					list.toArray(new TimeSerie[] {}), enableMerge);
+	/**
+	 * Packer cutting slices with the lengths of the controller, if any, or
+	 * the fixed ones otherwise.
+	 *
+	 * @param validated
+	 *            Whether the series and their names are validated elsewhere.
+	 */
+	SlicePacker NewSlicePacker(Iterator<? extends TimeSerie> timeSeries, String datasetName, boolean validated) {
+		SliceController controller = _sliceController;
+		return null != controller ? new SlicePacker(timeSeries, datasetName, controller, validated)
+				: new SlicePacker(timeSeries, datasetName, _midSeriesSliceLength, _seriesSliceLength, validated);
+	}
 
-			WrapAndThrow(errorCode);
+	/**
+	 * Splits the series, already validated, into slices compliant with the
+	 * capacity limitations of the API, with the fixed slice lengths.
+	 */
+	List<TimeSerie[]> SliceTimeSeries(String datasetName, TimeSerie[] timeSeries) {
+		SlicePacker packer = new SlicePacker(Arrays.asList(timeSeries).iterator(), datasetName,
+				_midSeriesSliceLength, _seriesSliceLength, true);
+		List<TimeSerie[]> slices = new ArrayList<TimeSerie[]>();
+		while (packer.hasNext()) {
+			slices.add(packer.next());
 		}
+		return slices;
 	}
 
 	// private static TimeSerie PruneIntermediateZeroes(TimeSerie timeSerie)
@@ -357,21 +817,97 @@ public class ForecastingClient {
 	public List<TimeSerie> ListTimeSeries(String datasetName) throws IOException {
 		TimeSerieCollection timeSeries = null;
 		List<TimeSerie> collection = new ArrayList<TimeSerie>();
+		ProgressTracker progress = TrackProgress(ApiOperations.ListTimeSeries, datasetName, -1);
+		ForecastingApi.TakeTransferredBytes();
 
-		do {
-			timeSeries = _forecastingApi.ListTimeSeries(_identity, datasetName,
-					timeSeries != null ? timeSeries.ContinuationToken : null);
+		try {
+			do {
+				RequestContext.ThrowIfAborted();
+				progress.SliceStarted();
+				timeSeries = _forecastingApi.ListTimeSeries(_identity, datasetName,
+						timeSeries != null ? timeSeries.ContinuationToken : null);
 
-			WrapAndThrow(timeSeries.ErrorCode);
+				WrapAndThrow(timeSeries.ErrorCode);
 
-			for (TimeSerie timeSerie : timeSeries.TimeSeries) {
-				collection.add(timeSerie);
-			}
-		} while (!isStringBlank(timeSeries.ContinuationToken));
+				for (TimeSerie timeSerie : timeSeries.TimeSeries) {
+					collection.add(timeSerie);
+				}
+				progress.Done(timeSeries.TimeSeries);
+				progress.SliceCompleted(timeSeries.TimeSeries.length, ForecastingApi.TakeTransferredBytes());
+			} while (!isStringBlank(timeSeries.ContinuationToken));
+		} catch (IOException e) {
+			throw progress.Failed(e);
+		}
 
+		progress.Completed();
 		return collection;
 	}
 
+	/**
+	 * Gets a single page of the time-series of a dataset.
+	 */
+	TimeSerieCollection ListTimeSeriesPage(final String datasetName, final String continuationToken)
+			throws IOException {
+		TimeSerieCollection page = _sliceExecutor.Invoke(new Callable<TimeSerieCollection>() {
+			@Override
+			public TimeSerieCollection call() throws IOException {
+				return _forecastingApi.ListTimeSeries(_identity, datasetName, continuationToken);
+			}
+		});
+
+		WrapAndThrow(page.ErrorCode);
+		return page;
+	}
+
+	/**
+	 * Publishes the time-series of a dataset page by page.
+	 * <p>
+	 * A page is retrieved each time the previous one has been delivered and
+	 * the subscriber still has outstanding demand, hence a single page is held
+	 * in memory at a time, whatever the size of the dataset.
+	 * </p>
+	 * 
+	 * @param datasetName
+	 *            Enumerated dataset.
+	 * @param executor
+	 *            Executor the network calls and the signals run on; the
+	 *            calls are blocking.
+	 * @return Publisher of the time-series, each subscription enumerating
+	 *         them anew.
+	 * @throws IllegalArgumentException
+	 *             Thrown is the dataset name is not compliant with Forecasting
+	 *             API specification.
+	 * @see #ListTimeSeries(String)
+	 */
+	public Flow.Publisher<TimeSerie> PublishTimeSeries(final String datasetName, Executor executor) {
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException(String.format("%s is not a valid dataset name.", datasetName));
+		}
+
+		return new PagePublisher<TimeSerie>(new PagePublisher.PageSourceFactory<TimeSerie>() {
+			@Override
+			public PagePublisher.PageSource<TimeSerie> Create() {
+				return new PagePublisher.PageSource<TimeSerie>() {
+					private TimeSerieCollection _page;
+
+					@Override
+					public TimeSerie[] NextPage() throws IOException {
+						if (IsExhausted()) {
+							return null;
+						}
+						_page = ListTimeSeriesPage(datasetName, null != _page ? _page.ContinuationToken : null);
+						return _page.TimeSeries;
+					}
+
+					@Override
+					public boolean IsExhausted() {
+						return null != _page && isStringBlank(_page.ContinuationToken);
+					}
+				};
+			}
+		}, executor);
+	}
+
 	/**
 	 * Deletes the specified time-series from a dataset. Time-series that do not
 	 * exist are ignored.
@@ -391,22 +927,41 @@ public class ForecastingClient {
 	 *             does not exist, or if the service is down.
 	 * @see IForecastingApi#DeleteTimeSeries(String, String, String[])
 	 */
-	public void DeleteTimeSeries(String datasetName, String[] serieNames) throws IOException {
+	public void DeleteTimeSeries(final String datasetName, String[] serieNames) throws IOException {
 		ValidateSerieNames(datasetName, serieNames);
 
+		final ProgressTracker progress = TrackProgress(ApiOperations.DeleteTimeSeries, datasetName,
+				serieNames.length);
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
 		for (int i = 0; i < serieNames.length; i += _seriesSliceLength) {
-			int toIndex = (i + _midSeriesSliceLength < serieNames.length) ? i + _midSeriesSliceLength
-					: serieNames.length;
-			List<String> list = new ArrayList<String>();
+			int toIndex = (i + _seriesSliceLength < serieNames.length) ? i + _seriesSliceLength : serieNames.length;
+			final List<String> list = new ArrayList<String>();
 			for (int j = i; j < toIndex; j++) {
 				list.add(serieNames[j]);
 			}
 
-			// No 'Slice()' method available
-			String errorCode = _forecastingApi.DeleteTimeSeries(_identity, datasetName, list.toArray(new String[] {}));
-
-			WrapAndThrow(errorCode);
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					// No 'Slice()' method available
+					progress.SliceStarted();
+					ForecastingApi.TakeTransferredBytes();
+					String[] names = list.toArray(new String[] {});
+					String errorCode = _forecastingApi.DeleteTimeSeries(_identity, datasetName, names);
+
+					WrapAndThrow(errorCode);
+					progress.Done(names);
+					progress.SliceCompleted(names.length, ForecastingApi.TakeTransferredBytes());
+					return null;
+				}
+			});
+		}
+		try {
+			_sliceExecutor.InvokeAll(calls);
+		} catch (IOException e) {
+			throw progress.Failed(e);
 		}
+		progress.Completed();
 	}
 
 	/**
@@ -457,60 +1012,239 @@ public class ForecastingClient {
 	 * @see IForecastingApi#GetForecasts(String, String, String[])
 	 */
 	public ForecastSerie[] GetForecasts(String datasetName, String[] serieNames) throws InterruptedException, IOException {
-		// TODO
-		// catching potential network timeouts
-		// return RetryPolicy(() => GetForecastsInternal(datasetName,
-		// serieNames));
 		return GetForecastsInternal(datasetName, serieNames);
 	}
 
-	private ForecastSerie[] GetForecastsInternal(String datasetName, String[] serieNames) throws InterruptedException, IOException {
-		ValidateSerieNames(datasetName, serieNames);
+	/**
+	 * Polls the forecast status until the forecasts are ready.
+	 */
+	private void WaitForForecasts(final String datasetName, int serieCount) throws InterruptedException,
+			IOException {
+		// polls count against the concurrency limit, the sleeps do not
+		Callable<ForecastStatus> poll = new Callable<ForecastStatus>() {
+			@Override
+			public ForecastStatus call() throws IOException {
+				return _forecastingApi.GetForecastStatus(_identity, datasetName);
+			}
+		};
 
+		ClientStageEvent statusWait = ClientStageEvent.Begin();
 		ForecastStatus status = null;
 		do {
 			if (null != status) {
-				Thread.sleep(10 * 1000); // 10s sleep between checks while
-											// waiting for the forecasts
+				// 10s sleep between checks while waiting for the forecasts
+				RequestContext.Sleep(10 * 1000);
 			}
 
-			status = _forecastingApi.GetForecastStatus(_identity, datasetName);
+			status = _sliceExecutor.Invoke(poll);
 
 			WrapAndThrow(status.ErrorCode);
 
 		} while (!status.ForecastsReady);
+		statusWait.End(ClientStageEvent.ForecastStatusWait, datasetName, serieCount);
+	}
 
-		// Dictionary<String, ForecastSerie> forecasts = new Hashtable<String,
-		// ForecastSerie>(serieNames.length);
-		List<ForecastSerie> forecasts = new ArrayList<ForecastSerie>();
+	private ForecastSerie[] GetForecastsInternal(final String datasetName, String[] serieNames) throws InterruptedException, IOException {
+		ValidateSerieNames(datasetName, serieNames);
+
+		final ProgressTracker progress = TrackProgress(ApiOperations.GetForecasts, datasetName, serieNames.length);
+		try {
+			WaitForForecasts(datasetName, serieNames.length);
+		} catch (IOException e) {
+			throw progress.Failed(e);
+		}
 
 		// A subtle situation may arise if the forecasts are so large that
 		// they can't be retrieved in batches of 100 while still be compliant
 		// with 4MB limitation.
 
+		List<Callable<ForecastSerie[]>> calls = new ArrayList<Callable<ForecastSerie[]>>();
 		for (int i = 0; i < serieNames.length; i += _seriesSliceLength) {
 			int toIndex = (i + _seriesSliceLength < serieNames.length) ? i + _seriesSliceLength : serieNames.length;
-			List<String> list = new ArrayList<String>();
+			final List<String> list = new ArrayList<String>();
 			for (int j = i; j < toIndex; j++) {
 				list.add(serieNames[j]);
 			}
-			// No 'Slice()' method available
-			ForecastCollection forecastCollection = _forecastingApi.GetForecasts(_identity, datasetName,
-					list.toArray(new String[] {}));
-
-			WrapAndThrow(forecastCollection.ErrorCode);
+			calls.add(new Callable<ForecastSerie[]>() {
+				@Override
+				public ForecastSerie[] call() throws IOException {
+					// No 'Slice()' method available
+					progress.SliceStarted();
+					ForecastingApi.TakeTransferredBytes();
+					ForecastCollection forecastCollection = _forecastingApi.GetForecasts(_identity, datasetName,
+							list.toArray(new String[] {}));
+
+					WrapAndThrow(forecastCollection.ErrorCode);
+					progress.Done(forecastCollection.Series);
+					progress.SliceCompleted(list.size(), ForecastingApi.TakeTransferredBytes());
+					return forecastCollection.Series;
+				}
+			});
+		}
+		List<ForecastSerie[]> slices;
+		try {
+			slices = _sliceExecutor.InvokeAll(calls);
+		} catch (IOException e) {
+			throw progress.Failed(e);
+		}
 
-			for (ForecastSerie forecast : forecastCollection.Series) {
+		ClientStageEvent reassembly = ClientStageEvent.Begin();
+		// Dictionary<String, ForecastSerie> forecasts = new Hashtable<String,
+		// ForecastSerie>(serieNames.length);
+		List<ForecastSerie> forecasts = new ArrayList<ForecastSerie>();
+		for (ForecastSerie[] slice : slices) {
+			for (ForecastSerie forecast : slice) {
 				// forecasts.put(forecast.Name, forecast);
 				forecasts.add(forecast);
 			}
 		}
+		ForecastSerie[] result = forecasts.toArray(new ForecastSerie[] {});
+		reassembly.End(ClientStageEvent.Reassembly, datasetName, result.length);
+
+		ForecastStore forecastStore = _forecastStore;
+		if (null != forecastStore) {
+			try {
+				forecastStore.Put(datasetName, result);
+			} catch (IOException e) {
+				// the forecasts are downloaded all the same
+				progress.StoreFailed(e);
+			}
+		}
+		progress.Completed();
 
 		// Ordering the results before returning them.
 		// (not necessary, but simplifies the debugging)
 		// return serieNames.Where(forecasts.ContainsKey).Select(n =>
 		// forecasts[n]).ToArray();
-		return forecasts.toArray(new ForecastSerie[] {});
+		return result;
+	}
+
+	/**
+	 * Publishes the forecasts of a specified dataset slice by slice.
+	 * <p>
+	 * Once subscribed, the forecast status is polled until the forecasts are
+	 * ready, then a slice of forecasts is retrieved each time the previous one
+	 * has been delivered and the subscriber still has outstanding demand. The
+	 * forecasts are neither written to the store nor reported to the progress
+	 * listener.
+	 * </p>
+	 * 
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param serieNames
+	 *            Targeted series. Series that do not exists in the targeted
+	 *            dataset are ignored.
+	 * @param executor
+	 *            Executor the network calls and the signals run on; the
+	 *            calls are blocking.
+	 * @return Publisher of the forecasts, each subscription retrieving them
+	 *         anew.
+	 * @throws NullPointerException
+	 *             Thrown if one of the argument is null.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the arguments are not compliant with the
+	 *             Forecasting API specification.
+	 * @see #GetForecasts(String, String[])
+	 */
+	public Flow.Publisher<ForecastSerie> PublishForecasts(final String datasetName, String[] serieNames,
+			Executor executor) {
+		ValidateSerieNames(datasetName, serieNames);
+		final String[] names = serieNames.clone();
+
+		return new PagePublisher<ForecastSerie>(new PagePublisher.PageSourceFactory<ForecastSerie>() {
+			@Override
+			public PagePublisher.PageSource<ForecastSerie> Create() {
+				return new PagePublisher.PageSource<ForecastSerie>() {
+					private boolean _ready;
+					private int _index;
+
+					@Override
+					public ForecastSerie[] NextPage() throws IOException {
+						if (!_ready) {
+							try {
+								WaitForForecasts(datasetName, names.length);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new InterruptedIOException("Interrupted while waiting for the forecasts.");
+							}
+							_ready = true;
+						}
+						if (IsExhausted()) {
+							return null;
+						}
+
+						int toIndex = Math.min(_index + _seriesSliceLength, names.length);
+						final String[] slice = Arrays.copyOfRange(names, _index, toIndex);
+						ForecastCollection forecastCollection = _sliceExecutor
+								.Invoke(new Callable<ForecastCollection>() {
+							@Override
+							public ForecastCollection call() throws IOException {
+								return _forecastingApi.GetForecasts(_identity, datasetName, slice);
+							}
+						});
+
+						WrapAndThrow(forecastCollection.ErrorCode);
+						_index = toIndex;
+						return forecastCollection.Series;
+					}
+
+					@Override
+					public boolean IsExhausted() {
+						return _index >= names.length;
+					}
+				};
+			}
+		}, executor);
+	}
+
+	/**
+	 * Creates a subscriber upserting the series it receives into a dataset,
+	 * packing them into requests as they arrive.
+	 * 
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param enableMerge
+	 *            Indicates whether the series are merged with the existing
+	 *            ones.
+	 * @return Subscriber to be subscribed to a single publisher.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the dataset name is not compliant with the
+	 *             Forecasting API specification.
+	 * @see #UpsertTimeSeries(String, TimeSerie[], boolean)
+	 */
+	public UpsertSubscriber NewUpsertSubscriber(String datasetName, boolean enableMerge) {
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException(String.format("%s is not a valid dataset name.", datasetName));
+		}
+
+		return new UpsertSubscriber(this, datasetName, enableMerge);
+	}
+
+	/**
+	 * Gets the forecasts previously downloaded from a specified dataset, as
+	 * kept by the local store. No network call is made.
+	 * 
+	 * @param datasetName
+	 *            Targeted dataset.
+	 * @param serieNames
+	 *            Targeted series. Series that have not been stored are
+	 *            ignored.
+	 * @return Stored forecasts.
+	 * @throws IOException
+	 *             if an error occurred reading the store.
+	 * @throws IllegalStateException
+	 *             Thrown if no store has been plugged in the client.
+	 * @see #SetForecastStore(ForecastStore)
+	 */
+	public ForecastSerie[] GetStoredForecasts(String datasetName, String[] serieNames) throws IOException {
+		ValidateSerieNames(datasetName, serieNames);
+
+		ForecastStore forecastStore = _forecastStore;
+		if (null == forecastStore) {
+			throw new IllegalStateException("No forecast store.");
+		}
+
+		return forecastStore.Get(datasetName, serieNames);
 	}
 
 	static void ValidateSerieNames(String datasetName, String[] serieNames) {
@@ -522,18 +1256,8 @@ public class ForecastingClient {
 			throw new NullPointerException("serieNames");
 		}
 
-		for (String tag : serieNames) {
-			if (!ForecastingApiValidators.IsValidApiName(tag))
-				throw new IllegalArgumentException(String.format("%s is not a valid tag.", tag));
-		}
-
-		for (int i = 0; i < serieNames.length - 1; i++) {
-			for (int j = i + 1; j < serieNames.length; j++) {
-				if (serieNames[i].equals(serieNames[j])) {
-					throw new IllegalArgumentException("All tags should be distinct within a TimeSerie.");
-				}
-			}
-		}
+		// hash-based, linear in the number of names
+		ForecastingApiValidators.checkSerieNames(serieNames, null);
 	}
 
 	static boolean isStringBlank(String s) {
@@ -562,45 +1286,4 @@ public class ForecastingClient {
 			throw new IllegalStateException(errorCode);
 		}
 	}
-	//
-	// /// <summary>Ad-hoc retry policy for transcient network errors.</summary>
-	// T RetryPolicy<T>(Func<T> webRequest)
-	// {
-	// const int maxAttempts = 10;
-	//
-	// for (int i = 0; i < maxAttempts + 1; i++)
-	// {
-	// try
-	// {
-	// // if the request completes, we don't try again
-	// return webRequest();
-	// }
-	// catch (TimeoutException)
-	// {
-	// // after 'maxAttempts' we give up
-	// if (i >= maxAttempts)
-	// {
-	// throw;
-	// }
-	//
-	// // heuristic: time-outs are encountered with client with low bandwidth
-	// // in such situation, we need to make smaller web requests, otherwise
-	// // no request is going to succeed.
-	//
-	// if (i >= 3) // at 3 timeouts, we switch to the 'slow mode'.
-	// {
-	// _seriesSliceLength = 10;
-	// _midSeriesSliceLength = 1;
-	// }
-	//
-	// if (i >= 6) // at 6 timeouts, we switch to the 'extra slow mode'.
-	// {
-	// _seriesSliceLength = 1;
-	// _midSeriesSliceLength = 1;
-	// }
-	// }
-	// }
-	//
-	// throw new ApplicationException("Retry policy is broken.");
-	// }
 }
@@ -0,0 +1,282 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IForecastingApi} decorator protecting an endpoint: the calls of each
+ * identity go through a {@link RateLimiter}, then all of them through a
+ * {@link CircuitBreaker}.
+ * <p>
+ * <code>ServiceFailure</code> responses and network failures, timeouts
+ * included, count as failures of the service. While the circuit is open,
+ * calls fail with a {@link CircuitOpenException} without reaching the
+ * service, either immediately or once they have waited for the open wait in
+ * vain. Calls wait for their token, unless the token comes after the
+ * deadline of their {@link RequestContext}; they then fail with an
+ * {@link OperationAbortedException}, as when the deadline passes while they
+ * wait for the circuit.
+ * </p>
+ * <p>
+ * Decorate the API of each endpoint once, and share the decorator between
+ * the clients of that endpoint.
+ * </p>
+ */
+public class GuardedForecastingApi implements IForecastingApi {
+
+	private final IForecastingApi _inner;
+	private final double _callsPerSecond;
+	private final int _capacity;
+	private final CircuitBreaker _circuitBreaker;
+	private final ConcurrentMap<String, RateLimiter> _rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+	private volatile long _openWaitNanos;
+
+	/**
+	 * @param inner
+	 *            API of the endpoint.
+	 * @param callsPerSecond
+	 *            Steady rate of the calls of each identity.
+	 * @param capacity
+	 *            Burst of calls of each identity.
+	 * @param circuitBreaker
+	 *            Circuit breaker of the endpoint.
+	 * @throws IllegalArgumentException
+	 *             If the rate or the capacity is not positive.
+	 */
+	public GuardedForecastingApi(IForecastingApi inner, double callsPerSecond, int capacity,
+			CircuitBreaker circuitBreaker) {
+		if (null == inner) {
+			throw new NullPointerException("inner");
+		}
+		if (null == circuitBreaker) {
+			throw new NullPointerException("circuitBreaker");
+		}
+		if (!(callsPerSecond > 0)) {
+			throw new IllegalArgumentException("Rate must be positive.");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		_inner = inner;
+		_callsPerSecond = callsPerSecond;
+		_capacity = capacity;
+		_circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Sets how long calls wait for the circuit to let them through, before
+	 * failing with a {@link CircuitOpenException}; none by default.
+	 *
+	 * @param openWaitMillis
+	 *            Maximal wait, in milliseconds.
+	 */
+	public void SetOpenWait(long openWaitMillis) {
+		if (openWaitMillis < 0) {
+			throw new IllegalArgumentException("Wait cannot be negative.");
+		}
+		_openWaitNanos = TimeUnit.MILLISECONDS.toNanos(openWaitMillis);
+	}
+
+	public CircuitBreaker GetCircuitBreaker() {
+		return _circuitBreaker;
+	}
+
+	/**
+	 * Rate limiter of an identity.
+	 */
+	public RateLimiter GetRateLimiter(String identity) {
+		RateLimiter rateLimiter = _rateLimiters.get(identity);
+		if (null == rateLimiter) {
+			rateLimiter = new RateLimiter(_callsPerSecond, _capacity);
+			RateLimiter existing = _rateLimiters.putIfAbsent(identity, rateLimiter);
+			if (null != existing) {
+				rateLimiter = existing;
+			}
+		}
+		return rateLimiter;
+	}
+
+	@Override
+	public String InsertDataset(String identity, Dataset dataset) throws IOException {
+		CircuitState admission = admit(identity);
+		String errorCode;
+		try {
+			errorCode = _inner.InsertDataset(identity, dataset);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, errorCode);
+		return errorCode;
+	}
+
+	@Override
+	public DatasetCollection ListDatasets(String identity, String continuationToken) throws IOException {
+		CircuitState admission = admit(identity);
+		DatasetCollection collection;
+		try {
+			collection = _inner.ListDatasets(identity, continuationToken);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, collection.ErrorCode);
+		return collection;
+	}
+
+	@Override
+	public String DeleteDataset(String identity, String datasetName) throws IOException {
+		CircuitState admission = admit(identity);
+		String errorCode;
+		try {
+			errorCode = _inner.DeleteDataset(identity, datasetName);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, errorCode);
+		return errorCode;
+	}
+
+	@Override
+	public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries, Boolean enableMerge)
+			throws IOException {
+		CircuitState admission = admit(identity);
+		String errorCode;
+		try {
+			errorCode = _inner.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, errorCode);
+		return errorCode;
+	}
+
+	@Override
+	public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken)
+			throws IOException {
+		CircuitState admission = admit(identity);
+		TimeSerieCollection collection;
+		try {
+			collection = _inner.ListTimeSeries(identity, datasetName, continuationToken);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, collection.ErrorCode);
+		return collection;
+	}
+
+	@Override
+	public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) throws IOException {
+		CircuitState admission = admit(identity);
+		String errorCode;
+		try {
+			errorCode = _inner.DeleteTimeSeries(identity, datasetName, serieNames);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, errorCode);
+		return errorCode;
+	}
+
+	@Override
+	public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
+		CircuitState admission = admit(identity);
+		ForecastStatus status;
+		try {
+			status = _inner.GetForecastStatus(identity, datasetName);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, status.ErrorCode);
+		return status;
+	}
+
+	@Override
+	public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+			throws IOException {
+		CircuitState admission = admit(identity);
+		ForecastCollection collection;
+		try {
+			collection = _inner.GetForecasts(identity, datasetName, serieNames);
+		} catch (IOException e) {
+			throw failed(admission, e);
+		} catch (RuntimeException e) {
+			throw released(admission, e);
+		}
+		record(admission, collection.ErrorCode);
+		return collection;
+	}
+
+	/**
+	 * Waits for a token, then for the circuit.
+	 *
+	 * @return The admission of the call.
+	 * @throws OperationAbortedException
+	 *             If the token comes after the deadline of the context, or if
+	 *             the deadline passes while waiting for the circuit.
+	 * @throws CircuitOpenException
+	 *             If the circuit rejects the call.
+	 */
+	private CircuitState admit(String identity) throws IOException {
+		RequestContext context = RequestContext.GetCurrent();
+		long deadline = null != context ? context.GetDeadlineNanos() : RequestContext.NoDeadline;
+		if (!GetRateLimiter(identity).Acquire(deadline)) {
+			throw context.NewAbortedException();
+		}
+
+		long openDeadline = System.nanoTime() + _openWaitNanos;
+		if (deadline != RequestContext.NoDeadline && deadline - openDeadline < 0) {
+			openDeadline = deadline;
+		}
+		CircuitState admission;
+		try {
+			admission = _circuitBreaker.Admit(openDeadline);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the circuit.");
+		}
+		if (null == admission) {
+			if (null != context && context.IsAborted()) {
+				throw context.NewAbortedException();
+			}
+			throw new CircuitOpenException();
+		}
+		return admission;
+	}
+
+	private void record(CircuitState admission, String errorCode) {
+		_circuitBreaker.Record(admission, ErrorCodes.ServiceFailure.equals(errorCode));
+	}
+
+	private IOException failed(CircuitState admission, IOException e) {
+		// interruptions of the caller do not tell about the service
+		boolean failure = e instanceof SocketTimeoutException || !(e instanceof InterruptedIOException);
+		if (failure) {
+			_circuitBreaker.Record(admission, true);
+		} else {
+			_circuitBreaker.Release(admission);
+		}
+		return e;
+	}
+
+	private RuntimeException released(CircuitState admission, RuntimeException e) {
+		_circuitBreaker.Release(admission);
+		return e;
+	}
+}
@@ -0,0 +1,328 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link IForecastingApi} decorator hedging the calls of the read-only
+ * operations: when a call has not answered within the latency percentile of
+ * its operation, a duplicate is sent, and the first answer wins.
+ * <p>
+ * <code>ListDatasets</code>, <code>ListTimeSeries</code>,
+ * <code>GetForecastStatus</code> and <code>GetForecasts</code> are hedged,
+ * the other operations are passed through. The calls of the hedged
+ * operations run on the executor, in the {@link RequestContext} of the
+ * caller, and their latencies are recorded per operation; no call is hedged
+ * until 20 of them have been recorded. A call which cannot be hedged, for
+ * lack of latencies or of budget, runs on the calling thread instead. The call still in flight once the
+ * other answered is cancelled. A call failing does not win while the other
+ * one may still answer.
+ * </p>
+ * <p>
+ * Hedges are paid from a budget: every call earns the hedge ratio, every
+ * hedge costs one, and the budget holds 10 hedges at most. With a ratio of
+ * 0.05, hedges add at most 5% of calls in the long run. The hedges run
+ * outside of the concurrency limit of the {@link ForecastingClient} on top.
+ * </p>
+ */
+public class HedgedForecastingApi implements IForecastingApi {
+
+	private final static int MinLatencyCount = 20;
+	private final static double MaxBudget = 10;
+
+	private final IForecastingApi _inner;
+	private final Executor _executor;
+	private final double _percentile;
+	private final double _hedgeRatio;
+	private final Map<String, LatencyHistogram> _latencies = new HashMap<String, LatencyHistogram>();
+	private final AtomicLong _hedgeCount = new AtomicLong();
+	private final AtomicLong _hedgeWinCount = new AtomicLong();
+
+	// guarded by this
+	private double _budget;
+
+	/**
+	 * Starts with an empty budget.
+	 *
+	 * @param inner
+	 *            Decorated API.
+	 * @param executor
+	 *            Executor running the calls and their hedges.
+	 * @param percentile
+	 *            Percentile of the latencies of an operation after which a
+	 *            call is hedged, between 0 and 100.
+	 * @param hedgeRatio
+	 *            Hedges earned per call.
+	 * @throws IllegalArgumentException
+	 *             If the percentile is out of range, or the ratio is not
+	 *             positive.
+	 */
+	public HedgedForecastingApi(IForecastingApi inner, Executor executor, double percentile, double hedgeRatio) {
+		if (null == inner) {
+			throw new NullPointerException("inner");
+		}
+		if (null == executor) {
+			throw new NullPointerException("executor");
+		}
+		if (!(percentile > 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		if (!(hedgeRatio > 0)) {
+			throw new IllegalArgumentException("Hedge ratio must be positive.");
+		}
+		_inner = inner;
+		_executor = executor;
+		_percentile = percentile;
+		_hedgeRatio = hedgeRatio;
+
+		_latencies.put(ApiOperations.ListDatasets, new LatencyHistogram());
+		_latencies.put(ApiOperations.ListTimeSeries, new LatencyHistogram());
+		_latencies.put(ApiOperations.GetForecastStatus, new LatencyHistogram());
+		_latencies.put(ApiOperations.GetForecasts, new LatencyHistogram());
+	}
+
+	/**
+	 * Latencies of the calls of a hedged operation which answered, hedges
+	 * included, in nanoseconds.
+	 *
+	 * @param operation
+	 *            One of the {@link ApiOperations}.
+	 * @return The histogram, <code>null</code> if the operation is not hedged.
+	 */
+	public LatencyHistogram GetLatencies(String operation) {
+		return _latencies.get(operation);
+	}
+
+	/**
+	 * Number of hedges sent.
+	 */
+	public long GetHedgeCount() {
+		return _hedgeCount.get();
+	}
+
+	/**
+	 * Number of hedges which answered first.
+	 */
+	public long GetHedgeWinCount() {
+		return _hedgeWinCount.get();
+	}
+
+	@Override
+	public String InsertDataset(String identity, Dataset dataset) throws IOException {
+		return _inner.InsertDataset(identity, dataset);
+	}
+
+	@Override
+	public DatasetCollection ListDatasets(final String identity, final String continuationToken)
+			throws IOException {
+		return call(ApiOperations.ListDatasets, new Callable<DatasetCollection>() {
+			@Override
+			public DatasetCollection call() throws IOException {
+				return _inner.ListDatasets(identity, continuationToken);
+			}
+		});
+	}
+
+	@Override
+	public String DeleteDataset(String identity, String datasetName) throws IOException {
+		return _inner.DeleteDataset(identity, datasetName);
+	}
+
+	@Override
+	public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries, Boolean enableMerge)
+			throws IOException {
+		return _inner.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+	}
+
+	@Override
+	public TimeSerieCollection ListTimeSeries(final String identity, final String datasetName,
+			final String continuationToken) throws IOException {
+		return call(ApiOperations.ListTimeSeries, new Callable<TimeSerieCollection>() {
+			@Override
+			public TimeSerieCollection call() throws IOException {
+				return _inner.ListTimeSeries(identity, datasetName, continuationToken);
+			}
+		});
+	}
+
+	@Override
+	public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) throws IOException {
+		return _inner.DeleteTimeSeries(identity, datasetName, serieNames);
+	}
+
+	@Override
+	public ForecastStatus GetForecastStatus(final String identity, final String datasetName) throws IOException {
+		return call(ApiOperations.GetForecastStatus, new Callable<ForecastStatus>() {
+			@Override
+			public ForecastStatus call() throws IOException {
+				return _inner.GetForecastStatus(identity, datasetName);
+			}
+		});
+	}
+
+	@Override
+	public ForecastCollection GetForecasts(final String identity, final String datasetName,
+			final String[] serieNames) throws IOException {
+		return call(ApiOperations.GetForecasts, new Callable<ForecastCollection>() {
+			@Override
+			public ForecastCollection call() throws IOException {
+				return _inner.GetForecasts(identity, datasetName, serieNames);
+			}
+		});
+	}
+
+	/**
+	 * Sends the call, and its hedge once the percentile latency is over.
+	 */
+	private <T> T call(String operation, Callable<T> call) throws IOException {
+		LatencyHistogram latencies = _latencies.get(operation);
+		long delay = latencies.GetCount() >= MinLatencyCount ? latencies.GetValueAtPercentile(_percentile) : -1;
+		earn();
+
+		Attempt<T> primary = new Attempt<T>(call, latencies);
+		if (delay < 0 || !canSpend()) {
+			// no hedge will be sent
+			return invoke(primary);
+		}
+
+		CompletionService<T> completion = new ExecutorCompletionService<T>(_executor);
+		Attempt<T> hedge = null;
+		Future<T> primaryFuture = completion.submit(primary);
+		Future<T> hedgeFuture = null;
+		int pending = 1;
+		try {
+			Future<T> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+			if (null == done && spend()) {
+				hedge = new Attempt<T>(call, latencies);
+				hedgeFuture = completion.submit(hedge);
+				_hedgeCount.incrementAndGet();
+				pending++;
+			}
+			while (true) {
+				if (null == done) {
+					done = completion.take();
+				}
+				pending--;
+				if (pending > 0 && isFailed(done)) {
+					// the other one may still answer
+					done = null;
+					continue;
+				}
+				Attempt<T> winner = done == primaryFuture ? primary : hedge;
+				if (winner == hedge) {
+					_hedgeWinCount.incrementAndGet();
+				}
+				ForecastingApi.AddTransferredBytes(winner._bytes);
+				return get(done);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the answer.");
+		} finally {
+			primaryFuture.cancel(true);
+			if (null != hedgeFuture) {
+				hedgeFuture.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Runs an attempt on the calling thread.
+	 */
+	private static <T> T invoke(Attempt<T> attempt) throws IOException {
+		T result;
+		try {
+			result = attempt.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		ForecastingApi.AddTransferredBytes(attempt._bytes);
+		return result;
+	}
+
+	private static boolean isFailed(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+			return false;
+		} catch (ExecutionException e) {
+			return true;
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private synchronized void earn() {
+		_budget = Math.min(MaxBudget, _budget + _hedgeRatio);
+	}
+
+	private synchronized boolean canSpend() {
+		return _budget >= 1;
+	}
+
+	private synchronized boolean spend() {
+		if (_budget < 1) {
+			return false;
+		}
+		_budget--;
+		return true;
+	}
+
+	/**
+	 * A call or its hedge, made in the context of the caller.
+	 */
+	private static class Attempt<T> implements Callable<T> {
+		private final Callable<T> _call;
+		private final LatencyHistogram _latencies;
+		private final RequestContext _context = RequestContext.GetCurrent();
+		private volatile long _bytes;
+
+		Attempt(Callable<T> call, LatencyHistogram latencies) {
+			_call = call;
+			_latencies = latencies;
+		}
+
+		@Override
+		public T call() throws Exception {
+			RequestContext previous = RequestContext.Swap(_context);
+			long start = System.nanoTime();
+			try {
+				T result = _call.call();
+				_latencies.Record(System.nanoTime() - start);
+				return result;
+			} finally {
+				_bytes = ForecastingApi.TakeTransferredBytes();
+				RequestContext.Swap(previous);
+			}
+		}
+	}
+}
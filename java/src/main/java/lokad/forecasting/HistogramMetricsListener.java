@@ -0,0 +1,136 @@
+package lokad.forecasting;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Built-in {@link IMetricsListener} aggregating the calls per operation into
+ * latency histograms and counters.
+ * <p>
+ * All the structures are allocated upfront: apart from the first occurrence
+ * of a given error code, recording a call does not allocate.
+ * </p>
+ */
+public class HistogramMetricsListener implements IMetricsListener {
+
+	/**
+	 * Metrics of a single operation.
+	 */
+	public static class OperationStats {
+		public final LatencyHistogram ConnectLatency = new LatencyHistogram();
+
+		public final LatencyHistogram FirstByteLatency = new LatencyHistogram();
+
+		public final LatencyHistogram TotalLatency = new LatencyHistogram();
+
+		public final AtomicLong RequestBytes = new AtomicLong();
+
+		public final AtomicLong ResponseBytes = new AtomicLong();
+
+		public final AtomicLong Retries = new AtomicLong();
+
+		/**
+		 * Calls which failed with an exception, without any response.
+		 */
+		public final AtomicLong Failures = new AtomicLong();
+
+		/**
+		 * Number of responses per HTTP status, indexed by the status.
+		 */
+		public final AtomicLongArray HttpStatuses = new AtomicLongArray(600);
+
+		/**
+		 * Number of responses per error code returned by the API.
+		 */
+		public final ConcurrentMap<String, AtomicLong> ErrorCodes = new ConcurrentHashMap<String, AtomicLong>();
+
+		private void incrementErrorCode(String errorCode) {
+			AtomicLong counter = ErrorCodes.get(errorCode);
+			if (null == counter) {
+				counter = new AtomicLong();
+				AtomicLong existing = ErrorCodes.putIfAbsent(errorCode, counter);
+				if (null != existing) {
+					counter = existing;
+				}
+			}
+			counter.incrementAndGet();
+		}
+	}
+
+	private final Map<String, OperationStats> _stats;
+
+	public HistogramMetricsListener() {
+		Map<String, OperationStats> stats = new HashMap<String, OperationStats>();
+		for (String operation : ApiOperations.All) {
+			stats.put(operation, new OperationStats());
+		}
+		_stats = Collections.unmodifiableMap(stats);
+	}
+
+	/**
+	 * Gets the metrics of the specified operation.
+	 *
+	 * @param operation
+	 *            One of the {@link ApiOperations}.
+	 */
+	public OperationStats GetStats(String operation) {
+		OperationStats stats = _stats.get(operation);
+		if (null == stats) {
+			throw new IllegalArgumentException(String.format("%s is not an API operation.", operation));
+		}
+		return stats;
+	}
+
+	@Override
+	public void OperationCompleted(String operation, String datasetName, long connectNanos, long firstByteNanos,
+			long totalNanos, long requestBytes, long responseBytes, int httpStatus, String errorCode, int retries) {
+		OperationStats stats = _stats.get(operation);
+		if (null == stats) {
+			return;
+		}
+
+		stats.ConnectLatency.Record(connectNanos);
+		stats.FirstByteLatency.Record(firstByteNanos);
+		stats.TotalLatency.Record(totalNanos);
+		stats.RequestBytes.addAndGet(requestBytes);
+		stats.ResponseBytes.addAndGet(responseBytes);
+		stats.Retries.addAndGet(retries);
+
+		if (httpStatus < 0) {
+			stats.Failures.incrementAndGet();
+		} else if (httpStatus < stats.HttpStatuses.length()) {
+			stats.HttpStatuses.incrementAndGet(httpStatus);
+		}
+		if (!ForecastingClient.isStringBlank(errorCode)) {
+			stats.incrementErrorCode(errorCode);
+		}
+	}
+
+	/**
+	 * One line per operation called so far: calls, failures, bytes and
+	 * total latency percentiles in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-18s %8s %8s %12s %12s %9s %9s %9s%n", "operation", "calls", "failures",
+				"sent", "received", "p50 ms", "p99 ms", "p999 ms"));
+		for (String operation : ApiOperations.All) {
+			OperationStats stats = _stats.get(operation);
+			LatencyHistogram latency = stats.TotalLatency;
+			if (latency.GetCount() == 0) {
+				continue;
+			}
+			builder.append(String.format("%-18s %8d %8d %12d %12d %9.2f %9.2f %9.2f%n", operation,
+					latency.GetCount(), stats.Failures.get(), stats.RequestBytes.get(), stats.ResponseBytes.get(),
+					latency.GetValueAtPercentile(50) / 1e6, latency.GetValueAtPercentile(99) / 1e6,
+					latency.GetValueAtPercentile(99.9) / 1e6));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,42 @@
+package lokad.forecasting;
+
+/**
+ * Listener notified once per call made to the Forecasting API.
+ * <p>
+ * Notifications happen on the calling thread, right after the response has
+ * been decoded (or the call has failed), hence implementations should be
+ * thread-safe and fast.
+ * </p>
+ *
+ * @see ForecastingApi#SetMetricsListener(IMetricsListener)
+ * @see HistogramMetricsListener
+ */
+public interface IMetricsListener {
+	/**
+	 * @param operation
+	 *            One of the {@link ApiOperations}.
+	 * @param datasetName
+	 *            Targeted dataset, null for <code>ListDatasets</code>.
+	 * @param connectNanos
+	 *            Time spent opening the connection.
+	 * @param firstByteNanos
+	 *            Time elapsed until the response status was received,
+	 *            including the upload of the request body.
+	 * @param totalNanos
+	 *            Time elapsed until the response was decoded.
+	 * @param requestBytes
+	 *            Size of the request body.
+	 * @param responseBytes
+	 *            Size of the response body.
+	 * @param httpStatus
+	 *            HTTP status of the response, -1 if none was received.
+	 * @param errorCode
+	 *            Error code returned by the API, null or empty if none,
+	 *            null as well if the call failed with an exception.
+	 * @param retries
+	 *            Number of attempts made for the same call before this one.
+	 *            {@link ForecastingApi} itself never retries, hence reports 0.
+	 */
+	void OperationCompleted(String operation, String datasetName, long connectNanos, long firstByteNanos,
+			long totalNanos, long requestBytes, long responseBytes, int httpStatus, String errorCode, int retries);
+}
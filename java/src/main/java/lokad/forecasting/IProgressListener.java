@@ -0,0 +1,22 @@
+package lokad.forecasting;
+
+/**
+ * Listener following the progress of the bulk operations of
+ * {@link ForecastingClient}.
+ * <p>
+ * Reports are issued on the calling thread as the slices complete, at most
+ * once per reporting interval, plus a final report once the operation has
+ * succeeded. Hence implementations should be fast; a listener which stops
+ * receiving reports while an operation is running is looking at a stalled
+ * call.
+ * </p>
+ *
+ * @see ForecastingClient#SetProgressListener(IProgressListener, long)
+ */
+public interface IProgressListener {
+	/**
+	 * @param report
+	 *            Snapshot of the progress, not reused by the client.
+	 */
+	void ProgressChanged(ProgressReport report);
+}
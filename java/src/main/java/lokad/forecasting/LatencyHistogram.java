@@ -0,0 +1,114 @@
+package lokad.forecasting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear histogram of non-negative values, typically
+ * latencies in nanoseconds.
+ * <p>
+ * Each power of two is split into 32 linear buckets, hence recorded values
+ * are known within about 3%. Buckets are allocated once: recording a value
+ * does not allocate and does not lock.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	private final static int SubBucketBits = 5;
+	private final static int SubBucketCount = 1 << SubBucketBits;
+
+	private final AtomicLongArray _counts = new AtomicLongArray((64 - SubBucketBits) * SubBucketCount);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	static int bucketIndex(long value) {
+		if (value < SubBucketCount) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SubBucketBits;
+		int subBucket = (int) (value >>> shift) - SubBucketCount;
+		return (shift + 1) * SubBucketCount + subBucket;
+	}
+
+	/**
+	 * Highest value falling into the bucket.
+	 */
+	static long bucketValue(int index) {
+		if (index < SubBucketCount) {
+			return index;
+		}
+		int shift = index / SubBucketCount - 1;
+		long lowest = (long) (SubBucketCount + index % SubBucketCount) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records a value, negative values being recorded as 0.
+	 */
+	public void Record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		_counts.incrementAndGet(bucketIndex(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+
+		long max = _max.get();
+		while (value > max && !_max.compareAndSet(max, value)) {
+			max = _max.get();
+		}
+	}
+
+	public long GetCount() {
+		return _count.get();
+	}
+
+	public long GetMax() {
+		return _max.get();
+	}
+
+	public double GetMean() {
+		long count = _count.get();
+		return count > 0 ? (double) _sum.get() / count : 0.0;
+	}
+
+	/**
+	 * Gets the value below which the specified percentage of the recorded
+	 * values fall.
+	 *
+	 * @param percentile
+	 *            Percentage between 0 and 100.
+	 * @return Upper bound of the bucket holding the percentile, 0 if no value
+	 *         has been recorded.
+	 */
+	public long GetValueAtPercentile(double percentile) {
+		long count = _count.get();
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long cumulated = 0;
+		for (int i = 0; i < _counts.length(); i++) {
+			cumulated += _counts.get(i);
+			if (cumulated >= rank) {
+				return Math.min(bucketValue(i), _max.get());
+			}
+		}
+		return _max.get();
+	}
+
+	/**
+	 * Clears the recorded values. Values recorded concurrently might be
+	 * partially cleared.
+	 */
+	public void Reset() {
+		for (int i = 0; i < _counts.length(); i++) {
+			_counts.set(i, 0);
+		}
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+}
@@ -0,0 +1,72 @@
+package lokad.forecasting;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when an operation is aborted by its {@link RequestContext}, either
+ * because the deadline passed or because the {@link CancellationToken} was
+ * cancelled.
+ * <p>
+ * When thrown by the bulk operations of {@link ForecastingClient}, the
+ * exception holds the final {@link ProgressReport} of the operation, and the
+ * series it completed: the names of the series upserted or deleted, the
+ * {@link TimeSerie} listed, or the {@link ForecastSerie} retrieved.
+ * </p>
+ */
+public class OperationAbortedException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean _cancelled;
+	private final ProgressReport _report;
+	private final List<?> _partialResult;
+
+	/**
+	 * @param cancelled
+	 *            Whether the token was cancelled, rather than the deadline
+	 *            passed.
+	 */
+	OperationAbortedException(boolean cancelled) {
+		super(cancelled ? "Operation cancelled." : "Deadline exceeded.");
+		_cancelled = cancelled;
+		_report = null;
+		_partialResult = Collections.emptyList();
+	}
+
+	/**
+	 * Completes an abort with the outcome of the operation.
+	 */
+	OperationAbortedException(OperationAbortedException cause, ProgressReport report, List<?> partialResult) {
+		super(cause.getMessage());
+		initCause(cause);
+		_cancelled = cause._cancelled;
+		_report = report;
+		_partialResult = Collections.unmodifiableList(partialResult);
+	}
+
+	/**
+	 * Whether the operation was cancelled, rather than out of time.
+	 */
+	public boolean isCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * Final report of the operation, <code>null</code> if the operation does
+	 * not report its progress.
+	 */
+	public ProgressReport getReport() {
+		return _report;
+	}
+
+	/**
+	 * Series completed before the abort, in the order they completed: names
+	 * of the series upserted, {@link TimeSerie} listed, or
+	 * {@link ForecastSerie} retrieved.
+	 */
+	public List<?> getPartialResult() {
+		return _partialResult;
+	}
+}
@@ -0,0 +1,188 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher emitting the items of pages fetched one at a time from the API.
+ * <p>
+ * A page is fetched only once the items of the previous one have all been
+ * delivered and the subscriber still has outstanding demand; hence at most
+ * one page is held in memory per subscription. The fetches and the signals
+ * happen on the executor, never on the thread calling
+ * {@link Flow.Subscription#request(long)}.
+ * </p>
+ */
+final class PagePublisher<T> implements Flow.Publisher<T> {
+
+	/**
+	 * Pages of a single subscription.
+	 */
+	interface PageSource<T> {
+		/**
+		 * @return Next page, or <code>null</code> once all the pages have been
+		 *         fetched.
+		 */
+		T[] NextPage() throws IOException;
+
+		/**
+		 * Indicates whether the last page has been fetched, so that the
+		 * completion does not wait for more demand.
+		 */
+		boolean IsExhausted();
+	}
+
+	/**
+	 * Creates a fresh page source per subscription.
+	 */
+	interface PageSourceFactory<T> {
+		PageSource<T> Create();
+	}
+
+	private final PageSourceFactory<T> _sources;
+	private final Executor _executor;
+
+	PagePublisher(PageSourceFactory<T> sources, Executor executor) {
+		if (null == executor) {
+			throw new NullPointerException("executor");
+		}
+		_sources = sources;
+		_executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (null == subscriber) {
+			throw new NullPointerException("subscriber");
+		}
+		PageSubscription<T> subscription = new PageSubscription<T>(subscriber, _sources.Create(), _executor);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private static final class PageSubscription<T> implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super T> _subscriber;
+		private final PageSource<T> _source;
+		private final Executor _executor;
+
+		private final AtomicLong _demand = new AtomicLong();
+		private final AtomicInteger _wip = new AtomicInteger();
+		private volatile boolean _cancelled;
+		private volatile Throwable _invalidRequest;
+
+		// only accessed by the drain loop, which is serialized by _wip
+		private T[] _page;
+		private int _index;
+		private boolean _done;
+
+		PageSubscription(Flow.Subscriber<? super T> subscriber, PageSource<T> source, Executor executor) {
+			_subscriber = subscriber;
+			_source = source;
+			_executor = executor;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				_invalidRequest = new IllegalArgumentException("Requested items must be positive.");
+			} else {
+				long current;
+				long next;
+				do {
+					current = _demand.get();
+					next = current + n;
+					if (next < 0) {
+						next = Long.MAX_VALUE; // unbounded
+					}
+				} while (!_demand.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			_cancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (_wip.getAndIncrement() == 0) {
+				_executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = _wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			if (_done) {
+				return;
+			}
+			if (_cancelled) {
+				terminate();
+				return;
+			}
+			if (null != _invalidRequest) {
+				terminate();
+				_subscriber.onError(_invalidRequest);
+				return;
+			}
+			while (true) {
+				if ((null == _page || _index == _page.length) && _source.IsExhausted()) {
+					terminate();
+					_subscriber.onComplete();
+					return;
+				}
+				if (_demand.get() == 0) {
+					return;
+				}
+				if (null == _page || _index == _page.length) {
+					T[] page;
+					try {
+						page = _source.NextPage();
+					} catch (Throwable t) {
+						terminate();
+						_subscriber.onError(t);
+						return;
+					}
+					if (_cancelled) {
+						terminate();
+						return;
+					}
+					if (null == page) {
+						terminate();
+						_subscriber.onComplete();
+						return;
+					}
+					_page = page;
+					_index = 0;
+					continue;
+				}
+
+				T item = _page[_index];
+				_page[_index++] = null; // no need to retain what is delivered
+				if (_demand.get() != Long.MAX_VALUE) {
+					_demand.decrementAndGet();
+				}
+				_subscriber.onNext(item);
+				if (_cancelled) {
+					terminate();
+					return;
+				}
+			}
+		}
+
+		private void terminate() {
+			_done = true;
+			_page = null;
+		}
+	}
+}
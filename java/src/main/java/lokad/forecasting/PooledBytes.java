@@ -0,0 +1,179 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytes held in a chain of buffers taken from a {@link BufferPool}, written
+ * as an output stream and read back in place as an input stream. The
+ * buffers go back to the pool on {@link #Release()}. Not thread-safe.
+ */
+final class PooledBytes extends OutputStream {
+
+	private final BufferPool _pool;
+	private final List<ByteBuffer> _buffers = new ArrayList<ByteBuffer>();
+	private ByteBuffer _current;
+	private long _length;
+
+	PooledBytes(BufferPool pool) {
+		_pool = pool;
+	}
+
+	long GetLength() {
+		return _length;
+	}
+
+	private ByteBuffer writable() {
+		if (null == _current || !_current.hasRemaining()) {
+			_current = _pool.Acquire();
+			_buffers.add(_current);
+		}
+		return _current;
+	}
+
+	@Override
+	public void write(int b) {
+		writable().put((byte) b);
+		_length++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0) {
+			ByteBuffer buffer = writable();
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+			_length += n;
+		}
+	}
+
+	/**
+	 * Appends the content of a stream, up to its end.
+	 */
+	void ReadFrom(InputStream inputStream) throws IOException {
+		// transfer area for the direct buffers, taken from the pool
+		byte[] scratch = null;
+		try {
+			while (true) {
+				ByteBuffer buffer = writable();
+				if (buffer.hasArray()) {
+					// straight into the heap buffer
+					int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer
+							.remaining());
+					if (read < 0) {
+						return;
+					}
+					buffer.position(buffer.position() + read);
+					_length += read;
+				} else {
+					if (null == scratch) {
+						scratch = _pool.AcquireScratch();
+					}
+					int read = inputStream.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+					if (read < 0) {
+						return;
+					}
+					buffer.put(scratch, 0, read);
+					_length += read;
+				}
+			}
+		} finally {
+			if (null != scratch) {
+				_pool.ReleaseScratch(scratch);
+			}
+		}
+	}
+
+	/**
+	 * Writes the content to a stream.
+	 */
+	void WriteTo(OutputStream outputStream) throws IOException {
+		byte[] scratch = null;
+		try {
+			for (ByteBuffer buffer : _buffers) {
+				ByteBuffer content = buffer.duplicate().flip();
+				if (content.hasArray()) {
+					outputStream.write(content.array(), content.arrayOffset(), content.remaining());
+					continue;
+				}
+				if (null == scratch) {
+					scratch = _pool.AcquireScratch();
+				}
+				while (content.hasRemaining()) {
+					int n = Math.min(scratch.length, content.remaining());
+					content.get(scratch, 0, n);
+					outputStream.write(scratch, 0, n);
+				}
+			}
+		} finally {
+			if (null != scratch) {
+				_pool.ReleaseScratch(scratch);
+			}
+		}
+	}
+
+	/**
+	 * Reads the content in place, without copying it out of the buffers
+	 * first.
+	 */
+	InputStream NewInputStream() {
+		return new InputStream() {
+			private int _index;
+			private ByteBuffer _content;
+
+			private ByteBuffer readable() {
+				while (null == _content || !_content.hasRemaining()) {
+					if (_index >= _buffers.size()) {
+						return null;
+					}
+					_content = _buffers.get(_index++).duplicate().flip();
+				}
+				return _content;
+			}
+
+			@Override
+			public int read() {
+				ByteBuffer content = readable();
+				return null != content ? content.get() & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+				ByteBuffer content = readable();
+				if (null == content) {
+					return -1;
+				}
+				int n = Math.min(len, content.remaining());
+				content.get(b, off, n);
+				return n;
+			}
+
+			@Override
+			public int available() {
+				ByteBuffer content = readable();
+				return null != content ? content.remaining() : 0;
+			}
+		};
+	}
+
+	/**
+	 * Gives the buffers back to the pool; the content is lost.
+	 */
+	void Release() {
+		for (ByteBuffer buffer : _buffers) {
+			_pool.Release(buffer);
+		}
+		_buffers.clear();
+		_current = null;
+		_length = 0;
+	}
+}
@@ -0,0 +1,84 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+
+/**
+ * Snapshot of the progress of a bulk operation.
+ *
+ * @see IProgressListener
+ */
+public class ProgressReport {
+
+	/**
+	 * One of the {@link ApiOperations}.
+	 */
+	public String Operation;
+
+	public String DatasetName;
+
+	public long SeriesDone;
+
+	/**
+	 * Number of series processed by the operation, -1 if unknown, as for
+	 * <code>ListTimeSeries</code>.
+	 */
+	public long SeriesTotal;
+
+	/**
+	 * Request and response bytes transferred so far. Only counted when the
+	 * client goes through {@link ForecastingApi}, 0 otherwise.
+	 */
+	public long BytesDone;
+
+	/**
+	 * Extrapolation of the bytes transferred by the whole operation, based
+	 * on the series done so far, -1 if unknown.
+	 */
+	public long BytesTotal;
+
+	public int SlicesInFlight;
+
+	/**
+	 * Throughput since the previous report.
+	 */
+	public double SeriesPerSecond;
+
+	/**
+	 * Throughput since the previous report.
+	 */
+	public double BytesPerSecond;
+
+	public long ElapsedMillis;
+
+	/**
+	 * Estimated remaining time, based on the average throughput since the
+	 * beginning of the operation, -1 if unknown.
+	 */
+	public long EtaMillis;
+
+	/**
+	 * Whether the operation has succeeded; this is the last report.
+	 */
+	public boolean Completed;
+
+	/**
+	 * Whether the operation was aborted by its {@link RequestContext}; this
+	 * is the last report.
+	 */
+	public boolean Aborted;
+
+	/**
+	 * Failure to write the forecasts downloaded to the
+	 * {@link ForecastStore} of the client, which does not fail the
+	 * operation; <code>null</code> otherwise. Only set in the final report.
+	 */
+	public IOException StoreFailure;
+
+	@Override
+	public String toString() {
+		return String.format("%s %s: %d/%d series, %d/%d bytes, %d in flight, %.1f series/s, %.1f bytes/s, "
+				+ "elapsed %d ms, eta %d ms%s", Operation, DatasetName, SeriesDone, SeriesTotal, BytesDone,
+				BytesTotal, SlicesInFlight, SeriesPerSecond, BytesPerSecond, ElapsedMillis, EtaMillis,
+				Completed ? ", completed" : Aborted ? ", aborted" : "");
+	}
+}
@@ -0,0 +1,209 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of a bulk operation, and reports it to a
+ * {@link IProgressListener} on a throttled schedule.
+ * <p>
+ * Completing a slice costs a few atomic increments and a clock read; the
+ * listener is only involved once the reporting interval has elapsed.
+ * </p>
+ * <p>
+ * Within a {@link RequestContext} which may abort the operation, the tracker
+ * also keeps what the operation completed, for the final report of an
+ * aborted operation. Otherwise, without listener, the tracker does nothing.
+ * </p>
+ */
+final class ProgressTracker {
+
+	private final IProgressListener _listener;
+	private final long _intervalNanos;
+	private final String _operation;
+	private final String _datasetName;
+	private final long _seriesTotal;
+	private final long _start;
+	private final boolean _tracking;
+	private final List<Object> _done;
+
+	private final AtomicInteger _slicesInFlight = new AtomicInteger();
+	private final AtomicLong _seriesDone = new AtomicLong();
+	private final AtomicLong _bytesDone = new AtomicLong();
+
+	private volatile long _nextReport;
+	private volatile IOException _storeFailure;
+
+	// guarded by this
+	private long _lastReport;
+	private long _lastSeriesDone;
+	private long _lastBytesDone;
+
+	/**
+	 * @param listener
+	 *            Listener, or <code>null</code> not to report the progress.
+	 * @param seriesTotal
+	 *            Number of series processed by the operation, -1 if unknown.
+	 */
+	ProgressTracker(IProgressListener listener, long intervalMillis, String operation, String datasetName,
+			long seriesTotal) {
+		_listener = listener;
+		_intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		_operation = operation;
+		_datasetName = datasetName;
+		_seriesTotal = seriesTotal;
+		RequestContext context = RequestContext.GetCurrent();
+		_done = null != context && context.IsAbortable() ? new ArrayList<Object>() : null;
+		_tracking = null != listener || null != _done;
+		_start = System.nanoTime();
+		_lastReport = _start;
+		_nextReport = _start + _intervalNanos;
+	}
+
+	void SliceStarted() {
+		if (_tracking) {
+			_slicesInFlight.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param series
+	 *            Number of series of the slice.
+	 * @param bytes
+	 *            Request and response bytes of the slice.
+	 */
+	void SliceCompleted(int series, long bytes) {
+		if (!_tracking) {
+			return;
+		}
+		_slicesInFlight.decrementAndGet();
+		_seriesDone.addAndGet(series);
+		_bytesDone.addAndGet(bytes);
+
+		long now = System.nanoTime();
+		if (null != _listener && now - _nextReport >= 0) {
+			report(now, false, false);
+		}
+	}
+
+	/**
+	 * Whether the series completed are to be kept, see
+	 * {@link #Done(Object[])}.
+	 */
+	boolean IsKeepingDone() {
+		return null != _done;
+	}
+
+	/**
+	 * Keeps series completed, reported if the operation is aborted.
+	 */
+	void Done(Object[] series) {
+		if (null != _done) {
+			synchronized (_done) {
+				for (Object serie : series) {
+					_done.add(serie);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records a failure to write the local store, for the final report.
+	 */
+	void StoreFailed(IOException failure) {
+		_storeFailure = failure;
+	}
+
+	/**
+	 * Issues the final report.
+	 */
+	void Completed() {
+		if (null != _listener) {
+			report(System.nanoTime(), true, false);
+		}
+	}
+
+	/**
+	 * Issues the final report of an operation which failed, if aborted by
+	 * its context.
+	 *
+	 * @return The failure to throw: an {@link OperationAbortedException}
+	 *         holding the report and the series completed if the operation
+	 *         was aborted, the failure itself otherwise.
+	 */
+	IOException Failed(IOException failure) {
+		OperationAbortedException aborted;
+		if (failure instanceof OperationAbortedException) {
+			aborted = (OperationAbortedException) failure;
+		} else {
+			RequestContext context = RequestContext.GetCurrent();
+			if (null == context || !context.IsAborted()) {
+				return failure;
+			}
+			aborted = context.NewAbortedException();
+			aborted.initCause(failure);
+		}
+
+		List<Object> done;
+		if (null != _done) {
+			synchronized (_done) {
+				done = new ArrayList<Object>(_done);
+			}
+		} else {
+			done = new ArrayList<Object>();
+		}
+		return new OperationAbortedException(aborted, report(System.nanoTime(), false, true), done);
+	}
+
+	private ProgressReport report(long now, boolean completed, boolean aborted) {
+		ProgressReport report;
+		synchronized (this) {
+			if (!completed && !aborted && now - _nextReport < 0) {
+				return null; // another thread reported meanwhile
+			}
+			_nextReport = now + _intervalNanos;
+
+			report = new ProgressReport();
+			report.Operation = _operation;
+			report.DatasetName = _datasetName;
+			report.SeriesDone = _seriesDone.get();
+			report.SeriesTotal = _seriesTotal;
+			report.BytesDone = _bytesDone.get();
+			report.SlicesInFlight = _slicesInFlight.get();
+			report.ElapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - _start);
+			report.Completed = completed;
+			report.Aborted = aborted;
+			if (completed) {
+				report.StoreFailure = _storeFailure;
+			}
+
+			double seconds = (now - _lastReport) / 1e9;
+			if (seconds > 0) {
+				report.SeriesPerSecond = (report.SeriesDone - _lastSeriesDone) / seconds;
+				report.BytesPerSecond = (report.BytesDone - _lastBytesDone) / seconds;
+			}
+			_lastReport = now;
+			_lastSeriesDone = report.SeriesDone;
+			_lastBytesDone = report.BytesDone;
+
+			if (completed) {
+				report.BytesTotal = report.BytesDone;
+				report.EtaMillis = 0;
+			} else if (_seriesTotal < 0 || report.SeriesDone == 0) {
+				report.BytesTotal = -1;
+				report.EtaMillis = -1;
+			} else {
+				report.BytesTotal = report.BytesDone * _seriesTotal / report.SeriesDone;
+				report.EtaMillis = report.ElapsedMillis * (_seriesTotal - report.SeriesDone) / report.SeriesDone;
+			}
+		}
+		if (null != _listener) {
+			_listener.ProgressChanged(report);
+		}
+		return report;
+	}
+}
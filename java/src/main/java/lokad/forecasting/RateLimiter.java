@@ -0,0 +1,90 @@
+package lokad.forecasting;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket: calls are let through at a steady rate, with bursts up to the
+ * capacity of the bucket. Waiting calls are served in the order they
+ * reserved their token.
+ */
+public class RateLimiter {
+
+	private final double _tokensPerNano;
+	private final int _capacity;
+
+	// guarded by this
+	private double _tokens;
+	private long _refilled = System.nanoTime();
+
+	/**
+	 * Starts with a full bucket.
+	 *
+	 * @param callsPerSecond
+	 *            Steady rate of the calls.
+	 * @param capacity
+	 *            Maximal number of calls let through at once after an idle
+	 *            period.
+	 * @throws IllegalArgumentException
+	 *             If the rate or the capacity is not positive.
+	 */
+	public RateLimiter(double callsPerSecond, int capacity) {
+		if (!(callsPerSecond > 0)) {
+			throw new IllegalArgumentException("Rate must be positive.");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		_tokensPerNano = callsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		_capacity = capacity;
+		_tokens = capacity;
+	}
+
+	/**
+	 * Number of tokens in the bucket, negative when calls are waiting.
+	 */
+	public synchronized double GetAvailableTokens() {
+		refill(System.nanoTime());
+		return _tokens;
+	}
+
+	/**
+	 * Takes a token, waiting for it if needed.
+	 *
+	 * @param deadlineNanos
+	 *            {@link System#nanoTime()} beyond which the token is not
+	 *            worth waiting for, or {@link RequestContext#NoDeadline}.
+	 * @return <code>false</code> if the token would come after the deadline,
+	 *         in which case none is taken.
+	 */
+	boolean Acquire(long deadlineNanos) throws InterruptedIOException {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			refill(now);
+			wait = _tokens >= 1 ? 0 : (long) Math.ceil((1 - _tokens) / _tokensPerNano);
+			if (wait > 0 && deadlineNanos != RequestContext.NoDeadline && deadlineNanos - now < wait) {
+				return false;
+			}
+			// reserved, even while waiting
+			_tokens--;
+		}
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					_tokens++;
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a call token.");
+			}
+		}
+		return true;
+	}
+
+	private void refill(long now) {
+		_tokens = Math.min(_capacity, _tokens + (now - _refilled) * _tokensPerNano);
+		_refilled = now;
+	}
+}
@@ -0,0 +1,276 @@
+package lokad.forecasting;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Priority, deadline and cancellation of the API calls made by a thread.
+ * <p>
+ * A context is entered for a block of code and closed at its end, restoring
+ * the enclosing one:
+ * 
+ * <pre>
+ * RequestContext context = RequestContext.Enter(RequestPriority.Interactive, 200);
+ * try {
+ * 	forecasts = client.GetForecasts(&quot;dataset&quot;, serieNames);
+ * } finally {
+ * 	context.close();
+ * }
+ * </pre>
+ * 
+ * The slices run concurrently by {@link ForecastingClient} inherit the
+ * context of the thread starting the operation. A context keeps the deadline
+ * of the enclosing one when it is earlier, and its {@link CancellationToken}
+ * unless given another one.
+ * </p>
+ * <p>
+ * Once the deadline has passed or the token is cancelled, the calls not yet
+ * sent fail with an {@link OperationAbortedException}, the slices in flight
+ * are cancelled, and the bulk operations report what they completed. The
+ * connect and read timeouts of each request of {@link ForecastingApi} are
+ * cut to the time left.
+ * </p>
+ */
+public final class RequestContext implements Closeable {
+
+	/**
+	 * Deadline of the calls made without one.
+	 */
+	final static long NoDeadline = Long.MAX_VALUE;
+
+	private final static ThreadLocal<RequestContext> Current = new ThreadLocal<RequestContext>();
+
+	private final RequestPriority _priority;
+	private final long _deadlineNanos;
+	private final CancellationToken _token;
+	private final RequestContext _previous;
+	private final Thread _thread;
+
+	private RequestContext(RequestPriority priority, long deadlineNanos, CancellationToken token,
+			RequestContext previous) {
+		if (null != previous) {
+			if (previous._deadlineNanos - deadlineNanos < 0) {
+				deadlineNanos = previous._deadlineNanos;
+			}
+			if (null == token) {
+				token = previous._token;
+			}
+		}
+		_priority = priority;
+		_deadlineNanos = deadlineNanos;
+		_token = token;
+		_previous = previous;
+		_thread = Thread.currentThread();
+	}
+
+	private static RequestContext enter(RequestPriority priority, long deadlineNanos, CancellationToken token) {
+		RequestContext context = new RequestContext(priority, deadlineNanos, token, Current.get());
+		Current.set(context);
+		return context;
+	}
+
+	/**
+	 * Enters a context without a deadline.
+	 * 
+	 * @param priority
+	 *            Class of the calls, or <code>null</code> to keep the class
+	 *            of each operation.
+	 */
+	public static RequestContext Enter(RequestPriority priority) {
+		return enter(priority, NoDeadline, null);
+	}
+
+	/**
+	 * Enters a context without a deadline, cancelled by a token.
+	 * 
+	 * @param priority
+	 *            Class of the calls, or <code>null</code> to keep the class
+	 *            of each operation.
+	 * @param token
+	 *            Token cancelling the calls.
+	 */
+	public static RequestContext Enter(RequestPriority priority, CancellationToken token) {
+		if (null == token) {
+			throw new NullPointerException("token");
+		}
+		return enter(priority, NoDeadline, token);
+	}
+
+	/**
+	 * Enters a context with a deadline.
+	 * 
+	 * @param priority
+	 *            Class of the calls, or <code>null</code> to keep the class
+	 *            of each operation.
+	 * @param timeoutMillis
+	 *            Time left from now to complete the calls, in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             If the timeout is not positive.
+	 */
+	public static RequestContext Enter(RequestPriority priority, long timeoutMillis) {
+		return Enter(priority, timeoutMillis, null);
+	}
+
+	/**
+	 * Enters a context with a deadline, cancelled by a token.
+	 * 
+	 * @param priority
+	 *            Class of the calls, or <code>null</code> to keep the class
+	 *            of each operation.
+	 * @param timeoutMillis
+	 *            Time left from now to complete the calls, in milliseconds.
+	 * @param token
+	 *            Token cancelling the calls, or <code>null</code> to keep the
+	 *            one of the enclosing context.
+	 * @throws IllegalArgumentException
+	 *             If the timeout is not positive.
+	 */
+	public static RequestContext Enter(RequestPriority priority, long timeoutMillis, CancellationToken token) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive.");
+		}
+		return enter(priority, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), token);
+	}
+
+	/**
+	 * Returns the context of the calling thread, or <code>null</code>.
+	 */
+	static RequestContext GetCurrent() {
+		return Current.get();
+	}
+
+	/**
+	 * Makes a context, typically captured on another thread, the one of the
+	 * calling thread.
+	 * 
+	 * @return The context replaced, to be restored afterwards.
+	 */
+	static RequestContext Swap(RequestContext context) {
+		RequestContext previous = Current.get();
+		if (null == context) {
+			Current.remove();
+		} else {
+			Current.set(context);
+		}
+		return previous;
+	}
+
+	/**
+	 * Class of the calls, or <code>null</code> to keep the class of each
+	 * operation.
+	 */
+	public RequestPriority GetPriority() {
+		return _priority;
+	}
+
+	/**
+	 * Token cancelling the calls, or <code>null</code>.
+	 */
+	public CancellationToken GetCancellationToken() {
+		return _token;
+	}
+
+	/**
+	 * Deadline, as a {@link System#nanoTime()} value, or {@link #NoDeadline}.
+	 */
+	long GetDeadlineNanos() {
+		return _deadlineNanos;
+	}
+
+	/**
+	 * Time left before the deadline, in milliseconds, or
+	 * <code>Long.MAX_VALUE</code> without deadline.
+	 */
+	long GetRemainingMillis() {
+		if (NoDeadline == _deadlineNanos) {
+			return Long.MAX_VALUE;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(_deadlineNanos - System.nanoTime());
+	}
+
+	/**
+	 * Whether the calls of the context may be aborted.
+	 */
+	boolean IsAbortable() {
+		return NoDeadline != _deadlineNanos || null != _token;
+	}
+
+	/**
+	 * Whether the deadline has passed or the token is cancelled.
+	 */
+	boolean IsAborted() {
+		return (null != _token && _token.IsCancelled())
+				|| (NoDeadline != _deadlineNanos && System.nanoTime() - _deadlineNanos >= 0);
+	}
+
+	/**
+	 * Creates the exception failing the calls of the context once aborted.
+	 */
+	OperationAbortedException NewAbortedException() {
+		return new OperationAbortedException(null != _token && _token.IsCancelled());
+	}
+
+	/**
+	 * Fails if the context of the calling thread is aborted.
+	 */
+	static void ThrowIfAborted() throws OperationAbortedException {
+		RequestContext context = Current.get();
+		if (null != context && context.IsAborted()) {
+			throw context.NewAbortedException();
+		}
+	}
+
+	/**
+	 * Waits on a monitor held by the calling thread, until notified or until
+	 * the deadline of a context, if any.
+	 *
+	 * @param context
+	 *            Context bounding the wait, or <code>null</code>.
+	 */
+	static void Wait(Object monitor, RequestContext context) throws InterruptedException {
+		if (null == context || NoDeadline == context._deadlineNanos) {
+			monitor.wait();
+		} else {
+			TimeUnit.NANOSECONDS.timedWait(monitor, context._deadlineNanos - System.nanoTime());
+		}
+	}
+
+	/**
+	 * Sleeps between two polls, failing at once if the deadline of the
+	 * context of the calling thread comes first, and waking up when its token
+	 * is cancelled.
+	 */
+	static void Sleep(long millis) throws InterruptedException, OperationAbortedException {
+		RequestContext context = Current.get();
+		if (null == context) {
+			Thread.sleep(millis);
+			return;
+		}
+		ThrowIfAborted();
+		if (context.GetRemainingMillis() < millis) {
+			// the next poll would come too late
+			throw new OperationAbortedException(false);
+		}
+		if (null != context._token) {
+			context._token.Await(TimeUnit.MILLISECONDS.toNanos(millis));
+		} else {
+			Thread.sleep(millis);
+		}
+		ThrowIfAborted();
+	}
+
+	/**
+	 * Restores the enclosing context.
+	 * 
+	 * @throws IllegalStateException
+	 *             If called from another thread, or if a nested context is
+	 *             still open.
+	 */
+	@Override
+	public void close() {
+		if (Thread.currentThread() != _thread || Current.get() != this) {
+			throw new IllegalStateException("Request contexts must be closed in reverse order, by their thread.");
+		}
+		Swap(_previous);
+	}
+}
@@ -0,0 +1,21 @@
+package lokad.forecasting;
+
+/**
+ * Priority classes of the calls scheduled by {@link RequestScheduler}.
+ */
+public enum RequestPriority {
+	/**
+	 * Latency-sensitive calls, e.g. forecast lookups.
+	 */
+	Interactive,
+
+	/**
+	 * Calls with no particular latency requirement.
+	 */
+	Normal,
+
+	/**
+	 * Background transfers, e.g. the slices of a large upload.
+	 */
+	Bulk
+}
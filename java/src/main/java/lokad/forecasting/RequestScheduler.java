@@ -0,0 +1,412 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IForecastingApi} decorator sharing a limited number of call slots
+ * between the {@link RequestPriority} classes, so that background uploads do
+ * not starve latency-sensitive lookups made through the same client.
+ * <p>
+ * Each call belongs to the class of its operation, unless the calling thread
+ * entered a {@link RequestContext} naming another one. Calls wait for a slot
+ * in the queue of their class; when a slot frees, the queued calls whose
+ * deadline falls within the urgency window are served first, earliest
+ * deadline first, then the classes share the slots in proportion to their
+ * weights (weighted fair queuing). A class never holds more slots than its
+ * own limit. A call still queued when its deadline passes, or when the
+ * token of its context is cancelled, fails with an
+ * {@link OperationAbortedException}, without being sent.
+ * </p>
+ * <p>
+ * By default, the lookups are <code>Interactive</code>, listing the series is
+ * <code>Normal</code>, upserting and deleting series are <code>Bulk</code>;
+ * weights are 8, 4 and 1, and <code>Bulk</code> calls leave a slot free for
+ * the other classes. Give the {@link ForecastingClient} on top a concurrency
+ * limit above the one of the scheduler, so that calls queue here rather than
+ * in the client.
+ * </p>
+ */
+public class RequestScheduler implements IForecastingApi {
+
+	private final IForecastingApi _inner;
+	private final int _maxConcurrency;
+	private final PriorityClass[] _classes;
+	private final Map<String, RequestPriority> _priorities = new HashMap<String, RequestPriority>();
+	private volatile long _urgencyNanos = Long.MAX_VALUE;
+
+	// guarded by this
+	private int _inFlight;
+	private long _sequence;
+	private double _virtualTime;
+
+	/**
+	 * @param inner
+	 *            Decorated API.
+	 * @param maxConcurrency
+	 *            Maximal number of calls in flight, all classes included.
+	 * @throws IllegalArgumentException
+	 *             If the limit is not positive.
+	 */
+	public RequestScheduler(IForecastingApi inner, int maxConcurrency) {
+		if (null == inner) {
+			throw new NullPointerException("inner");
+		}
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency limit must be positive.");
+		}
+		_inner = inner;
+		_maxConcurrency = maxConcurrency;
+
+		_classes = new PriorityClass[RequestPriority.values().length];
+		_classes[RequestPriority.Interactive.ordinal()] = new PriorityClass(8, maxConcurrency);
+		_classes[RequestPriority.Normal.ordinal()] = new PriorityClass(4, maxConcurrency);
+		_classes[RequestPriority.Bulk.ordinal()] = new PriorityClass(1, Math.max(1, maxConcurrency - 1));
+
+		_priorities.put(ApiOperations.InsertDataset, RequestPriority.Interactive);
+		_priorities.put(ApiOperations.ListDatasets, RequestPriority.Interactive);
+		_priorities.put(ApiOperations.DeleteDataset, RequestPriority.Interactive);
+		_priorities.put(ApiOperations.UpsertTimeSeries, RequestPriority.Bulk);
+		_priorities.put(ApiOperations.ListTimeSeries, RequestPriority.Normal);
+		_priorities.put(ApiOperations.DeleteTimeSeries, RequestPriority.Bulk);
+		_priorities.put(ApiOperations.GetForecastStatus, RequestPriority.Interactive);
+		_priorities.put(ApiOperations.GetForecasts, RequestPriority.Interactive);
+	}
+
+	/**
+	 * Sets the share and the limit of a class.
+	 *
+	 * @param priority
+	 *            Configured class.
+	 * @param weight
+	 *            Share of the slots when several classes are waiting.
+	 * @param maxConcurrency
+	 *            Maximal number of calls of the class in flight.
+	 * @throws IllegalArgumentException
+	 *             If the weight or the limit is not positive.
+	 */
+	public synchronized void SetClass(RequestPriority priority, int weight, int maxConcurrency) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be positive.");
+		}
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency limit must be positive.");
+		}
+		PriorityClass priorityClass = _classes[priority.ordinal()];
+		priorityClass._weight = weight;
+		priorityClass._maxConcurrency = maxConcurrency;
+		dispatch();
+	}
+
+	/**
+	 * Sets the class of the calls of an operation made outside of any
+	 * {@link RequestContext}.
+	 *
+	 * @param operation
+	 *            One of the {@link ApiOperations}.
+	 * @param priority
+	 *            Class of the calls.
+	 * @throws IllegalArgumentException
+	 *             If the operation is unknown.
+	 */
+	public synchronized void SetPriority(String operation, RequestPriority priority) {
+		if (null == priority) {
+			throw new NullPointerException("priority");
+		}
+		if (!_priorities.containsKey(operation)) {
+			throw new IllegalArgumentException(String.format("Unknown operation %s.", operation));
+		}
+		_priorities.put(operation, priority);
+	}
+
+	/**
+	 * Restricts the calls served ahead of the fair sharing to the ones whose
+	 * deadline is closer than the window; by default, all the calls with a
+	 * deadline are.
+	 *
+	 * @param urgencyMillis
+	 *            Urgency window, in milliseconds.
+	 */
+	public void SetUrgencyWindow(long urgencyMillis) {
+		if (urgencyMillis < 0) {
+			throw new IllegalArgumentException("Urgency window cannot be negative.");
+		}
+		_urgencyNanos = TimeUnit.MILLISECONDS.toNanos(urgencyMillis);
+	}
+
+	/**
+	 * Number of calls of the class waiting for a slot.
+	 */
+	public synchronized int GetQueuedCount(RequestPriority priority) {
+		return _classes[priority.ordinal()]._queue.size();
+	}
+
+	/**
+	 * Number of calls of the class in flight.
+	 */
+	public synchronized int GetInFlightCount(RequestPriority priority) {
+		return _classes[priority.ordinal()]._inFlight;
+	}
+
+	/**
+	 * Number of calls of the class failed because of their deadline, before
+	 * being sent.
+	 */
+	public synchronized long GetExpiredCount(RequestPriority priority) {
+		return _classes[priority.ordinal()]._expiredCount;
+	}
+
+	@Override
+	public String InsertDataset(String identity, Dataset dataset) throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.InsertDataset);
+		try {
+			return _inner.InsertDataset(identity, dataset);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public DatasetCollection ListDatasets(String identity, String continuationToken) throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.ListDatasets);
+		try {
+			return _inner.ListDatasets(identity, continuationToken);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public String DeleteDataset(String identity, String datasetName) throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.DeleteDataset);
+		try {
+			return _inner.DeleteDataset(identity, datasetName);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries, Boolean enableMerge)
+			throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.UpsertTimeSeries);
+		try {
+			return _inner.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken)
+			throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.ListTimeSeries);
+		try {
+			return _inner.ListTimeSeries(identity, datasetName, continuationToken);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.DeleteTimeSeries);
+		try {
+			return _inner.DeleteTimeSeries(identity, datasetName, serieNames);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.GetForecastStatus);
+		try {
+			return _inner.GetForecastStatus(identity, datasetName);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	@Override
+	public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+			throws IOException {
+		PriorityClass priorityClass = acquire(ApiOperations.GetForecasts);
+		try {
+			return _inner.GetForecasts(identity, datasetName, serieNames);
+		} finally {
+			release(priorityClass);
+		}
+	}
+
+	/**
+	 * Waits for a slot, in the class of the context or of the operation.
+	 */
+	private synchronized PriorityClass acquire(String operation) throws IOException {
+		RequestContext context = RequestContext.GetCurrent();
+		RequestPriority priority = null != context ? context.GetPriority() : null;
+		if (null == priority) {
+			priority = _priorities.get(operation);
+		}
+		long deadline = null != context ? context.GetDeadlineNanos() : RequestContext.NoDeadline;
+		CancellationToken token = null != context ? context.GetCancellationToken() : null;
+
+		PriorityClass priorityClass = _classes[priority.ordinal()];
+		Waiter waiter = new Waiter(deadline, _sequence++);
+		if (priorityClass._queue.isEmpty()) {
+			// a class resuming its calls gets no credit for the time it had none queued
+			priorityClass._pass = Math.max(priorityClass._pass, _virtualTime);
+		}
+		priorityClass._queue.add(waiter);
+		dispatch();
+
+		Runnable wakeUp = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (RequestScheduler.this) {
+					RequestScheduler.this.notifyAll();
+				}
+			}
+		};
+		if (null != token && !token.Register(wakeUp)) {
+			// already cancelled
+			token = null;
+		}
+		try {
+			while (!waiter._granted) {
+				if (null != context && context.IsAborted()) {
+					priorityClass._queue.remove(waiter);
+					OperationAbortedException aborted = context.NewAbortedException();
+					if (!aborted.isCancelled()) {
+						priorityClass._expiredCount++;
+					}
+					throw aborted;
+				}
+				if (deadline == RequestContext.NoDeadline) {
+					wait();
+				} else {
+					TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+				}
+			}
+		} catch (InterruptedException e) {
+			if (waiter._granted) {
+				release(priorityClass);
+			} else {
+				priorityClass._queue.remove(waiter);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a call slot.");
+		} finally {
+			if (null != token) {
+				token.Unregister(wakeUp);
+			}
+		}
+		return priorityClass;
+	}
+
+	private synchronized void release(PriorityClass priorityClass) {
+		_inFlight--;
+		priorityClass._inFlight--;
+		dispatch();
+	}
+
+	/**
+	 * Grants the free slots, then wakes up the waiters.
+	 */
+	private void dispatch() {
+		boolean granted = false;
+		while (_inFlight < _maxConcurrency) {
+			PriorityClass next = next();
+			if (null == next) {
+				break;
+			}
+			next._queue.poll()._granted = true;
+			_inFlight++;
+			next._inFlight++;
+			_virtualTime = Math.max(_virtualTime, next._pass);
+			next._pass += 1.0 / next._weight;
+			granted = true;
+		}
+		if (granted) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Picks the class of the next call: the one holding the earliest deadline
+	 * within the urgency window, otherwise the one with the lowest pass.
+	 */
+	private PriorityClass next() {
+		long now = System.nanoTime();
+		PriorityClass urgent = null;
+		PriorityClass fair = null;
+		for (PriorityClass priorityClass : _classes) {
+			Waiter head = priorityClass._queue.peek();
+			if (null == head || priorityClass._inFlight >= priorityClass._maxConcurrency) {
+				continue;
+			}
+			if (head._deadline != RequestContext.NoDeadline && head._deadline - now <= _urgencyNanos
+					&& (null == urgent || head._deadline - urgent._queue.peek()._deadline < 0)) {
+				urgent = priorityClass;
+			}
+			if (null == fair || priorityClass._pass < fair._pass) {
+				fair = priorityClass;
+			}
+		}
+		return null != urgent ? urgent : fair;
+	}
+
+	/**
+	 * Queue and share of a class. Guarded by the scheduler.
+	 */
+	private static final class PriorityClass {
+		final PriorityQueue<Waiter> _queue = new PriorityQueue<Waiter>();
+		int _weight;
+		int _maxConcurrency;
+		int _inFlight;
+		long _expiredCount;
+
+		/**
+		 * Virtual time of the next call, advancing by the inverse of the
+		 * weight on every call.
+		 */
+		double _pass;
+
+		PriorityClass(int weight, int maxConcurrency) {
+			_weight = weight;
+			_maxConcurrency = maxConcurrency;
+		}
+	}
+
+	/**
+	 * Queued call, ordered by deadline, then by arrival.
+	 */
+	private static final class Waiter implements Comparable<Waiter> {
+		final long _deadline;
+		final long _sequence;
+		boolean _granted;
+
+		Waiter(long deadline, long sequence) {
+			_deadline = deadline;
+			_sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Waiter other) {
+			if (_deadline != other._deadline) {
+				// calls without deadline last
+				if (_deadline == RequestContext.NoDeadline) {
+					return 1;
+				} else if (other._deadline == RequestContext.NoDeadline) {
+					return -1;
+				}
+				return _deadline - other._deadline < 0 ? -1 : 1;
+			}
+			return Long.compare(_sequence, other._sequence);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serializes the slices of an upload ahead of their sending, on a worker
+ * thread, into the buffers of the {@link BufferPool} of the API.
+ * <p>
+ * Each upload holds at most <code>bufferCount</code> serialized slices at
+ * once. With two slices, the next slice is serialized while the current one
+ * is on the wire; with concurrent slices, an upload should be allowed one
+ * slice more than the number of calls in flight. As the worker waits for
+ * its upload to give a slice back before serializing the next one, it never
+ * runs further ahead than the budget allows.
+ * </p>
+ * <p>
+ * The budget is per upload, not shared: an upload never waits for the
+ * slices held by another one, whose calls might in turn be waiting for the
+ * call slots of the first. The buffers themselves go back to the pool, in
+ * which the transport also holds the bodies, hence once the pool is warm,
+ * uploading does not allocate any payload.
+ * </p>
+ */
+final class SerializationPipeline {
+
+	private final Executor _executor;
+	private final int _bufferCount;
+
+	/**
+	 * @param executor
+	 *            Executor running the serialization of each upload.
+	 * @param bufferCount
+	 *            Number of slices serialized ahead by each upload.
+	 */
+	SerializationPipeline(Executor executor, int bufferCount) {
+		if (null == executor) {
+			throw new NullPointerException("executor");
+		}
+		if (bufferCount < 2) {
+			throw new IllegalArgumentException("At least two buffers are required.");
+		}
+		_executor = executor;
+		_bufferCount = bufferCount;
+	}
+
+	int GetBufferCount() {
+		return _bufferCount;
+	}
+
+	/**
+	 * Starts serializing the slices, in order, into buffers of the pool.
+	 */
+	Upload Start(String datasetName, List<TimeSerie[]> slices, BufferPool pool) {
+		Upload upload = new Upload(datasetName, slices, pool);
+		_executor.execute(upload);
+		return upload;
+	}
+
+	private final static class Slot {
+		final CountDownLatch ready = new CountDownLatch(1);
+		final AtomicBoolean claimed = new AtomicBoolean();
+		PooledBytes buffer;
+		Throwable failure;
+	}
+
+	/**
+	 * Serialization of the slices of one upload. Each serialized slice is
+	 * claimed by {@link #Take(int)} and its buffers given back by
+	 * {@link #Release(PooledBytes)}; {@link #Close()} gives back the buffers
+	 * of the slices which have not been claimed.
+	 */
+	final class Upload implements Runnable {
+		private final String _datasetName;
+		private final List<TimeSerie[]> _slices;
+		private final BufferPool _pool;
+		private final Slot[] _slots;
+		private final Semaphore _budget = new Semaphore(_bufferCount);
+		private volatile boolean _closed;
+
+		Upload(String datasetName, List<TimeSerie[]> slices, BufferPool pool) {
+			_datasetName = datasetName;
+			_slices = slices;
+			_pool = pool;
+			_slots = new Slot[slices.size()];
+			for (int i = 0; i < _slots.length; i++) {
+				_slots[i] = new Slot();
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < _slots.length; i++) {
+				Slot slot = _slots[i];
+				try {
+					// woken up by Close
+					_budget.acquire();
+					if (_closed) {
+						return;
+					}
+					PooledBytes buffer = new PooledBytes(_pool);
+					try {
+						ClientStageEvent serialization = ClientStageEvent.Begin();
+						ForecastingApi.SerializeTimeSeries(_slices.get(i), buffer);
+						serialization.End(ClientStageEvent.Serialization, _datasetName, _slices.get(i).length);
+						slot.buffer = buffer;
+					} catch (Throwable t) {
+						Release(buffer);
+						slot.failure = t;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					slot.failure = e;
+				}
+				slot.ready.countDown();
+
+				if (null != slot.failure) {
+					// the slices after a failed one are not sent
+					for (int j = i + 1; j < _slots.length; j++) {
+						_slots[j].failure = slot.failure;
+						_slots[j].ready.countDown();
+					}
+					return;
+				}
+				if (_closed) {
+					reclaim(slot);
+				}
+			}
+		}
+
+		private void reclaim(Slot slot) {
+			if (slot.claimed.compareAndSet(false, true) && null != slot.buffer) {
+				Release(slot.buffer);
+			}
+		}
+
+		/**
+		 * Waits for a slice to be serialized, and takes its buffer.
+		 */
+		PooledBytes Take(int index) throws IOException {
+			Slot slot = _slots[index];
+			try {
+				slot.ready.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the serialization.");
+			}
+			Throwable failure = slot.failure;
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (null != failure) {
+				throw new IOException(failure.getMessage(), failure);
+			}
+			if (!slot.claimed.compareAndSet(false, true)) {
+				throw new IllegalStateException("Slice already taken.");
+			}
+			return slot.buffer;
+		}
+
+		/**
+		 * Gives back the buffers of a sent slice.
+		 */
+		void Release(PooledBytes buffer) {
+			buffer.Release();
+			_budget.release();
+		}
+
+		/**
+		 * Stops the serialization, and gives back the buffers not taken.
+		 */
+		void Close() {
+			_closed = true;
+			// the serialization may be waiting for a buffer
+			_budget.release(_bufferCount);
+			for (Slot slot : _slots) {
+				if (slot.ready.getCount() == 0) {
+					reclaim(slot);
+				}
+			}
+		}
+	}
+}
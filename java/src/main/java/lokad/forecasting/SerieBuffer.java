@@ -0,0 +1,142 @@
+package lokad.forecasting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Accumulates the values of a serie being parsed into primitive columns,
+ * reused from one serie to the next, then sorts and validates the serie.
+ * Not thread-safe.
+ */
+final class SerieBuffer {
+
+	String name;
+	String[] tags;
+	final List<EventValue> events = new ArrayList<EventValue>();
+
+	private long[] _times = new long[1024];
+	private double[] _values = new double[1024];
+	private int _length;
+
+	void Reset(String name) {
+		this.name = name;
+		tags = null;
+		events.clear();
+		_length = 0;
+	}
+
+	int Length() {
+		return _length;
+	}
+
+	void Add(long time, double value) {
+		if (_length == _times.length) {
+			_times = Arrays.copyOf(_times, _length * 2);
+			_values = Arrays.copyOf(_values, _length * 2);
+		}
+		_times[_length] = time;
+		_values[_length] = value;
+		_length++;
+	}
+
+	void AddEvent(long time, long knownSince, String[] eventTags) {
+		EventValue event = new EventValue();
+		event.Time = toCalendar(time);
+		event.KnownSince = knownSince != DatasetFiles.NoTime ? toCalendar(knownSince) : null;
+		event.Tags = eventTags;
+		events.add(event);
+	}
+
+	/**
+	 * Sorts the values by time, then builds and validates the serie.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             Thrown if two values share the same time, or if the serie is
+	 *             not compliant with the Forecasting API restrictions.
+	 */
+	TimeSerie ToTimeSerie() {
+		if (!ForecastingApiValidators.IsStrictlyOrdered(_times, _length)) {
+			sort(_times, _values, 0, _length - 1);
+			if (!ForecastingApiValidators.IsStrictlyOrdered(_times, _length)) {
+				throw new IllegalArgumentException(String.format("%s: several values share the same time.", name));
+			}
+		}
+
+		TimeSerie serie = new TimeSerie();
+		serie.Name = name;
+		serie.Tags = tags;
+		serie.Events = events.isEmpty() ? null : events.toArray(new EventValue[] {});
+		serie.Values = new TimeValue[_length];
+		for (int i = 0; i < _length; i++) {
+			serie.Values[i] = new TimeValue();
+			serie.Values[i].Time = toCalendar(_times[i]);
+			serie.Values[i].Value = _values[i];
+		}
+		ForecastingApiValidators.Validate(serie);
+		return serie;
+	}
+
+	private static Calendar toCalendar(long millis) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTimeInMillis(millis);
+		return calendar;
+	}
+
+	/**
+	 * Quicksort of the times, moving the values along.
+	 */
+	private static void sort(long[] times, double[] values, int low, int high) {
+		while (high - low > 16) {
+			int middle = (low + high) >>> 1;
+			// median of three as pivot
+			if (times[middle] < times[low]) {
+				swap(times, values, middle, low);
+			}
+			if (times[high] < times[low]) {
+				swap(times, values, high, low);
+			}
+			if (times[high] < times[middle]) {
+				swap(times, values, high, middle);
+			}
+			long pivot = times[middle];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (times[i] < pivot) {
+					i++;
+				}
+				while (times[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(times, values, i++, j--);
+				}
+			}
+			// recursing on the smaller side bounds the stack depth
+			if (j - low < high - i) {
+				sort(times, values, low, j);
+				low = i;
+			} else {
+				sort(times, values, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low && times[j] < times[j - 1]; j--) {
+				swap(times, values, j, j - 1);
+			}
+		}
+	}
+
+	private static void swap(long[] times, double[] values, int i, int j) {
+		long time = times[i];
+		times[i] = times[j];
+		times[j] = time;
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+}
@@ -0,0 +1,200 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the number of series per upsert request and the number of requests
+ * in flight to the latency and the failures observed, additive increase and
+ * multiplicative decrease (AIMD).
+ * <p>
+ * Every slice completed within the target latency adds a serie to the
+ * slices, and a request in flight per full window of requests. A slice
+ * slower than the target halves the slice length; a timed out request halves
+ * both the length and the concurrency, any other network failure or
+ * <code>ServiceFailure</code> halves the concurrency. Decreases apply at
+ * most once per target latency, so that the slices already in flight when
+ * the link degrades do not collapse the settings.
+ * </p>
+ * <p>
+ * Slices never hold more than 100 series, the limit of the API, and large
+ * series keep being sent 10 times fewer per request. The request size is
+ * learnt from the completed slices, and the slices are cut so that their
+ * estimated size stays below the 4MB limit of the API.
+ * </p>
+ */
+public class SliceController {
+
+	/**
+	 * Maximal number of series of an upsert request.
+	 */
+	final static int MaxSeriesSliceLength = 100;
+
+	/**
+	 * Maximal size of a request, of which only a part is filled to allow for
+	 * estimation errors.
+	 */
+	final static long MaxRequestBytes = 4L * 1024 * 1024;
+	private final static double RequestBytesMargin = 0.75;
+
+	private final static double DecreaseFactor = 0.5;
+	private final static double BytesSmoothing = 0.25;
+
+	private final int _maxConcurrency;
+	private final long _targetLatencyNanos;
+
+	// guarded by this
+	private double _seriesSliceLength = MaxSeriesSliceLength;
+	private double _concurrency;
+	private int _inFlight;
+	private double _bytesPerValue;
+	private long _lastDecrease = System.nanoTime() - Long.MAX_VALUE / 2;
+
+	/**
+	 * Starts with full slices, and the maximal concurrency.
+	 *
+	 * @param maxConcurrency
+	 *            Maximal number of requests in flight; it does not raise the
+	 *            limit of the executor of the client.
+	 * @param targetLatencyMillis
+	 *            Latency of a slice beyond which slices are shortened, below
+	 *            the read timeout of the API.
+	 * @throws IllegalArgumentException
+	 *             If the limit or the latency is not positive.
+	 */
+	public SliceController(int maxConcurrency, long targetLatencyMillis) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency limit must be positive.");
+		}
+		if (targetLatencyMillis <= 0) {
+			throw new IllegalArgumentException("Target latency must be positive.");
+		}
+		_maxConcurrency = maxConcurrency;
+		_targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+		_concurrency = maxConcurrency;
+	}
+
+	/**
+	 * Number of small series per slice, between 1 and 100.
+	 */
+	public synchronized int GetSeriesSliceLength() {
+		return (int) _seriesSliceLength;
+	}
+
+	/**
+	 * Number of large series per slice, between 1 and 10.
+	 */
+	public synchronized int GetMidSeriesSliceLength() {
+		return Math.max(1, (int) _seriesSliceLength / 10);
+	}
+
+	/**
+	 * Number of requests in flight allowed, between 1 and the maximal
+	 * concurrency.
+	 */
+	public synchronized int GetConcurrency() {
+		return (int) _concurrency;
+	}
+
+	/**
+	 * Maximal number of values of a slice, given the request size learnt so
+	 * far.
+	 */
+	synchronized long GetMaxSliceValues() {
+		if (_bytesPerValue <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(1, (long) (MaxRequestBytes * RequestBytesMargin / _bytesPerValue));
+	}
+
+	/**
+	 * Waits for the number of requests in flight to get below the
+	 * concurrency, until the context, if any, is aborted.
+	 *
+	 * @return <code>false</code> if the context was aborted first.
+	 */
+	synchronized boolean Acquire(RequestContext context) throws InterruptedException {
+		while (true) {
+			if (null != context && context.IsAborted()) {
+				return false;
+			}
+			if (_inFlight < (int) _concurrency) {
+				_inFlight++;
+				return true;
+			}
+			RequestContext.Wait(this, context);
+		}
+	}
+
+	synchronized void Release() {
+		_inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * Wakes up the requests waiting for their turn, for them to notice an
+	 * abort.
+	 */
+	synchronized void WakeUp() {
+		notifyAll();
+	}
+
+	/**
+	 * Records a slice acknowledged by the server.
+	 *
+	 * @param values
+	 *            Number of values of the slice.
+	 * @param bytes
+	 *            Bytes transferred by the request, 0 if unknown.
+	 * @param latencyNanos
+	 *            Duration of the request.
+	 */
+	synchronized void Completed(long values, long bytes, long latencyNanos) {
+		if (bytes > 0) {
+			double bytesPerValue = (double) bytes / Math.max(1, values);
+			_bytesPerValue = _bytesPerValue <= 0 ? bytesPerValue : _bytesPerValue + BytesSmoothing
+					* (bytesPerValue - _bytesPerValue);
+		}
+
+		if (latencyNanos > _targetLatencyNanos) {
+			if (decrease()) {
+				_seriesSliceLength = Math.max(1, _seriesSliceLength * DecreaseFactor);
+			}
+		} else {
+			_seriesSliceLength = Math.min(MaxSeriesSliceLength, _seriesSliceLength + 1);
+			_concurrency = Math.min(_maxConcurrency, _concurrency + 1 / _concurrency);
+		}
+	}
+
+	/**
+	 * Records a slice which failed.
+	 */
+	synchronized void Failed(Throwable failure) {
+		boolean timeout = failure instanceof SocketTimeoutException;
+		boolean capacity = (failure instanceof IOException && !(failure instanceof OperationAbortedException)
+				&& !(failure instanceof CircuitOpenException))
+				|| (failure instanceof IllegalStateException && ErrorCodes.ServiceFailure.equals(failure.getMessage()));
+		if (!capacity || !decrease()) {
+			// neither invalid series, access rights, aborts nor open circuits tell
+			// about the load
+			return;
+		}
+		if (timeout) {
+			_seriesSliceLength = Math.max(1, _seriesSliceLength * DecreaseFactor);
+		}
+		_concurrency = Math.max(1, _concurrency * DecreaseFactor);
+	}
+
+	/**
+	 * Whether a decrease is allowed now, at most once per target latency.
+	 */
+	private boolean decrease() {
+		long now = System.nanoTime();
+		if (now - _lastDecrease < _targetLatencyNanos) {
+			return false;
+		}
+		_lastDecrease = now;
+		return true;
+	}
+}
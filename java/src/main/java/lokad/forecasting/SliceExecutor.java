@@ -0,0 +1,493 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the slices of the bulk operations of {@link ForecastingClient}, either
+ * one after the other on the calling thread, or concurrently on an
+ * {@link Executor} under a concurrency limit shared by all the operations of
+ * the client.
+ * <p>
+ * The limit is enforced before handing the slices to the executor, hence an
+ * executor starting a thread per task never holds more threads than the
+ * limit. The slices run within the {@link RequestContext} of the thread
+ * starting them.
+ * </p>
+ * <p>
+ * Once that context is aborted, no more slices are started, and the slices in
+ * flight are cancelled: the operation fails with an
+ * {@link OperationAbortedException} as soon as the deadline passes or the
+ * token is cancelled, without waiting for them, and a call waiting for a
+ * slot gives up its place.
+ * </p>
+ */
+final class SliceExecutor {
+
+	/**
+	 * Runs everything on the calling thread.
+	 */
+	final static SliceExecutor Sequential = new SliceExecutor(null, 1);
+
+	private final Executor _executor;
+
+	// guarded by this
+	private int _permits;
+
+	/**
+	 * @param executor
+	 *            Executor running the slices, or <code>null</code> to run them
+	 *            sequentially on the calling thread.
+	 * @param maxConcurrency
+	 *            Maximal number of calls in flight.
+	 */
+	SliceExecutor(Executor executor, int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency limit must be positive.");
+		}
+		_executor = executor;
+		_permits = maxConcurrency;
+	}
+
+	synchronized int GetAvailablePermits() {
+		return _permits;
+	}
+
+	/**
+	 * Runs a single call on the calling thread, within the concurrency limit.
+	 */
+	<T> T Invoke(Callable<T> call) throws IOException {
+		if (null == _executor) {
+			return call(call);
+		}
+		Abort abort = new Abort(new AtomicBoolean(), null);
+		try {
+			abort.Acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a call slot.");
+		} finally {
+			abort.Close();
+		}
+		try {
+			return call(call);
+		} finally {
+			release(null);
+		}
+	}
+
+	/**
+	 * Runs the calls, and returns their results in the same order.
+	 * <p>
+	 * Once a call has failed, the calls not yet started are skipped; the
+	 * method returns once the started ones are done, rethrowing the failure of
+	 * the first failed call.
+	 * </p>
+	 */
+	<T> List<T> InvokeAll(List<? extends Callable<T>> calls) throws IOException {
+		List<T> results = new ArrayList<T>(calls.size());
+		if (null == _executor) {
+			for (Callable<T> call : calls) {
+				results.add(call(call));
+			}
+			return results;
+		}
+
+		AtomicBoolean failed = new AtomicBoolean();
+		Abort abort = new Abort(failed, null);
+		List<SliceTask<T>> tasks = new ArrayList<SliceTask<T>>(calls.size());
+		try {
+			for (Callable<T> call : calls) {
+				if (failed.get()) {
+					break;
+				}
+				abort.Acquire();
+				SliceTask<T> task = new SliceTask<T>(call, failed, null, abort);
+				try {
+					_executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					task.release();
+					throw e;
+				}
+				tasks.add(task);
+			}
+
+			Throwable failure = null;
+			for (SliceTask<T> task : tasks) {
+				try {
+					results.add(abort.Get(task));
+				} catch (ExecutionException e) {
+					if (null == failure) {
+						failure = e.getCause();
+					}
+				}
+			}
+			if (null != failure) {
+				throw abort.Rethrow(failure);
+			}
+			return results;
+		} catch (InterruptedException e) {
+			abort.run();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while running the slices.");
+		} finally {
+			abort.Close();
+		}
+	}
+
+	/**
+	 * Runs the calls as they are pulled from the iterator, discarding their
+	 * results.
+	 * <p>
+	 * The next call is only pulled once a call slot is free, hence no more
+	 * calls than the concurrency limit are held at once. Once a call has
+	 * failed, no more calls are pulled; the method returns once the started
+	 * ones are done, rethrowing the failure of the first failed call.
+	 * </p>
+	 */
+	void InvokeEach(Iterator<? extends Callable<?>> calls) throws IOException {
+		InvokeEach(calls, null);
+	}
+
+	/**
+	 * Runs the calls as they are pulled from the iterator, within the
+	 * concurrency of a controller as well as the limit.
+	 * 
+	 * @param controller
+	 *            Controller of the concurrency, or <code>null</code>.
+	 * @see #InvokeEach(Iterator)
+	 */
+	void InvokeEach(Iterator<? extends Callable<?>> calls, SliceController controller) throws IOException {
+		if (null == _executor) {
+			while (calls.hasNext()) {
+				call(calls.next());
+			}
+			return;
+		}
+
+		AtomicBoolean failed = new AtomicBoolean();
+		Abort abort = new Abort(failed, controller);
+		List<SliceTask<?>> tasks = new ArrayList<SliceTask<?>>();
+		Throwable failure = null;
+		try {
+			while (!failed.get()) {
+				abort.Acquire();
+				SliceTask<?> task;
+				try {
+					if (failed.get() || !calls.hasNext()) {
+						release(controller);
+						break;
+					}
+					task = newTask(calls.next(), failed, controller, abort);
+				} catch (RuntimeException e) {
+					release(controller);
+					failure = e;
+					break;
+				}
+				try {
+					_executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					task.release();
+					failure = e;
+					break;
+				}
+				// only the calls in flight are kept
+				for (Iterator<SliceTask<?>> i = tasks.iterator(); i.hasNext();) {
+					SliceTask<?> done = i.next();
+					if (done.isDone()) {
+						failure = firstFailure(failure, done, abort);
+						i.remove();
+					}
+				}
+				tasks.add(task);
+			}
+
+			for (SliceTask<?> task : tasks) {
+				failure = firstFailure(failure, task, abort);
+			}
+		} catch (InterruptedException e) {
+			abort.run();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while running the slices.");
+		} finally {
+			abort.Close();
+		}
+		if (null != failure) {
+			throw abort.Rethrow(failure);
+		}
+	}
+
+	private <T> SliceTask<T> newTask(Callable<T> call, AtomicBoolean failed, SliceController controller,
+			Abort abort) {
+		return new SliceTask<T>(call, failed, controller, abort);
+	}
+
+	/**
+	 * Takes a call slot, waiting until the context, if any, is aborted.
+	 *
+	 * @return <code>false</code> if the context was aborted first.
+	 */
+	private synchronized boolean acquire(RequestContext context) throws InterruptedException {
+		while (true) {
+			if (null != context && context.IsAborted()) {
+				return false;
+			}
+			if (_permits > 0) {
+				_permits--;
+				return true;
+			}
+			RequestContext.Wait(this, context);
+		}
+	}
+
+	private void release(SliceController controller) {
+		synchronized (this) {
+			_permits++;
+			// the waiters of aborted operations leave without taking it
+			notifyAll();
+		}
+		if (null != controller) {
+			controller.Release();
+		}
+	}
+
+	/**
+	 * Wakes up the calls waiting for a slot, for them to notice an abort.
+	 */
+	private synchronized void wakeUp() {
+		notifyAll();
+	}
+
+	private static Throwable firstFailure(Throwable failure, SliceTask<?> task, Abort abort)
+			throws InterruptedException {
+		try {
+			abort.Get(task);
+		} catch (ExecutionException e) {
+			if (null == failure) {
+				return e.getCause();
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Slice holding a permit, released as soon as the call returns, before
+	 * the outcome gets visible to the caller. A cancelled slice keeps its
+	 * permit until the call has really exited, or until the executor runs it
+	 * if it had not started, so that the calls in flight never exceed the
+	 * limit.
+	 */
+	private final class SliceTask<T> extends FutureTask<T> {
+		private final AtomicBoolean _released = new AtomicBoolean();
+		private final AtomicBoolean _failed;
+		private final SliceController _controller;
+		private final Abort _abort;
+		private final RequestContext _context = RequestContext.GetCurrent();
+
+		SliceTask(Callable<T> call, AtomicBoolean failed, SliceController controller, Abort abort) {
+			super(call);
+			_failed = failed;
+			_controller = controller;
+			_abort = abort;
+			abort.Add(this);
+		}
+
+		@Override
+		public void run() {
+			RequestContext previous = RequestContext.Swap(_context);
+			try {
+				if (null != _context && _context.IsAborted()) {
+					setException(_context.NewAbortedException());
+				} else {
+					super.run();
+				}
+			} finally {
+				RequestContext.Swap(previous);
+				release();
+			}
+		}
+
+		void release() {
+			if (_released.compareAndSet(false, true)) {
+				SliceExecutor.this.release(_controller);
+			}
+		}
+
+		@Override
+		protected void set(T v) {
+			release();
+			super.set(v);
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			_failed.set(true);
+			release();
+			super.setException(t);
+		}
+
+		@Override
+		protected void done() {
+			_abort.Remove(this);
+		}
+	}
+
+	/**
+	 * Aborts the slices of an operation when its context is aborted: the
+	 * waits of the thread starting the slices end at the deadline, and the
+	 * token cancels the slices in flight and wakes up that thread.
+	 */
+	private final class Abort implements Runnable {
+		private final AtomicBoolean _failed;
+		private final SliceController _controller;
+		private final RequestContext _context = RequestContext.GetCurrent();
+		private final long _deadline;
+		private final CancellationToken _token;
+		private final Set<SliceTask<?>> _inFlight = ConcurrentHashMap.newKeySet();
+
+		Abort(AtomicBoolean failed, SliceController controller) throws OperationAbortedException {
+			_failed = failed;
+			_controller = controller;
+			if (null != _context) {
+				_deadline = _context.GetDeadlineNanos();
+				_token = _context.GetCancellationToken();
+			} else {
+				_deadline = RequestContext.NoDeadline;
+				_token = null;
+			}
+			RequestContext.ThrowIfAborted();
+			if (null != _token && !_token.Register(this)) {
+				throw _context.NewAbortedException();
+			}
+		}
+
+		void Add(SliceTask<?> task) {
+			_inFlight.add(task);
+		}
+
+		void Remove(SliceTask<?> task) {
+			_inFlight.remove(task);
+		}
+
+		/**
+		 * Cancels the slices in flight, and prevents more from starting.
+		 */
+		@Override
+		public void run() {
+			_failed.set(true);
+			for (SliceTask<?> task : _inFlight) {
+				task.cancel(true);
+			}
+			wakeUp();
+			if (null != _controller) {
+				_controller.WakeUp();
+			}
+		}
+
+		/**
+		 * Takes a call slot, and the one of the controller if any, until the
+		 * context is aborted.
+		 *
+		 * @throws OperationAbortedException
+		 *             If aborted meanwhile, once the slices in flight are
+		 *             cancelled.
+		 */
+		void Acquire() throws InterruptedException, OperationAbortedException {
+			if (!acquire(_context)) {
+				run();
+				throw _context.NewAbortedException();
+			}
+			if (null == _controller) {
+				return;
+			}
+			boolean acquired = false;
+			try {
+				acquired = _controller.Acquire(_context);
+			} finally {
+				if (!acquired) {
+					release(null);
+				}
+			}
+			if (!acquired) {
+				run();
+				throw _context.NewAbortedException();
+			}
+		}
+
+		/**
+		 * Waits for a slice, until the deadline.
+		 */
+		<T> T Get(SliceTask<T> task) throws InterruptedException, ExecutionException {
+			try {
+				if (RequestContext.NoDeadline == _deadline) {
+					return task.get();
+				}
+				return task.get(Math.max(0, _deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				run();
+				throw new ExecutionException(_context.NewAbortedException());
+			} catch (CancellationException e) {
+				throw new ExecutionException(e);
+			}
+		}
+
+		/**
+		 * Turns the failure of a slice into an abort, if the context is
+		 * aborted.
+		 */
+		IOException Rethrow(Throwable failure) throws IOException {
+			if (null != _context && !(failure instanceof OperationAbortedException) && _context.IsAborted()) {
+				OperationAbortedException aborted = _context.NewAbortedException();
+				aborted.initCause(failure);
+				throw aborted;
+			}
+			throw rethrow(failure);
+		}
+
+		void Close() {
+			if (null != _token) {
+				_token.Unregister(this);
+			}
+		}
+	}
+
+	private static <T> T call(Callable<T> call) throws IOException {
+		RequestContext.ThrowIfAborted();
+		try {
+			return call.call();
+		} catch (Exception e) {
+			RequestContext context = RequestContext.GetCurrent();
+			if (null != context && !(e instanceof OperationAbortedException) && context.IsAborted()) {
+				OperationAbortedException aborted = context.NewAbortedException();
+				aborted.initCause(e);
+				throw aborted;
+			}
+			throw rethrow(e);
+		}
+	}
+
+	private static IOException rethrow(Throwable t) throws IOException {
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IOException(t.getMessage(), t);
+	}
+}
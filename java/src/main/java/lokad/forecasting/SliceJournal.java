@@ -0,0 +1,404 @@
+package lokad.forecasting;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local log of the slices acknowledged by the server during
+ * {@link ForecastingClient#UpsertTimeSeries(String, TimeSerie[], boolean, SliceJournal)}.
+ * <p>
+ * Each slice appends a record holding the names and the fingerprints of its
+ * series, and whether the server accepted them. When a job is restarted
+ * with the same journal, the series already acknowledged with the same
+ * content are skipped, hence only the unacknowledged slices are sent again.
+ * The acknowledgements only last for the run of the upsert: once it
+ * completes, the series of its dataset are forgotten, so that a later
+ * upsert of the same series sends them again.
+ * </p>
+ * <p>
+ * Records are flushed to the disk in groups, every few records or
+ * milliseconds: a crash loses at most the last group, whose slices are then
+ * sent again, which upserts are fine with. A torn record at the end of the
+ * log is dropped when the journal is opened. Once an upsert completes, the
+ * log is compacted into one record per dataset with a run still pending.
+ * </p>
+ */
+public class SliceJournal implements Closeable {
+
+	private final static byte Acknowledged = 1;
+	private final static byte Failed = 2;
+
+	private final File _file;
+	private final int _groupSize;
+	private final long _groupNanos;
+
+	/**
+	 * Fingerprints of the acknowledged series, per dataset then serie name.
+	 */
+	private final Map<String, Map<String, Long>> _acknowledged = new HashMap<String, Map<String, Long>>();
+
+	private FileChannel _channel;
+	private int _pendingRecords;
+	private long _lastSync;
+
+	/**
+	 * Opens a journal flushed to the disk every 64 records or 200 ms.
+	 * 
+	 * @param file
+	 *            Log file, created if it does not exist.
+	 * @throws IOException
+	 *             if the file cannot be read or created.
+	 */
+	public SliceJournal(File file) throws IOException {
+		this(file, 64, 200);
+	}
+
+	/**
+	 * @param file
+	 *            Log file, created if it does not exist.
+	 * @param groupSize
+	 *            Number of records flushed to the disk at once.
+	 * @param groupMillis
+	 *            Maximal delay before the records get flushed, checked as
+	 *            records are appended.
+	 * @throws IOException
+	 *             if the file cannot be read or created.
+	 */
+	public SliceJournal(File file, int groupSize, long groupMillis) throws IOException {
+		if (null == file) {
+			throw new NullPointerException("file");
+		}
+		if (groupSize < 1) {
+			throw new IllegalArgumentException("Group size must be positive.");
+		}
+		_file = file;
+		_groupSize = groupSize;
+		_groupNanos = groupMillis * 1000000L;
+		_channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		replay();
+		_lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Loads the records, and truncates the log after the last valid one.
+	 */
+	private void replay() throws IOException {
+		long size = _channel.size();
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(8);
+		while (position + 8 <= size) {
+			header.clear();
+			readFully(header, position);
+			int length = header.getInt(0);
+			int checksum = header.getInt(4);
+			if (length <= 0 || position + 8 + length > size) {
+				break;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + 8);
+			CRC32 crc = new CRC32();
+			crc.update(payload.array(), 0, length);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			payload.flip();
+			apply(payload);
+			position += 8 + length;
+		}
+		if (position < size) {
+			_channel.truncate(position); // torn or corrupted tail
+		}
+		_channel.position(position);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = _channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of journal.");
+			}
+		}
+	}
+
+	private void apply(ByteBuffer payload) {
+		byte type = payload.get();
+		String datasetName = getString(payload);
+		int count = payload.getInt();
+		Map<String, Long> series = null;
+		if (type == Acknowledged) {
+			series = _acknowledged.get(datasetName);
+			if (null == series) {
+				series = new HashMap<String, Long>();
+				_acknowledged.put(datasetName, series);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			String name = getString(payload);
+			long fingerprint = payload.getLong();
+			if (null != series) {
+				series.put(name, fingerprint);
+			}
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, DatasetFiles.Ascii);
+	}
+
+	private static void putString(ByteBuffer buffer, String s) {
+		buffer.putShort((short) s.length());
+		buffer.put(s.getBytes(DatasetFiles.Ascii));
+	}
+
+	/**
+	 * Fingerprint (FNV-1a, 64 bits) of the content of a serie.
+	 */
+	static long Fingerprint(TimeSerie serie) {
+		long hash = 0xcbf29ce484222325L;
+		if (null != serie.Values) {
+			for (TimeValue value : serie.Values) {
+				hash = mix(hash, value.Time.getTimeInMillis());
+				hash = mix(hash, Double.doubleToLongBits(value.Value));
+			}
+		}
+		hash = mix(hash, -1);
+		if (null != serie.Tags) {
+			for (String tag : serie.Tags) {
+				hash = mix(hash, tag.hashCode());
+			}
+		}
+		hash = mix(hash, -1);
+		if (null != serie.Events) {
+			for (EventValue event : serie.Events) {
+				hash = mix(hash, event.Time.getTimeInMillis());
+				hash = mix(hash, null != event.KnownSince ? event.KnownSince.getTimeInMillis() : 0);
+				if (null != event.Tags) {
+					for (String tag : event.Tags) {
+						hash = mix(hash, tag.hashCode());
+					}
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= value & 0xFF;
+			hash *= 0x100000001b3L;
+			value >>>= 8;
+		}
+		return hash;
+	}
+
+	/**
+	 * Indicates whether the serie has been acknowledged, with the same
+	 * content.
+	 */
+	synchronized boolean IsAcknowledged(String datasetName, TimeSerie serie) {
+		Map<String, Long> series = _acknowledged.get(datasetName);
+		if (null == series) {
+			return false;
+		}
+		Long fingerprint = series.get(serie.Name);
+		return null != fingerprint && fingerprint.longValue() == Fingerprint(serie);
+	}
+
+	/**
+	 * Number of series acknowledged for the dataset.
+	 */
+	public synchronized int GetAcknowledgedCount(String datasetName) {
+		Map<String, Long> series = _acknowledged.get(datasetName);
+		return null != series ? series.size() : 0;
+	}
+
+	/**
+	 * Records a slice accepted by the server.
+	 */
+	void Acknowledged(String datasetName, TimeSerie[] slice) throws IOException {
+		long[] fingerprints = new long[slice.length];
+		for (int i = 0; i < slice.length; i++) {
+			fingerprints[i] = Fingerprint(slice[i]);
+		}
+		synchronized (this) {
+			Map<String, Long> series = _acknowledged.get(datasetName);
+			if (null == series) {
+				series = new HashMap<String, Long>();
+				_acknowledged.put(datasetName, series);
+			}
+			for (int i = 0; i < slice.length; i++) {
+				series.put(slice[i].Name, fingerprints[i]);
+			}
+			append(Acknowledged, datasetName, slice, fingerprints);
+		}
+	}
+
+	/**
+	 * Records a slice which has not been accepted, for the record only.
+	 */
+	synchronized void Failed(String datasetName, TimeSerie[] slice) throws IOException {
+		append(Failed, datasetName, slice, new long[slice.length]);
+	}
+
+	private void append(byte type, String datasetName, TimeSerie[] slice, long[] fingerprints)
+			throws IOException {
+		ensureOpen();
+		int length = 1 + 2 + datasetName.length() + 4;
+		for (TimeSerie serie : slice) {
+			length += 2 + serie.Name.length() + 8;
+		}
+		ByteBuffer record = ByteBuffer.allocate(8 + length);
+		record.position(8);
+		record.put(type);
+		putString(record, datasetName);
+		record.putInt(slice.length);
+		for (int i = 0; i < slice.length; i++) {
+			putString(record, slice[i].Name);
+			record.putLong(fingerprints[i]);
+		}
+		write(record);
+
+		_pendingRecords++;
+		if (_pendingRecords >= _groupSize || System.nanoTime() - _lastSync >= _groupNanos) {
+			Sync();
+		}
+	}
+
+	private void write(ByteBuffer record) throws IOException {
+		int length = record.position() - 8;
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, length);
+		record.putInt(0, length);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+		while (record.hasRemaining()) {
+			_channel.write(record);
+		}
+	}
+
+	/**
+	 * Flushes the pending records to the disk.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written.
+	 */
+	public synchronized void Sync() throws IOException {
+		ensureOpen();
+		if (_pendingRecords > 0) {
+			_channel.force(false);
+			_pendingRecords = 0;
+		}
+		_lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Rewrites the log as one record per dataset, holding the latest
+	 * fingerprint of every acknowledged serie; the failed slices are dropped.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written.
+	 */
+	public synchronized void Compact() throws IOException {
+		ensureOpen();
+		File tmp = new File(_file.getPath() + ".tmp");
+		FileChannel compacted = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		FileChannel previous = _channel;
+		try {
+			_channel = compacted;
+			for (Map.Entry<String, Map<String, Long>> dataset : _acknowledged.entrySet()) {
+				TimeSerie[] slice = new TimeSerie[dataset.getValue().size()];
+				long[] fingerprints = new long[slice.length];
+				int i = 0;
+				for (Map.Entry<String, Long> serie : dataset.getValue().entrySet()) {
+					slice[i] = new TimeSerie();
+					slice[i].Name = serie.getKey();
+					fingerprints[i++] = serie.getValue();
+				}
+				int length = 1 + 2 + dataset.getKey().length() + 4;
+				for (TimeSerie serie : slice) {
+					length += 2 + serie.Name.length() + 8;
+				}
+				ByteBuffer record = ByteBuffer.allocate(8 + length);
+				record.position(8);
+				record.put(Acknowledged);
+				putString(record, dataset.getKey());
+				record.putInt(slice.length);
+				for (int j = 0; j < slice.length; j++) {
+					putString(record, slice[j].Name);
+					record.putLong(fingerprints[j]);
+				}
+				write(record);
+			}
+			compacted.force(false);
+		} catch (IOException e) {
+			_channel = previous;
+			compacted.close();
+			throw e;
+		}
+		compacted.close();
+		previous.close();
+		Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		_channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		_channel.position(_channel.size());
+		_pendingRecords = 0;
+	}
+
+	/**
+	 * Ends the run of an upsert: forgets the series acknowledged for the
+	 * dataset, and compacts the log.
+	 */
+	synchronized void Completed(String datasetName) throws IOException {
+		_acknowledged.remove(datasetName);
+		Compact();
+	}
+
+	/**
+	 * Forgets all the acknowledged series, so that the next upsert sends
+	 * everything.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written.
+	 */
+	public synchronized void Clear() throws IOException {
+		ensureOpen();
+		_acknowledged.clear();
+		_channel.truncate(0);
+		_channel.force(false);
+		_pendingRecords = 0;
+	}
+
+	private void ensureOpen() {
+		if (null == _channel) {
+			throw new IllegalStateException("Journal is closed.");
+		}
+	}
+
+	/**
+	 * Flushes the pending records, and closes the log.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (null != _channel) {
+			try {
+				Sync();
+			} finally {
+				_channel.close();
+				_channel = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package lokad.forecasting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Packs series into upsert requests, following the capacity rules of
+ * {@link ForecastingClient#UpsertTimeSeries(String, TimeSerie[], boolean)}:
+ * very large series alone, large series 10 by 10, small series 100 by 100.
+ * All the upserts pack their series through this class.
+ * <p>
+ * Series are either pulled from an iterator, only when the next slice is
+ * requested, or pushed one at a time through {@link #Add(TimeSerie)}, the
+ * full slices being then taken through {@link #Poll()}. Either way, at most
+ * one incomplete slice of each size is held. Not thread-safe.
+ * </p>
+ * <p>
+ * With a {@link SliceController}, the slice lengths are the ones of the
+ * controller when each slice is cut, and a slice is cut early when its
+ * values would exceed the request size the controller allows.
+ * </p>
+ */
+final class SlicePacker implements Iterator<TimeSerie[]> {
+
+	private final Iterator<? extends TimeSerie> _timeSeries;
+	private final String _datasetName;
+	private final int _midSeriesSliceLength;
+	private final int _seriesSliceLength;
+	private final SliceController _controller;
+	private final boolean _validated;
+
+	private final List<TimeSerie> _largeSeries = new ArrayList<TimeSerie>();
+	private final List<TimeSerie> _smallSeries = new ArrayList<TimeSerie>();
+	private final Queue<TimeSerie[]> _ready = new ArrayDeque<TimeSerie[]>();
+	private TimeSerie[] _next;
+	private long _seriesCount;
+
+	/**
+	 * @param timeSeries
+	 *            Series pulled by the iterator methods; empty when the series
+	 *            are pushed.
+	 * @param validated
+	 *            Whether the series and their names are validated elsewhere.
+	 */
+	SlicePacker(Iterator<? extends TimeSerie> timeSeries, String datasetName, int midSeriesSliceLength,
+			int seriesSliceLength, boolean validated) {
+		this(timeSeries, datasetName, midSeriesSliceLength, seriesSliceLength, null, validated);
+	}
+
+	/**
+	 * @param controller
+	 *            Controller of the slice lengths.
+	 * @param validated
+	 *            Whether the series and their names are validated elsewhere.
+	 */
+	SlicePacker(Iterator<? extends TimeSerie> timeSeries, String datasetName, SliceController controller,
+			boolean validated) {
+		this(timeSeries, datasetName, 0, 0, controller, validated);
+		if (null == controller) {
+			throw new NullPointerException("controller");
+		}
+	}
+
+	private SlicePacker(Iterator<? extends TimeSerie> timeSeries, String datasetName, int midSeriesSliceLength,
+			int seriesSliceLength, SliceController controller, boolean validated) {
+		if (null == timeSeries) {
+			throw new NullPointerException("timeSeries");
+		}
+		if (!ForecastingApiValidators.IsValidApiName(datasetName)) {
+			throw new IllegalArgumentException(String.format("%s is not a valid dataset name.", datasetName));
+		}
+		_timeSeries = timeSeries;
+		_datasetName = datasetName;
+		_midSeriesSliceLength = midSeriesSliceLength;
+		_seriesSliceLength = seriesSliceLength;
+		_controller = controller;
+		_validated = validated;
+	}
+
+	/**
+	 * Number of series packed so far.
+	 */
+	long GetSeriesCount() {
+		return _seriesCount;
+	}
+
+	/**
+	 * Packs a serie; the slices it completes are then taken by
+	 * {@link #Poll()}.
+	 */
+	void Add(TimeSerie timeSerie) {
+		if (null == timeSerie) {
+			throw new NullPointerException("timeSerie");
+		}
+		if (!_validated) {
+			ForecastingApiValidators.Validate(timeSerie);
+		}
+		_seriesCount++;
+
+		int length = null != timeSerie.Values ? timeSerie.Values.length : 0;
+		if (length > 10000) {
+			_ready.add(new TimeSerie[] { timeSerie });
+			return;
+		}
+		List<TimeSerie> series = length > 1000 ? _largeSeries : _smallSeries;
+		series.add(timeSerie);
+		if (null != _controller && series.size() > 1 && CountValues(series) > _controller.GetMaxSliceValues()) {
+			// the serie goes to the next slice
+			_ready.add(take(series, series.size() - 1));
+		}
+	}
+
+	/**
+	 * Takes the next full slice.
+	 *
+	 * @return <code>null</code> if no slice is full.
+	 */
+	TimeSerie[] Poll() {
+		if (!_ready.isEmpty()) {
+			return _ready.poll();
+		}
+		int midSeriesSliceLength = null != _controller ? _controller.GetMidSeriesSliceLength()
+				: _midSeriesSliceLength;
+		int seriesSliceLength = null != _controller ? _controller.GetSeriesSliceLength() : _seriesSliceLength;
+		if (_largeSeries.size() >= midSeriesSliceLength) {
+			return take(_largeSeries, midSeriesSliceLength);
+		}
+		if (_smallSeries.size() >= seriesSliceLength) {
+			return take(_smallSeries, seriesSliceLength);
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the next slice, full or not, once all the series are packed.
+	 *
+	 * @return <code>null</code> if no serie is left.
+	 */
+	TimeSerie[] PollRemaining() {
+		TimeSerie[] slice = Poll();
+		if (null == slice && !_largeSeries.isEmpty()) {
+			slice = take(_largeSeries, _largeSeries.size());
+		}
+		if (null == slice && !_smallSeries.isEmpty()) {
+			slice = take(_smallSeries, _smallSeries.size());
+		}
+		return slice;
+	}
+
+	/**
+	 * Drops the series not taken yet.
+	 */
+	void Clear() {
+		_largeSeries.clear();
+		_smallSeries.clear();
+		_ready.clear();
+		_next = null;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (null == _next) {
+			_next = Poll();
+			if (null != _next || !_timeSeries.hasNext()) {
+				break;
+			}
+			Add(_timeSeries.next());
+		}
+		if (null == _next) {
+			_next = PollRemaining();
+		}
+		return null != _next;
+	}
+
+	@Override
+	public TimeSerie[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		TimeSerie[] slice = _next;
+		_next = null;
+		return slice;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Removes the first series of a list, as a slice.
+	 */
+	private TimeSerie[] take(List<TimeSerie> series, int count) {
+		List<TimeSerie> taken = series.subList(0, count);
+		TimeSerie[] slice = taken.toArray(new TimeSerie[count]);
+		taken.clear();
+
+		if (!_validated) {
+			String[] serieNames = new String[slice.length];
+			for (int i = 0; i < slice.length; i++) {
+				serieNames[i] = slice[i].Name;
+			}
+			ForecastingClient.ValidateSerieNames(_datasetName, serieNames);
+		}
+		return slice;
+	}
+
+	static long CountValues(Iterable<TimeSerie> series) {
+		long values = 0;
+		for (TimeSerie serie : series) {
+			values += null != serie.Values ? serie.Values.length : 0;
+		}
+		return values;
+	}
+}
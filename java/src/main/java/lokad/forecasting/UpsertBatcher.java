@@ -0,0 +1,66 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Sends series arriving one at a time as upsert requests, packed by a
+ * {@link SlicePacker} with the slice lengths of the client, or of its
+ * {@link SliceController}. Not thread-safe.
+ * <p>
+ * Each full slice is uploaded by the thread adding the serie which completes
+ * it, before that call returns: a batcher has a single request in flight,
+ * the upload blocking the producer of the series meanwhile.
+ * </p>
+ */
+final class UpsertBatcher {
+
+	private final ForecastingClient _client;
+	private final String _datasetName;
+	private final boolean _enableMerge;
+	private final SlicePacker _packer;
+	private long _upsertedCount;
+
+	UpsertBatcher(ForecastingClient client, String datasetName, boolean enableMerge) {
+		_client = client;
+		_datasetName = datasetName;
+		_enableMerge = enableMerge;
+		// validated as each slice is sent
+		_packer = client.NewSlicePacker(Collections.<TimeSerie> emptyIterator(), datasetName, true);
+	}
+
+	/**
+	 * Adds a serie, sending a request when a slice is full.
+	 */
+	void Add(TimeSerie timeSerie) throws IOException {
+		_packer.Add(timeSerie);
+		for (TimeSerie[] slice = _packer.Poll(); null != slice; slice = _packer.Poll()) {
+			send(slice);
+		}
+	}
+
+	/**
+	 * Sends the incomplete slices.
+	 */
+	void Flush() throws IOException {
+		for (TimeSerie[] slice = _packer.PollRemaining(); null != slice; slice = _packer.PollRemaining()) {
+			send(slice);
+		}
+	}
+
+	/**
+	 * Drops the series not sent yet.
+	 */
+	void Clear() {
+		_packer.Clear();
+	}
+
+	long GetUpsertedCount() {
+		return _upsertedCount;
+	}
+
+	private void send(TimeSerie[] slice) throws IOException {
+		_client.UpsertTimeSeriesInternal(_datasetName, slice, _enableMerge);
+		_upsertedCount += slice.length;
+	}
+}
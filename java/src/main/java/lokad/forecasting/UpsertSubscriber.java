@@ -0,0 +1,131 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * Subscriber upserting the time-series it receives into a dataset.
+ * <p>
+ * The series are packed into requests following the same capacity rules as
+ * {@link ForecastingClient#UpsertTimeSeries(String, TimeSerie[], boolean)}:
+ * very large series alone, large series 10 by 10, and small series 100 by
+ * 100, or with the lengths of the {@link SliceController} of the client, if
+ * any. Each request is sent from <code>onNext</code>, and new series are
+ * only requested once the buffered ones have been sent, hence the publisher
+ * is held back by the upload rate and no more than a few slices are
+ * buffered.
+ * </p>
+ * <p>
+ * Once the stream has completed or failed, {@link #Await()} returns or
+ * rethrows the failure.
+ * </p>
+ *
+ * @see ForecastingClient#NewUpsertSubscriber(String, boolean)
+ */
+public class UpsertSubscriber implements Flow.Subscriber<TimeSerie> {
+
+	private final int _prefetch;
+	private final UpsertBatcher _batcher;
+	private final CountDownLatch _done = new CountDownLatch(1);
+
+	private Flow.Subscription _subscription;
+	private volatile long _upsertedCount;
+	private volatile Throwable _failure;
+
+	UpsertSubscriber(ForecastingClient client, String datasetName, boolean enableMerge) {
+		_prefetch = client._seriesSliceLength;
+		_batcher = new UpsertBatcher(client, datasetName, enableMerge);
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (null != _subscription) {
+			subscription.cancel();
+			return;
+		}
+		_subscription = subscription;
+		subscription.request(_prefetch);
+	}
+
+	@Override
+	public void onNext(TimeSerie timeSerie) {
+		if (_done.getCount() == 0) {
+			return; // failed already
+		}
+		try {
+			_batcher.Add(timeSerie);
+			_upsertedCount = _batcher.GetUpsertedCount();
+			_subscription.request(1);
+		} catch (Throwable t) {
+			_subscription.cancel();
+			fail(t);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (_done.getCount() == 0) {
+			return;
+		}
+		try {
+			_batcher.Flush();
+			_upsertedCount = _batcher.GetUpsertedCount();
+			_done.countDown();
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	private void fail(Throwable t) {
+		if (_done.getCount() != 0) {
+			_failure = t;
+			_batcher.Clear();
+			_done.countDown();
+		}
+	}
+
+	/**
+	 * Number of series upserted so far.
+	 */
+	public long GetUpsertedCount() {
+		return _upsertedCount;
+	}
+
+	/**
+	 * Waits for the stream to complete and its last series to be upserted.
+	 *
+	 * @throws InterruptedException
+	 * @throws IOException
+	 *             if an error occurred working with server, or if the
+	 *             publisher failed with a checked exception.
+	 * @throws IllegalArgumentException
+	 *             Thrown if a serie is not compliant with the Forecasting API
+	 *             restrictions; a {@link ValidationException} when the series
+	 *             are validated in a pool.
+	 * @throws IllegalStateException
+	 *             Thrown if the access rights are not correct, of if dataset
+	 *             does not exist, or if the service is down.
+	 */
+	public void Await() throws InterruptedException, IOException {
+		_done.await();
+
+		// unchecked failures, such as a ValidationException carrying the
+		// violations, are rethrown as they are
+		Throwable failure = _failure;
+		if (failure instanceof IOException) {
+			throw new IOException(failure.getMessage(), failure);
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IOException(failure.getMessage(), failure);
+		}
+	}
+}
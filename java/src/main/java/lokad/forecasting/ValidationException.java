@@ -0,0 +1,29 @@
+package lokad.forecasting;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when several inputs are not compliant with the Forecasting API
+ * restrictions, carrying all the violations found.
+ */
+public class ValidationException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<String> _violations;
+
+	public ValidationException(List<String> violations) {
+		super(violations.size() == 1 ? violations.get(0) : String.format("%d violations, first is: %s",
+				violations.size(), violations.get(0)));
+		_violations = Collections.unmodifiableList(violations);
+	}
+
+	/**
+	 * Descriptions of the violations, prefixed by the name of the serie at
+	 * fault.
+	 */
+	public List<String> getViolations() {
+		return _violations;
+	}
+}
@@ -0,0 +1,64 @@
+package lokad.forecasting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Validates a range of time-series, splitting the range across the
+ * fork-join pool.
+ * 
+ * @see ForecastingApiValidators#GetViolations(TimeSerie[],
+ *      java.util.concurrent.ForkJoinPool)
+ */
+class ValidationTask extends RecursiveTask<List<String>> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Ranges holding fewer values are validated sequentially.
+	 */
+	private final static int SequentialThreshold = 16384;
+
+	private final TimeSerie[] _timeSeries;
+	private final int _from;
+	private final int _to;
+
+	ValidationTask(TimeSerie[] timeSeries, int from, int to) {
+		_timeSeries = timeSeries;
+		_from = from;
+		_to = to;
+	}
+
+	@Override
+	protected List<String> compute() {
+		if (_to - _from > 1 && valueCount() > SequentialThreshold) {
+			int middle = (_from + _to) >>> 1;
+			ValidationTask left = new ValidationTask(_timeSeries, _from, middle);
+			ValidationTask right = new ValidationTask(_timeSeries, middle, _to);
+			right.fork();
+			List<String> violations = left.compute();
+			List<String> rightViolations = right.join();
+			if (violations.isEmpty()) {
+				return rightViolations;
+			}
+			violations.addAll(rightViolations);
+			return violations;
+		}
+
+		List<String> violations = new ArrayList<String>();
+		for (int i = _from; i < _to; i++) {
+			ForecastingApiValidators.checkPrefixed(_timeSeries[i], violations);
+		}
+		return violations;
+	}
+
+	private long valueCount() {
+		long count = 0;
+		for (int i = _from; i < _to; i++) {
+			TimeSerie timeSerie = _timeSeries[i];
+			count += 1 + (timeSerie != null && timeSerie.Values != null ? timeSerie.Values.length : 0);
+		}
+		return count;
+	}
+}
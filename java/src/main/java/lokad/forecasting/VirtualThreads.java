@@ -0,0 +1,62 @@
+package lokad.forecasting;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors starting a thread per task, for
+ * {@link ForecastingClient#SetExecutor(java.util.concurrent.Executor, int)}.
+ * <p>
+ * On Java 21 and later, the tasks run on virtual threads, hence thousands of
+ * slices can wait on the network at the cost of a few platform threads. The
+ * client only targets older releases, hence the lookup goes through
+ * reflection.
+ * </p>
+ */
+public final class VirtualThreads {
+
+	private final static Method NewVirtualThreadPerTaskExecutor = findFactory();
+
+	private VirtualThreads() {
+	}
+
+	private static Method findFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Indicates whether the running JVM supports virtual threads.
+	 */
+	public static boolean IsSupported() {
+		return null != NewVirtualThreadPerTaskExecutor;
+	}
+
+	/**
+	 * Creates an executor running each task on its own virtual thread, or,
+	 * when virtual threads are not supported, on a cached daemon platform
+	 * thread.
+	 */
+	public static ExecutorService NewExecutor() {
+		if (null != NewVirtualThreadPerTaskExecutor) {
+			try {
+				return (ExecutorService) NewVirtualThreadPerTaskExecutor.invoke(null);
+			} catch (Exception e) {
+				throw new IllegalStateException("Cannot create a virtual thread executor.", e);
+			}
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "forecasting-slice");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -0,0 +1,181 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pull reader of the XML documents decoded by {@link XmlCodecs}, over StAX.
+ * <p>
+ * Elements are visited with {@link #NextElement()}, which returns
+ * <code>false</code> once the children of the current element are
+ * exhausted; each <code>Read</code> method consumes the element up to its
+ * end. Dates are parsed as by {@link DateConverter}. Not thread-safe.
+ * </p>
+ */
+final class XmlCodecReader {
+
+	private final static XMLInputFactory Factory;
+
+	static {
+		Factory = XMLInputFactory.newInstance();
+		Factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		Factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		Factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private final XMLStreamReader _reader;
+
+	private XmlCodecReader(XMLStreamReader reader) {
+		_reader = reader;
+	}
+
+	/**
+	 * Opens a document, and moves to its root element.
+	 * 
+	 * @throws IOException
+	 *             if the document is not well-formed, or if its root is not
+	 *             the expected one.
+	 */
+	static XmlCodecReader Open(InputStream inputStream, String root) throws IOException {
+		try {
+			XmlCodecReader reader = new XmlCodecReader(Factory.createXMLStreamReader(inputStream));
+			if (!reader.NextElement()) {
+				throw new IOException("Empty XML document.");
+			}
+			if (!root.equals(reader.GetName())) {
+				throw new IOException(String.format("Unexpected root element %s instead of %s.", reader.GetName(),
+						root));
+			}
+			return reader;
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	String GetName() {
+		return _reader.getLocalName();
+	}
+
+	boolean IsNull() {
+		return "null".equals(_reader.getLocalName());
+	}
+
+	/**
+	 * Moves to the next child of the current element.
+	 * 
+	 * @return <code>false</code> if there are no more children, the end of the
+	 *         current element being consumed.
+	 */
+	boolean NextElement() throws IOException {
+		try {
+			while (_reader.hasNext()) {
+				int event = _reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					return true;
+				}
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					return false;
+				}
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Skips the current element and its content.
+	 */
+	void Skip() throws IOException {
+		while (NextElement()) {
+			Skip();
+		}
+	}
+
+	String ReadString() throws IOException {
+		try {
+			return _reader.getElementText();
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	String[] ReadStrings() throws IOException {
+		List<String> values = new ArrayList<String>();
+		while (NextElement()) {
+			if (IsNull()) {
+				Skip();
+				values.add(null);
+			} else {
+				values.add(ReadString());
+			}
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	int ReadInt() throws IOException {
+		String text = ReadString();
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format("Invalid integer %s.", text), e);
+		}
+	}
+
+	double ReadDouble() throws IOException {
+		String text = ReadString();
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format("Invalid number %s.", text), e);
+		}
+	}
+
+	boolean ReadBoolean() throws IOException {
+		return "true".equalsIgnoreCase(ReadString());
+	}
+
+	/**
+	 * Reads a date as <code>yyyy-MM-dd'T'hh:mm:ss</code> in the default time
+	 * zone, the hour being read as on the 12-hour clock, and any trailing
+	 * content being ignored, as by {@link DateConverter}.
+	 */
+	Calendar ReadCalendar() throws IOException {
+		String text = ReadString();
+		int[] fields = new int[6];
+		int position = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				if (position >= text.length() || text.charAt(position) != "--T::".charAt(i - 1)) {
+					throw new IOException(String.format("Invalid date %s.", text));
+				}
+				position++;
+			}
+			int start = position;
+			int value = 0;
+			while (position < text.length() && position - start < 9 && text.charAt(position) >= '0'
+					&& text.charAt(position) <= '9') {
+				value = value * 10 + text.charAt(position++) - '0';
+			}
+			if (position == start) {
+				throw new IOException(String.format("Invalid date %s.", text));
+			}
+			fields[i] = value;
+		}
+
+		GregorianCalendar calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(fields[0], fields[1] - 1, fields[2], 12 == fields[3] ? 0 : fields[3], fields[4], fields[5]);
+		calendar.getTimeInMillis(); // computing the fields, as setTime would
+		return calendar;
+	}
+}
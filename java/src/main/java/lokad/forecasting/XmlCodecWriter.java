@@ -0,0 +1,211 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Writer of the XML documents produced by {@link XmlCodecs}, reproducing the
+ * output of the XStream <code>PrettyPrintWriter</code> byte for byte: two
+ * spaces of indentation, empty elements closed as <code>&lt;a/&gt;</code>,
+ * the same escaping, no XML declaration, and the platform charset. Dates
+ * are formatted as by {@link DateConverter}. Not thread-safe.
+ */
+final class XmlCodecWriter {
+
+	private final Writer _writer;
+	private final char[] _buffer = new char[4096];
+	private int _count;
+
+	private final String[] _stack = new String[16];
+	private int _depth;
+	private boolean _tagInProgress;
+	private boolean _tagIsEmpty;
+	private boolean _readyForNewLine;
+
+	private final GregorianCalendar _calendar = new GregorianCalendar(TimeZone.getDefault());
+
+	XmlCodecWriter(OutputStream outputStream) {
+		// as XStream, which relies on the platform charset
+		_writer = new OutputStreamWriter(outputStream, Charset.defaultCharset());
+	}
+
+	private void write(char c) throws IOException {
+		if (_count == _buffer.length) {
+			drain();
+		}
+		_buffer[_count++] = c;
+	}
+
+	private void write(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	private void drain() throws IOException {
+		_writer.write(_buffer, 0, _count);
+		_count = 0;
+	}
+
+	void StartNode(String name) throws IOException {
+		_tagIsEmpty = false;
+		finishTag();
+		write('<');
+		write(name);
+		_stack[_depth++] = name;
+		_tagInProgress = true;
+		_readyForNewLine = true;
+		_tagIsEmpty = true;
+	}
+
+	void SetValue(String text) throws IOException {
+		_readyForNewLine = false;
+		_tagIsEmpty = false;
+		finishTag();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\0':
+				throw new IllegalArgumentException("Invalid character 0x0 in XML stream");
+			case '&':
+				write("&amp;");
+				break;
+			case '<':
+				write("&lt;");
+				break;
+			case '>':
+				write("&gt;");
+				break;
+			case '"':
+				write("&quot;");
+				break;
+			case '\'':
+				write("&apos;");
+				break;
+			case '\r':
+				write("&#xd;");
+				break;
+			default:
+				write(c);
+			}
+		}
+	}
+
+	void EndNode() throws IOException {
+		String name = _stack[--_depth];
+		if (_tagIsEmpty) {
+			write('/');
+			_readyForNewLine = false;
+			finishTag();
+		} else {
+			finishTag();
+			write('<');
+			write('/');
+			write(name);
+			write('>');
+		}
+		_readyForNewLine = true;
+		if (_depth == 0) {
+			Flush();
+		}
+	}
+
+	private void finishTag() throws IOException {
+		if (_tagInProgress) {
+			write('>');
+		}
+		_tagInProgress = false;
+		if (_readyForNewLine) {
+			write('\n');
+			for (int i = 0; i < _depth; i++) {
+				write("  ");
+			}
+		}
+		_readyForNewLine = false;
+		_tagIsEmpty = false;
+	}
+
+	void Flush() throws IOException {
+		drain();
+		_writer.flush();
+	}
+
+	/**
+	 * Writes a null item of an array.
+	 */
+	void WriteNull() throws IOException {
+		StartNode("null");
+		EndNode();
+	}
+
+	void WriteString(String name, String value) throws IOException {
+		StartNode(name);
+		SetValue(value);
+		EndNode();
+	}
+
+	void WriteStrings(String name, String[] values) throws IOException {
+		StartNode(name);
+		for (String value : values) {
+			if (null != value) {
+				WriteString("string", value);
+			} else {
+				WriteNull();
+			}
+		}
+		EndNode();
+	}
+
+	void WriteInt(String name, int value) throws IOException {
+		WriteString(name, Integer.toString(value));
+	}
+
+	void WriteDouble(String name, double value) throws IOException {
+		WriteString(name, Double.toString(value));
+	}
+
+	void WriteBoolean(String name, boolean value) throws IOException {
+		WriteString(name, value ? "true" : "false");
+	}
+
+	/**
+	 * Writes a date as <code>yyyy-MM-dd'T'hh:mm:ss</code> in the default time
+	 * zone, the hour being on the 12-hour clock, as by {@link DateConverter}.
+	 */
+	void WriteCalendar(String name, Calendar value) throws IOException {
+		_calendar.setTimeZone(TimeZone.getDefault());
+		_calendar.setTimeInMillis(value.getTimeInMillis());
+		int hour = _calendar.get(Calendar.HOUR);
+
+		StartNode(name);
+		_readyForNewLine = false;
+		_tagIsEmpty = false;
+		finishTag();
+		digits(_calendar.get(Calendar.YEAR), 4);
+		write('-');
+		digits(_calendar.get(Calendar.MONTH) + 1, 2);
+		write('-');
+		digits(_calendar.get(Calendar.DAY_OF_MONTH), 2);
+		write('T');
+		digits(0 == hour ? 12 : hour, 2);
+		write(':');
+		digits(_calendar.get(Calendar.MINUTE), 2);
+		write(':');
+		digits(_calendar.get(Calendar.SECOND), 2);
+		EndNode();
+	}
+
+	private void digits(int value, int width) throws IOException {
+		String s = Integer.toString(value);
+		for (int i = s.length(); i < width; i++) {
+			write('0');
+		}
+		write(s);
+	}
+}
@@ -0,0 +1,552 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoders and decoders of the documents exchanged with the Forecasting API,
+ * producing the same XML as XStream without reflection.
+ * <p>
+ * Generated by {@link CodecGenerator}, do not edit.
+ * </p>
+ */
+final class XmlCodecs {
+
+	private XmlCodecs() {
+	}
+
+	static void EncodeErrorCode(String value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		writer.WriteString("ErrorCode", value);
+	}
+
+	static String DecodeErrorCode(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "ErrorCode");
+		return reader.ReadString();
+	}
+
+	static void EncodeDataset(Dataset value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteDataset(writer, "Dataset", value);
+	}
+
+	static Dataset DecodeDataset(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "Dataset");
+		return ReadDataset(reader);
+	}
+
+	static void EncodeDatasetCollection(DatasetCollection value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteDatasetCollection(writer, "DatasetCollection", value);
+	}
+
+	static DatasetCollection DecodeDatasetCollection(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "DatasetCollection");
+		return ReadDatasetCollection(reader);
+	}
+
+	static void EncodeTimeSeries(TimeSerie[] value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteTimeSerieArray(writer, "TimeSeries", value);
+	}
+
+	static TimeSerie[] DecodeTimeSeries(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "TimeSeries");
+		return ReadTimeSerieArray(reader);
+	}
+
+	static void EncodeTimeSerieCollection(TimeSerieCollection value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteTimeSerieCollection(writer, "TimeSerieCollection", value);
+	}
+
+	static TimeSerieCollection DecodeTimeSerieCollection(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "TimeSerieCollection");
+		return ReadTimeSerieCollection(reader);
+	}
+
+	static void EncodeForecastStatus(ForecastStatus value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteForecastStatus(writer, "ForecastStatus", value);
+	}
+
+	static ForecastStatus DecodeForecastStatus(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "ForecastStatus");
+		return ReadForecastStatus(reader);
+	}
+
+	static void EncodeForecastCollection(ForecastCollection value, OutputStream outputStream) throws IOException {
+		XmlCodecWriter writer = new XmlCodecWriter(outputStream);
+		WriteForecastCollection(writer, "ForecastCollection", value);
+	}
+
+	static ForecastCollection DecodeForecastCollection(InputStream inputStream) throws IOException {
+		XmlCodecReader reader = XmlCodecReader.Open(inputStream, "ForecastCollection");
+		return ReadForecastCollection(reader);
+	}
+
+	private static void WriteDataset(XmlCodecWriter writer, String name, Dataset value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Name) {
+			writer.WriteString("Name", value.Name);
+		}
+		if (null != value.Period) {
+			writer.WriteString("Period", value.Period);
+		}
+		writer.WriteInt("Horizon", value.Horizon);
+		writer.EndNode();
+	}
+
+	private static Dataset ReadDataset(XmlCodecReader reader) throws IOException {
+		Dataset value = new Dataset();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Name":
+				value.Name = reader.ReadString();
+				break;
+			case "Period":
+				value.Period = reader.ReadString();
+				break;
+			case "Horizon":
+				value.Horizon = reader.ReadInt();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteDatasetCollection(XmlCodecWriter writer, String name, DatasetCollection value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Datasets) {
+			WriteDatasetArray(writer, "Datasets", value.Datasets);
+		}
+		if (null != value.ContinuationToken) {
+			writer.WriteString("ContinuationToken", value.ContinuationToken);
+		}
+		if (null != value.ErrorCode) {
+			writer.WriteString("ErrorCode", value.ErrorCode);
+		}
+		writer.EndNode();
+	}
+
+	private static DatasetCollection ReadDatasetCollection(XmlCodecReader reader) throws IOException {
+		DatasetCollection value = new DatasetCollection();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Datasets":
+				value.Datasets = ReadDatasetArray(reader);
+				break;
+			case "ContinuationToken":
+				value.ContinuationToken = reader.ReadString();
+				break;
+			case "ErrorCode":
+				value.ErrorCode = reader.ReadString();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteTimeSerie(XmlCodecWriter writer, String name, TimeSerie value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Name) {
+			writer.WriteString("Name", value.Name);
+		}
+		if (null != value.Tags) {
+			writer.WriteStrings("Tags", value.Tags);
+		}
+		if (null != value.Events) {
+			WriteEventValueArray(writer, "Events", value.Events);
+		}
+		if (null != value.Values) {
+			WriteTimeValueArray(writer, "Values", value.Values);
+		}
+		writer.EndNode();
+	}
+
+	private static TimeSerie ReadTimeSerie(XmlCodecReader reader) throws IOException {
+		TimeSerie value = new TimeSerie();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Name":
+				value.Name = reader.ReadString();
+				break;
+			case "Tags":
+				value.Tags = reader.ReadStrings();
+				break;
+			case "Events":
+				value.Events = ReadEventValueArray(reader);
+				break;
+			case "Values":
+				value.Values = ReadTimeValueArray(reader);
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteEventValue(XmlCodecWriter writer, String name, EventValue value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Tags) {
+			writer.WriteStrings("Tags", value.Tags);
+		}
+		if (null != value.Time) {
+			writer.WriteCalendar("Time", value.Time);
+		}
+		if (null != value.KnownSince) {
+			writer.WriteCalendar("KnownSince", value.KnownSince);
+		}
+		writer.EndNode();
+	}
+
+	private static EventValue ReadEventValue(XmlCodecReader reader) throws IOException {
+		EventValue value = new EventValue();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Tags":
+				value.Tags = reader.ReadStrings();
+				break;
+			case "Time":
+				value.Time = reader.ReadCalendar();
+				break;
+			case "KnownSince":
+				value.KnownSince = reader.ReadCalendar();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteTimeValue(XmlCodecWriter writer, String name, TimeValue value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Time) {
+			writer.WriteCalendar("Time", value.Time);
+		}
+		writer.WriteDouble("Value", value.Value);
+		writer.EndNode();
+	}
+
+	private static TimeValue ReadTimeValue(XmlCodecReader reader) throws IOException {
+		TimeValue value = new TimeValue();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Time":
+				value.Time = reader.ReadCalendar();
+				break;
+			case "Value":
+				value.Value = reader.ReadDouble();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteTimeSerieCollection(XmlCodecWriter writer, String name, TimeSerieCollection value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.TimeSeries) {
+			WriteTimeSerieArray(writer, "TimeSeries", value.TimeSeries);
+		}
+		if (null != value.ContinuationToken) {
+			writer.WriteString("ContinuationToken", value.ContinuationToken);
+		}
+		if (null != value.ErrorCode) {
+			writer.WriteString("ErrorCode", value.ErrorCode);
+		}
+		writer.EndNode();
+	}
+
+	private static TimeSerieCollection ReadTimeSerieCollection(XmlCodecReader reader) throws IOException {
+		TimeSerieCollection value = new TimeSerieCollection();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "TimeSeries":
+				value.TimeSeries = ReadTimeSerieArray(reader);
+				break;
+			case "ContinuationToken":
+				value.ContinuationToken = reader.ReadString();
+				break;
+			case "ErrorCode":
+				value.ErrorCode = reader.ReadString();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteForecastStatus(XmlCodecWriter writer, String name, ForecastStatus value) throws IOException {
+		writer.StartNode(name);
+		writer.WriteBoolean("ForecastsReady", value.ForecastsReady);
+		if (null != value.ErrorCode) {
+			writer.WriteString("ErrorCode", value.ErrorCode);
+		}
+		writer.EndNode();
+	}
+
+	private static ForecastStatus ReadForecastStatus(XmlCodecReader reader) throws IOException {
+		ForecastStatus value = new ForecastStatus();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "ForecastsReady":
+				value.ForecastsReady = reader.ReadBoolean();
+				break;
+			case "ErrorCode":
+				value.ErrorCode = reader.ReadString();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteForecastCollection(XmlCodecWriter writer, String name, ForecastCollection value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Series) {
+			WriteForecastSerieArray(writer, "Series", value.Series);
+		}
+		if (null != value.ErrorCode) {
+			writer.WriteString("ErrorCode", value.ErrorCode);
+		}
+		writer.EndNode();
+	}
+
+	private static ForecastCollection ReadForecastCollection(XmlCodecReader reader) throws IOException {
+		ForecastCollection value = new ForecastCollection();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Series":
+				value.Series = ReadForecastSerieArray(reader);
+				break;
+			case "ErrorCode":
+				value.ErrorCode = reader.ReadString();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteForecastSerie(XmlCodecWriter writer, String name, ForecastSerie value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Name) {
+			writer.WriteString("Name", value.Name);
+		}
+		if (null != value.Values) {
+			WriteForecastValueArray(writer, "Values", value.Values);
+		}
+		writer.EndNode();
+	}
+
+	private static ForecastSerie ReadForecastSerie(XmlCodecReader reader) throws IOException {
+		ForecastSerie value = new ForecastSerie();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Name":
+				value.Name = reader.ReadString();
+				break;
+			case "Values":
+				value.Values = ReadForecastValueArray(reader);
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteForecastValue(XmlCodecWriter writer, String name, ForecastValue value) throws IOException {
+		writer.StartNode(name);
+		if (null != value.Time) {
+			writer.WriteCalendar("Time", value.Time);
+		}
+		writer.WriteDouble("Value", value.Value);
+		writer.WriteDouble("Accuracy", value.Accuracy);
+		writer.EndNode();
+	}
+
+	private static ForecastValue ReadForecastValue(XmlCodecReader reader) throws IOException {
+		ForecastValue value = new ForecastValue();
+		while (reader.NextElement()) {
+			switch (reader.GetName()) {
+			case "Time":
+				value.Time = reader.ReadCalendar();
+				break;
+			case "Value":
+				value.Value = reader.ReadDouble();
+				break;
+			case "Accuracy":
+				value.Accuracy = reader.ReadDouble();
+				break;
+			default:
+				reader.Skip();
+			}
+		}
+		return value;
+	}
+
+	private static void WriteDatasetArray(XmlCodecWriter writer, String name, Dataset[] values) throws IOException {
+		writer.StartNode(name);
+		for (Dataset item : values) {
+			if (null != item) {
+				WriteDataset(writer, "Dataset", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static Dataset[] ReadDatasetArray(XmlCodecReader reader) throws IOException {
+		List<Dataset> values = new ArrayList<Dataset>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadDataset(reader));
+			}
+		}
+		return values.toArray(new Dataset[values.size()]);
+	}
+
+	private static void WriteTimeSerieArray(XmlCodecWriter writer, String name, TimeSerie[] values) throws IOException {
+		writer.StartNode(name);
+		for (TimeSerie item : values) {
+			if (null != item) {
+				WriteTimeSerie(writer, "TimeSerie", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static TimeSerie[] ReadTimeSerieArray(XmlCodecReader reader) throws IOException {
+		List<TimeSerie> values = new ArrayList<TimeSerie>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadTimeSerie(reader));
+			}
+		}
+		return values.toArray(new TimeSerie[values.size()]);
+	}
+
+	private static void WriteEventValueArray(XmlCodecWriter writer, String name, EventValue[] values) throws IOException {
+		writer.StartNode(name);
+		for (EventValue item : values) {
+			if (null != item) {
+				WriteEventValue(writer, "EventValue", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static EventValue[] ReadEventValueArray(XmlCodecReader reader) throws IOException {
+		List<EventValue> values = new ArrayList<EventValue>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadEventValue(reader));
+			}
+		}
+		return values.toArray(new EventValue[values.size()]);
+	}
+
+	private static void WriteTimeValueArray(XmlCodecWriter writer, String name, TimeValue[] values) throws IOException {
+		writer.StartNode(name);
+		for (TimeValue item : values) {
+			if (null != item) {
+				WriteTimeValue(writer, "TimeValue", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static TimeValue[] ReadTimeValueArray(XmlCodecReader reader) throws IOException {
+		List<TimeValue> values = new ArrayList<TimeValue>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadTimeValue(reader));
+			}
+		}
+		return values.toArray(new TimeValue[values.size()]);
+	}
+
+	private static void WriteForecastSerieArray(XmlCodecWriter writer, String name, ForecastSerie[] values) throws IOException {
+		writer.StartNode(name);
+		for (ForecastSerie item : values) {
+			if (null != item) {
+				WriteForecastSerie(writer, "ForecastSerie", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static ForecastSerie[] ReadForecastSerieArray(XmlCodecReader reader) throws IOException {
+		List<ForecastSerie> values = new ArrayList<ForecastSerie>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadForecastSerie(reader));
+			}
+		}
+		return values.toArray(new ForecastSerie[values.size()]);
+	}
+
+	private static void WriteForecastValueArray(XmlCodecWriter writer, String name, ForecastValue[] values) throws IOException {
+		writer.StartNode(name);
+		for (ForecastValue item : values) {
+			if (null != item) {
+				WriteForecastValue(writer, "ForecastValue", item);
+			} else {
+				writer.WriteNull();
+			}
+		}
+		writer.EndNode();
+	}
+
+	private static ForecastValue[] ReadForecastValueArray(XmlCodecReader reader) throws IOException {
+		List<ForecastValue> values = new ArrayList<ForecastValue>();
+		while (reader.NextElement()) {
+			if (reader.IsNull()) {
+				reader.Skip();
+				values.add(null);
+			} else {
+				values.add(ReadForecastValue(reader));
+			}
+		}
+		return values.toArray(new ForecastValue[values.size()]);
+	}
+}
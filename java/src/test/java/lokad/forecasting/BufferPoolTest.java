@@ -0,0 +1,128 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testBounds() {
+		BufferPool pool = new BufferPool(1024, 4);
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		for (int i = 0; i < 6; i++) {
+			buffers.add(pool.Acquire());
+		}
+		assertTrue(buffers.get(3).isDirect());
+		assertFalse(buffers.get(4).isDirect());
+		assertEquals(4, pool.GetDirectBufferCount());
+		assertEquals(2, pool.GetHeapBufferCount());
+
+		for (ByteBuffer buffer : buffers) {
+			buffer.put((byte) 1);
+			pool.Release(buffer);
+		}
+		assertEquals(4, pool.GetAvailableCount());
+		ByteBuffer reused = pool.Acquire();
+		assertTrue(reused.isDirect());
+		assertEquals(0, reused.position());
+		assertEquals(1024, reused.remaining());
+		assertEquals(4, pool.GetDirectBufferCount());
+	}
+
+	@Test
+	public void testPooledBytes() throws IOException {
+		BufferPool pool = new BufferPool(100, 3);
+		byte[] content = new byte[1234];
+		new Random(42).nextBytes(content);
+
+		PooledBytes bytes = new PooledBytes(pool);
+		bytes.write(content[0]);
+		bytes.write(content, 1, 250);
+		bytes.ReadFrom(new ByteArrayInputStream(content, 251, content.length - 251));
+		assertEquals(content.length, bytes.GetLength());
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		bytes.WriteTo(written);
+		assertArrayEquals(content, written.toByteArray());
+
+		InputStream inputStream = bytes.NewInputStream();
+		byte[] read = new byte[content.length];
+		read[0] = (byte) inputStream.read();
+		int offset = 1;
+		while (offset < read.length) {
+			int n = inputStream.read(read, offset, Math.min(77, read.length - offset));
+			assertTrue(n > 0);
+			offset += n;
+		}
+		assertEquals(-1, inputStream.read());
+		assertArrayEquals(content, read);
+
+		bytes.Release();
+		assertEquals(0, bytes.GetLength());
+		assertEquals(3, pool.GetAvailableCount());
+
+		// the transfers share the scratch arrays of the pool
+		byte[] scratch = pool.AcquireScratch();
+		assertEquals(100, scratch.length);
+		pool.ReleaseScratch(scratch);
+		assertSame(scratch, pool.AcquireScratch());
+	}
+
+	@Test
+	public void testTransportReusesBuffers() throws Exception {
+		LocalForecastingServer server = new LocalForecastingServer(0, 4);
+		server.start();
+		try {
+			BufferPool pool = new BufferPool(16 * 1024, 256);
+			ForecastingApi api = new ForecastingApi(server.getEndpoint());
+			api.SetBufferPool(pool);
+			ForecastingClient client = new ForecastingClient(Base64.encode("auth-with-key@lokad.com:pool"), api);
+
+			Dataset dataset = new Dataset();
+			dataset.Name = "pooled";
+			dataset.Horizon = 10;
+			dataset.Period = "week";
+			client.InsertDataset(dataset);
+			TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(300, 50);
+			client.UpsertTimeSeries(dataset.Name, timeSeries, false);
+			String[] serieNames = new String[timeSeries.length];
+			for (int i = 0; i < timeSeries.length; i++) {
+				serieNames[i] = timeSeries[i].Name;
+			}
+
+			ForecastSerie[] forecasts = client.GetForecasts(dataset.Name, serieNames);
+			assertEquals(300, forecasts.length);
+			assertEquals(10, forecasts[299].Values.length);
+			assertEquals(300, client.ListTimeSeries(dataset.Name).size());
+			int directBuffers = pool.GetDirectBufferCount();
+			assertEquals(directBuffers, pool.GetAvailableCount());
+
+			// the warm pool serves the next calls
+			client.UpsertTimeSeries(dataset.Name, timeSeries, false);
+			assertEquals(300, client.ListTimeSeries(dataset.Name).size());
+			assertEquals(300, client.GetForecasts(dataset.Name, serieNames).length);
+			assertEquals(directBuffers, pool.GetDirectBufferCount());
+			assertEquals(directBuffers, pool.GetAvailableCount());
+			assertEquals(0, pool.GetHeapBufferCount());
+
+			api.SetBufferPool(null);
+			assertEquals(300, client.GetForecasts(dataset.Name, serieNames).length);
+		} finally {
+			server.stop();
+		}
+	}
+}
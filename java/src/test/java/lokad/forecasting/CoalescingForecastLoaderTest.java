@@ -0,0 +1,154 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CoalescingForecastLoaderTest {
+
+	@Test
+	public void testConcurrentCallersShareRoundTrips() throws InterruptedException {
+		StubForecastingApi api = new StubForecastingApi();
+		final CoalescingForecastLoader loader = new CoalescingForecastLoader(new ForecastingClient("key", api), 500);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+		Thread[] threads = new Thread[20];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t * 10;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					// overlapping ranges of 50 series
+					String[] serieNames = new String[50];
+					for (int i = 0; i < serieNames.length; i++) {
+						serieNames[i] = "S" + (offset + i);
+					}
+					try {
+						start.await();
+						ForecastSerie[] forecasts = loader.GetForecasts("dataset", serieNames);
+						assertEquals(serieNames.length, forecasts.length);
+						for (int i = 0; i < serieNames.length; i++) {
+							assertEquals(serieNames[i], forecasts[i].Name);
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		// 240 distinct series, no serie requested twice
+		assertEquals(api.requestedSeries.size(), new HashSet<String>(api.requestedSeries).size());
+		assertEquals(1, api.statusCalls.get());
+	}
+
+	@Test
+	public void testInterruptedLeaderReleasesFollowers() throws InterruptedException {
+		StubForecastingApi api = new StubForecastingApi();
+		final CoalescingForecastLoader loader = new CoalescingForecastLoader(new ForecastingClient("key", api), 60000);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						loader.GetForecasts("dataset", new String[] { "S0" });
+						fail("#A00");
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[t].start();
+			if (0 == t) {
+				// the first caller leads the batch
+				Thread.sleep(100);
+			}
+		}
+		Thread.sleep(100);
+		threads[0].interrupt();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		for (Thread thread : threads) {
+			thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			assertTrue("#A01", !thread.isAlive());
+		}
+		assertEquals(threads.length, failures.size());
+		int interrupted = 0;
+		for (Throwable failure : failures) {
+			if (failure instanceof InterruptedException) {
+				interrupted++;
+			} else {
+				// the followers were not interrupted themselves
+				assertTrue(failure.toString(), failure instanceof IOException);
+			}
+		}
+		assertEquals(1, interrupted);
+		assertEquals(0, api.statusCalls.get());
+	}
+
+	@Test
+	public void testFollowerDeadline() throws Exception {
+		StubForecastingApi api = new StubForecastingApi();
+		final CoalescingForecastLoader loader = new CoalescingForecastLoader(new ForecastingClient("key", api), 60000);
+		Thread leader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					loader.GetForecasts("dataset", new String[] { "S0" });
+				} catch (Exception e) {
+					// interrupted at the end of the test
+				}
+			}
+		};
+		leader.start();
+		Thread.sleep(100);
+
+		long start = System.nanoTime();
+		RequestContext context = RequestContext.Enter(null, 200);
+		try {
+			loader.GetForecasts("dataset", new String[] { "S1" });
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertFalse(e.isCancelled());
+		} finally {
+			context.close();
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+		CancellationToken token = new CancellationToken();
+		context = RequestContext.Enter(null, token);
+		try {
+			token.Cancel();
+			loader.GetForecasts("dataset", new String[] { "S2" });
+			fail("#A01");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+		} finally {
+			context.close();
+		}
+
+		leader.interrupt();
+		leader.join();
+		assertEquals(0, api.statusCalls.get());
+	}
+}
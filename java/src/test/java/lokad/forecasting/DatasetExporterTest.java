@@ -0,0 +1,162 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatasetExporterTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private File directory;
+	private TimeSerie[] timeSeries;
+	private final String DsName = "exportDataset";
+	private final String Identity = Base64.encode("auth-with-key@lokad.com:export");
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		client = new ForecastingClient(Identity, new ForecastingApi(server.getEndpoint()));
+		directory = Files.createTempDirectory("export").toFile();
+
+		Dataset dataset = new Dataset();
+		dataset.Name = DsName;
+		dataset.Horizon = 4;
+		dataset.Period = "week";
+		client.InsertDataset(dataset);
+
+		timeSeries = ForecastingClientStubTest.createSeries(250, 10);
+		timeSeries[0].Tags = new String[] { "Tag0", "Tag1" };
+		timeSeries[0].Events = new EventValue[1];
+		timeSeries[0].Events[0] = new EventValue();
+		timeSeries[0].Events[0].Tags = new String[] { "Promo" };
+		timeSeries[0].Events[0].Time = timeSeries[0].Values[3].Time;
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		server.stop();
+	}
+
+	@Test
+	public void testCsvExport() throws IOException {
+		File file = new File(directory, "dataset.csv");
+		assertEquals(250, new DatasetExporter(client).Export(DsName, file, ExportFormat.Csv));
+		assertFalse(DatasetExporter.GetPositionFile(file).exists());
+
+		List<String> lines = Files.readAllLines(file.toPath(), DatasetFiles.Ascii);
+		// header, values, serie tags, one event
+		assertEquals(1 + 250 * 10 + 1 + 1, lines.size());
+		assertEquals("Serie,Kind,Time,Value,Tags,KnownSince", lines.get(0));
+		assertTrue(lines.contains("Test0,T,,,Tag0;Tag1,"));
+
+		int rows = 0;
+		for (String line : lines) {
+			if (line.startsWith("Test0,V,")) {
+				String[] fields = line.split(",", -1);
+				assertEquals(6, fields.length);
+				assertEquals(rows, Double.parseDouble(fields[3]), 0.0);
+				rows++;
+			}
+		}
+		assertEquals(10, rows);
+	}
+
+	@Test
+	public void testBinaryExport() throws IOException {
+		File file = new File(directory, "dataset.bin");
+		assertEquals(250, new DatasetExporter(client).Export(DsName, file, ExportFormat.Binary));
+
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		assertEquals(DatasetFiles.Magic, buffer.getInt());
+		assertEquals(DatasetFiles.Version, buffer.getShort());
+		int blocks = 0;
+		while (buffer.hasRemaining()) {
+			int length = buffer.getInt();
+			buffer.position(buffer.position() + length);
+			blocks++;
+		}
+		assertEquals(250, blocks);
+	}
+
+	@Test
+	public void testResumeInterruptedExport() throws IOException {
+		File expected = new File(directory, "expected.bin");
+		new DatasetExporter(client).Export(DsName, expected, ExportFormat.Binary);
+
+		// failing on the second page
+		ForecastingApi api = new ForecastingApi(server.getEndpoint());
+		ForecastingClient failingClient = new ForecastingClient(Identity, new LoadHarness.TimedForecastingApi(api) {
+			private int pages;
+
+			@Override
+			public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken)
+					throws IOException {
+				if (++pages == 2) {
+					throw new IOException("Connection reset");
+				}
+				return super.ListTimeSeries(identity, datasetName, continuationToken);
+			}
+		});
+
+		File file = new File(directory, "dataset.bin");
+		try {
+			new DatasetExporter(failingClient).Export(DsName, file, ExportFormat.Binary);
+			fail("#A00");
+		} catch (IOException e) {
+			// expected
+		}
+		assertTrue(DatasetExporter.GetPositionFile(file).exists());
+
+		try {
+			new DatasetExporter(client).Export(DsName, file, ExportFormat.Csv);
+			fail("#A01");
+		} catch (IllegalStateException e) {
+			// another format
+		}
+
+		long requests = server.requestCount.get();
+		assertEquals(250, new DatasetExporter(client).Export(DsName, file, ExportFormat.Binary));
+		assertEquals(requests + 2, server.requestCount.get());
+		assertFalse(DatasetExporter.GetPositionFile(file).exists());
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void testPutTime() {
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(
+				ZoneOffset.UTC);
+		Random random = new Random(42);
+		ByteBuffer buffer = ByteBuffer.allocate(DatasetFiles.TimeLength);
+		for (int i = 0; i < 100000; i++) {
+			// years 1 to 9999
+			long millis = -62135596800000L + (long) (random.nextDouble() * 315537897599999L);
+			buffer.clear();
+			DatasetFiles.PutTime(buffer, millis);
+			assertEquals(formatter.format(Instant.ofEpochMilli(millis)), new String(buffer.array(),
+					DatasetFiles.Ascii));
+		}
+	}
+}
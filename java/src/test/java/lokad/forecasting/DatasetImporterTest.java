@@ -0,0 +1,224 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatasetImporterTest {
+
+	private File directory;
+	private TimeSerie[] timeSeries;
+	private StubForecastingApi api;
+	private ForecastingClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("import").toFile();
+
+		timeSeries = ForecastingClientStubTest.createSeries(300, 20);
+		timeSeries[7].Tags = new String[] { "Tag0", "Tag1" };
+		timeSeries[7].Events = new EventValue[1];
+		timeSeries[7].Events[0] = new EventValue();
+		timeSeries[7].Events[0].Tags = new String[] { "Promo" };
+		timeSeries[7].Events[0].Time = timeSeries[7].Values[3].Time;
+		timeSeries[7].Events[0].KnownSince = timeSeries[7].Values[1].Time;
+		Random random = new Random(42);
+		for (TimeSerie serie : timeSeries) {
+			for (TimeValue value : serie.Values) {
+				value.Value = random.nextGaussian() * 1000;
+			}
+		}
+
+		api = new StubForecastingApi();
+		client = new ForecastingClient("key", api);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private File export(ExportFormat format) throws IOException {
+		StubForecastingApi source = new StubForecastingApi();
+		ForecastingClient sourceClient = new ForecastingClient("key", source);
+		sourceClient.UpsertTimeSeries("dataset", timeSeries, false);
+		File file = new File(directory, "dataset." + format);
+		new DatasetExporter(sourceClient).Export("dataset", file, format);
+		return file;
+	}
+
+	private void assertImported() {
+		assertEquals(timeSeries.length, api.upsertedSeries.size());
+		Map<String, TimeSerie> imported = new HashMap<String, TimeSerie>();
+		for (TimeSerie serie : api.upsertedSeries) {
+			imported.put(serie.Name, serie);
+		}
+		for (TimeSerie expected : timeSeries) {
+			TimeSerie actual = imported.get(expected.Name);
+			assertEquals(expected.Values.length, actual.Values.length);
+			for (int i = 0; i < expected.Values.length; i++) {
+				assertEquals(expected.Values[i].Time.getTimeInMillis(), actual.Values[i].Time.getTimeInMillis());
+				assertEquals(expected.Values[i].Value, actual.Values[i].Value, 0.0);
+			}
+		}
+		TimeSerie tagged = imported.get(timeSeries[7].Name);
+		assertEquals(Arrays.asList("Tag0", "Tag1"), Arrays.asList(tagged.Tags));
+		assertEquals(1, tagged.Events.length);
+		assertEquals("Promo", tagged.Events[0].Tags[0]);
+		assertEquals(timeSeries[7].Events[0].KnownSince.getTimeInMillis(), tagged.Events[0].KnownSince
+				.getTimeInMillis());
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws Exception {
+		File file = export(ExportFormat.Binary);
+		DatasetImporter importer = new DatasetImporter(client, 4);
+		importer._regionSize = 4096;
+		assertEquals(timeSeries.length, importer.Import(file, ExportFormat.Binary, "copy", false));
+		assertImported();
+	}
+
+	@Test
+	public void testCsvRoundTrip() throws Exception {
+		File file = export(ExportFormat.Csv);
+		DatasetImporter importer = new DatasetImporter(client, 4);
+		importer._regionSize = 4096;
+		assertEquals(timeSeries.length, importer.Import(file, ExportFormat.Csv, "copy", false));
+		assertImported();
+	}
+
+	@Test
+	public void testCsvRowsOfASerieInAnyOrder() throws Exception {
+		List<String> lines = Files.readAllLines(export(ExportFormat.Csv).toPath(), DatasetFiles.Ascii);
+		List<String> rows = new ArrayList<String>(lines.subList(1, lines.size()));
+		// shuffling the rows within each serie
+		List<String> shuffled = new ArrayList<String>();
+		Random random = new Random(7);
+		int start = 0;
+		for (int i = 1; i <= rows.size(); i++) {
+			String prefix = rows.get(start).substring(0, rows.get(start).indexOf(',') + 1);
+			if (i == rows.size() || !rows.get(i).startsWith(prefix)) {
+				List<String> serie = new ArrayList<String>(rows.subList(start, i));
+				Collections.shuffle(serie, random);
+				shuffled.addAll(serie);
+				start = i;
+			}
+		}
+		shuffled.add(0, lines.get(0));
+		File file = new File(directory, "shuffled.csv");
+		Files.write(file.toPath(), shuffled, DatasetFiles.Ascii);
+
+		new DatasetImporter(client, 2).Import(file, ExportFormat.Csv, "copy", false);
+		assertImported();
+	}
+
+	@Test
+	public void testDuplicateTimes() throws Exception {
+		File file = new File(directory, "duplicate.csv");
+		Files.write(file.toPath(), Arrays.asList("Serie,Kind,Time,Value,Tags,KnownSince",
+				"Lilo,V,2010-01-01T00:00:00.000Z,1.0,,", "Lilo,V,2010-01-01T00:00:00.000Z,2.0,,"),
+				DatasetFiles.Ascii);
+		try {
+			new DatasetImporter(client, 1).Import(file, ExportFormat.Csv, "copy", false);
+			fail("#A00");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Lilo:"));
+		}
+		assertEquals(0, api.upsertCalls.get());
+	}
+
+	@Test
+	public void testMalformedFile() throws Exception {
+		File file = new File(directory, "malformed.csv");
+		Files.write(file.toPath(), Arrays.asList("Serie,Kind,Time,Value,Tags,KnownSince",
+				"Lilo,V,2010-01-01T00:00:00.000Z,1.0,,", "Lilo,V,yesterday,2.0,,"), DatasetFiles.Ascii);
+		try {
+			new DatasetImporter(client, 1).Import(file, ExportFormat.Csv, "copy", false);
+			fail("#A00");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("offset"));
+		}
+
+		try {
+			new DatasetImporter(client, 1).Import(file, ExportFormat.Binary, "copy", false);
+			fail("#A01");
+		} catch (IllegalArgumentException e) {
+			// not a binary file
+		}
+	}
+
+	@Test
+	public void testMalformedBinaryBlock() throws Exception {
+		byte[] bytes = Files.readAllBytes(export(ExportFormat.Binary).toPath());
+		int nameLength = DatasetFiles.HeaderLength + 4;
+		int nameEnd = nameLength + 2 + ByteBuffer.wrap(bytes).getShort(nameLength);
+		// negative name length, then event count past the end of the block
+		byte[][] corrupted = { bytes.clone(), bytes.clone() };
+		ByteBuffer.wrap(corrupted[0]).putShort(nameLength, (short) -1);
+		ByteBuffer.wrap(corrupted[1]).putInt(nameEnd + 2, Integer.MAX_VALUE);
+
+		File file = new File(directory, "malformed.bin");
+		for (byte[] content : corrupted) {
+			Files.write(file.toPath(), content);
+			try {
+				new DatasetImporter(client, 1).Import(file, ExportFormat.Binary, "copy", false);
+				fail("#A00");
+			} catch (IllegalArgumentException e) {
+				assertEquals(String.format("Invalid serie block at offset %d.", DatasetFiles.HeaderLength), e
+						.getMessage());
+			}
+		}
+		assertEquals(0, api.upsertCalls.get());
+	}
+
+	@Test
+	public void testParseDouble() {
+		Random random = new Random(42);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		String[] samples = { "0", "-0.0", "1", "1.5", "123456789012345", "0.1", "3.14159", "1.0E-5", "-2.5e10",
+				"1.7976931348623157E308", "4.9E-324", "NaN", "Infinity", "-Infinity", "1234567890123456789" };
+		List<String> inputs = new ArrayList<String>(Arrays.asList(samples));
+		for (int i = 0; i < 100000; i++) {
+			double value = random.nextInt(4) == 0 ? random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20)
+					: Math.round(random.nextGaussian() * 1e6) / 100.0;
+			inputs.add(Double.toString(value));
+		}
+		for (String input : inputs) {
+			buffer.clear();
+			buffer.put(input.getBytes(DatasetFiles.Ascii));
+			assertEquals(input, Double.doubleToLongBits(Double.parseDouble(input)), Double
+					.doubleToLongBits(DatasetFiles.ParseDouble(buffer, 0, input.length())));
+		}
+	}
+
+	@Test
+	public void testParseTime() {
+		Random random = new Random(42);
+		ByteBuffer buffer = ByteBuffer.allocate(DatasetFiles.TimeLength);
+		for (int i = 0; i < 100000; i++) {
+			long millis = -62135596800000L + (long) (random.nextDouble() * 315537897599999L);
+			buffer.clear();
+			DatasetFiles.PutTime(buffer, millis);
+			assertEquals(millis, DatasetFiles.ParseTime(buffer, 0));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlightRecorderEventsTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private final String DsName = "jfrDataset";
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		client = new ForecastingClient("apiKey", server.getEndpoint());
+
+		Dataset dataset = new Dataset();
+		dataset.Name = DsName;
+		dataset.Horizon = 4;
+		dataset.Period = "week";
+		client.InsertDataset(dataset);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	private List<RecordedEvent> record(boolean enabled) throws Exception {
+		Path file = Files.createTempFile("forecasting", ".jfr");
+		try {
+			Recording recording = new Recording();
+			if (enabled) {
+				recording.enable("lokad.forecasting.ApiCall");
+				recording.enable("lokad.forecasting.ClientStage");
+			}
+			recording.start();
+
+			TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(150, 10);
+			client.UpsertTimeSeries(DsName, timeSeries, false);
+			String[] serieNames = new String[timeSeries.length];
+			for (int i = 0; i < timeSeries.length; i++) {
+				serieNames[i] = timeSeries[i].Name;
+			}
+			client.GetForecasts(DsName, serieNames);
+
+			recording.stop();
+			recording.dump(file);
+			recording.close();
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testEventsRecorded() throws Exception {
+		Map<String, Integer> calls = new HashMap<String, Integer>();
+		Map<String, Integer> stages = new HashMap<String, Integer>();
+		int upserted = 0;
+		for (RecordedEvent event : record(true)) {
+			String name = event.getEventType().getName();
+			if (name.equals("lokad.forecasting.ApiCall")) {
+				assertEquals(DsName, event.getString("dataset"));
+				assertEquals(200, event.getInt("httpStatus"));
+				assertTrue(event.getLong("responseBytes") > 0);
+				String operation = event.getString("operation");
+				if (operation.equals(ApiOperations.UpsertTimeSeries)) {
+					upserted += event.getInt("sliceSize");
+					assertTrue(event.getLong("requestBytes") > 0);
+				}
+				Integer count = calls.get(operation);
+				calls.put(operation, null != count ? count + 1 : 1);
+			} else if (name.equals("lokad.forecasting.ClientStage")) {
+				String stage = event.getString("stage");
+				Integer count = stages.get(stage);
+				stages.put(stage, null != count ? count + 1 : 1);
+			}
+		}
+
+		assertEquals(Integer.valueOf(2), calls.get(ApiOperations.UpsertTimeSeries));
+		assertEquals(150, upserted);
+		assertEquals(Integer.valueOf(1), calls.get(ApiOperations.GetForecastStatus));
+		assertEquals(Integer.valueOf(2), calls.get(ApiOperations.GetForecasts));
+
+		assertEquals(Integer.valueOf(1), stages.get(ClientStageEvent.Validation));
+		assertEquals(Integer.valueOf(1), stages.get(ClientStageEvent.Slicing));
+		assertEquals(Integer.valueOf(2), stages.get(ClientStageEvent.Serialization));
+		assertEquals(Integer.valueOf(1), stages.get(ClientStageEvent.ForecastStatusWait));
+		assertEquals(Integer.valueOf(1), stages.get(ClientStageEvent.Reassembly));
+	}
+
+	@Test
+	public void testEventsDisabledByDefault() throws Exception {
+		for (RecordedEvent event : record(false)) {
+			assertTrue(!event.getEventType().getName().startsWith("lokad."));
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowPublisherTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private ExecutorService executor;
+	private final String DsName = "flowDataset";
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		client = new ForecastingClient("apiKey", server.getEndpoint());
+		executor = Executors.newCachedThreadPool();
+
+		for (String name : new String[] { DsName, "copy" }) {
+			Dataset dataset = new Dataset();
+			dataset.Name = name;
+			dataset.Horizon = 4;
+			dataset.Period = "week";
+			client.InsertDataset(dataset);
+		}
+		client.UpsertTimeSeries(DsName, ForecastingClientStubTest.createSeries(250, 10), false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		server.stop();
+	}
+
+	/**
+	 * Subscriber requesting the items one by one, on demand of the test.
+	 */
+	private static class PullSubscriber<T> implements Flow.Subscriber<T> {
+		final List<T> items = new ArrayList<T>();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Flow.Subscription subscription;
+		volatile Throwable failure;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public synchronized void onNext(T item) {
+			items.add(item);
+			notifyAll();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			failure = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		synchronized void awaitItems(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (items.size() < count && System.currentTimeMillis() < deadline) {
+				wait(100);
+			}
+			assertEquals(count, items.size());
+		}
+	}
+
+	@Test
+	public void testTimeSeriesPagesFollowDemand() throws Exception {
+		PullSubscriber<TimeSerie> subscriber = new PullSubscriber<TimeSerie>();
+		long requests = server.requestCount.get();
+		client.PublishTimeSeries(DsName, executor).subscribe(subscriber);
+		Thread.sleep(100);
+		assertEquals(requests, server.requestCount.get());
+
+		// the first page holds 100 series
+		subscriber.subscription.request(1);
+		subscriber.awaitItems(1);
+		subscriber.subscription.request(99);
+		subscriber.awaitItems(100);
+		Thread.sleep(100);
+		assertEquals(requests + 1, server.requestCount.get());
+
+		subscriber.subscription.request(1);
+		subscriber.awaitItems(101);
+		assertEquals(requests + 2, server.requestCount.get());
+
+		subscriber.subscription.request(149);
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertEquals(250, subscriber.items.size());
+		assertEquals(null, subscriber.failure);
+		assertEquals(requests + 3, server.requestCount.get());
+	}
+
+	@Test
+	public void testForecastsPublishedInOrder() throws Exception {
+		String[] serieNames = new String[250];
+		for (int i = 0; i < serieNames.length; i++) {
+			serieNames[i] = "Test" + i;
+		}
+		PullSubscriber<ForecastSerie> subscriber = new PullSubscriber<ForecastSerie>();
+		client.PublishForecasts(DsName, serieNames, executor).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertEquals(null, subscriber.failure);
+		assertEquals(250, subscriber.items.size());
+		for (int i = 0; i < serieNames.length; i++) {
+			assertEquals(serieNames[i], subscriber.items.get(i).Name);
+		}
+	}
+
+	@Test
+	public void testInvalidRequestFails() throws Exception {
+		PullSubscriber<TimeSerie> subscriber = new PullSubscriber<TimeSerie>();
+		client.PublishTimeSeries(DsName, executor).subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertTrue(subscriber.failure instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void testCopyThroughUpsertSubscriber() throws Exception {
+		UpsertSubscriber sink = client.NewUpsertSubscriber("copy", false);
+		client.PublishTimeSeries(DsName, executor).subscribe(sink);
+		sink.Await();
+		assertEquals(250, sink.GetUpsertedCount());
+		assertEquals(250, client.ListTimeSeries("copy").size());
+	}
+
+	@Test
+	public void testUpsertSubscriberValidatesDatasetName() {
+		try {
+			client.NewUpsertSubscriber("not valid", false);
+			fail("#A00");
+		} catch (IllegalArgumentException e) {
+			assertEquals("not valid is not a valid dataset name.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testUpsertSubscriberReportsFailure() throws Exception {
+		UpsertSubscriber sink = client.NewUpsertSubscriber("missing", false);
+		client.PublishTimeSeries(DsName, executor).subscribe(sink);
+		try {
+			sink.Await();
+			fail("#A00");
+		} catch (IllegalStateException e) {
+			assertEquals(ErrorCodes.DatasetNotFound, e.getMessage());
+		}
+	}
+
+	@Test
+	public void testUpsertSubscriberReportsViolations() throws Exception {
+		client.SetValidationPool(new ForkJoinPool(2));
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(150, 10);
+		timeSeries[120].Tags = new String[] { "Tag_" };
+		timeSeries[149].Values[5].Time = timeSeries[149].Values[4].Time;
+
+		UpsertSubscriber sink = client.NewUpsertSubscriber("copy", false);
+		SubmissionPublisher<TimeSerie> publisher = new SubmissionPublisher<TimeSerie>(executor, 16);
+		publisher.subscribe(sink);
+		for (TimeSerie timeSerie : timeSeries) {
+			publisher.submit(timeSerie);
+		}
+		publisher.close();
+		try {
+			sink.Await();
+			fail("#A00");
+		} catch (ValidationException e) {
+			assertEquals(2, e.getViolations().size());
+		}
+		assertEquals(100, sink.GetUpsertedCount());
+	}
+}
@@ -0,0 +1,126 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ForecastStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("forecasts").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static ForecastSerie createForecast(String name, int length) {
+		ForecastSerie forecast = new ForecastSerie();
+		forecast.Name = name;
+		forecast.Values = new ForecastValue[length];
+		for (int i = 0; i < length; i++) {
+			forecast.Values[i] = new ForecastValue();
+			forecast.Values[i].Time = Calendar.getInstance();
+			forecast.Values[i].Time.add(Calendar.DATE, i);
+			forecast.Values[i].Value = i * 1.5;
+			forecast.Values[i].Accuracy = 1.0 / (i + 1);
+		}
+		return forecast;
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException {
+		ForecastStore store = new ForecastStore(directory);
+		ForecastSerie lilo = createForecast("Lilo", 10);
+		store.Put("dataset", new ForecastSerie[] { lilo, createForecast("Stitch", 3) });
+
+		ForecastSerie[] forecasts = new ForecastStore(directory).Get("dataset", new String[] { "Lilo", "Unknown" });
+		assertEquals(1, forecasts.length);
+		assertEquals("Lilo", forecasts[0].Name);
+		assertEquals(10, forecasts[0].Values.length);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(lilo.Values[i].Time.getTimeInMillis(), forecasts[0].Values[i].Time.getTimeInMillis());
+			assertEquals(lilo.Values[i].Value, forecasts[0].Values[i].Value, 0.0);
+			assertEquals(lilo.Values[i].Accuracy, forecasts[0].Values[i].Accuracy, 0.0);
+		}
+	}
+
+	@Test
+	public void testPutMergesWithStoredForecasts() throws IOException {
+		ForecastStore store = new ForecastStore(directory);
+		ForecastStore otherReader = new ForecastStore(directory);
+
+		store.Put("dataset", new ForecastSerie[] { createForecast("Lilo", 2), createForecast("Stitch", 3) });
+		assertEquals(2, otherReader.Get("dataset", new String[] { "Lilo", "Stitch" }).length);
+
+		store.Put("dataset", new ForecastSerie[] { createForecast("Lilo", 5) });
+		ForecastSerie[] forecasts = otherReader.Get("dataset", new String[] { "Lilo", "Stitch" });
+		assertEquals(2, forecasts.length);
+		assertEquals(5, forecasts[0].Values.length);
+		assertEquals(3, forecasts[1].Values.length);
+	}
+
+	@Test
+	public void testConcurrentPuts() throws Exception {
+		final ForecastStore store = new ForecastStore(directory);
+		final ForecastStore otherStore = new ForecastStore(directory);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> puts = new ArrayList<Future<?>>();
+			for (int i = 0; i < 200; i++) {
+				final int serie = i;
+				puts.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						(serie % 2 == 0 ? store : otherStore).Put("dataset",
+								new ForecastSerie[] { createForecast("Serie" + serie, 3) });
+						return null;
+					}
+				}));
+			}
+			for (Future<?> put : puts) {
+				put.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		String[] names = new String[200];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "Serie" + i;
+		}
+		assertEquals(200, new ForecastStore(directory).Get("dataset", names).length);
+
+		// no temporary file left behind
+		for (File file : directory.listFiles()) {
+			assertTrue(file.getName(), !file.getName().endsWith(".tmp"));
+		}
+	}
+
+	@Test
+	public void testGetUnknownDataset() throws IOException {
+		ForecastStore store = new ForecastStore(directory);
+		assertTrue(store.Get("nothing", new String[] { "Lilo" }).length == 0);
+	}
+}
@@ -0,0 +1,166 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ForecastingApiValidatorsTest {
+
+	private static TimeSerie createSerie(String name, int length) {
+		TimeSerie t = new TimeSerie();
+		t.Name = name;
+		t.Tags = new String[] { "Tag0", "Tag1" };
+		t.Values = new TimeValue[length];
+		for (int i = 0; i < length; i++) {
+			t.Values[i] = new TimeValue();
+			t.Values[i].Time = Calendar.getInstance();
+			t.Values[i].Time.add(Calendar.DATE, i - length);
+			t.Values[i].Value = i;
+		}
+		return t;
+	}
+
+	@Test
+	public void testIsValidApiName() {
+		assertTrue(ForecastingApiValidators.IsValidApiName("abC210"));
+		assertTrue(!ForecastingApiValidators.IsValidApiName("a_bc2010"));
+		assertTrue(!ForecastingApiValidators.IsValidApiName("abc "));
+		assertTrue(!ForecastingApiValidators.IsValidApiName(""));
+		assertTrue(!ForecastingApiValidators.IsValidApiName("abcdefghijklmnopqrstuvwxyz0123456789"));
+	}
+
+	@Test
+	public void testIsValidApiNameMatchesPattern() {
+		char[] chars = new char[] { 'a', 'z', 'A', 'Z', '0', '9', '_', ' ', '-', '\n', '\r', '\u0085', '\u2028',
+				'\u2029', '\u00e9', '\uffff', '\t' };
+
+		// every string of up to 3 characters drawn from the set above
+		StringBuilder builder = new StringBuilder();
+		for (int length = 0; length <= 3; length++) {
+			int count = (int) Math.pow(chars.length, length);
+			for (int n = 0; n < count; n++) {
+				builder.setLength(0);
+				for (int k = 0, m = n; k < length; k++, m /= chars.length) {
+					builder.append(chars[m % chars.length]);
+				}
+				assertMatchesPattern(builder.toString());
+			}
+		}
+
+		// random strings around the length limit
+		Random random = new Random(42);
+		for (int n = 0; n < 100000; n++) {
+			builder.setLength(0);
+			int length = 28 + random.nextInt(8);
+			for (int k = 0; k < length; k++) {
+				builder.append(random.nextInt(50) == 0 ? chars[random.nextInt(chars.length)] : 'x');
+			}
+			assertMatchesPattern(builder.toString());
+		}
+	}
+
+	private static void assertMatchesPattern(String name) {
+		assertEquals(name, ForecastingApiValidators.DefaultNamePattern.matcher(name).find(),
+				ForecastingApiValidators.IsValidApiName(name));
+	}
+
+	@Test
+	public void testAreValidApiNames() {
+		assertTrue(ForecastingApiValidators.AreValidApiNames(new String[] { "Lilo", "Stitch" }));
+		assertTrue(!ForecastingApiValidators.AreValidApiNames(new String[] { "Lilo", "Stitch!" }));
+		assertEquals(2, ForecastingApiValidators.IndexOfInvalidApiName(new String[] { "a", "b", "", "c", "d_" }, 0));
+		assertEquals(4, ForecastingApiValidators.IndexOfInvalidApiName(new String[] { "a", "b", "", "c", "d_" }, 3));
+	}
+
+	@Test
+	public void testValidateSerie() {
+		ForecastingApiValidators.Validate(createSerie("Lilo", 10));
+		assertTrue(ForecastingApiValidators.GetViolations(createSerie("Lilo", 10)).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateSerieWithDuplicateTags() {
+		TimeSerie serie = createSerie("Lilo", 10);
+		serie.Tags = new String[] { "Tag0", "Tag1", "Tag0" };
+		ForecastingApiValidators.Validate(serie);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateSerieWithDuplicateEventTags() {
+		TimeSerie serie = createSerie("Lilo", 10);
+		serie.Events = new EventValue[] { new EventValue() };
+		serie.Events[0].Time = Calendar.getInstance();
+		serie.Events[0].Tags = new String[] { "Promo", "Promo" };
+		ForecastingApiValidators.Validate(serie);
+	}
+
+	@Test
+	public void testGetViolationsReportsAll() {
+		TimeSerie serie = createSerie("Lilo_", 10);
+		serie.Tags = new String[] { "Tag0", "Tag0", "Tag-", "Tag1", "Tag1" };
+		serie.Values[5].Time = serie.Values[4].Time;
+
+		List<String> violations = ForecastingApiValidators.GetViolations(serie);
+		// invalid name, invalid tag, two duplicates, ordering
+		assertEquals(5, violations.size());
+	}
+
+	@Test
+	public void testGetViolationsOfBatch() {
+		TimeSerie[] series = new TimeSerie[] { createSerie("Lilo", 3), createSerie("Stitch", 3),
+				createSerie("Lilo", 3), createSerie("Nani+", 3) };
+
+		List<String> violations = ForecastingApiValidators.GetViolations(series);
+		assertEquals(violations.toString(), 2, violations.size());
+	}
+
+	@Test
+	public void testGetViolationsInParallel() {
+		TimeSerie[] series = new TimeSerie[2000];
+		for (int i = 0; i < series.length; i++) {
+			series[i] = createSerie("S" + i, 100);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		assertTrue(ForecastingApiValidators.GetViolations(series, pool).isEmpty());
+
+		series[10].Values[50].Time = series[10].Values[10].Time;
+		series[1500].Name = "S10";
+		series[1999].Tags = new String[] { "Tag_" };
+
+		List<String> violations = ForecastingApiValidators.GetViolations(series, pool);
+		assertEquals(ForecastingApiValidators.GetViolations(series), violations);
+		assertEquals(violations.toString(), 3, violations.size());
+	}
+
+	@Test
+	public void testIsStrictlyOrdered() {
+		assertTrue(ForecastingApiValidators.IsStrictlyOrdered(new long[] { 1, 2, 5, 3 }, 3));
+		assertTrue(!ForecastingApiValidators.IsStrictlyOrdered(new long[] { 1, 2, 5, 3 }, 4));
+		assertTrue(!ForecastingApiValidators.IsStrictlyOrdered(new long[] { 1, 1 }, 2));
+	}
+
+	@Test
+	public void testGetSerieNameViolations() {
+		String[] serieNames = new String[100000];
+		for (int i = 0; i < serieNames.length; i++) {
+			serieNames[i] = "S" + i;
+		}
+		assertTrue(ForecastingApiValidators.GetSerieNameViolations(serieNames).isEmpty());
+
+		serieNames[10] = "S20";
+		serieNames[11] = "S20";
+		serieNames[12] = "S 12";
+		assertEquals(2, ForecastingApiValidators.GetSerieNameViolations(serieNames).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateSerieNamesWithDuplicates() {
+		ForecastingClient.ValidateSerieNames("dataset", new String[] { "Lilo", "Stitch", "Lilo" });
+	}
+}
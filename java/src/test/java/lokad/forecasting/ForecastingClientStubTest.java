@@ -0,0 +1,206 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Client logic tested against {@link StubForecastingApi}, without network.
+ */
+public class ForecastingClientStubTest {
+
+	private StubForecastingApi api;
+	private ForecastingClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		api = new StubForecastingApi();
+		client = new ForecastingClient("key", api);
+	}
+
+	static TimeSerie[] createSeries(int timeSeriesCount, int timeSerieSize) {
+		TimeSerie[] timeSeries = new TimeSerie[timeSeriesCount];
+		for (int ti = 0; ti < timeSeries.length; ti++) {
+			TimeSerie t = new TimeSerie();
+			timeSeries[ti] = t;
+			t.Name = "Test" + String.valueOf(ti);
+			t.Values = new TimeValue[timeSerieSize];
+			for (int i = 0; i < t.Values.length; i++) {
+				t.Values[i] = new TimeValue();
+				t.Values[i].Time = Calendar.getInstance();
+				t.Values[i].Time.add(Calendar.DATE, i - t.Values.length);
+				t.Values[i].Value = i;
+			}
+		}
+		return timeSeries;
+	}
+
+	@Test
+	public void testUpsertTimeSeries() throws IOException {
+		client.UpsertTimeSeries("dataset", createSeries(250, 10), false);
+		assertEquals(3, api.upsertCalls.get());
+		assertEquals(250, api.upsertedSeries.size());
+	}
+
+	@Test
+	public void testConcurrentExecution() throws IOException, InterruptedException {
+		ExecutorService executor = VirtualThreads.NewExecutor();
+		try {
+			client.SetExecutor(executor, 4);
+			TimeSerie[] timeSeries = createSeries(1000, 10);
+			client.UpsertTimeSeries("dataset", timeSeries, false);
+			assertEquals(10, api.upsertCalls.get());
+			assertEquals(1000, api.upsertedSeries.size());
+
+			String[] serieNames = new String[timeSeries.length];
+			for (int i = 0; i < timeSeries.length; i++) {
+				serieNames[i] = timeSeries[i].Name;
+			}
+			ForecastSerie[] forecasts = client.GetForecasts("dataset", serieNames);
+			assertEquals(1000, forecasts.length);
+			for (int i = 0; i < forecasts.length; i++) {
+				assertEquals(serieNames[i], forecasts[i].Name);
+			}
+
+			client.DeleteTimeSeries("dataset", serieNames);
+			assertEquals(10, api.deleteCalls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Iterator counting the series pulled so far.
+	 */
+	private static class CountingIterator implements Iterator<TimeSerie> {
+		private final TimeSerie[] _timeSeries;
+		final AtomicInteger pulled = new AtomicInteger();
+
+		CountingIterator(TimeSerie[] timeSeries) {
+			_timeSeries = timeSeries;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pulled.get() < _timeSeries.length;
+		}
+
+		@Override
+		public TimeSerie next() {
+			return _timeSeries[pulled.getAndIncrement()];
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	public void testUpsertTimeSeriesIterator() throws IOException {
+		TimeSerie[] timeSeries = createSeries(175, 10);
+		for (int i = 0; i < 25; i++) {
+			timeSeries[i * 7] = createSeries(1, 1001)[0];
+			timeSeries[i * 7].Name = "Large" + i;
+		}
+		final CountingIterator iterator = new CountingIterator(timeSeries);
+		final List<Integer> pulledAtCall = new ArrayList<Integer>();
+		client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				pulledAtCall.add(iterator.pulled.get());
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+
+		assertEquals(175, client.UpsertTimeSeries("dataset", iterator, false));
+		assertEquals(175, api.upsertedSeries.size());
+		// large series 10 by 10, small ones 100 by 100, sent as soon as packed
+		assertEquals(Arrays.asList(64, 117, 134, 175, 175), pulledAtCall);
+
+		assertEquals(150, client.UpsertTimeSeries("dataset", Arrays.stream(createSeries(150, 10)), false));
+		assertEquals(7, api.upsertCalls.get());
+	}
+
+	@Test
+	public void testUpsertTimeSeriesIteratorBackpressure() throws IOException {
+		final CountingIterator iterator = new CountingIterator(createSeries(2000, 10));
+		final AtomicInteger sent = new AtomicInteger();
+		final AtomicInteger maxBuffered = new AtomicInteger();
+		client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				int buffered = iterator.pulled.get() - sent.get();
+				synchronized (maxBuffered) {
+					maxBuffered.set(Math.max(maxBuffered.get(), buffered));
+				}
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				String errorCode = super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+				sent.addAndGet(timeSeries.length);
+				return errorCode;
+			}
+		});
+		ExecutorService executor = VirtualThreads.NewExecutor();
+		try {
+			client.SetExecutor(executor, 3);
+			assertEquals(2000, client.UpsertTimeSeries("dataset", iterator, false));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(2000, api.upsertedSeries.size());
+		// three slices in flight, and the one being packed
+		assertTrue(String.valueOf(maxBuffered.get()), maxBuffered.get() <= 400);
+	}
+
+	@Test
+	public void testUpsertTimeSeriesIteratorInvalidSerie() throws IOException {
+		TimeSerie[] timeSeries = createSeries(250, 10);
+		timeSeries[150].Name = "Invalid_";
+		try {
+			client.UpsertTimeSeries("dataset", Arrays.asList(timeSeries).iterator(), false);
+			fail("#A00");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		// the first slice was sent before the invalid serie got pulled
+		assertEquals(100, api.upsertedSeries.size());
+	}
+
+	@Test
+	public void testUpsertTimeSeriesWithValidationPool() throws IOException {
+		client.SetValidationPool(new ForkJoinPool(4));
+		client.UpsertTimeSeries("dataset", createSeries(250, 10), false);
+		assertEquals(250, api.upsertedSeries.size());
+
+		TimeSerie[] timeSeries = createSeries(250, 10);
+		timeSeries[120].Tags = new String[] { "Tag_" };
+		timeSeries[249].Values[5].Time = timeSeries[249].Values[4].Time;
+		try {
+			client.UpsertTimeSeries("dataset", timeSeries, false);
+			fail("Invalid series uploaded.");
+		} catch (ValidationException e) {
+			assertEquals(2, e.getViolations().size());
+		}
+		// the first slice was sent before the invalid one got joined
+		assertEquals(350, api.upsertedSeries.size());
+	}
+}
@@ -0,0 +1,232 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuardedForecastingApiTest {
+
+	private FlakyForecastingApi flaky;
+
+	/**
+	 * Decorator failing on demand, and counting the calls reaching it.
+	 */
+	private static class FlakyForecastingApi extends LoadHarness.TimedForecastingApi {
+		volatile String errorCode;
+		volatile boolean timeout;
+		final AtomicInteger calls = new AtomicInteger();
+
+		FlakyForecastingApi() {
+			super(new StubForecastingApi());
+		}
+
+		@Override
+		public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+				throws IOException {
+			calls.incrementAndGet();
+			if (timeout) {
+				throw new SocketTimeoutException("Read timed out");
+			}
+			if (null != errorCode) {
+				ForecastCollection collection = new ForecastCollection();
+				collection.ErrorCode = errorCode;
+				return collection;
+			}
+			return super.GetForecasts(identity, datasetName, serieNames);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		flaky = new FlakyForecastingApi();
+	}
+
+	private static String[] names() {
+		return new String[] { "Test0" };
+	}
+
+	@Test
+	public void testRateLimiter() throws IOException {
+		RateLimiter rateLimiter = new RateLimiter(20, 5);
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(rateLimiter.Acquire(RequestContext.NoDeadline));
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(20));
+
+		// the token would come after the deadline: none taken
+		assertFalse(rateLimiter.Acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1)));
+		assertTrue(rateLimiter.GetAvailableTokens() > -0.5);
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(rateLimiter.Acquire(RequestContext.NoDeadline));
+		}
+		// 4 tokens at 20 per second
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(195));
+	}
+
+	@Test
+	public void testRateLimitedPerIdentity() throws IOException {
+		GuardedForecastingApi api = new GuardedForecastingApi(flaky, 1, 2, new CircuitBreaker(3, 1000, 50, 1));
+		RequestContext context = RequestContext.Enter(null, 100);
+		try {
+			assertNull(api.GetForecasts("first", "dataset", names()).ErrorCode);
+			assertNull(api.GetForecasts("first", "dataset", names()).ErrorCode);
+			// the next token comes in a second
+			try {
+				api.GetForecasts("first", "dataset", names());
+				fail("#A00");
+			} catch (OperationAbortedException e) {
+				assertFalse(e.isCancelled());
+			}
+			assertNull(api.GetForecasts("second", "dataset", names()).ErrorCode);
+		} finally {
+			context.close();
+		}
+		assertEquals(3, flaky.calls.get());
+		assertEquals(CircuitState.Closed, api.GetCircuitBreaker().GetState());
+	}
+
+	@Test
+	public void testCircuitOpensAndProbes() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(3, 1000, 100, 2);
+		GuardedForecastingApi api = new GuardedForecastingApi(flaky, 1000, 1000, breaker);
+
+		// other error codes do not tell about the load
+		flaky.errorCode = ErrorCodes.DatasetNotFound;
+		for (int i = 0; i < 5; i++) {
+			api.GetForecasts("key", "dataset", names());
+		}
+		assertEquals(CircuitState.Closed, breaker.GetState());
+
+		flaky.errorCode = ErrorCodes.ServiceFailure;
+		for (int i = 0; i < 3; i++) {
+			assertEquals(ErrorCodes.ServiceFailure, api.GetForecasts("key", "dataset", names()).ErrorCode);
+		}
+		assertEquals(CircuitState.Open, breaker.GetState());
+		assertEquals(8, flaky.calls.get());
+
+		// failing fast
+		try {
+			api.GetForecasts("key", "dataset", names());
+			fail("#A00");
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		assertEquals(8, flaky.calls.get());
+
+		// a failed probe opens the circuit for twice as long
+		Thread.sleep(110);
+		assertEquals(CircuitState.HalfOpen, breaker.GetState());
+		assertEquals(ErrorCodes.ServiceFailure, api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertEquals(CircuitState.Open, breaker.GetState());
+		Thread.sleep(110);
+		assertEquals(CircuitState.Open, breaker.GetState());
+		assertEquals(9, flaky.calls.get());
+
+		// two successful probes close it
+		Thread.sleep(100);
+		flaky.errorCode = null;
+		assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertEquals(CircuitState.HalfOpen, breaker.GetState());
+		assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertEquals(CircuitState.Closed, breaker.GetState());
+		assertEquals(2, breaker.GetOpenCount());
+	}
+
+	@Test
+	public void testClientFailsFast() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1000, 60000, 1);
+		ForecastingClient client = new ForecastingClient("key", new GuardedForecastingApi(flaky, 1000, 1000,
+				breaker));
+		flaky.errorCode = ErrorCodes.ServiceFailure;
+		try {
+			client.GetForecasts("dataset", names());
+			fail("#A00");
+		} catch (IllegalStateException e) {
+			assertEquals(ErrorCodes.ServiceFailure, e.getMessage());
+		}
+		assertEquals(CircuitState.Open, breaker.GetState());
+
+		// the status poll is not even sent
+		try {
+			client.GetForecasts("dataset", names());
+			fail("#A01");
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		assertEquals(1, flaky.calls.get());
+	}
+
+	@Test
+	public void testTimeoutsOpenTheCircuit() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(2, 1000, 1000, 1);
+		GuardedForecastingApi api = new GuardedForecastingApi(flaky, 1000, 1000, breaker);
+		flaky.timeout = true;
+		for (int i = 0; i < 2; i++) {
+			try {
+				api.GetForecasts("key", "dataset", names());
+				fail("#A00");
+			} catch (SocketTimeoutException e) {
+				// expected
+			}
+		}
+		assertEquals(CircuitState.Open, breaker.GetState());
+		try {
+			api.GetForecasts("key", "dataset", names());
+			fail("#A01");
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		assertEquals(2, flaky.calls.get());
+	}
+
+	@Test
+	public void testOpenWait() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1000, 50, 1);
+		GuardedForecastingApi api = new GuardedForecastingApi(flaky, 1000, 1000, breaker);
+		api.SetOpenWait(1000);
+		flaky.errorCode = ErrorCodes.ServiceFailure;
+		api.GetForecasts("key", "dataset", names());
+		assertEquals(CircuitState.Open, breaker.GetState());
+
+		// queued until the circuit gets half-open, then sent as a probe
+		flaky.errorCode = null;
+		long start = System.nanoTime();
+		assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+		assertEquals(CircuitState.Closed, breaker.GetState());
+		assertEquals(2, flaky.calls.get());
+	}
+
+	@Test
+	public void testDeadlineCutsOpenWait() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1000, 60000, 1);
+		GuardedForecastingApi api = new GuardedForecastingApi(flaky, 1000, 1000, breaker);
+		api.SetOpenWait(60000);
+		flaky.errorCode = ErrorCodes.ServiceFailure;
+		api.GetForecasts("key", "dataset", names());
+		assertEquals(CircuitState.Open, breaker.GetState());
+
+		RequestContext context = RequestContext.Enter(null, 50);
+		try {
+			api.GetForecasts("key", "dataset", names());
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertFalse(e.isCancelled());
+		} finally {
+			context.close();
+		}
+		assertEquals(1, flaky.calls.get());
+	}
+}
@@ -0,0 +1,187 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgedForecastingApiTest {
+
+	private ExecutorService executor;
+	private SlowForecastingApi slow;
+
+	/**
+	 * Decorator delaying or failing the calls on demand, and counting the
+	 * calls reaching it.
+	 */
+	private static class SlowForecastingApi extends LoadHarness.TimedForecastingApi {
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger upsertThreads = new AtomicInteger();
+		volatile int slowCall = -1;
+		volatile long slowMillis;
+		volatile boolean failFast;
+
+		SlowForecastingApi() {
+			super(new StubForecastingApi());
+		}
+
+		@Override
+		public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+				throws IOException {
+			int call = calls.incrementAndGet();
+			long millis = call == slowCall || slowCall == 0 ? slowMillis : 1;
+			if (failFast && call != slowCall) {
+				throw new IOException("Connection reset");
+			}
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return super.GetForecasts(identity, datasetName, serieNames);
+		}
+
+		@Override
+		public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+				Boolean enableMerge) throws IOException {
+			upsertThreads.set(System.identityHashCode(Thread.currentThread()));
+			return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		executor = VirtualThreads.NewExecutor();
+		slow = new SlowForecastingApi();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	private static String[] names() {
+		return new String[] { "Test0" };
+	}
+
+	private static void warmUp(HedgedForecastingApi api) throws IOException {
+		for (int i = 0; i < 20; i++) {
+			assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		}
+		assertEquals(0, api.GetHedgeCount());
+	}
+
+	@Test
+	public void testSlowCallHedged() throws IOException {
+		HedgedForecastingApi api = new HedgedForecastingApi(slow, executor, 90, 0.5);
+		warmUp(api);
+		assertEquals(20, api.GetLatencies(ApiOperations.GetForecasts).GetCount());
+
+		slow.slowCall = 21;
+		slow.slowMillis = 5000;
+		long start = System.nanoTime();
+		ForecastCollection collection = api.GetForecasts("key", "dataset", names());
+		assertNull(collection.ErrorCode);
+		assertEquals(1, collection.Series.length);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(1, api.GetHedgeCount());
+		assertEquals(1, api.GetHedgeWinCount());
+		assertEquals(22, slow.calls.get());
+	}
+
+	@Test
+	public void testUnhedgedCallsRunInline() throws IOException {
+		final AtomicInteger submitted = new AtomicInteger();
+		HedgedForecastingApi api = new HedgedForecastingApi(slow, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				submitted.incrementAndGet();
+				executor.execute(command);
+			}
+		}, 90, 0.5);
+		warmUp(api);
+		assertEquals(0, submitted.get());
+
+		assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertEquals(1, submitted.get());
+	}
+
+	@Test
+	public void testBudgetCapsHedges() throws IOException {
+		HedgedForecastingApi api = new HedgedForecastingApi(slow, executor, 50, 0.25);
+		warmUp(api);
+
+		// 5 hedges earned by the warm-up, 2 more by the slow calls
+		slow.slowCall = 0;
+		slow.slowMillis = 20;
+		for (int i = 0; i < 10; i++) {
+			assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		}
+		assertEquals(7, api.GetHedgeCount());
+		assertEquals(37, slow.calls.get());
+	}
+
+	@Test
+	public void testFailedHedgeDoesNotWin() throws IOException {
+		HedgedForecastingApi api = new HedgedForecastingApi(slow, executor, 90, 1);
+		warmUp(api);
+
+		// the hedge fails at once, the call answers later
+		slow.slowCall = 21;
+		slow.slowMillis = 100;
+		slow.failFast = true;
+		assertNull(api.GetForecasts("key", "dataset", names()).ErrorCode);
+		assertEquals(1, api.GetHedgeCount());
+		assertEquals(0, api.GetHedgeWinCount());
+
+		// without a call left, the failure is thrown
+		try {
+			api.GetForecasts("key", "dataset", names());
+			fail("#A00");
+		} catch (IOException e) {
+			assertEquals("Connection reset", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testWritesNotHedged() throws IOException {
+		HedgedForecastingApi api = new HedgedForecastingApi(slow, executor, 90, 1);
+		assertNull(api.GetLatencies(ApiOperations.UpsertTimeSeries));
+		assertNull(api.UpsertTimeSeries("key", "dataset", ForecastingClientStubTest.createSeries(1, 1), false));
+		assertEquals(System.identityHashCode(Thread.currentThread()), slow.upsertThreads.get());
+	}
+
+	@Test
+	public void testContextAndBytesFollowTheCall() throws IOException {
+		final RequestContext[] contexts = new RequestContext[1];
+		HedgedForecastingApi api = new HedgedForecastingApi(new LoadHarness.TimedForecastingApi(slow) {
+			@Override
+			public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
+				contexts[0] = RequestContext.GetCurrent();
+				ForecastingApi.AddTransferredBytes(100);
+				return super.GetForecastStatus(identity, datasetName);
+			}
+		}, executor, 90, 1);
+
+		ForecastingApi.TakeTransferredBytes();
+		RequestContext context = RequestContext.Enter(RequestPriority.Interactive);
+		try {
+			assertTrue(api.GetForecastStatus("key", "dataset").ForecastsReady);
+		} finally {
+			context.close();
+		}
+		assertSame(context, contexts[0]);
+		assertEquals(100, ForecastingApi.TakeTransferredBytes());
+	}
+}
@@ -0,0 +1,63 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HistogramMetricsListenerTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 1000000; value += 7) {
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(LatencyHistogram.bucketValue(index) >= value);
+			assertTrue(index == 0 || LatencyHistogram.bucketValue(index - 1) < value);
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketValue(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 10000; value++) {
+			histogram.Record(value * 1000);
+		}
+		assertEquals(10000, histogram.GetCount());
+		assertEquals(10000000, histogram.GetMax());
+		assertEquals(5000000, histogram.GetValueAtPercentile(50), 5000000 * 0.04);
+		assertEquals(9900000, histogram.GetValueAtPercentile(99), 9900000 * 0.04);
+		assertEquals(10000000, histogram.GetValueAtPercentile(100));
+	}
+
+	@Test
+	public void testListener() throws IOException, InterruptedException {
+		LocalForecastingServer server = new LocalForecastingServer(0, 2);
+		server.start();
+		try {
+			HistogramMetricsListener listener = new HistogramMetricsListener();
+			ForecastingApi api = new ForecastingApi(server.getEndpoint());
+			api.SetMetricsListener(listener);
+			ForecastingClient client = new ForecastingClient("key", api);
+
+			Dataset dataset = new Dataset();
+			dataset.Name = "metrics";
+			dataset.Period = PeriodCodes.Week;
+			dataset.Horizon = 4;
+			client.InsertDataset(dataset);
+			client.UpsertTimeSeries("metrics", ForecastingClientStubTest.createSeries(150, 10), false);
+
+			HistogramMetricsListener.OperationStats stats = listener.GetStats(ApiOperations.UpsertTimeSeries);
+			assertEquals(2, stats.TotalLatency.GetCount());
+			assertEquals(2, stats.HttpStatuses.get(200));
+			assertEquals(server.bytesReceived.get() - listener.GetStats(ApiOperations.InsertDataset).RequestBytes.get(),
+					stats.RequestBytes.get());
+			assertTrue(stats.ResponseBytes.get() > 0);
+			assertTrue(stats.TotalLatency.GetMax() >= stats.FirstByteLatency.GetMax());
+		} finally {
+			server.stop();
+		}
+	}
+}
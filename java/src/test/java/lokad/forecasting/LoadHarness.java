@@ -0,0 +1,289 @@
+package lokad.forecasting;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end load harness driving {@link ForecastingClient} against a
+ * {@link LocalForecastingServer} shaped like a WAN link.
+ * <p>
+ * Each round uploads the series, waits for the forecasts and downloads them.
+ * The harness then reports the throughput in series and bytes per second,
+ * and the latency percentiles of every API operation.
+ * </p>
+ * <p>
+ * Settings are passed as <code>key=value</code> arguments:
+ * <ul>
+ * <li>series: number of series (default 1000)</li>
+ * <li>points: number of values per serie (default 100)</li>
+ * <li>rounds: number of rounds (default 3)</li>
+ * <li>latency, jitter: response delay and its random part, in ms (default 0)</li>
+ * <li>bandwidth: transfer rate in bytes per second, 0 meaning unlimited
+ * (default 0)</li>
+ * <li>failures: rate of <code>ServiceFailure</code> responses (default 0)</li>
+ * <li>timeouts: rate of timed out requests (default 0)</li>
+ * <li>readTimeout: client read timeout, in ms (default 5000)</li>
+ * <li>sliceLength: series per upload and download request (default 100)</li>
+ * <li>serverThreads: threads serving the requests (default 16)</li>
+ * </ul>
+ * </p>
+ */
+public class LoadHarness {
+
+	private final Map<String, String> _settings;
+
+	public LoadHarness(Map<String, String> settings) {
+		_settings = settings;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException(String.format("%s is not a key=value setting.", arg));
+			}
+			settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		new LoadHarness(settings).run(System.out);
+	}
+
+	private long getLong(String key, long defaultValue) {
+		String value = _settings.get(key);
+		return null != value ? Long.parseLong(value) : defaultValue;
+	}
+
+	private double getDouble(String key, double defaultValue) {
+		String value = _settings.get(key);
+		return null != value ? Double.parseDouble(value) : defaultValue;
+	}
+
+	public void run(PrintStream out) throws IOException, InterruptedException {
+		int seriesCount = (int) getLong("series", 1000);
+		int points = (int) getLong("points", 100);
+		int rounds = (int) getLong("rounds", 3);
+		int readTimeout = (int) getLong("readTimeout", 5000);
+
+		LocalForecastingServer server = new LocalForecastingServer(0, (int) getLong("serverThreads", 16));
+		server.start();
+		try {
+			TimedForecastingApi api = new TimedForecastingApi(new ForecastingApi(server.getEndpoint(), readTimeout,
+					readTimeout));
+			ForecastingClient client = new ForecastingClient(Base64.encode("auth-with-key@lokad.com:harness"), api);
+			client._seriesSliceLength = (int) getLong("sliceLength", 100);
+
+			Dataset dataset = new Dataset();
+			dataset.Name = "harness";
+			dataset.Period = PeriodCodes.Week;
+			dataset.Horizon = 10;
+			client.InsertDataset(dataset);
+
+			TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(seriesCount, points);
+			String[] serieNames = new String[timeSeries.length];
+			for (int i = 0; i < timeSeries.length; i++) {
+				serieNames[i] = timeSeries[i].Name;
+			}
+
+			// shaping starts once the dataset is set up
+			server.setNetworkProfile(getLong("latency", 0), getLong("jitter", 0), getLong("bandwidth", 0),
+					getDouble("failures", 0), getDouble("timeouts", 0), readTimeout * 2L);
+			api.reset();
+			long bytes = server.bytesReceived.get() + server.bytesSent.get();
+
+			long uploadNanos = 0;
+			long downloadNanos = 0;
+			int failedRounds = 0;
+			for (int round = 0; round < rounds; round++) {
+				try {
+					long start = System.nanoTime();
+					client.UpsertTimeSeries(dataset.Name, timeSeries, false);
+					long uploaded = System.nanoTime();
+					client.GetForecasts(dataset.Name, serieNames);
+					uploadNanos += uploaded - start;
+					downloadNanos += System.nanoTime() - uploaded;
+				} catch (IllegalStateException e) {
+					failedRounds++;
+				} catch (IOException e) {
+					failedRounds++;
+				}
+			}
+			bytes = server.bytesReceived.get() + server.bytesSent.get() - bytes;
+
+			int succeededRounds = rounds - failedRounds;
+			out.println(String.format("%d series x %d points, %d rounds (%d failed)", seriesCount, points, rounds,
+					failedRounds));
+			if (succeededRounds > 0) {
+				out.println(String.format("upload:   %.1f series/s", seriesCount * 1e9 * succeededRounds / uploadNanos));
+				out.println(String.format("download: %.1f series/s", seriesCount * 1e9 * succeededRounds
+						/ downloadNanos));
+				out.println(String.format("traffic:  %.1f bytes/s", bytes * 1e9 / (uploadNanos + downloadNanos)));
+			}
+			api.report(out);
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Decorator recording the latency and the outcome of every call.
+	 */
+	static class TimedForecastingApi implements IForecastingApi {
+
+		private final IForecastingApi _inner;
+		private final Map<String, List<Long>> _latencies = new LinkedHashMap<String, List<Long>>();
+		private final Map<String, Integer> _errors = new HashMap<String, Integer>();
+
+		TimedForecastingApi(IForecastingApi inner) {
+			_inner = inner;
+		}
+
+		synchronized void reset() {
+			_latencies.clear();
+			_errors.clear();
+		}
+
+		private synchronized void record(String operation, long start, String errorCode) {
+			List<Long> latencies = _latencies.get(operation);
+			if (null == latencies) {
+				latencies = new ArrayList<Long>();
+				_latencies.put(operation, latencies);
+			}
+			latencies.add(System.nanoTime() - start);
+
+			if (!ForecastingClient.isStringBlank(errorCode)) {
+				Integer errors = _errors.get(operation);
+				_errors.put(operation, null != errors ? errors + 1 : 1);
+			}
+		}
+
+		synchronized void report(PrintStream out) {
+			out.println(String.format("%-18s %7s %7s %9s %9s %9s", "operation", "calls", "errors", "p50 ms",
+					"p99 ms", "p999 ms"));
+			for (Map.Entry<String, List<Long>> entry : _latencies.entrySet()) {
+				long[] latencies = new long[entry.getValue().size()];
+				for (int i = 0; i < latencies.length; i++) {
+					latencies[i] = entry.getValue().get(i);
+				}
+				Arrays.sort(latencies);
+				Integer errors = _errors.get(entry.getKey());
+				out.println(String.format("%-18s %7d %7d %9.2f %9.2f %9.2f", entry.getKey(), latencies.length,
+						null != errors ? errors : 0, percentile(latencies, 0.5) / 1e6,
+						percentile(latencies, 0.99) / 1e6, percentile(latencies, 0.999) / 1e6));
+			}
+		}
+
+		private static long percentile(long[] sorted, double quantile) {
+			int index = (int) Math.ceil(quantile * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+
+		@Override
+		public String InsertDataset(String identity, Dataset dataset) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				errorCode = _inner.InsertDataset(identity, dataset);
+				return errorCode;
+			} finally {
+				record("InsertDataset", start, errorCode);
+			}
+		}
+
+		@Override
+		public DatasetCollection ListDatasets(String identity, String continuationToken) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				DatasetCollection collection = _inner.ListDatasets(identity, continuationToken);
+				errorCode = collection.ErrorCode;
+				return collection;
+			} finally {
+				record("ListDatasets", start, errorCode);
+			}
+		}
+
+		@Override
+		public String DeleteDataset(String identity, String datasetName) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				errorCode = _inner.DeleteDataset(identity, datasetName);
+				return errorCode;
+			} finally {
+				record("DeleteDataset", start, errorCode);
+			}
+		}
+
+		@Override
+		public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+				Boolean enableMerge) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				errorCode = _inner.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+				return errorCode;
+			} finally {
+				record("UpsertTimeSeries", start, errorCode);
+			}
+		}
+
+		@Override
+		public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken)
+				throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				TimeSerieCollection collection = _inner.ListTimeSeries(identity, datasetName, continuationToken);
+				errorCode = collection.ErrorCode;
+				return collection;
+			} finally {
+				record("ListTimeSeries", start, errorCode);
+			}
+		}
+
+		@Override
+		public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				errorCode = _inner.DeleteTimeSeries(identity, datasetName, serieNames);
+				return errorCode;
+			} finally {
+				record("DeleteTimeSeries", start, errorCode);
+			}
+		}
+
+		@Override
+		public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				ForecastStatus status = _inner.GetForecastStatus(identity, datasetName);
+				errorCode = status.ErrorCode;
+				return status;
+			} finally {
+				record("GetForecastStatus", start, errorCode);
+			}
+		}
+
+		@Override
+		public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+				throws IOException {
+			long start = System.nanoTime();
+			String errorCode = "Exception";
+			try {
+				ForecastCollection collection = _inner.GetForecasts(identity, datasetName, serieNames);
+				errorCode = collection.ErrorCode;
+				return collection;
+			} finally {
+				record("GetForecasts", start, errorCode);
+			}
+		}
+	}
+}
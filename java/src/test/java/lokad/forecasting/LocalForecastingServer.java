@@ -0,0 +1,568 @@
+package lokad.forecasting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
+/**
+ * Embeddable stand-in of the REST Forecasting API v3, keeping the datasets in
+ * memory.
+ * <p>
+ * The server implements the contract used by {@link ForecastingApi}: the
+ * <code>/datasets</code>, <code>/series</code>, <code>/status</code> and
+ * <code>/forecasts</code> resources, continuation-token paging, and the 4MB
+ * and 100-item limits (reported as <code>OutOfRangeInput</code>). Forecasts
+ * are synthetic: the average of the last values repeated over the horizon.
+ * </p>
+ * <p>
+ * It makes the client measurable on a single machine, without an API key.
+ * </p>
+ */
+public class LocalForecastingServer {
+
+	final static int MaxRequestBytes = 4 * 1024 * 1024;
+	final static int MaxItems = 100;
+
+	/**
+	 * Approximate size of a serialized time-value, used to fill the pages of
+	 * <code>ListTimeSeries</code> without exceeding 4MB.
+	 */
+	private final static int ValueBytes = 80;
+
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final Map<String, DatasetState> _datasets = new ConcurrentHashMap<String, DatasetState>();
+
+	private volatile long _forecastDelayMillis;
+
+	// network shaping, see setNetworkProfile
+	private volatile long _latencyMillis;
+	private volatile long _jitterMillis;
+	private volatile long _bandwidthBytesPerSecond;
+	private volatile double _serviceFailureRate;
+	private volatile double _timeoutRate;
+	private volatile long _timeoutMillis;
+
+	final AtomicLong requestCount = new AtomicLong();
+	final AtomicLong bytesReceived = new AtomicLong();
+	final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Creates a server listening on the specified port of the loopback
+	 * interface.
+	 *
+	 * @param port
+	 *            Listening port, 0 to pick any free port.
+	 * @param threads
+	 *            Number of threads serving the requests.
+	 */
+	public LocalForecastingServer(int port, int threads) throws IOException {
+		_server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		_executor = Executors.newFixedThreadPool(threads);
+		_server.setExecutor(_executor);
+		_server.createContext("/forecasting3/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				LocalForecastingServer.this.handle(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		_server.start();
+	}
+
+	public void stop() {
+		_server.stop(0);
+		_executor.shutdownNow();
+	}
+
+	/**
+	 * Endpoint to be passed to {@link ForecastingApi} or
+	 * {@link ForecastingClient}.
+	 */
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + _server.getAddress().getPort() + "/forecasting3";
+	}
+
+	/**
+	 * Delay between the last upsert into a dataset and the moment its
+	 * forecasts are reported as ready.
+	 */
+	public void setForecastDelayMillis(long forecastDelayMillis) {
+		_forecastDelayMillis = forecastDelayMillis;
+	}
+
+	/**
+	 * Shapes the responses to mimic a WAN link and a struggling backend.
+	 *
+	 * @param latencyMillis
+	 *            Fixed delay added to every response.
+	 * @param jitterMillis
+	 *            Random delay, uniformly distributed between 0 and this
+	 *            value, added to every response.
+	 * @param bandwidthBytesPerSecond
+	 *            Transfer rate of the request and response bodies, 0 meaning
+	 *            unlimited.
+	 * @param serviceFailureRate
+	 *            Probability of a request failing with
+	 *            <code>ServiceFailure</code>, without any effect.
+	 * @param timeoutRate
+	 *            Probability of a request being held for
+	 *            <code>timeoutMillis</code> before being processed, so that
+	 *            the client times out.
+	 * @param timeoutMillis
+	 *            Delay of the requests timing out.
+	 */
+	public void setNetworkProfile(long latencyMillis, long jitterMillis, long bandwidthBytesPerSecond,
+			double serviceFailureRate, double timeoutRate, long timeoutMillis) {
+		_latencyMillis = latencyMillis;
+		_jitterMillis = jitterMillis;
+		_bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+		_serviceFailureRate = serviceFailureRate;
+		_timeoutRate = timeoutRate;
+		_timeoutMillis = timeoutMillis;
+	}
+
+	private void shape(long bytes) throws InterruptedException {
+		long delay = _latencyMillis;
+		if (_jitterMillis > 0) {
+			delay += ThreadLocalRandom.current().nextLong(_jitterMillis + 1);
+		}
+		if (_bandwidthBytesPerSecond > 0) {
+			delay += bytes * 1000 / _bandwidthBytesPerSecond;
+		}
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+
+	private static class DatasetState {
+		final Dataset dataset;
+		final TreeMap<String, TimeSerie> series = new TreeMap<String, TimeSerie>();
+		long lastUpsert;
+
+		DatasetState(Dataset dataset) {
+			this.dataset = dataset;
+		}
+	}
+
+	private final static XStream ErrorCodeXStream;
+	private final static XStream DatasetXStream;
+	private final static XStream TimeSeriesXStream;
+	private final static XStream TimeSerieCollectionXStream;
+	private final static XStream StatusXStream;
+	private final static XStream ForecastsXStream;
+
+	static {
+		ErrorCodeXStream = new XStream(new DomDriver());
+		ErrorCodeXStream.alias("ErrorCode", String.class);
+
+		DatasetXStream = new XStream(new DomDriver());
+		DatasetXStream.alias("Dataset", Dataset.class);
+		DatasetXStream.alias("DatasetCollection", DatasetCollection.class);
+
+		TimeSeriesXStream = new XStream(new DomDriver());
+		TimeSeriesXStream.alias("TimeSeries", TimeSerie[].class);
+		TimeSeriesXStream.alias("TimeSerie", TimeSerie.class);
+		TimeSeriesXStream.alias("TimeValue", TimeValue.class);
+		TimeSeriesXStream.alias("EventValue", EventValue.class);
+		TimeSeriesXStream.registerConverter(new DateConverter());
+
+		TimeSerieCollectionXStream = new XStream(new DomDriver());
+		TimeSerieCollectionXStream.alias("TimeSerieCollection", TimeSerieCollection.class);
+		TimeSerieCollectionXStream.alias("TimeSerie", TimeSerie.class);
+		TimeSerieCollectionXStream.alias("TimeValue", TimeValue.class);
+		TimeSerieCollectionXStream.alias("EventValue", EventValue.class);
+		TimeSerieCollectionXStream.registerConverter(new DateConverter());
+
+		StatusXStream = new XStream(new DomDriver());
+		StatusXStream.alias("ForecastStatus", ForecastStatus.class);
+
+		ForecastsXStream = new XStream(new DomDriver());
+		ForecastsXStream.alias("ForecastCollection", ForecastCollection.class);
+		ForecastsXStream.alias("ForecastSerie", ForecastSerie.class);
+		ForecastsXStream.alias("ForecastValue", ForecastValue.class);
+		ForecastsXStream.registerConverter(new DateConverter());
+	}
+
+	/**
+	 * Response of a request, serialized with the XStream instance matching
+	 * the resource.
+	 */
+	private static class Response {
+		final XStream xstream;
+		final Object body;
+
+		Response(XStream xstream, Object body) {
+			this.xstream = xstream;
+			this.body = body;
+		}
+	}
+
+	private static Response errorCode(String errorCode) {
+		return new Response(ErrorCodeXStream, errorCode != null ? errorCode : "");
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		try {
+			byte[] request = readBody(exchange.getRequestBody());
+			bytesReceived.addAndGet(request.length);
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (random.nextDouble() < _timeoutRate) {
+				Thread.sleep(_timeoutMillis);
+			}
+
+			Response response;
+			if (random.nextDouble() < _serviceFailureRate) {
+				response = failure(exchange.getRequestURI().getRawPath().split("/")[2], exchange.getRequestMethod(),
+						ErrorCodes.ServiceFailure);
+			} else {
+				response = dispatch(exchange, request);
+			}
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			response.xstream.toXML(response.body, output);
+			byte[] bytes = output.toByteArray();
+			if (bytes.length > MaxRequestBytes) {
+				output.reset();
+				ErrorCodeXStream.toXML(ErrorCodes.OutOfRangeInput, output);
+				bytes = output.toByteArray();
+			}
+
+			shape(request.length + bytes.length);
+			send(exchange, 200, bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// the client went away, typically after a timeout
+		} catch (RuntimeException e) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ErrorCodeXStream.toXML(ErrorCodes.ServiceFailure, output);
+			send(exchange, 500, output.toByteArray());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream outputStream = exchange.getResponseBody();
+		outputStream.write(bytes);
+		outputStream.close();
+		bytesSent.addAndGet(bytes.length);
+	}
+
+	private static byte[] readBody(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) > 0) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+
+	private Response dispatch(HttpExchange exchange, byte[] request) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getRawPath().substring("/forecasting3/".length());
+		String query = exchange.getRequestURI().getRawQuery();
+		String[] segments = path.split("/");
+		String resource = segments[0];
+		String argument = segments.length > 1 ? segments[1] : null;
+		String continuationToken = segments.length > 2 ? segments[2] : null;
+
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (null == authorization || !authorization.startsWith("Basic ")) {
+			return failure(resource, method, ErrorCodes.AuthenticationFailed);
+		}
+
+		if (request.length > MaxRequestBytes) {
+			return failure(resource, method, ErrorCodes.OutOfRangeInput);
+		}
+
+		if ("datasets".equals(resource)) {
+			if ("PUT".equals(method)) {
+				return insertDataset((Dataset) DatasetXStream.fromXML(new String(request, "UTF-8")));
+			} else if ("GET".equals(method)) {
+				return listDatasets(argument);
+			} else if ("DELETE".equals(method)) {
+				_datasets.remove(argument);
+				return errorCode(null);
+			}
+		} else if ("series".equals(resource)) {
+			if ("PUT".equals(method)) {
+				TimeSerie[] timeSeries = (TimeSerie[]) TimeSeriesXStream.fromXML(new String(request, "UTF-8"));
+				return upsertTimeSeries(argument, timeSeries, "merge=true".equals(query));
+			} else if ("GET".equals(method)) {
+				return listTimeSeries(argument, continuationToken);
+			} else if ("DELETE".equals(method)) {
+				return deleteTimeSeries(argument, getSerieNames(query));
+			}
+		} else if ("status".equals(resource)) {
+			return getForecastStatus(argument);
+		} else if ("forecasts".equals(resource)) {
+			return getForecasts(argument, getSerieNames(query));
+		}
+
+		throw new IllegalArgumentException(method + " " + path);
+	}
+
+	private static Response failure(String resource, String method, String errorCode) {
+		if ("GET".equals(method)) {
+			if ("datasets".equals(resource)) {
+				DatasetCollection collection = new DatasetCollection();
+				collection.ErrorCode = errorCode;
+				return new Response(DatasetXStream, collection);
+			} else if ("series".equals(resource)) {
+				TimeSerieCollection collection = new TimeSerieCollection();
+				collection.ErrorCode = errorCode;
+				return new Response(TimeSerieCollectionXStream, collection);
+			} else if ("status".equals(resource)) {
+				ForecastStatus status = new ForecastStatus();
+				status.ErrorCode = errorCode;
+				return new Response(StatusXStream, status);
+			} else if ("forecasts".equals(resource)) {
+				ForecastCollection collection = new ForecastCollection();
+				collection.ErrorCode = errorCode;
+				return new Response(ForecastsXStream, collection);
+			}
+		}
+		return errorCode(errorCode);
+	}
+
+	private static String[] getSerieNames(String query) throws IOException {
+		if (null == query || !query.startsWith("n=")) {
+			return new String[0];
+		}
+		return URLDecoder.decode(query.substring(2), "UTF-8").split(";");
+	}
+
+	private Response insertDataset(Dataset dataset) {
+		try {
+			ForecastingApiValidators.Validate(dataset);
+		} catch (IllegalArgumentException e) {
+			return errorCode(ErrorCodes.OutOfRangeInput);
+		}
+
+		if (!_datasets.containsKey(dataset.Name)) {
+			_datasets.put(dataset.Name, new DatasetState(dataset));
+		}
+		return errorCode(null);
+	}
+
+	private Response listDatasets(String continuationToken) {
+		List<String> names = new ArrayList<String>(new TreeMap<String, DatasetState>(_datasets).keySet());
+		int from = null != continuationToken ? Integer.parseInt(continuationToken) : 0;
+		int to = Math.min(names.size(), from + MaxItems);
+
+		DatasetCollection collection = new DatasetCollection();
+		collection.Datasets = new Dataset[to - from];
+		for (int i = from; i < to; i++) {
+			collection.Datasets[i - from] = _datasets.get(names.get(i)).dataset;
+		}
+		collection.ContinuationToken = to < names.size() ? String.valueOf(to) : null;
+		return new Response(DatasetXStream, collection);
+	}
+
+	private Response upsertTimeSeries(String datasetName, TimeSerie[] timeSeries, boolean enableMerge) {
+		DatasetState state = _datasets.get(datasetName);
+		if (null == state) {
+			return errorCode(ErrorCodes.DatasetNotFound);
+		}
+		if (timeSeries.length > MaxItems || !ForecastingApiValidators.GetViolations(timeSeries).isEmpty()) {
+			return errorCode(ErrorCodes.OutOfRangeInput);
+		}
+
+		synchronized (state) {
+			for (TimeSerie timeSerie : timeSeries) {
+				TimeSerie existing = state.series.get(timeSerie.Name);
+				if (enableMerge && null != existing) {
+					timeSerie = merge(existing, timeSerie);
+				}
+				state.series.put(timeSerie.Name, timeSerie);
+			}
+			state.lastUpsert = System.currentTimeMillis();
+		}
+		return errorCode(null);
+	}
+
+	/**
+	 * Merges the values of two series, the values of the input taking
+	 * precedence at equal times.
+	 */
+	private static TimeSerie merge(TimeSerie existing, TimeSerie input) {
+		TreeMap<Long, TimeValue> values = new TreeMap<Long, TimeValue>();
+		if (null != existing.Values) {
+			for (TimeValue value : existing.Values) {
+				values.put(value.Time.getTimeInMillis(), value);
+			}
+		}
+		if (null != input.Values) {
+			for (TimeValue value : input.Values) {
+				values.put(value.Time.getTimeInMillis(), value);
+			}
+		}
+
+		TimeSerie merged = new TimeSerie();
+		merged.Name = input.Name;
+		merged.Tags = null != input.Tags ? input.Tags : existing.Tags;
+		merged.Events = null != input.Events ? input.Events : existing.Events;
+		merged.Values = values.values().toArray(new TimeValue[] {});
+		return merged;
+	}
+
+	private Response listTimeSeries(String datasetName, String continuationToken) {
+		DatasetState state = _datasets.get(datasetName);
+		if (null == state) {
+			return failure("series", "GET", ErrorCodes.DatasetNotFound);
+		}
+
+		List<TimeSerie> page = new ArrayList<TimeSerie>();
+		String next = null;
+		synchronized (state) {
+			// the continuation token is the name of the first serie of the
+			// next page
+			Map<String, TimeSerie> series = null != continuationToken ? state.series.tailMap(continuationToken)
+					: state.series;
+			long pageBytes = 0;
+			for (TimeSerie timeSerie : series.values()) {
+				long serieBytes = (null != timeSerie.Values ? timeSerie.Values.length : 0) * (long) ValueBytes;
+				if (page.size() == MaxItems || (!page.isEmpty() && pageBytes + serieBytes > MaxRequestBytes)) {
+					next = timeSerie.Name;
+					break;
+				}
+				page.add(timeSerie);
+				pageBytes += serieBytes;
+			}
+		}
+
+		TimeSerieCollection collection = new TimeSerieCollection();
+		collection.TimeSeries = page.toArray(new TimeSerie[] {});
+		collection.ContinuationToken = next;
+		return new Response(TimeSerieCollectionXStream, collection);
+	}
+
+	private Response deleteTimeSeries(String datasetName, String[] serieNames) {
+		DatasetState state = _datasets.get(datasetName);
+		if (null == state) {
+			return errorCode(ErrorCodes.DatasetNotFound);
+		}
+		if (serieNames.length > MaxItems) {
+			return errorCode(ErrorCodes.OutOfRangeInput);
+		}
+
+		synchronized (state) {
+			for (String serieName : serieNames) {
+				state.series.remove(serieName);
+			}
+		}
+		return errorCode(null);
+	}
+
+	private Response getForecastStatus(String datasetName) {
+		DatasetState state = _datasets.get(datasetName);
+		if (null == state) {
+			return failure("status", "GET", ErrorCodes.DatasetNotFound);
+		}
+
+		ForecastStatus status = new ForecastStatus();
+		synchronized (state) {
+			status.ForecastsReady = System.currentTimeMillis() - state.lastUpsert >= _forecastDelayMillis;
+		}
+		return new Response(StatusXStream, status);
+	}
+
+	private Response getForecasts(String datasetName, String[] serieNames) {
+		DatasetState state = _datasets.get(datasetName);
+		if (null == state) {
+			return failure("forecasts", "GET", ErrorCodes.DatasetNotFound);
+		}
+		if (serieNames.length > MaxItems) {
+			return failure("forecasts", "GET", ErrorCodes.OutOfRangeInput);
+		}
+
+		List<ForecastSerie> forecasts = new ArrayList<ForecastSerie>();
+		synchronized (state) {
+			for (String serieName : serieNames) {
+				TimeSerie timeSerie = state.series.get(serieName);
+				if (null != timeSerie) {
+					forecasts.add(forecast(state.dataset, timeSerie));
+				}
+			}
+		}
+
+		ForecastCollection collection = new ForecastCollection();
+		collection.Series = forecasts.toArray(new ForecastSerie[] {});
+		return new Response(ForecastsXStream, collection);
+	}
+
+	/**
+	 * Synthetic forecast: the average of the last 10 values, repeated over the
+	 * horizon of the dataset.
+	 */
+	private static ForecastSerie forecast(Dataset dataset, TimeSerie timeSerie) {
+		TimeValue[] values = null != timeSerie.Values ? timeSerie.Values : new TimeValue[0];
+		double sum = 0;
+		int count = Math.min(10, values.length);
+		for (int i = values.length - count; i < values.length; i++) {
+			sum += values[i].Value;
+		}
+
+		Calendar time = Calendar.getInstance();
+		if (values.length > 0) {
+			time.setTimeInMillis(values[values.length - 1].Time.getTimeInMillis());
+		}
+
+		ForecastSerie forecast = new ForecastSerie();
+		forecast.Name = timeSerie.Name;
+		forecast.Values = new ForecastValue[dataset.Horizon];
+		for (int i = 0; i < dataset.Horizon; i++) {
+			step(time, dataset.Period);
+			ForecastValue value = new ForecastValue();
+			value.Time = (Calendar) time.clone();
+			value.Value = count > 0 ? sum / count : 0;
+			value.Accuracy = 0.5;
+			forecast.Values[i] = value;
+		}
+		return forecast;
+	}
+
+	private static void step(Calendar time, String period) {
+		if (PeriodCodes.QuarterHour.equals(period)) {
+			time.add(Calendar.MINUTE, 15);
+		} else if (PeriodCodes.HalfHour.equals(period)) {
+			time.add(Calendar.MINUTE, 30);
+		} else if (PeriodCodes.Hour.equals(period)) {
+			time.add(Calendar.HOUR, 1);
+		} else if (PeriodCodes.Day.equals(period)) {
+			time.add(Calendar.DATE, 1);
+		} else if (PeriodCodes.Week.equals(period)) {
+			time.add(Calendar.DATE, 7);
+		} else {
+			time.add(Calendar.MONTH, 1);
+		}
+	}
+}
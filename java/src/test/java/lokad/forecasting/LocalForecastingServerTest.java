@@ -0,0 +1,84 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * End-to-end tests of the client against {@link LocalForecastingServer}.
+ */
+public class LocalForecastingServerTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private final String DsName = "localDataset";
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		client = new ForecastingClient("apiKey", server.getEndpoint());
+
+		Dataset dataset = new Dataset();
+		dataset.Name = DsName;
+		dataset.Horizon = 4;
+		dataset.Period = "week";
+		client.InsertDataset(dataset);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testClient() throws InterruptedException, IOException {
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(250, 20);
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+
+		// 3 pages of series
+		long requests = server.requestCount.get();
+		List<TimeSerie> collection = client.ListTimeSeries(DsName);
+		assertEquals(timeSeries.length, collection.size());
+		assertEquals(requests + 3, server.requestCount.get());
+
+		String[] serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			serieNames[i] = timeSeries[i].Name;
+		}
+		ForecastSerie[] forecasts = client.GetForecasts(DsName, serieNames);
+		assertEquals(timeSeries.length, forecasts.length);
+		assertEquals(4, forecasts[0].Values.length);
+
+		client.DeleteTimeSeries(DsName, serieNames);
+		assertEquals(0, client.ListTimeSeries(DsName).size());
+
+		assertEquals(1, client.ListDatasets().size());
+		client.DeleteDataset(DsName);
+		assertEquals(0, client.ListDatasets().size());
+	}
+
+	@Test
+	public void testLimits() throws IOException {
+		ForecastingApi api = new ForecastingApi(server.getEndpoint());
+		String identity = Base64.encode("auth-with-key@lokad.com:apiKey");
+
+		String errorCode = api.UpsertTimeSeries(identity, DsName, ForecastingClientStubTest.createSeries(101, 2),
+				false);
+		assertEquals(ErrorCodes.OutOfRangeInput, errorCode);
+
+		errorCode = api.UpsertTimeSeries(identity, "unknown", ForecastingClientStubTest.createSeries(1, 2), false);
+		assertEquals(ErrorCodes.DatasetNotFound, errorCode);
+
+		errorCode = api.UpsertTimeSeries(identity, DsName, ForecastingClientStubTest.createSeries(1, 60000), false);
+		assertEquals(ErrorCodes.OutOfRangeInput, errorCode);
+
+		assertTrue(api.GetForecastStatus(identity, DsName).ForecastsReady);
+	}
+}
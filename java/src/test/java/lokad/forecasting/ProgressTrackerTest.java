@@ -0,0 +1,139 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProgressTrackerTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private final List<ProgressReport> reports = new ArrayList<ProgressReport>();
+	private final String DsName = "progressDataset";
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		client = new ForecastingClient("apiKey", server.getEndpoint());
+		client.SetProgressListener(new IProgressListener() {
+			@Override
+			public void ProgressChanged(ProgressReport report) {
+				reports.add(report);
+			}
+		}, 0);
+
+		Dataset dataset = new Dataset();
+		dataset.Name = DsName;
+		dataset.Horizon = 4;
+		dataset.Period = "week";
+		client.InsertDataset(dataset);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testUpsertAndGetForecasts() throws Exception {
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(250, 20);
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+
+		// one report per slice, plus the final one
+		assertEquals(4, reports.size());
+		assertEquals(100, reports.get(0).SeriesDone);
+		assertEquals(250, reports.get(0).SeriesTotal);
+		assertTrue(reports.get(0).BytesDone > 0);
+		assertTrue(reports.get(0).BytesTotal >= reports.get(0).BytesDone);
+		assertTrue(reports.get(0).EtaMillis >= 0);
+		assertEquals(0, reports.get(0).SlicesInFlight);
+		assertFalse(reports.get(2).Completed);
+
+		ProgressReport last = reports.get(3);
+		assertTrue(last.Completed);
+		assertEquals(ApiOperations.UpsertTimeSeries, last.Operation);
+		assertEquals(250, last.SeriesDone);
+		assertEquals(last.BytesDone, last.BytesTotal);
+		assertEquals(0, last.EtaMillis);
+
+		reports.clear();
+		String[] serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			serieNames[i] = timeSeries[i].Name;
+		}
+		client.GetForecasts(DsName, serieNames);
+		last = reports.get(reports.size() - 1);
+		assertTrue(last.Completed);
+		assertEquals(ApiOperations.GetForecasts, last.Operation);
+		assertEquals(250, last.SeriesDone);
+	}
+
+	@Test
+	public void testStoreFailureIsReported() throws Exception {
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(20, 5);
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+		File directory = Files.createTempDirectory("forecasts").toFile();
+		final IOException failure = new IOException("disk full");
+		client.SetForecastStore(new ForecastStore(directory) {
+			@Override
+			public void Put(String datasetName, ForecastSerie[] forecasts) throws IOException {
+				throw failure;
+			}
+		});
+		reports.clear();
+
+		String[] serieNames = new String[timeSeries.length];
+		for (int i = 0; i < timeSeries.length; i++) {
+			serieNames[i] = timeSeries[i].Name;
+		}
+		assertEquals(20, client.GetForecasts(DsName, serieNames).length);
+		ProgressReport last = reports.get(reports.size() - 1);
+		assertTrue(last.Completed);
+		assertSame(failure, last.StoreFailure);
+		directory.delete();
+	}
+
+	@Test
+	public void testListTimeSeriesHasUnknownTotal() throws Exception {
+		client.UpsertTimeSeries(DsName, ForecastingClientStubTest.createSeries(150, 5), false);
+		reports.clear();
+
+		client.ListTimeSeries(DsName);
+		assertEquals(3, reports.size());
+		assertEquals(-1, reports.get(0).SeriesTotal);
+		assertEquals(-1, reports.get(0).EtaMillis);
+		assertEquals(150, reports.get(2).SeriesDone);
+	}
+
+	@Test
+	public void testReportsAreThrottled() throws Exception {
+		ProgressTracker tracker = new ProgressTracker(new IProgressListener() {
+			@Override
+			public void ProgressChanged(ProgressReport report) {
+				reports.add(report);
+			}
+		}, 60000, ApiOperations.UpsertTimeSeries, DsName, 1000);
+		for (int i = 0; i < 10; i++) {
+			tracker.SliceStarted();
+			tracker.SliceCompleted(100, 1000);
+		}
+		assertTrue(reports.isEmpty());
+
+		tracker.Completed();
+		assertEquals(1, reports.size());
+		assertEquals(1000, reports.get(0).SeriesDone);
+		assertEquals(10000, reports.get(0).BytesDone);
+	}
+}
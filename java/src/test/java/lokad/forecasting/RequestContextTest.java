@@ -0,0 +1,264 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestContextTest {
+
+	private ExecutorService executor;
+	private StubForecastingApi api;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = VirtualThreads.NewExecutor();
+		api = new StubForecastingApi();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		assertNull(RequestContext.GetCurrent());
+	}
+
+	@Test
+	public void testNestedContexts() {
+		CancellationToken outerToken = new CancellationToken();
+		CancellationToken innerToken = new CancellationToken();
+		RequestContext outer = RequestContext.Enter(null, 1000, outerToken);
+		try {
+			// the earlier deadline and the token are kept
+			RequestContext inner = RequestContext.Enter(RequestPriority.Bulk, 60000);
+			try {
+				assertTrue(inner.GetRemainingMillis() <= 1000);
+				assertSame(outerToken, inner.GetCancellationToken());
+				assertEquals(RequestPriority.Bulk, inner.GetPriority());
+			} finally {
+				inner.close();
+			}
+
+			inner = RequestContext.Enter(null, innerToken);
+			try {
+				assertSame(innerToken, inner.GetCancellationToken());
+				innerToken.Cancel();
+				assertTrue(inner.IsAborted());
+				assertFalse(outer.IsAborted());
+				assertTrue(inner.NewAbortedException().isCancelled());
+			} finally {
+				inner.close();
+			}
+		} finally {
+			outer.close();
+		}
+	}
+
+	@Test
+	public void testCancelledUpsertReportsDone() throws IOException {
+		final CancellationToken token = new CancellationToken();
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				if (api.upsertCalls.get() == 2) {
+					token.Cancel();
+				}
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+
+		RequestContext context = RequestContext.Enter(null, token);
+		try {
+			client.UpsertTimeSeries("dataset", ForecastingClientStubTest.createSeries(500, 10), false);
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+			assertEquals(300, e.getPartialResult().size());
+			assertEquals("Test0", e.getPartialResult().get(0));
+			assertTrue(e.getReport().Aborted);
+			assertEquals(300, e.getReport().SeriesDone);
+			assertEquals(500, e.getReport().SeriesTotal);
+		} finally {
+			context.close();
+		}
+		assertEquals(3, api.upsertCalls.get());
+	}
+
+	@Test
+	public void testCancelledDeleteReportsDone() throws IOException {
+		final CancellationToken token = new CancellationToken();
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames)
+					throws IOException {
+				if (api.deleteCalls.get() == 1) {
+					token.Cancel();
+				}
+				return super.DeleteTimeSeries(identity, datasetName, serieNames);
+			}
+		});
+		String[] serieNames = new String[250];
+		for (int i = 0; i < serieNames.length; i++) {
+			serieNames[i] = "Test" + i;
+		}
+
+		RequestContext context = RequestContext.Enter(null, token);
+		try {
+			client.DeleteTimeSeries("dataset", serieNames);
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+			assertEquals(200, e.getPartialResult().size());
+			assertEquals("Test199", e.getPartialResult().get(199));
+			assertTrue(e.getReport().Aborted);
+			assertEquals(ApiOperations.DeleteTimeSeries, e.getReport().Operation);
+			assertEquals(200, e.getReport().SeriesDone);
+			assertEquals(250, e.getReport().SeriesTotal);
+		} finally {
+			context.close();
+		}
+		assertEquals(2, api.deleteCalls.get());
+	}
+
+	@Test
+	public void testDeadlineCancelsSlicesInFlight() throws IOException {
+		final AtomicInteger interrupted = new AtomicInteger();
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+					throws IOException {
+				if (!serieNames[0].equals("Test0")) {
+					try {
+						Thread.sleep(10000);
+					} catch (InterruptedException e) {
+						interrupted.incrementAndGet();
+						throw new IOException(e);
+					}
+				}
+				return super.GetForecasts(identity, datasetName, serieNames);
+			}
+		});
+		client.SetExecutor(executor, 4);
+		String[] names = new String[300];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "Test" + i;
+		}
+
+		long start = System.nanoTime();
+		RequestContext context = RequestContext.Enter(null, 200);
+		try {
+			client.GetForecasts("dataset", names);
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertFalse(e.isCancelled());
+			// the first slice was retrieved
+			assertEquals(100, e.getPartialResult().size());
+			assertTrue(e.getPartialResult().get(0) instanceof ForecastSerie);
+			assertEquals(100, e.getReport().SeriesDone);
+		} catch (InterruptedException e) {
+			fail("#A01");
+		} finally {
+			context.close();
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+		// the slices in flight are interrupted
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (interrupted.get() < 2) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.yield();
+		}
+	}
+
+	@Test
+	public void testForecastWaitBounded() throws Exception {
+		final CancellationToken token = new CancellationToken();
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public ForecastStatus GetForecastStatus(String identity, String datasetName) throws IOException {
+				ForecastStatus status = super.GetForecastStatus(identity, datasetName);
+				status.ForecastsReady = false;
+				return status;
+			}
+		});
+
+		// the next poll would come after the deadline
+		long start = System.nanoTime();
+		RequestContext context = RequestContext.Enter(null, 5000);
+		try {
+			client.GetForecasts("dataset", new String[] { "Test0" });
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertFalse(e.isCancelled());
+			assertNotNull(e.getReport());
+			assertEquals(0, e.getPartialResult().size());
+		} finally {
+			context.close();
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+		// the token wakes the wait up
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				token.Cancel();
+			}
+		});
+		start = System.nanoTime();
+		context = RequestContext.Enter(null, token);
+		try {
+			client.GetForecasts("dataset", new String[] { "Test0" });
+			fail("#A01");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+		} finally {
+			context.close();
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(2, api.statusCalls.get());
+		assertEquals(0, api.forecastCalls.get());
+	}
+
+	@Test
+	public void testReadTimeoutCutToDeadline() throws IOException {
+		LocalForecastingServer server = new LocalForecastingServer(0, 4);
+		server.start();
+		try {
+			server.setNetworkProfile(5000, 0, 0, 0, 0, 0);
+			ForecastingClient client = new ForecastingClient("key", new ForecastingApi(server.getEndpoint()));
+
+			long start = System.nanoTime();
+			RequestContext context = RequestContext.Enter(null, 300);
+			try {
+				client.ListTimeSeries("dataset");
+				fail("#A00");
+			} catch (OperationAbortedException e) {
+				assertTrue(e.getCause().getCause() instanceof SocketTimeoutException);
+				assertTrue(e.getReport().Aborted);
+			} finally {
+				context.close();
+			}
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+	private ExecutorService executor;
+	private StubForecastingApi api;
+	private GatedForecastingApi gated;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = VirtualThreads.NewExecutor();
+		api = new StubForecastingApi();
+		gated = new GatedForecastingApi(api);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		gated.open();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Decorator recording the order of the calls, and holding them until
+	 * opened.
+	 */
+	private static class GatedForecastingApi extends LoadHarness.TimedForecastingApi {
+		private final CountDownLatch _gate = new CountDownLatch(1);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		GatedForecastingApi(IForecastingApi inner) {
+			super(inner);
+		}
+
+		void open() {
+			_gate.countDown();
+		}
+
+		private void enter(String call) throws IOException {
+			calls.add(call);
+			int current = inFlight.incrementAndGet();
+			synchronized (maxInFlight) {
+				maxInFlight.set(Math.max(maxInFlight.get(), current));
+			}
+			try {
+				_gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+
+		@Override
+		public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+				Boolean enableMerge) throws IOException {
+			enter(datasetName);
+			return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+		}
+
+		@Override
+		public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames)
+				throws IOException {
+			enter(datasetName);
+			return super.GetForecasts(identity, datasetName, serieNames);
+		}
+	}
+
+	private Future<?> upsert(final IForecastingApi scheduler, final String name) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				scheduler.UpsertTimeSeries("key", name, ForecastingClientStubTest.createSeries(1, 1), false);
+				return null;
+			}
+		});
+	}
+
+	private Future<?> getForecasts(final IForecastingApi scheduler, final String name, final long timeoutMillis) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				RequestContext context = timeoutMillis > 0 ? RequestContext.Enter(null, timeoutMillis)
+						: RequestContext.Enter(null);
+				try {
+					scheduler.GetForecasts("key", name, new String[] { "Test0" });
+				} finally {
+					context.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	private static void awaitQueued(RequestScheduler scheduler, RequestPriority priority, int count)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (scheduler.GetQueuedCount(priority) < count) {
+			assertTrue("Calls not queued in time.", System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testWeightedFairQueuing() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(gated, 1);
+		scheduler.SetClass(RequestPriority.Interactive, 3, 1);
+
+		// the first call holds the slot while the others queue
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		futures.add(upsert(scheduler, "first"));
+		while (gated.calls.isEmpty()) {
+			Thread.sleep(1);
+		}
+		for (int i = 0; i < 4; i++) {
+			futures.add(upsert(scheduler, "bulk"));
+		}
+		awaitQueued(scheduler, RequestPriority.Bulk, 4);
+		for (int i = 0; i < 8; i++) {
+			futures.add(getForecasts(scheduler, "interactive", 0));
+		}
+		awaitQueued(scheduler, RequestPriority.Interactive, 8);
+
+		gated.open();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+
+		// three interactive calls per bulk one while both are queued, the bulk
+		// class having had the first call
+		List<String> expected = new ArrayList<String>();
+		expected.add("first");
+		expected.addAll(Collections.nCopies(4, "interactive"));
+		expected.add("bulk");
+		expected.addAll(Collections.nCopies(3, "interactive"));
+		expected.add("bulk");
+		expected.add("interactive");
+		expected.addAll(Collections.nCopies(2, "bulk"));
+		assertEquals(expected, gated.calls);
+		assertEquals(1, gated.maxInFlight.get());
+	}
+
+	@Test
+	public void testClassLimits() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(gated, 4);
+		scheduler.SetClass(RequestPriority.Bulk, 1, 2);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(upsert(scheduler, "bulk"));
+		}
+		awaitQueued(scheduler, RequestPriority.Bulk, 8);
+		assertEquals(2, scheduler.GetInFlightCount(RequestPriority.Bulk));
+
+		// the slots left to the other classes are not taken by the bulk calls
+		for (int i = 0; i < 2; i++) {
+			futures.add(getForecasts(scheduler, "interactive", 0));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (scheduler.GetInFlightCount(RequestPriority.Interactive) < 2) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(0, scheduler.GetQueuedCount(RequestPriority.Interactive));
+
+		gated.open();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		assertEquals(10, api.upsertCalls.get());
+		assertEquals(4, gated.maxInFlight.get());
+	}
+
+	@Test
+	public void testDeadlines() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(gated, 1);
+		scheduler.SetPriority(ApiOperations.GetForecasts, RequestPriority.Bulk);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		futures.add(upsert(scheduler, "first"));
+		while (gated.calls.isEmpty()) {
+			Thread.sleep(1);
+		}
+		for (int i = 0; i < 3; i++) {
+			futures.add(upsert(scheduler, "bulk"));
+		}
+		awaitQueued(scheduler, RequestPriority.Bulk, 3);
+
+		// expires while queued, never sent
+		Future<?> expired = getForecasts(scheduler, "expired", 20);
+		try {
+			expired.get();
+			fail("#A00");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof OperationAbortedException);
+			assertFalse(((OperationAbortedException) e.getCause()).isCancelled());
+		}
+		assertEquals(1, scheduler.GetExpiredCount(RequestPriority.Bulk));
+
+		// cancelled while queued, never sent
+		final CancellationToken token = new CancellationToken();
+		Future<?> cancelled = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				RequestContext context = RequestContext.Enter(null, token);
+				try {
+					scheduler.GetForecasts("key", "cancelled", new String[] { "Test0" });
+				} finally {
+					context.close();
+				}
+				return null;
+			}
+		});
+		awaitQueued(scheduler, RequestPriority.Bulk, 4);
+		token.Cancel();
+		try {
+			cancelled.get();
+			fail("#A01");
+		} catch (ExecutionException e) {
+			assertTrue(((OperationAbortedException) e.getCause()).isCancelled());
+		}
+		assertEquals(1, scheduler.GetExpiredCount(RequestPriority.Bulk));
+
+		// moves ahead of the queued calls of its class
+		futures.add(getForecasts(scheduler, "urgent", 60000));
+		awaitQueued(scheduler, RequestPriority.Bulk, 4);
+		gated.open();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		assertEquals("urgent", gated.calls.get(1));
+		assertFalse(gated.calls.contains("expired"));
+		assertFalse(gated.calls.contains("cancelled"));
+	}
+
+	@Test
+	public void testContextInheritedBySlices() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(api, 4);
+		final List<RequestPriority> priorities = Collections.synchronizedList(new ArrayList<RequestPriority>());
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(scheduler) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				priorities.add(RequestContext.GetCurrent().GetPriority());
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+		client.SetExecutor(executor, 4);
+
+		RequestContext context = RequestContext.Enter(RequestPriority.Interactive);
+		try {
+			client.UpsertTimeSeries("dataset", ForecastingClientStubTest.createSeries(500, 10), false);
+		} finally {
+			context.close();
+		}
+		assertEquals(Collections.nCopies(5, RequestPriority.Interactive), priorities);
+		assertEquals(null, RequestContext.GetCurrent());
+	}
+}
@@ -0,0 +1,186 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SerializationPipelineTest {
+
+	private LocalForecastingServer server;
+	private ForecastingClient client;
+	private BufferPool pool;
+	private ExecutorService executor;
+	private final AtomicInteger serializations = new AtomicInteger();
+	private final String DsName = "pipelineDataset";
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalForecastingServer(0, 4);
+		server.start();
+		pool = new BufferPool(64 * 1024, 64);
+		ForecastingApi api = new ForecastingApi(server.getEndpoint());
+		api.SetBufferPool(pool);
+		client = new ForecastingClient("apiKey", api);
+		executor = VirtualThreads.NewExecutor();
+		client.SetSerializationPipeline(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				serializations.incrementAndGet();
+				executor.execute(command);
+			}
+		}, 2);
+
+		Dataset dataset = new Dataset();
+		dataset.Name = DsName;
+		dataset.Horizon = 4;
+		dataset.Period = "week";
+		client.InsertDataset(dataset);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		server.stop();
+	}
+
+	@Test
+	public void testPipelinedUpload() throws Exception {
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(550, 20);
+		timeSeries[3].Tags = new String[] { "Tag0" };
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+		assertEquals(1, serializations.get());
+		assertEquals(pool.GetDirectBufferCount(), pool.GetAvailableCount());
+
+		List<TimeSerie> uploaded = client.ListTimeSeries(DsName);
+		assertEquals(550, uploaded.size());
+		Map<String, TimeSerie> byName = new HashMap<String, TimeSerie>();
+		for (TimeSerie serie : uploaded) {
+			byName.put(serie.Name, serie);
+		}
+		for (TimeSerie expected : timeSeries) {
+			TimeSerie actual = byName.get(expected.Name);
+			assertEquals(expected.Values.length, actual.Values.length);
+			assertEquals(expected.Values[7].Value, actual.Values[7].Value, 0.0);
+		}
+		assertEquals("Tag0", byName.get(timeSeries[3].Name).Tags[0]);
+	}
+
+	@Test
+	public void testSameRequestsAsWithoutPipeline() throws Exception {
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(250, 20);
+		long received = server.bytesReceived.get();
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+		long pipelined = server.bytesReceived.get() - received;
+
+		client.SetSerializationPipeline(null, 0);
+		received = server.bytesReceived.get();
+		client.UpsertTimeSeries(DsName, timeSeries, false);
+		assertEquals(server.bytesReceived.get() - received, pipelined);
+	}
+
+	@Test
+	public void testBuffersGivenBackOnFailure() throws Exception {
+		server.setNetworkProfile(0, 0, 0, 1.0, 0, 0);
+		try {
+			client.UpsertTimeSeries(DsName, ForecastingClientStubTest.createSeries(1000, 20), false);
+			fail("#A00");
+		} catch (IllegalStateException e) {
+			assertEquals(ErrorCodes.ServiceFailure, e.getMessage());
+		}
+		// the worker gives back the buffers it still holds once it notices
+		for (int i = 0; i < 100 && pool.GetAvailableCount() < pool.GetDirectBufferCount(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(pool.GetDirectBufferCount(), pool.GetAvailableCount());
+	}
+
+	@Test
+	public void testWorkerStopsOnClose() throws Exception {
+		final CountDownLatch stopped = new CountDownLatch(1);
+		client.SetSerializationPipeline(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						command.run();
+						stopped.countDown();
+					}
+				});
+			}
+		}, 2);
+		// the first slice fails, the worker waiting for a buffer meanwhile
+		server.setNetworkProfile(0, 0, 0, 1.0, 0, 0);
+		try {
+			client.UpsertTimeSeries(DsName, ForecastingClientStubTest.createSeries(1000, 20), false);
+			fail("#A00");
+		} catch (IllegalStateException e) {
+			assertEquals(ErrorCodes.ServiceFailure, e.getMessage());
+		}
+		assertTrue(stopped.await(5, TimeUnit.SECONDS));
+		assertEquals(pool.GetDirectBufferCount(), pool.GetAvailableCount());
+	}
+
+	@Test
+	public void testConcurrentUploads() throws Exception {
+		// fewer buffers than uploads, and uploads sharing two call slots
+		client.SetExecutor(executor, 2);
+		client.SetSerializationPipeline(executor, 3);
+		List<Future<Void>> uploads = new ArrayList<Future<Void>>();
+		for (int i = 0; i < 6; i++) {
+			uploads.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					client.UpsertTimeSeries(DsName, ForecastingClientStubTest.createSeries(2000, 5), false);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> upload : uploads) {
+			upload.get(60, TimeUnit.SECONDS);
+		}
+		assertEquals(2000, client.ListTimeSeries(DsName).size());
+		assertEquals(pool.GetDirectBufferCount(), pool.GetAvailableCount());
+	}
+
+	@Test
+	public void testPooledSliceReuse() throws IOException {
+		TimeSerie[] slice = ForecastingClientStubTest.createSeries(100, 20);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ForecastingApi.SerializeTimeSeries(slice, expected);
+
+		PooledBytes buffer = new PooledBytes(pool);
+		ForecastingApi.SerializeTimeSeries(slice, buffer);
+		buffer.Release();
+		int allocated = pool.GetDirectBufferCount();
+		for (int i = 0; i < 3; i++) {
+			ForecastingApi.SerializeTimeSeries(slice, buffer);
+			assertEquals(expected.size(), buffer.GetLength());
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			buffer.WriteTo(actual);
+			assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+			buffer.Release();
+		}
+		assertEquals(allocated, pool.GetDirectBufferCount());
+		assertEquals(0, pool.GetHeapBufferCount());
+	}
+}
@@ -0,0 +1,210 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SliceControllerTest {
+
+	private ExecutorService executor;
+	private StubForecastingApi api;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = VirtualThreads.NewExecutor();
+		api = new StubForecastingApi();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testAdditiveIncreaseMultiplicativeDecrease() throws InterruptedException {
+		SliceController controller = new SliceController(8, 20);
+		assertEquals(100, controller.GetSeriesSliceLength());
+		assertEquals(10, controller.GetMidSeriesSliceLength());
+		assertEquals(8, controller.GetConcurrency());
+
+		controller.Failed(new SocketTimeoutException("Read timed out"));
+		assertEquals(50, controller.GetSeriesSliceLength());
+		assertEquals(5, controller.GetMidSeriesSliceLength());
+		assertEquals(4, controller.GetConcurrency());
+
+		// the slices in flight during the timeout do not decrease again
+		controller.Failed(new SocketTimeoutException("Read timed out"));
+		controller.Completed(100, 0, 1000000000L);
+		assertEquals(50, controller.GetSeriesSliceLength());
+		assertEquals(4, controller.GetConcurrency());
+
+		// not a matter of load
+		Thread.sleep(25);
+		controller.Failed(new IllegalArgumentException(ErrorCodes.OutOfRangeInput));
+		controller.Failed(new IllegalStateException(ErrorCodes.AuthenticationFailed));
+		assertEquals(50, controller.GetSeriesSliceLength());
+		assertEquals(4, controller.GetConcurrency());
+
+		controller.Failed(new IllegalStateException(ErrorCodes.ServiceFailure));
+		assertEquals(50, controller.GetSeriesSliceLength());
+		assertEquals(2, controller.GetConcurrency());
+
+		// a serie per slice, a request per window
+		for (int i = 0; i < 5; i++) {
+			controller.Completed(100, 0, 0);
+		}
+		assertEquals(55, controller.GetSeriesSliceLength());
+		assertEquals(3, controller.GetConcurrency());
+
+		Thread.sleep(25);
+		controller.Completed(100, 0, 1000000000L);
+		assertEquals(27, controller.GetSeriesSliceLength());
+		assertEquals(3, controller.GetConcurrency());
+
+		for (int i = 0; i < 1000; i++) {
+			controller.Completed(100, 0, 0);
+		}
+		assertEquals(100, controller.GetSeriesSliceLength());
+		assertEquals(8, controller.GetConcurrency());
+
+		for (int i = 0; i < 20; i++) {
+			Thread.sleep(25);
+			controller.Failed(new SocketTimeoutException("Read timed out"));
+		}
+		assertEquals(1, controller.GetSeriesSliceLength());
+		assertEquals(1, controller.GetMidSeriesSliceLength());
+		assertEquals(1, controller.GetConcurrency());
+	}
+
+	@Test
+	public void testSlicesCutBelowRequestSize() {
+		SliceController controller = new SliceController(1, 1000);
+		TimeSerie[] timeSeries = ForecastingClientStubTest.createSeries(100, 1000);
+		timeSeries[50] = ForecastingClientStubTest.createSeries(1, 2000)[0];
+		timeSeries[50].Name = "Large";
+
+		// 100 bytes per value, 31457 values per request at most
+		controller.Completed(1000, 100000, 0);
+		assertEquals(31457, controller.GetMaxSliceValues());
+
+		SlicePacker packer = new SlicePacker(Arrays.asList(timeSeries).iterator(), "dataset", controller, false);
+		List<Integer> lengths = new ArrayList<Integer>();
+		while (packer.hasNext()) {
+			TimeSerie[] slice = packer.next();
+			assertTrue(SlicePacker.CountValues(Arrays.asList(slice)) <= 31457);
+			lengths.add(slice.length);
+		}
+		assertEquals(Arrays.asList(31, 31, 31, 1, 6), lengths);
+		assertEquals(100, packer.GetSeriesCount());
+	}
+
+	@Test
+	public void testSlicesShortenedWhenSlow() throws IOException {
+		final List<Integer> lengths = Collections.synchronizedList(new ArrayList<Integer>());
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				lengths.add(timeSeries.length);
+				try {
+					// a millisecond per 10 series
+					Thread.sleep(timeSeries.length / 10);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+		SliceController controller = new SliceController(1, 4);
+		client.SetSliceController(controller);
+
+		client.UpsertTimeSeries("dataset", ForecastingClientStubTest.createSeries(3000, 10), false);
+		assertEquals(3000, api.upsertedSeries.size());
+		assertEquals(100, lengths.get(0).intValue());
+		int tail = 0;
+		for (int length : lengths.subList(lengths.size() / 2, lengths.size() - 1)) {
+			tail = Math.max(tail, length);
+		}
+		assertTrue(lengths.toString(), tail < 100);
+	}
+
+	@Test
+	public void testConcurrencyFollowsController() throws Exception {
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				int current = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(maxInFlight.get(), current));
+				}
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+		client.SetExecutor(executor, 8);
+		// every call slower than the target: the concurrency never grows
+		SliceController controller = new SliceController(8, 1);
+		controller.Failed(new IOException("Connection reset"));
+		Thread.sleep(2);
+		controller.Failed(new IOException("Connection reset"));
+		assertEquals(2, controller.GetConcurrency());
+		client.SetSliceController(controller);
+
+		assertEquals(300, client.UpsertTimeSeries("dataset", Arrays.asList(
+				ForecastingClientStubTest.createSeries(300, 10)).iterator(), false));
+		assertEquals(300, api.upsertedSeries.size());
+		assertEquals(2, maxInFlight.get());
+		assertEquals(2, controller.GetConcurrency());
+	}
+
+	@Test
+	public void testUpsertSubscriberFollowsController() throws Exception {
+		final List<Integer> lengths = Collections.synchronizedList(new ArrayList<Integer>());
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				lengths.add(timeSeries.length);
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+		SliceController controller = new SliceController(1, 1000);
+		controller.Failed(new SocketTimeoutException("Read timed out"));
+		client.SetSliceController(controller);
+
+		UpsertSubscriber sink = client.NewUpsertSubscriber("dataset", false);
+		SubmissionPublisher<TimeSerie> publisher = new SubmissionPublisher<TimeSerie>(executor, 16);
+		publisher.subscribe(sink);
+		for (TimeSerie timeSerie : ForecastingClientStubTest.createSeries(250, 10)) {
+			publisher.submit(timeSerie);
+		}
+		publisher.close();
+		sink.Await();
+
+		assertEquals(250, api.upsertedSeries.size());
+		// cut with the lengths of the controller, not by 100
+		assertEquals(50, lengths.get(0).intValue());
+	}
+}
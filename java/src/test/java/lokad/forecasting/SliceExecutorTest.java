@@ -0,0 +1,294 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SliceExecutorTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = VirtualThreads.NewExecutor();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrencyLimitAndOrder() throws IOException {
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		List<Callable<Integer>> calls = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 200; i++) {
+			final int index = i;
+			calls.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = inFlight.incrementAndGet();
+					while (true) {
+						int max = maxInFlight.get();
+						if (current <= max || maxInFlight.compareAndSet(max, current)) {
+							break;
+						}
+					}
+					Thread.sleep(1);
+					inFlight.decrementAndGet();
+					return index;
+				}
+			});
+		}
+
+		SliceExecutor sliceExecutor = new SliceExecutor(executor, 8);
+		List<Integer> results = sliceExecutor.InvokeAll(calls);
+		assertEquals(200, results.size());
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(i, results.get(i).intValue());
+		}
+		assertTrue(maxInFlight.get() <= 8);
+		assertEquals(8, sliceExecutor.GetAvailablePermits());
+	}
+
+	@Test
+	public void testAbortKeepsConcurrencyLimit() throws Exception {
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 20; i++) {
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					int current = inFlight.incrementAndGet();
+					while (true) {
+						int max = maxInFlight.get();
+						if (current <= max || maxInFlight.compareAndSet(max, current)) {
+							break;
+						}
+					}
+					// a call ignoring the interrupt, as a blocking write would
+					long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+					while (System.nanoTime() < end) {
+						Thread.yield();
+					}
+					inFlight.decrementAndGet();
+					return null;
+				}
+			});
+		}
+
+		final SliceExecutor sliceExecutor = new SliceExecutor(executor, 2);
+		final CancellationToken token = new CancellationToken();
+		executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Thread.sleep(100);
+				token.Cancel();
+				return null;
+			}
+		});
+		RequestContext context = RequestContext.Enter(null, token);
+		try {
+			sliceExecutor.InvokeAll(calls);
+			fail("#A00");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+		} finally {
+			context.close();
+		}
+
+		// the cancelled calls still hold their slots
+		sliceExecutor.InvokeAll(calls.subList(0, 4));
+		assertTrue(String.valueOf(maxInFlight.get()), maxInFlight.get() <= 2);
+		assertEquals(2, sliceExecutor.GetAvailablePermits());
+	}
+
+	@Test
+	public void testQueuedCallsLeaveOnCancel() throws Exception {
+		final SliceExecutor sliceExecutor = new SliceExecutor(executor, 1);
+		final CountDownLatch holding = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Future<?> holder = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				return sliceExecutor.Invoke(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						holding.countDown();
+						release.await();
+						return null;
+					}
+				});
+			}
+		});
+		assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+		// no deadline: only the token gets the call out of the queue
+		final CancellationToken token = new CancellationToken();
+		cancelLater(token, 100);
+		RequestContext context = RequestContext.Enter(null, token);
+		try {
+			sliceExecutor.Invoke(new Callable<Void>() {
+				@Override
+				public Void call() {
+					fail("#A00");
+					return null;
+				}
+			});
+			fail("#A01");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+		} finally {
+			context.close();
+		}
+		assertEquals(0, sliceExecutor.GetAvailablePermits());
+		release.countDown();
+		holder.get(5, TimeUnit.SECONDS);
+		assertEquals(1, sliceExecutor.GetAvailablePermits());
+
+		// waiting for the controller
+		SliceController controller = new SliceController(1, 60000);
+		final CountDownLatch started = new CountDownLatch(1);
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 2; i++) {
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					started.countDown();
+					new CountDownLatch(1).await();
+					return null;
+				}
+			});
+		}
+		SliceExecutor concurrent = new SliceExecutor(executor, 4);
+		final CancellationToken other = new CancellationToken();
+		cancelLater(other, 100);
+		context = RequestContext.Enter(null, other);
+		try {
+			concurrent.InvokeEach(calls.iterator(), controller);
+			fail("#A02");
+		} catch (OperationAbortedException e) {
+			assertTrue(e.isCancelled());
+		} finally {
+			context.close();
+		}
+		assertEquals(0, started.getCount());
+		// the cancelled call gives its slots back once it exits
+		for (int i = 0; i < 100 && concurrent.GetAvailablePermits() < 4; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(4, concurrent.GetAvailablePermits());
+		assertEquals(1, controller.GetConcurrency());
+	}
+
+	private void cancelLater(final CancellationToken token, final long millis) {
+		executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Thread.sleep(millis);
+				token.Cancel();
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testFailureSkipsRemainingSlices() throws IOException {
+		final AtomicInteger started = new AtomicInteger();
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 1000; i++) {
+			final int index = i;
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					started.incrementAndGet();
+					if (index == 3) {
+						throw new IllegalStateException(ErrorCodes.ServiceFailure);
+					}
+					Thread.sleep(5);
+					return null;
+				}
+			});
+		}
+
+		SliceExecutor sliceExecutor = new SliceExecutor(executor, 4);
+		try {
+			sliceExecutor.InvokeAll(calls);
+			fail("#A00");
+		} catch (IllegalStateException e) {
+			assertEquals(ErrorCodes.ServiceFailure, e.getMessage());
+		}
+		assertTrue(started.get() < 1000);
+		assertEquals(4, sliceExecutor.GetAvailablePermits());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimit() {
+		new SliceExecutor(executor, 0);
+	}
+
+	@Test
+	public void testInvokeEachPullsWhenASlotIsFree() throws IOException {
+		final AtomicInteger pulled = new AtomicInteger();
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger maxPending = new AtomicInteger();
+		Iterator<Callable<Void>> calls = new Iterator<Callable<Void>>() {
+			@Override
+			public boolean hasNext() {
+				return pulled.get() < 100;
+			}
+
+			@Override
+			public Callable<Void> next() {
+				final int index = pulled.incrementAndGet();
+				synchronized (maxPending) {
+					maxPending.set(Math.max(maxPending.get(), index - completed.get()));
+				}
+				return new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Thread.sleep(1);
+						if (index == 60) {
+							throw new IOException("Connection reset");
+						}
+						completed.incrementAndGet();
+						return null;
+					}
+				};
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		SliceExecutor sliceExecutor = new SliceExecutor(executor, 4);
+		try {
+			sliceExecutor.InvokeEach(calls);
+			fail("#A00");
+		} catch (IOException e) {
+			assertEquals("Connection reset", e.getMessage());
+		}
+		assertTrue(String.valueOf(maxPending.get()), maxPending.get() <= 4);
+		assertTrue(String.valueOf(pulled.get()), pulled.get() < 100);
+		assertEquals(4, sliceExecutor.GetAvailablePermits());
+	}
+}
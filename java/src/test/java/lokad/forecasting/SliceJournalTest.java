@@ -0,0 +1,191 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SliceJournalTest {
+
+	private File directory;
+	private File file;
+	private TimeSerie[] timeSeries;
+	private StubForecastingApi api;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal").toFile();
+		file = new File(directory, "upsert.journal");
+		timeSeries = ForecastingClientStubTest.createSeries(550, 10);
+		api = new StubForecastingApi();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Upserts through a client failing on the given call.
+	 */
+	private void upsertFailingOn(final int failingCall) throws IOException {
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			private int calls;
+
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				if (++calls == failingCall) {
+					throw new IOException("Connection reset");
+				}
+				return super.UpsertTimeSeries(identity, datasetName, timeSeries, enableMerge);
+			}
+		});
+		SliceJournal journal = new SliceJournal(file, 1000, 1000000);
+		try {
+			client.UpsertTimeSeries("dataset", timeSeries, false, journal);
+			fail("#A00");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testResumeUnacknowledgedSlices() throws IOException {
+		upsertFailingOn(3);
+		assertEquals(200, api.upsertedSeries.size());
+
+		SliceJournal journal = new SliceJournal(file);
+		assertEquals(200, journal.GetAcknowledgedCount("dataset"));
+		new ForecastingClient("key", api).UpsertTimeSeries("dataset", timeSeries, false, journal);
+
+		assertEquals(550, api.upsertedSeries.size());
+		Set<String> names = new HashSet<String>();
+		for (TimeSerie serie : api.upsertedSeries) {
+			assertTrue(serie.Name, names.add(serie.Name));
+		}
+		// the run is complete
+		assertEquals(0, journal.GetAcknowledgedCount("dataset"));
+		assertEquals(0, journal.GetAcknowledgedCount("other"));
+		journal.close();
+	}
+
+	@Test
+	public void testChangedSeriesAreSentAgain() throws IOException {
+		upsertFailingOn(3);
+		assertEquals(2, api.upsertCalls.get());
+
+		// the resumed run skips the acknowledged series, unless changed
+		timeSeries[42].Values[3].Value = -1;
+		SliceJournal journal = new SliceJournal(file);
+		ForecastingClient client = new ForecastingClient("key", api);
+		client.UpsertTimeSeries("dataset", timeSeries, false, journal);
+		assertEquals(6, api.upsertCalls.get());
+		assertEquals(timeSeries[42].Name, api.upsertedSeries.get(200).Name);
+		journal.close();
+	}
+
+	@Test
+	public void testCompletedRunIsForgotten() throws IOException {
+		SliceJournal journal = new SliceJournal(file);
+		ForecastingClient client = new ForecastingClient("key", api);
+		client.UpsertTimeSeries("dataset", timeSeries, false, journal);
+		assertEquals(6, api.upsertCalls.get());
+		assertEquals(0, journal.GetAcknowledgedCount("dataset"));
+
+		// a later upsert of the same series is not skipped
+		client.UpsertTimeSeries("dataset", timeSeries, false, journal);
+		assertEquals(12, api.upsertCalls.get());
+		journal.close();
+		assertEquals(0, file.length());
+	}
+
+	@Test
+	public void testTornTailIsDropped() throws IOException {
+		upsertFailingOn(4);
+		long length = file.length();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// a record whose write was interrupted
+			raf.seek(length);
+			raf.writeInt(4000);
+			raf.writeInt(0x1234);
+			raf.write(new byte[100]);
+		} finally {
+			raf.close();
+		}
+
+		SliceJournal journal = new SliceJournal(file);
+		assertEquals(300, journal.GetAcknowledgedCount("dataset"));
+		journal.close();
+		assertEquals(length, file.length());
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		upsertFailingOn(4);
+		SliceJournal journal = new SliceJournal(file);
+		journal.Compact();
+		journal.close();
+
+		// a single record: header, type, dataset, count, then the series
+		long expected = 8 + 1 + 2 + "dataset".length() + 4;
+		for (int i = 0; i < 300; i++) {
+			expected += 2 + timeSeries[i].Name.length() + 8;
+		}
+		assertEquals(expected, file.length());
+		assertEquals(300, new SliceJournal(file).GetAcknowledgedCount("dataset"));
+	}
+
+	@Test
+	public void testJournalFailureIsSuppressed() throws IOException {
+		SliceJournal journal = new SliceJournal(file) {
+			@Override
+			void Failed(String datasetName, TimeSerie[] slice) throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		ForecastingClient client = new ForecastingClient("key", new LoadHarness.TimedForecastingApi(api) {
+			@Override
+			public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries,
+					Boolean enableMerge) throws IOException {
+				throw new IOException("Connection reset");
+			}
+		});
+		try {
+			client.UpsertTimeSeries("dataset", timeSeries, false, journal);
+			fail("#A00");
+		} catch (IOException e) {
+			assertEquals("Connection reset", e.getMessage());
+			assertEquals("Disk full", e.getSuppressed()[0].getMessage());
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testFingerprint() {
+		TimeSerie[] other = ForecastingClientStubTest.createSeries(1, 10);
+		for (int i = 0; i < other[0].Values.length; i++) {
+			other[0].Values[i].Time = timeSeries[0].Values[i].Time;
+		}
+		assertEquals(SliceJournal.Fingerprint(timeSeries[0]), SliceJournal.Fingerprint(other[0]));
+		other[0].Tags = new String[] { "Tag" };
+		assertTrue(SliceJournal.Fingerprint(timeSeries[0]) != SliceJournal.Fingerprint(other[0]));
+	}
+}
@@ -0,0 +1,93 @@
+package lokad.forecasting;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory {@link IForecastingApi} answering instantly, used to test the
+ * client logic without any network.
+ */
+class StubForecastingApi implements IForecastingApi {
+
+	final AtomicInteger statusCalls = new AtomicInteger();
+	final AtomicInteger forecastCalls = new AtomicInteger();
+	final AtomicInteger upsertCalls = new AtomicInteger();
+	final AtomicInteger deleteCalls = new AtomicInteger();
+	final List<String> requestedSeries = new ArrayList<String>();
+	final List<TimeSerie> upsertedSeries = new ArrayList<TimeSerie>();
+
+	@Override
+	public String InsertDataset(String identity, Dataset dataset) {
+		return null;
+	}
+
+	@Override
+	public DatasetCollection ListDatasets(String identity, String continuationToken) {
+		DatasetCollection collection = new DatasetCollection();
+		collection.Datasets = new Dataset[0];
+		return collection;
+	}
+
+	@Override
+	public String DeleteDataset(String identity, String datasetName) {
+		return null;
+	}
+
+	@Override
+	public String UpsertTimeSeries(String identity, String datasetName, TimeSerie[] timeSeries, Boolean enableMerge) {
+		upsertCalls.incrementAndGet();
+		synchronized (upsertedSeries) {
+			for (TimeSerie timeSerie : timeSeries) {
+				upsertedSeries.add(timeSerie);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public TimeSerieCollection ListTimeSeries(String identity, String datasetName, String continuationToken) {
+		TimeSerieCollection collection = new TimeSerieCollection();
+		synchronized (upsertedSeries) {
+			collection.TimeSeries = upsertedSeries.toArray(new TimeSerie[] {});
+		}
+		return collection;
+	}
+
+	@Override
+	public String DeleteTimeSeries(String identity, String datasetName, String[] serieNames) {
+		deleteCalls.incrementAndGet();
+		return null;
+	}
+
+	@Override
+	public ForecastStatus GetForecastStatus(String identity, String datasetName) {
+		statusCalls.incrementAndGet();
+		ForecastStatus status = new ForecastStatus();
+		status.ForecastsReady = true;
+		return status;
+	}
+
+	@Override
+	public ForecastCollection GetForecasts(String identity, String datasetName, String[] serieNames) {
+		forecastCalls.incrementAndGet();
+		ForecastCollection collection = new ForecastCollection();
+		collection.Series = new ForecastSerie[serieNames.length];
+		for (int i = 0; i < serieNames.length; i++) {
+			ForecastSerie forecast = new ForecastSerie();
+			forecast.Name = serieNames[i];
+			forecast.Values = new ForecastValue[1];
+			forecast.Values[0] = new ForecastValue();
+			forecast.Values[0].Time = Calendar.getInstance();
+			forecast.Values[0].Value = i;
+			collection.Series[i] = forecast;
+		}
+		synchronized (requestedSeries) {
+			for (String serieName : serieNames) {
+				requestedSeries.add(serieName);
+			}
+		}
+		return collection;
+	}
+}
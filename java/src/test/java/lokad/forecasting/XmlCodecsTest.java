@@ -0,0 +1,215 @@
+package lokad.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
+/**
+ * Checks the generated codecs against XStream, configured as
+ * {@link ForecastingApi} used to be.
+ */
+public class XmlCodecsTest {
+
+	private final static XStream ErrorCodeReference = new XStream(new DomDriver());
+	// the other aliases never conflict, hence a single instance for the rest
+	private final static XStream Reference = new XStream(new DomDriver());
+
+	static {
+		ErrorCodeReference.alias("ErrorCode", String.class);
+		Reference.alias("Dataset", Dataset.class);
+		Reference.alias("DatasetCollection", DatasetCollection.class);
+		Reference.alias("TimeSeries", TimeSerie[].class);
+		Reference.alias("TimeSerie", TimeSerie.class);
+		Reference.alias("TimeValue", TimeValue.class);
+		Reference.alias("EventValue", EventValue.class);
+		Reference.alias("TimeSerieCollection", TimeSerieCollection.class);
+		Reference.alias("ForecastStatus", ForecastStatus.class);
+		Reference.alias("ForecastCollection", ForecastCollection.class);
+		Reference.alias("ForecastSerie", ForecastSerie.class);
+		Reference.alias("ForecastValue", ForecastValue.class);
+		Reference.registerConverter(new DateConverter());
+	}
+
+	private final Random random = new Random(42);
+
+	private static String reference(Object value) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Reference.toXML(value, output);
+		return output.toString();
+	}
+
+	private String text() {
+		String[] samples = { "", "Lilo", "A&B", "<tag>", "\"quoted\"", "it's", "cr\rlf\n", "tab\tbed",
+				"caf\u00e9", "x" };
+		return samples[random.nextInt(samples.length)];
+	}
+
+	private String[] texts() {
+		if (random.nextInt(5) == 0) {
+			return null;
+		}
+		String[] texts = new String[random.nextInt(4)];
+		for (int i = 0; i < texts.length; i++) {
+			texts[i] = random.nextInt(10) == 0 ? null : text();
+		}
+		return texts;
+	}
+
+	private Calendar calendar() {
+		if (random.nextInt(20) == 0) {
+			return null;
+		}
+		Calendar calendar = new GregorianCalendar();
+		// from year 1 to 9999, to the second
+		calendar.setTimeInMillis((-62135596800L + (long) (random.nextDouble() * 315537897599L)) * 1000);
+		return calendar;
+	}
+
+	private double number() {
+		double[] samples = { 0.0, -0.0, 1.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE,
+				Double.MAX_VALUE, 1e-7, 123456789.125 };
+		return random.nextBoolean() ? samples[random.nextInt(samples.length)] : random.nextGaussian() * 1e6;
+	}
+
+	private TimeSerie[] timeSeries() {
+		TimeSerie[] timeSeries = new TimeSerie[random.nextInt(5)];
+		for (int i = 0; i < timeSeries.length; i++) {
+			if (random.nextInt(10) == 0) {
+				continue;
+			}
+			TimeSerie serie = new TimeSerie();
+			serie.Name = random.nextInt(10) == 0 ? null : text();
+			serie.Tags = texts();
+			if (random.nextBoolean()) {
+				serie.Events = new EventValue[random.nextInt(3)];
+				for (int j = 0; j < serie.Events.length; j++) {
+					serie.Events[j] = new EventValue();
+					serie.Events[j].Tags = texts();
+					serie.Events[j].Time = calendar();
+					serie.Events[j].KnownSince = random.nextBoolean() ? calendar() : null;
+				}
+			}
+			if (random.nextInt(10) != 0) {
+				serie.Values = new TimeValue[random.nextInt(6)];
+				for (int j = 0; j < serie.Values.length; j++) {
+					serie.Values[j] = new TimeValue();
+					serie.Values[j].Time = calendar();
+					serie.Values[j].Value = number();
+				}
+			}
+			timeSeries[i] = serie;
+		}
+		return timeSeries;
+	}
+
+	private ForecastCollection forecasts() {
+		ForecastCollection collection = new ForecastCollection();
+		collection.ErrorCode = random.nextBoolean() ? null : text();
+		if (random.nextInt(5) != 0) {
+			collection.Series = new ForecastSerie[random.nextInt(4)];
+			for (int i = 0; i < collection.Series.length; i++) {
+				collection.Series[i] = new ForecastSerie();
+				collection.Series[i].Name = text();
+				collection.Series[i].Values = new ForecastValue[random.nextInt(4)];
+				for (int j = 0; j < collection.Series[i].Values.length; j++) {
+					ForecastValue value = new ForecastValue();
+					value.Time = calendar();
+					value.Value = number();
+					value.Accuracy = number();
+					collection.Series[i].Values[j] = value;
+				}
+			}
+		}
+		return collection;
+	}
+
+	@Test
+	public void testEncodingMatchesXStream() throws IOException {
+		for (int i = 0; i < 2000; i++) {
+			TimeSerie[] timeSeries = timeSeries();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			XmlCodecs.EncodeTimeSeries(timeSeries, output);
+			assertEquals(reference(timeSeries), output.toString());
+
+			Dataset dataset = new Dataset();
+			dataset.Name = text();
+			dataset.Period = random.nextBoolean() ? null : PeriodCodes.Week;
+			dataset.Horizon = random.nextInt();
+			output.reset();
+			XmlCodecs.EncodeDataset(dataset, output);
+			assertEquals(reference(dataset), output.toString());
+
+			ForecastCollection forecasts = forecasts();
+			output.reset();
+			XmlCodecs.EncodeForecastCollection(forecasts, output);
+			assertEquals(reference(forecasts), output.toString());
+		}
+	}
+
+	@Test
+	public void testDecodingMatchesXStream() throws IOException {
+		for (int i = 0; i < 2000; i++) {
+			TimeSerieCollection collection = new TimeSerieCollection();
+			collection.TimeSeries = timeSeries();
+			collection.ContinuationToken = random.nextBoolean() ? null : text();
+			String xml = reference(collection);
+			TimeSerieCollection decoded = XmlCodecs.DecodeTimeSerieCollection(new ByteArrayInputStream(xml
+					.getBytes()));
+			assertEquals(reference(Reference.fromXML(xml)), reference(decoded));
+
+			xml = reference(forecasts());
+			ForecastCollection forecasts = XmlCodecs.DecodeForecastCollection(new ByteArrayInputStream(xml
+					.getBytes()));
+			assertEquals(reference(Reference.fromXML(xml)), reference(forecasts));
+		}
+
+		ForecastStatus status = new ForecastStatus();
+		status.ForecastsReady = true;
+		assertEquals(true, XmlCodecs.DecodeForecastStatus(new ByteArrayInputStream(reference(status).getBytes())).ForecastsReady);
+		assertEquals(ErrorCodes.DatasetNotFound, XmlCodecs.DecodeErrorCode(new ByteArrayInputStream(ErrorCodeReference
+				.toXML(ErrorCodes.DatasetNotFound).getBytes())));
+		assertEquals("", XmlCodecs.DecodeErrorCode(new ByteArrayInputStream("<ErrorCode/>".getBytes())));
+	}
+
+	@Test
+	public void testDecodingTolerance() throws IOException {
+		// unknown elements are skipped, server dates in 24-hour format read
+		String xml = "<?xml version=\"1.0\"?><ForecastCollection><Extra><A>1</A></Extra><Series><ForecastSerie>"
+				+ "<Name>Lilo</Name><Values><ForecastValue><Time>2010-10-13T23:11:00</Time><Value>1.5</Value>"
+				+ "</ForecastValue><null/></Values></ForecastSerie></Series></ForecastCollection>";
+		ForecastCollection collection = XmlCodecs.DecodeForecastCollection(new ByteArrayInputStream(xml.getBytes()));
+		assertNull(collection.ErrorCode);
+		assertEquals("Lilo", collection.Series[0].Name);
+		assertEquals(2, collection.Series[0].Values.length);
+		assertNull(collection.Series[0].Values[1]);
+		Calendar time = collection.Series[0].Values[0].Time;
+		assertEquals(new GregorianCalendar(2010, 9, 13, 23, 11).getTimeInMillis(), time.getTimeInMillis());
+		assertEquals(1.5, collection.Series[0].Values[0].Value, 0.0);
+	}
+
+	@Test
+	public void testMalformedDocuments() {
+		String[] documents = { "", "<ErrorCode>", "<Unexpected/>", "<ForecastStatus><ForecastsReady><A/>",
+				"<TimeSerieCollection><TimeSeries><TimeSerie><Values><TimeValue><Time>yesterday</Time>" };
+		for (String document : documents) {
+			try {
+				XmlCodecs.DecodeForecastCollection(new ByteArrayInputStream(document.getBytes()));
+				fail(document);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}